@@ -0,0 +1,145 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: BaselineCheck.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the results of a JMH run with the committed baseline, both
+ * in JMH's CSV format, prints each benchmark's change and exits with
+ * status 1 if any got slower by more than the tolerance. Benchmarks
+ * missing from either file are listed but do not fail the check.
+ * <p>
+ * Run by "./gradlew jmhCheck", or as
+ * "java fmpirate.BaselineCheck BASELINE.csv RESULTS.csv [TOLERANCE]".
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class BaselineCheck
+{
+	private BaselineCheck ( ) { }
+
+	public static void main (String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.out.println("Usage: java fmpirate.BaselineCheck BASELINE.csv RESULTS.csv [TOLERANCE]");
+			System.exit(2);
+		}
+
+		Map<String, Result> baseline = read(Paths.get(args[0]));
+		Map<String, Result> results = read(Paths.get(args[1]));
+		double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.25;
+
+		int regressions = 0;
+		for (Map.Entry<String, Result> entry : results.entrySet( ))
+		{
+			Result result = entry.getValue( );
+			Result before = baseline.get(entry.getKey( ));
+			if (before == null)
+			{
+				System.out.printf("%-70s %12.3f %-8s (new)%n", entry.getKey( ), result.score, result.unit);
+				continue;
+			}
+
+			// How many times slower the result is; throughput modes count up, the others down.
+			double slowdown = result.mode.equals("thrpt") ? before.score / result.score : result.score / before.score;
+			boolean regressed = slowdown > 1 + tolerance;
+			if (regressed)
+				regressions++;
+
+			System.out.printf("%-70s %12.3f %-8s %+7.1f%%%s%n", entry.getKey( ), result.score, result.unit,
+					100 * (slowdown - 1), regressed ? "  REGRESSION" : "");
+		}
+
+		for (String name : baseline.keySet( ))
+		{
+			if (!results.containsKey(name))
+				System.out.printf("%-70s (not run)%n", name);
+		}
+
+		System.out.printf("%d regression(s) beyond %.0f%%%n", regressions, 100 * tolerance);
+		if (regressions > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Reads a JMH CSV file into its results, keyed by benchmark name
+	 * and parameters (i.e. "fmpirate.ShuffleBenchmark.shuffled songs=1000").
+	 */
+	private static Map<String, Result> read (Path file) throws IOException
+	{
+		Map<String, Result> results = new LinkedHashMap<String, Result>( );
+		List<String> lines = Files.readAllLines(file);
+		if (lines.isEmpty( ))
+			return results;
+
+		List<String> header = split(lines.get(0));
+		for (String line : lines.subList(1, lines.size( )))
+		{
+			List<String> fields = split(line);
+			StringBuilder key = new StringBuilder(fields.get(0));
+			for (int i = 7; i < fields.size( ) && i < header.size( ); i++)
+			{
+				if (!fields.get(i).isEmpty( ))
+					key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+			}
+			results.put(key.toString( ), new Result(fields.get(1), Double.parseDouble(fields.get(4)), fields.get(6)));
+		}
+		return results;
+	}
+
+	/**
+	 * Splits a CSV line, removing the quotes around fields.
+	 */
+	private static List<String> split (String line)
+	{
+		List<String> fields = new ArrayList<String>( );
+		StringBuilder field = new StringBuilder( );
+		boolean quoted = false;
+		for (int i = 0; i < line.length( ); i++)
+		{
+			char c = line.charAt(i);
+			if (c == '"')
+				quoted = !quoted;
+			else if (c == ',' && !quoted)
+			{
+				fields.add(field.toString( ));
+				field.setLength(0);
+			}
+			else
+				field.append(c);
+		}
+		fields.add(field.toString( ));
+		return fields;
+	}
+
+	private static final class Result
+	{
+		private final String mode;  // JMH mode, i.e. "avgt" or "thrpt".
+		private final double score;
+		private final String unit;
+
+		private Result (String mode, double score, String unit)
+		{
+			this.mode = mode;
+			this.score = score;
+			this.unit = unit;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: BaselineUpdate.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Makes the results of a JMH run part of the baseline: each result
+ * replaces the baseline row of the same benchmark and parameters, or
+ * is added, and the rows of benchmarks which were not run are kept as
+ * they were. So "-Pjmh.include=Flac" re-records only the FLAC rows.
+ * The fields are copied as JMH wrote them; the parameter columns are
+ * those of both files, in JMH's order (by name), and the rows are
+ * sorted by benchmark name.
+ * <p>
+ * Run by "./gradlew jmh jmhBaseline", or as
+ * "java fmpirate.BaselineUpdate BASELINE.csv RESULTS.csv".
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class BaselineUpdate
+{
+	private static final int PARAMETERS = 7; // Index of the first "Param: " column.
+
+	private BaselineUpdate ( ) { }
+
+	public static void main (String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.out.println("Usage: java fmpirate.BaselineUpdate BASELINE.csv RESULTS.csv");
+			System.exit(2);
+		}
+
+		Path baselineFile = Paths.get(args[0]);
+		List<Map<String, String>> baseline = Files.exists(baselineFile) ? read(baselineFile)
+				: new ArrayList<Map<String, String>>( );
+		List<Map<String, String>> results = read(Paths.get(args[1]));
+		if (results.isEmpty( ))
+		{
+			System.out.println("No results to record in " + baselineFile);
+			System.exit(1);
+		}
+
+		List<String> header = new ArrayList<String>(results.get(0).keySet( ));
+		header.subList(PARAMETERS, header.size( )).clear( );
+		TreeSet<String> parameters = new TreeSet<String>(Comparator.comparing(BaselineUpdate::unquote));
+		for (List<Map<String, String>> rows : List.of(baseline, results))
+		{
+			for (Map<String, String> row : rows)
+				new ArrayList<String>(row.keySet( )).subList(PARAMETERS, row.size( )).forEach(parameters::add);
+		}
+
+		Map<String, Map<String, String>> rows = new LinkedHashMap<String, Map<String, String>>( );
+		for (Map<String, String> row : baseline)
+			rows.put(key(row), row);
+		int replaced = 0;
+		for (Map<String, String> row : results)
+		{
+			if (rows.put(key(row), row) != null)
+				replaced++;
+		}
+
+		List<Map<String, String>> merged = new ArrayList<Map<String, String>>(rows.values( ));
+		merged.sort(Comparator.comparing(row -> unquote(row.values( ).iterator( ).next( )))); // Stable.
+
+		header.addAll(parameters);
+		StringBuilder text = new StringBuilder(String.join(",", header)).append('\n');
+		for (Map<String, String> row : merged)
+		{
+			List<String> fields = new ArrayList<String>( );
+			for (String column : header)
+				fields.add(row.getOrDefault(column, ""));
+			text.append(String.join(",", fields)).append('\n');
+		}
+
+		Path temp = Files.createTempFile(baselineFile.toAbsolutePath( ).getParent( ), ".baseline", ".tmp");
+		Files.write(temp, text.toString( ).getBytes(StandardCharsets.UTF_8));
+		Files.move(temp, baselineFile, StandardCopyOption.REPLACE_EXISTING);
+		System.out.printf("Recorded %d result(s) in %s: %d replaced, %d new, %d kept%n", results.size( ),
+				baselineFile, replaced, results.size( ) - replaced, merged.size( ) - results.size( ));
+	}
+
+	/**
+	 * Reads a JMH CSV file into its rows, each mapping the column's
+	 * header to the field as written, quotes included. Empty parameter
+	 * fields are left out.
+	 */
+	private static List<Map<String, String>> read (Path file) throws IOException
+	{
+		List<Map<String, String>> rows = new ArrayList<Map<String, String>>( );
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		if (lines.isEmpty( ))
+			return rows;
+
+		List<String> header = split(lines.get(0));
+		for (String line : lines.subList(1, lines.size( )))
+		{
+			if (line.isEmpty( ))
+				continue;
+
+			List<String> fields = split(line);
+			if (fields.size( ) > header.size( ))
+				throw new IOException("Error while reading " + file + ", a row has more fields than the header");
+
+			Map<String, String> row = new LinkedHashMap<String, String>( );
+			for (int i = 0; i < fields.size( ); i++)
+			{
+				if (i < PARAMETERS || !fields.get(i).isEmpty( ))
+					row.put(header.get(i), fields.get(i));
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	/**
+	 * @return The benchmark's name, mode and parameters, which identify a row.
+	 */
+	private static String key (Map<String, String> row)
+	{
+		StringBuilder key = new StringBuilder( );
+		int i = 0;
+		for (Map.Entry<String, String> field : row.entrySet( ))
+		{
+			if (i <= 1 || i >= PARAMETERS)
+				key.append(unquote(field.getKey( ))).append('=').append(unquote(field.getValue( ))).append(' ');
+			i++;
+		}
+		return key.toString( );
+	}
+
+	/**
+	 * Splits a CSV line at the commas outside quotes, keeping the quotes.
+	 */
+	private static List<String> split (String line)
+	{
+		List<String> fields = new ArrayList<String>( );
+		boolean quoted = false;
+		int start = 0;
+		for (int i = 0; i < line.length( ); i++)
+		{
+			char c = line.charAt(i);
+			if (c == '"')
+				quoted = !quoted;
+			else if (c == ',' && !quoted)
+			{
+				fields.add(line.substring(start, i));
+				start = i + 1;
+			}
+		}
+		fields.add(line.substring(start));
+		return fields;
+	}
+
+	private static String unquote (String field)
+	{
+		return field.length( ) >= 2 && field.startsWith("\"") && field.endsWith("\"")
+				? field.substring(1, field.length( ) - 1) : field;
+	}
+}
@@ -0,0 +1,401 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: BroadcastLatency.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures, end to end, how long the frontend takes to act on the
+ * buttons, with a StubTransmitter in place of fm_transmitter so that
+ * it runs on any Linux machine. Each round drives PlaylistManager as
+ * ControllerGUI does: play, retune while playing, stop, shuffle and
+ * play, stop again. Every latency is taken from the call to the first
+ * sample the stub received (the last, for stop), and the gaps the
+ * stubs report are collected too; with -Dfmpirate.gapless=false or
+ * the pipeline backend that includes the silence between the tracks.
+ * The distributions are printed at the end, in milliseconds.
+ * <p>
+ * Launching the stub, a JVM, is part of each latency; its share is
+ * printed as "launch". Retune latency is the time to first sample on
+ * the new frequency; "retune silence" is from the last sample on the
+ * old one.
+ * <p>
+ * PlaylistManager reads "../.path/path.txt", relative to the working
+ * directory, for the audio directory, so it is run in a scratch
+ * directory: "./gradlew latency [-Prounds=N]" runs it in
+ * "benchmarks/build/latency/bin". The songs are made there, in
+ * "../audio", and the stubs' events logged to "../stub.log".
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class BroadcastLatency
+{
+	private static final String[] FREQUENCIES = {"102.1", "99.9"};
+	private static final int SONGS = 4;
+	private static final int SONG_SECONDS = 3;
+	private static final long PLAY_MILLIS = 4000; // Played between actions, past the end of a song.
+	private static final long TIMEOUT = 10000000000L;
+
+	private final Map<String, List<Long>> samples = new LinkedHashMap<String, List<Long>>( );
+	private final StubLog log;
+	private boolean timedOut = false;
+
+	private BroadcastLatency (StubLog log)
+	{
+		this.log = log;
+	}
+
+	public static void main (String[] args) throws Exception
+	{
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		Path scratch = Paths.get("..").toAbsolutePath( ).normalize( );
+		Path audio = scratch.resolve("audio");
+		Path pathFile = scratch.resolve(".path/path.txt");
+		if (Files.exists(pathFile) && !Files.readString(pathFile).trim( ).equals(audio.toString( )))
+		{
+			System.out.println(pathFile + " points to the station's songs; run this in a scratch directory"
+					+ " such as benchmarks/build/latency/bin");
+			System.exit(2);
+		}
+
+		Files.createDirectories(audio);
+		Files.createDirectories(pathFile.getParent( ));
+		Files.writeString(pathFile, audio + "\n");
+		Path playlistFile = scratch.resolve("latency.txt");
+		StringBuilder lines = new StringBuilder( );
+		for (int i = 0; i < SONGS; i++)
+		{
+			Fixtures.wave(audio.resolve("song" + i + ".wav"), SONG_SECONDS, 44100, 2);
+			lines.append("song").append(i).append(".wav|gain +0\n");
+		}
+		Files.writeString(playlistFile, lines);
+
+		Path stubLog = scratch.resolve("stub.log");
+		Files.deleteIfExists(stubLog);
+		setIfAbsent("fmpirate.transmitter", String.join(" ", Paths.get(System.getProperty("java.home"), "bin", "java")
+				.toString( ), "-XX:TieredStopAtLevel=1", "-cp", System.getProperty("java.class.path"),
+				"fmpirate.StubTransmitter", "--log", stubLog.toString( ), "-f", "{frequency}", "-"));
+		setIfAbsent("fmpirate.cache.size", "0");   // Decode the songs at every play, as the first play does.
+		setIfAbsent("fmpirate.checkpoint.interval", "0");
+
+		BroadcastLatency benchmark = new BroadcastLatency(new StubLog(stubLog.toFile( )));
+		for (int round = 0; round < rounds; round++)
+			benchmark.round(new Playlist(playlistFile.toString( ), FREQUENCIES[0]));
+		benchmark.report(rounds);
+		System.exit(benchmark.timedOut ? 1 : 0);
+	}
+
+	private static void setIfAbsent (String property, String value)
+	{
+		if (System.getProperty(property) == null)
+			System.setProperty(property, value);
+	}
+
+	/**
+	 * Plays, retunes, stops, shuffles and stops again, measuring each.
+	 */
+	private void round (Playlist playlist) throws Exception
+	{
+		long requested = System.nanoTime( );
+		PlaylistManager.play(playlist);
+		awaitStart("play", requested, FREQUENCIES[0]);
+		Thread.sleep(PLAY_MILLIS);
+
+		Stream onAir = log.onAir( );
+		requested = System.nanoTime( );
+		PlaylistManager.retune(FREQUENCIES[1]);
+		Stream retuned = awaitStart("retune", requested, FREQUENCIES[1]);
+		if (retuned != null && onAir != null && awaitEnd(onAir) != null)
+			record("retune silence", retuned.first - onAir.last);
+		Thread.sleep(PLAY_MILLIS);
+
+		stop( );
+
+		requested = System.nanoTime( );
+		PlaylistManager.shuffle(playlist, FREQUENCIES[0]);
+		PlaylistManager.play( );
+		awaitStart("shuffle", requested, FREQUENCIES[0]);
+		Thread.sleep(PLAY_MILLIS);
+
+		stop( );
+	}
+
+	/**
+	 * Stops the broadcast, measuring until the stream on air ends, and
+	 * collects the gaps of the streams since the last stop.
+	 */
+	private void stop ( ) throws Exception
+	{
+		Stream onAir = log.onAir( );
+		long requested = System.nanoTime( );
+		PlaylistManager.stop( );
+		record("stop (returned)", System.nanoTime( ) - requested);
+		for (Stream running : log.running( ))
+			awaitEnd(running);
+		if (onAir != null && onAir.last != 0)
+			record("stop", onAir.last - requested);
+		collectGaps( );
+	}
+
+	/**
+	 * Waits for a stub started after requested to receive its first
+	 * sample, and records how long that took.
+	 *
+	 * @return The stub's stream, or null if none started in time.
+	 */
+	private Stream awaitStart (String action, long requested, String frequency) throws Exception
+	{
+		long deadline = System.nanoTime( ) + TIMEOUT;
+		while (System.nanoTime( ) < deadline)
+		{
+			for (Stream stream : log.since(requested))
+			{
+				if (stream.frequency.equals(frequency) && stream.first != 0)
+				{
+					record(action, stream.first - requested);
+					record(action + " launch", stream.started - requested);
+					return stream;
+				}
+			}
+			Thread.sleep(5);
+		}
+		System.out.println("No audio reached the stub within " + TIMEOUT / 1000000000L + " s of " + action);
+		timedOut = true;
+		return null;
+	}
+
+	/**
+	 * Waits for stream to end.
+	 *
+	 * @return stream, or null if it did not end in time.
+	 */
+	private Stream awaitEnd (Stream stream) throws Exception
+	{
+		long deadline = System.nanoTime( ) + TIMEOUT;
+		while (stream.last == 0 && System.nanoTime( ) < deadline)
+		{
+			Thread.sleep(5);
+			log.read( );
+		}
+		if (stream.last != 0)
+			return stream;
+
+		System.out.println("The stub of pid " + stream.pid + " did not end within " + TIMEOUT / 1000000000L + " s");
+		timedOut = true;
+		return null;
+	}
+
+	/**
+	 * Records the gaps within the streams which have ended, and between
+	 * consecutive streams of one broadcast: one that played to its end
+	 * and the next, as a track and the one after it without gapless
+	 * mode.
+	 */
+	private void collectGaps ( ) throws IOException
+	{
+		Stream previous = null;
+		for (Stream stream : log.take( ))
+		{
+			for (long gap : stream.gaps)
+				record("gap", gap);
+			if (previous != null && previous.ended && stream.first != 0)
+				record("track gap", stream.first - previous.last);
+			previous = stream;
+		}
+	}
+
+	private void record (String name, long nanos)
+	{
+		samples.computeIfAbsent(name, key -> new ArrayList<Long>( )).add(nanos);
+	}
+
+	private void report (int rounds)
+	{
+		System.out.printf("%n%d rounds, %d songs of %d s, %s backend%s, in ms:%n", rounds, SONGS, SONG_SECONDS,
+				PlaylistManager.getBackend( ), System.getProperty("fmpirate.gapless", "true").equals("false") ? ""
+						: " (gapless)");
+		System.out.printf("%-16s %6s %8s %8s %8s %8s %8s %8s%n", "", "n", "min", "p50", "p90", "p99", "max", "mean");
+		for (Map.Entry<String, List<Long>> entry : samples.entrySet( ))
+		{
+			long[] values = entry.getValue( ).stream( ).mapToLong(Long::longValue).sorted( ).toArray( );
+			System.out.printf("%-16s %6d %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f%n", entry.getKey( ), values.length,
+					values[0] / 1e6, quantile(values, 0.5) / 1e6, quantile(values, 0.9) / 1e6,
+					quantile(values, 0.99) / 1e6, values[values.length - 1] / 1e6,
+					Arrays.stream(values).average( ).getAsDouble( ) / 1e6);
+		}
+		if (!samples.containsKey("gap"))
+			System.out.println("No gaps");
+	}
+
+	/**
+	 * @return The value below which the given share of sorted values lie, by the nearest rank.
+	 */
+	private static long quantile (long[] sorted, double quantile)
+	{
+		return sorted[Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1)];
+	}
+
+	/**
+	 * One stub's stream, as its events tell.
+	 */
+	private static final class Stream
+	{
+		final long pid;
+		final String frequency;
+		final long started;         // When the stub was launched.
+		long first;                 // When its first sample arrived, or 0.
+		long last;                  // When its last sample went off air, or 0.
+		boolean ended;              // True if the stream played to its end, rather than being terminated.
+		final List<Long> gaps = new ArrayList<Long>( );
+
+		Stream (long pid, String frequency, long started)
+		{
+			this.pid = pid;
+			this.frequency = frequency;
+			this.started = started;
+		}
+	}
+
+	/**
+	 * Follows the events the stubs append to their log.
+	 */
+	private static final class StubLog
+	{
+		private final File file;
+		private long offset = 0;
+		private final Map<Long, Stream> streams = new LinkedHashMap<Long, Stream>( ); // By pid, until taken.
+
+		StubLog (File file)
+		{
+			this.file = file;
+		}
+
+		/**
+		 * Reads the events appended since the last read.
+		 */
+		void read ( ) throws IOException
+		{
+			if (!file.exists( ))
+				return;
+
+			String appended;
+			try (RandomAccessFile in = new RandomAccessFile(file, "r"))
+			{
+				byte[] bytes = new byte[(int) (in.length( ) - offset)];
+				in.seek(offset);
+				in.readFully(bytes);
+				appended = new String(bytes, StandardCharsets.US_ASCII);
+			}
+
+			int end = appended.lastIndexOf('\n') + 1; // Leave a line being written for the next read.
+			offset += end;
+			for (String line : appended.substring(0, end).split("\n"))
+			{
+				String[] fields = line.split(" ");
+				if (fields.length < 3)
+					continue;
+
+				long nanos = Long.parseLong(fields[0]);
+				long pid = Long.parseLong(fields[1]);
+				if (fields[2].equals("start"))
+				{
+					streams.put(pid, new Stream(pid, fields[3], nanos));
+					continue;
+				}
+
+				Stream stream = streams.get(pid);
+				if (stream == null)
+					continue;
+				if (fields[2].equals("first"))
+					stream.first = nanos;
+				else if (fields[2].equals("gap"))
+					stream.gaps.add(Long.parseLong(fields[3]));
+				else if (fields[2].equals("last"))
+				{
+					stream.ended = fields[4].equals("eof");
+					stream.last = nanos;
+				}
+			}
+		}
+
+		/**
+		 * @return The streams of the stubs launched after the given time, in the order they were.
+		 */
+		List<Stream> since (long nanos) throws IOException
+		{
+			read( );
+			List<Stream> launched = new ArrayList<Stream>( );
+			for (Stream stream : streams.values( ))
+			{
+				if (stream.started - nanos > 0)
+					launched.add(stream);
+			}
+			return launched;
+		}
+
+		/**
+		 * @return The last launched stream which has started and not ended, or null if none is on air.
+		 */
+		Stream onAir ( ) throws IOException
+		{
+			Stream onAir = null;
+			for (Stream stream : running( ))
+			{
+				if (stream.first != 0)
+					onAir = stream;
+			}
+			return onAir;
+		}
+
+		/**
+		 * @return The streams which have not ended yet.
+		 */
+		List<Stream> running ( ) throws IOException
+		{
+			read( );
+			List<Stream> running = new ArrayList<Stream>( );
+			for (Stream stream : streams.values( ))
+			{
+				if (stream.last == 0)
+					running.add(stream);
+			}
+			return running;
+		}
+
+		/**
+		 * @return The streams which have ended, which are then forgotten, in the order they were launched.
+		 */
+		List<Stream> take ( ) throws IOException
+		{
+			read( );
+			List<Stream> ended = new ArrayList<Stream>( );
+			for (Stream stream : streams.values( ))
+			{
+				if (stream.last != 0)
+					ended.add(stream);
+			}
+			for (Stream stream : ended)
+				streams.remove(stream.pid);
+			return ended;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: CrossfadeBenchmark.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures mixing a 3 s crossfade of two tracks in the blocks
+ * AudioPlayer decodes, without the decoding itself (see PcmBenchmark
+ * and FlacBenchmark for that). 3 s divided by the time per operation
+ * is how many times faster than real time the mix runs. Run with
+ * -prof gc to check that it allocates nothing.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrossfadeBenchmark
+{
+	private static final int FRAMES = 3 * PcmConverter.SAMPLE_RATE;
+
+	private final byte[] outgoing = new byte[FRAMES * PcmConverter.BYTES_PER_FRAME];
+	private final byte[] incoming = new byte[outgoing.length];
+	private final byte[] block = new byte[AudioPlayer.BUFFER_SIZE];
+	private final byte[] faded = new byte[AudioPlayer.BUFFER_SIZE];
+
+	@Setup
+	public void setUp ( )
+	{
+		Random random = new Random(1);
+		random.nextBytes(outgoing);
+		random.nextBytes(incoming);
+	}
+
+	@Benchmark
+	public int mix ( )
+	{
+		int last = 0;
+		for (int offset = 0; offset < outgoing.length; offset += block.length)
+		{
+			int length = Math.min(block.length, outgoing.length - offset);
+			System.arraycopy(outgoing, offset, block, 0, length);
+			System.arraycopy(incoming, offset, faded, 0, length);
+			Crossfade.mix(block, faded, length, offset / PcmConverter.BYTES_PER_FRAME, FRAMES);
+			last += block[0];
+		}
+		return last;
+	}
+}
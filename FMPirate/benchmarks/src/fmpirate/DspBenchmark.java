@@ -0,0 +1,122 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: DspBenchmark.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each stage of the station profile processing, and the
+ * whole DspChain with its 16-bit conversions, over 10 s of program
+ * like audio (noise and tones, with peaks the limiter has to catch)
+ * in the 4096 sample blocks AudioPlayer hands it. 10 s divided by the
+ * time per operation is how many times faster than real time it runs;
+ * it has to stay well above 1 on the one core of a Raspberry Pi Zero.
+ * The stages are set up as in the eu profile with the compressor on.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DspBenchmark
+{
+	private static final int RATE = PcmConverter.SAMPLE_RATE;
+	private static final int BLOCK = 4096;
+	private static final int SECONDS = 10;
+
+	@Param({"preemphasis", "limiter", "compressor", "chain"})
+	public String stage;
+
+	private DspStage processor;
+	private DspChain chain;
+	private final float[] audio = new float[RATE * SECONDS];
+	private final byte[] pcm = new byte[audio.length * PcmConverter.BYTES_PER_FRAME];
+	private final float[] block = new float[BLOCK];
+	private final byte[] bytes = new byte[BLOCK * PcmConverter.BYTES_PER_FRAME];
+
+	@Setup
+	public void setUp ( )
+	{
+		Random random = new Random(1);
+		for (int i = 0; i < audio.length; i++)
+		{
+			double t = (double) i / RATE;
+			double loud = (i / (RATE / 4)) % 8 == 0 ? 3 : 1; // A quarter second in every two twice as loud.
+			audio[i] = (float) (loud * (0.15 * random.nextGaussian( ) + 0.2 * Math.sin(2 * Math.PI * 110 * t)
+					+ 0.1 * Math.sin(2 * Math.PI * 4400 * t)));
+			int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(audio[i] * 32767f)));
+			pcm[2 * i] = (byte) sample;
+			pcm[2 * i + 1] = (byte) (sample >> 8);
+		}
+
+		PreEmphasis preEmphasis = new PreEmphasis(50, RATE);
+		Limiter limiter = new Limiter(-1, 5, 80, RATE);
+		MultibandCompressor compressor = new MultibandCompressor(new double[] {200, 3000},
+				new double[] {-24, -20, -18}, new double[] {3, 3, 3}, new double[] {30, 10, 5},
+				new double[] {400, 250, 150}, new double[] {6, 5, 4}, RATE);
+		switch (stage)
+		{
+			case "preemphasis":
+				processor = preEmphasis;
+				break;
+			case "limiter":
+				processor = limiter;
+				break;
+			case "compressor":
+				processor = compressor;
+				break;
+			default:
+				chain = new DspChain("benchmark", Arrays.asList(compressor, preEmphasis, limiter), bytes.length);
+		}
+	}
+
+	@Benchmark
+	public float process ( )
+	{
+		float last = 0;
+		if (chain != null)
+		{
+			for (int offset = 0; offset < pcm.length; offset += bytes.length)
+			{
+				int length = Math.min(bytes.length, pcm.length - offset);
+				System.arraycopy(pcm, offset, bytes, 0, length);
+				chain.process(bytes, length);
+				last += bytes[0];
+			}
+			return last;
+		}
+
+		for (int offset = 0; offset < audio.length; offset += BLOCK)
+		{
+			int length = Math.min(BLOCK, audio.length - offset);
+			System.arraycopy(audio, offset, block, 0, length);
+			processor.process(block, length);
+			last += block[0];
+		}
+		return last;
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: EscapeBenchmark.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures escaping a file name for bash and building the SoX |
+ * fm_transmitter line of a track, for a name with nothing to escape
+ * and one with a little of everything.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EscapeBenchmark
+{
+	@Param({"Redbone.wav", "Ryan's-song (feat. parentheses) `live`.wav"})
+	public String fileName;
+
+	private Track track;
+
+	@Setup
+	public void setUp ( )
+	{
+		track = new Track(fileName, "gain +5");
+	}
+
+	@Benchmark
+	public String escape ( )
+	{
+		return Playlist.escape(fileName);
+	}
+
+	@Benchmark
+	public String toCommand ( )
+	{
+		return Playlist.toCommand(track, "102.1");
+	}
+}
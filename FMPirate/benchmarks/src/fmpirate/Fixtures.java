@@ -0,0 +1,391 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Fixtures.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Files the benchmarks work on, generated in a temporary directory so
+ * that every run measures the same input on any machine.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+final class Fixtures
+{
+	private Fixtures ( ) { }
+
+	/**
+	 * @return A new, empty temporary directory.
+	 * @throws IOException If it cannot be created.
+	 */
+	static Path directory ( ) throws IOException
+	{
+		return Files.createTempDirectory("fmpirate-jmh");
+	}
+
+	/**
+	 * Deletes directory and everything in it.
+	 *
+	 * <hr>
+	 *
+	 * @param directory The directory to delete.
+	 * @throws IOException If it cannot be listed.
+	 */
+	static void delete (Path directory) throws IOException
+	{
+		try (Stream<Path> files = Files.walk(directory))
+		{
+			files.sorted(Comparator.reverseOrder( )).forEach(file -> {
+				try
+				{
+					Files.delete(file);
+				}
+				catch (IOException ioEx)
+				{
+					throw new UncheckedIOException(ioEx);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Writes a playlist like a real one: every tenth line is a comment
+	 * and the file names have the spaces, quotes and parentheses that
+	 * need escaping.
+	 *
+	 * <hr>
+	 *
+	 * @param file  The playlist to write.
+	 * @param songs The number of songs in it.
+	 * @return file.
+	 * @throws IOException If it cannot be written.
+	 */
+	static Path playlist (Path file, int songs) throws IOException
+	{
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file)))
+		{
+			for (int i = 0; i < songs; i++)
+			{
+				if (i % 10 == 0)
+					out.println("# Side " + (i / 10 + 1));
+				out.println("Ryan's Song " + i + " (feat. parentheses).wav|gain +" + (i % 10));
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Writes a 16-bit PCM WAV file holding a 440 Hz sine at half scale
+	 * on every channel.
+	 *
+	 * <hr>
+	 *
+	 * @param file       The WAV file to write.
+	 * @param seconds    Its length.
+	 * @param sampleRate Its sample rate in Hz.
+	 * @param channels   Its number of channels.
+	 * @return file.
+	 * @throws IOException If it cannot be written.
+	 */
+	static Path wave (Path file, int seconds, int sampleRate, int channels) throws IOException
+	{
+		int frames = seconds * sampleRate;
+		int dataLength = frames * channels * 2;
+		ByteBuffer wave = ByteBuffer.allocate(44 + dataLength).order(ByteOrder.LITTLE_ENDIAN);
+
+		wave.put(new byte[] {'R', 'I', 'F', 'F'}).putInt(36 + dataLength);
+		wave.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '}).putInt(16);
+		wave.putShort((short) 1).putShort((short) channels).putInt(sampleRate);
+		wave.putInt(sampleRate * channels * 2).putShort((short) (channels * 2)).putShort((short) 16);
+		wave.put(new byte[] {'d', 'a', 't', 'a'}).putInt(dataLength);
+
+		for (int i = 0; i < frames; i++)
+		{
+			short sample = (short) (16384 * Math.sin(2 * Math.PI * 440 * i / sampleRate));
+			for (int c = 0; c < channels; c++)
+				wave.putShort(sample);
+		}
+
+		Files.write(file, wave.array( ));
+		return file;
+	}
+
+	/**
+	 * Writes a 16-bit FLAC file laid out like the flac tool's default
+	 * output, so that decoding it takes the same paths: frames of 4096
+	 * samples, stereo stored as mid and side, an 8th order linear
+	 * predictor per channel with a Rice coded residual in up to 16
+	 * partitions, and a seek point every 10 seconds. The audio is tones
+	 * over low-passed noise, which compresses to about 80% (a little
+	 * worse than most music) where a pure sine would hardly leave any
+	 * residual to decode.
+	 *
+	 * <hr>
+	 *
+	 * @param file       The FLAC file to write.
+	 * @param seconds    Its length.
+	 * @param sampleRate Its sample rate in Hz.
+	 * @param channels   1 or 2.
+	 * @return file.
+	 * @throws IOException If it cannot be written.
+	 */
+	static Path flac (Path file, int seconds, int sampleRate, int channels) throws IOException
+	{
+		int frames = seconds * sampleRate;
+		int[][] audio = new int[channels][frames];
+		Random random = new Random(1);
+		double[] noise = new double[channels];
+		for (int i = 0; i < frames; i++)
+		{
+			double t = (double) i / sampleRate;
+			double tones = 0.25 * Math.sin(2 * Math.PI * 220 * t) + 0.12 * Math.sin(2 * Math.PI * 1337 * t)
+					* Math.sin(2 * Math.PI * 0.5 * t);
+			for (int c = 0; c < channels; c++)
+			{
+				noise[c] += (random.nextGaussian( ) * 0.2 - noise[c]) * 0.3;
+				double pan = c == 0 ? 0.05 * Math.sin(2 * Math.PI * 3100 * t) : 0;
+				audio[c][i] = (int) Math.round(32767 * (tones + noise[c] + pan) / 1.6);
+			}
+		}
+
+		BitWriter out = new BitWriter( );
+		int[][] block = new int[channels][FLAC_BLOCK];
+		int minFrame = Integer.MAX_VALUE, maxFrame = 0;
+		long[] seekOffsets = new long[(frames - 1) / (10 * sampleRate) + 1];
+
+		for (int start = 0, number = 0, point = 0; start < frames; start += FLAC_BLOCK, number++)
+		{
+			int length = Math.min(FLAC_BLOCK, frames - start);
+			int begin = out.length( );
+			if (point < seekOffsets.length && point * 10 * sampleRate / FLAC_BLOCK == number)
+				seekOffsets[point++] = begin; // The frame holding the point's sample.
+
+			for (int c = 0; c < channels; c++)
+				System.arraycopy(audio[c], start, block[c], 0, length);
+			if (channels == 2)
+			{
+				for (int i = 0; i < length; i++)
+				{
+					int left = block[0][i], right = block[1][i];
+					block[0][i] = (left + right) >> 1;
+					block[1][i] = left - right;
+				}
+			}
+
+			out.write(0x3FFE, 14);
+			out.write(0, 2); // Reserved, fixed block size.
+			out.write(length == FLAC_BLOCK ? 12 : 7, 4);
+			out.write(0, 4); // Sample rate from STREAMINFO.
+			out.write(channels == 2 ? 10 : 0, 4);
+			out.write(4, 3); // 16 bits per sample.
+			out.write(0, 1);
+			if (number < 0x80)
+				out.write(number, 8);
+			else
+				out.write(0xC000 | (number << 2 & 0x1F00) | 0x80 | (number & 0x3F), 16);
+			if (length != FLAC_BLOCK)
+				out.write(length - 1, 16);
+			out.write(out.crc8(begin), 8);
+
+			for (int c = 0; c < channels; c++)
+				writeSubframe(out, block[c], length, c == 1 ? 17 : 16);
+			out.align( );
+			out.write(out.crc16(begin), 16);
+
+			minFrame = Math.min(minFrame, out.length( ) - begin);
+			maxFrame = Math.max(maxFrame, out.length( ) - begin);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(4 + 4 + 34 + 4 + 18 * seekOffsets.length);
+		header.put(new byte[] {'f', 'L', 'a', 'C'});
+		header.putInt(34);
+		header.putShort((short) FLAC_BLOCK).putShort((short) FLAC_BLOCK);
+		header.put((byte) (minFrame >> 16)).putShort((short) minFrame);
+		header.put((byte) (maxFrame >> 16)).putShort((short) maxFrame);
+		header.putLong((long) sampleRate << 44 | (long) (channels - 1) << 41 | 15L << 36 | frames);
+		header.put(new byte[16]); // No MD5 signature.
+		header.putInt(0x80000000 | 3 << 24 | 18 * seekOffsets.length);
+		for (int i = 0; i < seekOffsets.length; i++)
+		{
+			long sample = (long) i * 10 * sampleRate / FLAC_BLOCK * FLAC_BLOCK;
+			header.putLong(sample).putLong(seekOffsets[i]).putShort((short) FLAC_BLOCK);
+		}
+
+		try (OutputStream stream = Files.newOutputStream(file))
+		{
+			stream.write(header.array( ));
+			stream.write(out.bytes, 0, out.length( ));
+		}
+		return file;
+	}
+
+	private static final int FLAC_BLOCK = 4096;
+	private static final int LPC_ORDER = 8;
+	private static final int LPC_PRECISION = 12;
+
+	/**
+	 * Writes the linear predictive subframe of one channel of a block,
+	 * with the coefficients found by the Levinson-Durbin recursion over
+	 * the Hann-windowed autocorrelation.
+	 */
+	private static void writeSubframe (BitWriter out, int[] x, int length, int bitsPerSample)
+	{
+		double[] autocorrelation = new double[LPC_ORDER + 1];
+		double[] windowed = new double[length];
+		for (int i = 0; i < length; i++)
+			windowed[i] = x[i] * (0.5 - 0.5 * Math.cos(2 * Math.PI * (i + 0.5) / length));
+		for (int lag = 0; lag <= LPC_ORDER; lag++)
+			for (int i = lag; i < length; i++)
+				autocorrelation[lag] += windowed[i] * windowed[i - lag];
+
+		double[] lpc = new double[LPC_ORDER];
+		double error = autocorrelation[0];
+		for (int m = 0; m < LPC_ORDER && error > 0; m++)
+		{
+			double k = autocorrelation[m + 1];
+			for (int j = 0; j < m; j++)
+				k -= lpc[j] * autocorrelation[m - j];
+			k /= error;
+			double[] previous = lpc.clone( );
+			lpc[m] = k;
+			for (int j = 0; j < m; j++)
+				lpc[j] = previous[j] - k * previous[m - 1 - j];
+			error *= 1 - k * k;
+		}
+
+		double largest = Arrays.stream(lpc).map(Math::abs).max( ).getAsDouble( );
+		int shift = largest == 0 ? 0
+				: Math.max(0, Math.min(15, LPC_PRECISION - 2 - Math.getExponent(largest)));
+		int limit = (1 << (LPC_PRECISION - 1)) - 1;
+		int[] coefficients = new int[LPC_ORDER];
+		for (int j = 0; j < LPC_ORDER; j++)
+			coefficients[j] = (int) Math.max(-limit, Math.min(limit, Math.round(lpc[j] * (1 << shift))));
+
+		int[] residual = new int[length];
+		for (int i = LPC_ORDER; i < length; i++)
+		{
+			long prediction = 0;
+			for (int j = 0; j < LPC_ORDER; j++)
+				prediction += (long) coefficients[j] * x[i - 1 - j];
+			residual[i] = x[i] - (int) (prediction >> shift);
+		}
+
+		out.write((32 + LPC_ORDER - 1) << 1, 8);
+		for (int i = 0; i < LPC_ORDER; i++)
+			out.write(x[i], bitsPerSample);
+		out.write(LPC_PRECISION - 1, 4);
+		out.write(shift, 5);
+		for (int j = 0; j < LPC_ORDER; j++)
+			out.write(coefficients[j], LPC_PRECISION);
+
+		int order = 4;
+		while (order > 0 && ((length >> order) << order != length || length >> order <= LPC_ORDER))
+			order--;
+		out.write(0, 2); // 4-bit Rice parameters.
+		out.write(order, 4);
+		int partitionSize = length >> order;
+		for (int partition = 0, i = LPC_ORDER; partition < 1 << order; partition++)
+		{
+			int end = (partition + 1) * partitionSize;
+			long sum = 0;
+			for (int n = i; n < end; n++)
+				sum += Math.abs((long) residual[n]) * 2;
+			int parameter = 0;
+			while (parameter < 14 && (long) (end - i) << (parameter + 1) < sum)
+				parameter++;
+
+			out.write(parameter, 4);
+			for (; i < end; i++)
+			{
+				int folded = residual[i] << 1 ^ residual[i] >> 31;
+				out.unary(folded >>> parameter);
+				out.write(folded, parameter);
+			}
+		}
+	}
+
+	/**
+	 * Collects a bit stream, most significant bit first, as FLAC frames
+	 * are written.
+	 */
+	private static final class BitWriter
+	{
+		private byte[] bytes = new byte[1 << 16];
+		private int length = 0;
+		private long cache = 0;   // Pending bits, in the low cached bits.
+		private int cached = 0;
+
+		/** Writes the low count bits of value, count being at most 32. */
+		void write (long value, int count)
+		{
+			cache = cache << count | (value & ((1L << count) - 1));
+			cached += count;
+			while (cached >= 8)
+			{
+				cached -= 8;
+				if (length == bytes.length)
+					bytes = Arrays.copyOf(bytes, 2 * length);
+				bytes[length++] = (byte) (cache >>> cached);
+			}
+		}
+
+		void unary (int zeros)
+		{
+			for (; zeros >= 32; zeros -= 32)
+				write(0, 32);
+			write(1, zeros + 1);
+		}
+
+		void align ( )
+		{
+			if (cached > 0)
+				write(0, 8 - cached);
+		}
+
+		/** @return The number of whole bytes written. */
+		int length ( ) { return length; }
+
+		int crc8 (int from)
+		{
+			int crc = 0;
+			for (int i = from; i < length; i++)
+			{
+				crc ^= bytes[i] & 0xFF;
+				for (int bit = 0; bit < 8; bit++)
+					crc = (crc & 0x80) != 0 ? (crc << 1 ^ 0x07) & 0xFF : crc << 1 & 0xFF;
+			}
+			return crc;
+		}
+
+		int crc16 (int from)
+		{
+			int crc = 0;
+			for (int i = from; i < length; i++)
+			{
+				crc ^= (bytes[i] & 0xFF) << 8;
+				for (int bit = 0; bit < 8; bit++)
+					crc = (crc & 0x8000) != 0 ? (crc << 1 ^ 0x8005) & 0xFFFF : crc << 1 & 0xFFFF;
+			}
+			return crc;
+		}
+	}
+}
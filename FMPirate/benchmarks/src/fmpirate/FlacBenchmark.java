@@ -0,0 +1,89 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: FlacBenchmark.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decoding 10 s of a FLAC file straight into the 22050 Hz
+ * mono stream fm_transmitter reads, as the java backend does while
+ * playing, and measuring its loudness. 10000 divided by the time per
+ * operation in milliseconds is how many times faster than real time
+ * the decoder runs; compare with PcmBenchmark for the same file as
+ * WAV. Run it on the transmitter's own board, where the margin is
+ * what decides whether FLAC songs can be played.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlacBenchmark
+{
+	// Sample rate and channels of the source file: CD audio, already mono at 22050 Hz, and 48 kHz.
+	@Param({"44100x2", "22050x1", "48000x2"})
+	public String format;
+
+	private Path directory;
+	private FlacFile flac;
+	private final byte[] buffer = new byte[8192];
+
+	@Setup
+	public void setUp ( ) throws IOException
+	{
+		String[] fields = format.split("x");
+		directory = Fixtures.directory( );
+		flac = FlacFile.open(Fixtures.flac(directory.resolve("song.flac"), 10, Integer.parseInt(fields[0]),
+				Integer.parseInt(fields[1])));
+	}
+
+	@TearDown
+	public void tearDown ( ) throws IOException
+	{
+		Fixtures.delete(directory);
+	}
+
+	@Benchmark
+	public long convert ( ) throws IOException
+	{
+		long bytes = 0;
+		try (FlacConverter converter = new FlacConverter(flac, -3.0))
+		{
+			int read;
+			while ((read = converter.read(buffer)) > 0)
+				bytes += read;
+		}
+		return bytes;
+	}
+
+	@Benchmark
+	public Loudness loudness ( ) throws IOException
+	{
+		return Loudness.measure(flac);
+	}
+}
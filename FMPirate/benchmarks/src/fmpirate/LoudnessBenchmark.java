@@ -0,0 +1,175 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: LoudnessBenchmark.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast Loudness analyses WAV files, in MB of sample data
+ * per second, first on one thread and then on a fork-join pool with
+ * one thread per core. The cache is bypassed, so every pass measures
+ * every file. Without files, it measures FIXTURES_PER_CORE fixtures
+ * of CD audio for each core.
+ * <p>
+ * Run by "./gradlew loudness [-Ppasses=N] [-Pfiles=FILE.wav,...]", or
+ * as "java fmpirate.LoudnessBenchmark [-passes N] [FILE.wav ...]".
+ * <p>
+ * As a JMH benchmark, so that jmhCheck catches a regression, it
+ * measures FILES fixtures of 10 s of CD audio (1.76 MB of samples
+ * each) on one thread and on one per core. FILES * 1.76 divided by
+ * the time per operation in seconds, and by the cores for "every", is
+ * the throughput in MB/s per core.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoudnessBenchmark
+{
+	private static final int FIXTURES_PER_CORE = 2;
+	private static final int FIXTURE_SECONDS = 30;
+	private static final int FILES = 4; // Fixtures measured by the JMH benchmark.
+
+	// Threads analysing the files at once: one, or one per core.
+	@Param({"one", "every"})
+	public String cores;
+
+	private Path directory;
+	private List<Path> files;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setUp ( ) throws IOException
+	{
+		directory = Fixtures.directory( );
+		files = new ArrayList<Path>( );
+		for (int i = 0; i < FILES; i++)
+			files.add(Fixtures.wave(directory.resolve("song" + i + ".wav"), 10, 44100, 2));
+		pool = new ForkJoinPool(cores.equals("one") ? 1 : Runtime.getRuntime( ).availableProcessors( ));
+	}
+
+	@TearDown
+	public void tearDown ( ) throws IOException
+	{
+		pool.shutdown( );
+		Fixtures.delete(directory);
+	}
+
+	@Benchmark
+	public void measure ( ) throws Exception
+	{
+		measure(pool, files);
+	}
+
+	public static void main (String[] args) throws Exception
+	{
+		int passes = 5;
+		List<Path> files = new ArrayList<Path>( );
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-passes"))
+				passes = Integer.parseInt(args[++i]);
+			else
+				files.add(Paths.get(args[i]));
+		}
+
+		int cores = Runtime.getRuntime( ).availableProcessors( );
+		Path directory = null;
+		if (files.isEmpty( ))
+		{
+			directory = Fixtures.directory( );
+			for (int i = 0; i < FIXTURES_PER_CORE * cores; i++)
+				files.add(Fixtures.wave(directory.resolve("song" + i + ".wav"), FIXTURE_SECONDS, 44100, 2));
+		}
+
+		try
+		{
+			long bytes = 0;
+			for (Path file : files)
+				bytes += WaveFile.open(file).getDataLength( );
+
+			run(files, bytes, 1, 1);                // Warm up.
+			double single = run(files, bytes, 1, passes);
+			double parallel = run(files, bytes, cores, passes);
+
+			System.out.printf("%d files, %.1f MB of samples%n", files.size( ), bytes / 1e6);
+			System.out.printf("1 thread:   %8.1f MB/s per core%n", single);
+			System.out.printf("%d threads: %8.1f MB/s, %.1f MB/s per core, %.0f%% scaling%n", cores, parallel,
+					parallel / cores, 100 * parallel / (single * cores));
+		}
+		finally
+		{
+			if (directory != null)
+				Fixtures.delete(directory);
+		}
+	}
+
+	/**
+	 * Measures every file passes times on a pool of the given size.
+	 *
+	 * @return Throughput in MB of sample data per second.
+	 */
+	private static double run (List<Path> files, long bytes, int threads, int passes) throws Exception
+	{
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try
+		{
+			long start = System.nanoTime( );
+			for (int pass = 0; pass < passes; pass++)
+				measure(pool, files);
+			return bytes * passes / 1e6 / ((System.nanoTime( ) - start) / 1e9);
+		}
+		finally
+		{
+			pool.shutdown( );
+		}
+	}
+
+	/**
+	 * Measures the loudness of every file, in parallel on pool.
+	 */
+	private static void measure (ForkJoinPool pool, List<Path> files) throws Exception
+	{
+		pool.submit(( ) -> files.parallelStream( ).forEach(file -> {
+			try
+			{
+				Loudness.measure(WaveFile.open(file));
+			}
+			catch (IOException ioEx)
+			{
+				throw new UncheckedIOException(ioEx);
+			}
+		})).get( );
+	}
+}
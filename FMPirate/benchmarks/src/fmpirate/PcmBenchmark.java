@@ -0,0 +1,85 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: PcmBenchmark.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the audio work done for every track: converting 10 s of
+ * a WAV file to the 22050 Hz mono stream fm_transmitter reads (the
+ * java backend does this while playing) and measuring its loudness
+ * (done once per "gain auto" file). Divide the file's size by the
+ * time per operation for the throughput.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PcmBenchmark
+{
+	// Sample rate and channels of the source file: CD audio, already mono at 22050 Hz, and 48 kHz.
+	@Param({"44100x2", "22050x1", "48000x2"})
+	public String format;
+
+	private Path directory;
+	private WaveFile wave;
+	private final byte[] buffer = new byte[8192];
+
+	@Setup
+	public void setUp ( ) throws IOException
+	{
+		String[] fields = format.split("x");
+		directory = Fixtures.directory( );
+		wave = WaveFile.open(Fixtures.wave(directory.resolve("sine.wav"), 10, Integer.parseInt(fields[0]),
+				Integer.parseInt(fields[1])));
+	}
+
+	@TearDown
+	public void tearDown ( ) throws IOException
+	{
+		Fixtures.delete(directory);
+	}
+
+	@Benchmark
+	public long convert ( ) throws IOException
+	{
+		PcmConverter converter = new PcmConverter(wave, -3.0);
+		long bytes = 0;
+		int read;
+		while ((read = converter.read(buffer)) > 0)
+			bytes += read;
+		return bytes;
+	}
+
+	@Benchmark
+	public Loudness loudness ( ) throws IOException
+	{
+		return Loudness.measure(wave);
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: PlaylistBenchmark.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what happens between importing a playlist and the first
+ * song: indexing the text file with and without its sidecar, reading
+ * one song from the index, parsing a line, and writing the script
+ * that Playlist.makePlayList() writes for the script backend. Also
+ * measures what PlaylistWatcher does when the playlist is edited on
+ * air: hashing its song lines, and comparing them with the lines
+ * before an edit which inserts, removes and changes the gain of a
+ * song in three places far apart.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaylistBenchmark
+{
+	@Param({"1000", "100000"})
+	public int songs;
+
+	private Path directory;
+	private Path playlist;
+	private PlaylistIndex index;
+	private List<Track> tracks;
+	private LoudnessAnalyzer analyzer;
+	private PlaylistIndex.Fingerprint before;
+	private PlaylistIndex.Fingerprint after;
+	private int next = 0;
+
+	@Setup
+	public void setUp ( ) throws IOException
+	{
+		// PlaylistIndex reports every open; keep that off the console.
+		System.setOut(new PrintStream(OutputStream.nullOutputStream( )));
+
+		directory = Fixtures.directory( );
+		playlist = Fixtures.playlist(directory.resolve("playlist.txt"), songs);
+		index = PlaylistIndex.open(playlist);
+		tracks = new AbstractList<Track>( )
+		{
+			@Override
+			public Track get (int i) { return index.get(i); }
+
+			@Override
+			public int size ( ) { return index.size( ); }
+		};
+		analyzer = new LoudnessAnalyzer(directory.resolve("loudness.txt"), 1);
+
+		List<String> lines = new ArrayList<String>(Files.readAllLines(playlist));
+		int removed = lines.size( ) / 2, gain = lines.size( ) * 9 / 10;
+		removed += lines.get(removed).startsWith("#") ? 1 : 0; // Songs, not "# Side" comments.
+		gain += lines.get(gain).startsWith("#") ? 1 : 0;
+		lines.set(gain, lines.get(gain).replaceAll("gain .*", "gain -3"));
+		lines.remove(removed);
+		lines.add(lines.size( ) / 10, "Inserted.wav|gain +1");
+		Path edited = Files.write(directory.resolve("edited.txt"), lines);
+		before = index.fingerprint( );
+		after = PlaylistIndex.open(edited).fingerprint( );
+	}
+
+	@TearDown
+	public void tearDown ( ) throws IOException
+	{
+		Fixtures.delete(directory);
+	}
+
+	/**
+	 * Removes the sidecar before each call, so the whole file is scanned.
+	 */
+	@State(Scope.Thread)
+	public static class NoSidecar
+	{
+		@Setup(Level.Invocation)
+		public void setUp (PlaylistBenchmark benchmark) throws IOException
+		{
+			Files.deleteIfExists(benchmark.playlist.resolveSibling(".playlist.txt.idx"));
+		}
+	}
+
+	@Benchmark
+	public PlaylistIndex indexFullScan (NoSidecar noSidecar) throws IOException
+	{
+		return PlaylistIndex.open(playlist);
+	}
+
+	@Benchmark
+	public PlaylistIndex indexFromSidecar ( ) throws IOException
+	{
+		return PlaylistIndex.open(playlist);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public Track readSong ( )
+	{
+		next = (next + 7919) % songs;
+		return index.get(next);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public Track parseLine ( )
+	{
+		return Track.parse("Ryan's Song 42 (feat. parentheses).wav|gain +5");
+	}
+
+	@Benchmark
+	public PlaylistIndex.Fingerprint fingerprint ( ) throws IOException
+	{
+		return index.fingerprint( );
+	}
+
+	@Benchmark
+	public PlaylistDiff diff ( )
+	{
+		return PlaylistDiff.compare(before, after);
+	}
+
+	@Benchmark
+	public void writeScript ( ) throws IOException
+	{
+		Playlist.writeScript(new PrintWriter(Writer.nullWriter( )), tracks, PlayOrder.sequential(songs),
+				"/home/pi/fmpirate", "102.1", analyzer);
+	}
+}
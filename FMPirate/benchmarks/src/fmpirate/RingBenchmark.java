@@ -0,0 +1,131 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: RingBenchmark.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures passing 16 MiB of audio (about 6 minutes) from a decoder
+ * thread to a writer thread in 8 KiB blocks, as AudioPlayer does,
+ * through a 3 s PcmRing with the park and yield wait strategies and,
+ * for comparison, through an ArrayBlockingQueue of a new byte[] per
+ * block. Run with "-prof gc" to see the queue's allocation, which the
+ * ring does not have. Busy spinning is left out by default since, on
+ * a single core, the spinning side starves the other; add it with
+ * "-p handOff=park,yield,spin,queue".
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBenchmark
+{
+	private static final int TOTAL = 16 * 1024 * 1024;
+	private static final int BLOCK = 8192;
+	private static final byte[] END = new byte[0];
+
+	@Param({"park", "yield", "queue"})
+	public String handOff;
+
+	private PcmRing ring;
+	private BlockingQueue<byte[]> queue;
+	private final Semaphore go = new Semaphore(0);
+	private Thread producer;
+	private final byte[] buffer = new byte[BLOCK];
+
+	@Setup
+	public void setUp ( )
+	{
+		if (handOff.equals("queue"))
+			queue = new ArrayBlockingQueue<byte[]>(65536 * PcmConverter.BYTES_PER_FRAME / BLOCK);
+		else
+			ring = new PcmRing(65536, PcmRing.WaitStrategy.parse(handOff));
+
+		producer = new Thread(this::produce, "producer");
+		producer.setDaemon(true);
+		producer.start( );
+	}
+
+	@TearDown
+	public void tearDown ( )
+	{
+		producer.interrupt( );
+	}
+
+	/**
+	 * Writes TOTAL bytes for every transfer() started, then marks the end.
+	 */
+	private void produce ( )
+	{
+		byte[] block = new byte[BLOCK];
+		try
+		{
+			while (true)
+			{
+				go.acquire( );
+				for (int sent = 0; sent < TOTAL; sent += BLOCK)
+				{
+					if (queue != null)
+						queue.put(block.clone( )); // A decoder handing over a fresh buffer per block.
+					else
+						ring.write(block, 0, BLOCK);
+				}
+
+				if (queue != null)
+					queue.put(END);
+				else
+					ring.finish( );
+			}
+		}
+		catch (InterruptedException intEx)
+		{
+			// Torn down.
+		}
+	}
+
+	@Benchmark
+	public long transfer ( ) throws InterruptedException
+	{
+		long received = 0;
+		go.release( );
+		if (queue != null)
+		{
+			for (byte[] block; (block = queue.take( )) != END; )
+				received += block.length;
+		}
+		else
+		{
+			for (int read; (read = ring.read(buffer)) > 0; )
+				received += read;
+			ring.reset( ); // The producer is done with it, waiting for the next transfer.
+		}
+		return received;
+	}
+}
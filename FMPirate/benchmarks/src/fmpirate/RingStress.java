@@ -0,0 +1,131 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: RingStress.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Stress test of PcmRing, used the way AudioPlayer uses it: for each
+ * "track" the ring is reset, a producer thread writes a numbered
+ * sequence of bytes in blocks of random sizes (up to several times
+ * the ring's capacity) and the consumer reads it back with buffers of
+ * random sizes, checking every byte, until the end. Some tracks are
+ * cancelled part way, as a skip or retune would. It runs for a while
+ * with each wait strategy and exits with status 1 on the first byte
+ * out of order, missing or duplicated.
+ * <p>
+ * Run by "./gradlew ringStress [-Pseconds=N]", or as
+ * "java fmpirate.RingStress [SECONDS_PER_STRATEGY]".
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class RingStress
+{
+	private static final int FRAMES = 1024; // A small ring, so that it wraps and fills all the time.
+
+	private RingStress ( ) { }
+
+	public static void main (String[] args) throws Exception
+	{
+		long seconds = args.length > 0 ? Long.parseLong(args[0]) : 10;
+		ExecutorService producer = Executors.newSingleThreadExecutor( );
+		boolean failed = false;
+
+		for (PcmRing.WaitStrategy wait : PcmRing.WaitStrategy.values( ))
+		{
+			PcmRing ring = new PcmRing(FRAMES, wait);
+			Random random = new Random(42);
+			long deadline = System.nanoTime( ) + seconds * 1000000000L;
+			long tracks = 0, cancelled = 0, bytes = 0, underruns = 0;
+
+			while (System.nanoTime( ) < deadline && !failed)
+			{
+				int length = 2 * (1 + random.nextInt(FRAMES * 64));
+				int cancelAt = random.nextInt(8) == 0 ? random.nextInt(length) : -1;
+				long seed = random.nextLong( );
+
+				ring.reset( );
+				Future<?> writing = producer.submit(( ) -> produce(ring, length, seed));
+
+				byte[] buffer = new byte[2 * (1 + random.nextInt(FRAMES * 3))];
+				int expected = 0;
+				for (int read; (read = ring.read(buffer)) > 0; )
+				{
+					for (int i = 0; i < read; i++, expected++)
+					{
+						if (buffer[i] != (byte) expected)
+						{
+							System.out.printf("%s: byte %d of track %d is %d, expected %d%n", wait, expected,
+									tracks, buffer[i], (byte) expected);
+							failed = true;
+							break;
+						}
+					}
+					if (failed)
+						break;
+					if (cancelAt >= 0 && expected >= cancelAt)
+						ring.cancel( );
+				}
+
+				writing.get( );
+				if (!failed && cancelAt < 0 && expected != length)
+				{
+					System.out.printf("%s: track %d ended after %d of %d bytes%n", wait, tracks, expected, length);
+					failed = true;
+				}
+
+				tracks++;
+				cancelled += cancelAt >= 0 ? 1 : 0;
+				bytes += expected;
+				underruns += ring.getUnderruns( );
+			}
+
+			System.out.printf("%-9s %8d tracks (%d cancelled), %6.1f MiB checked, %d underruns%n", wait, tracks,
+					cancelled, bytes / 1048576.0, underruns);
+			if (failed)
+				break;
+		}
+
+		producer.shutdown( );
+		System.out.println(failed ? "FAILED" : "OK");
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * Writes length bytes numbered from 0 in blocks of random even
+	 * sizes, stopping early if the ring is cancelled, then marks the end.
+	 */
+	private static void produce (PcmRing ring, int length, long seed)
+	{
+		Random random = new Random(seed);
+		byte[] block = new byte[2 * FRAMES * 4];
+		int written = 0;
+		try
+		{
+			while (written < length)
+			{
+				int count = Math.min(length - written, 2 * (1 + random.nextInt(block.length / 2)));
+				for (int i = 0; i < count; i++)
+					block[i] = (byte) (written + i);
+				if (!ring.write(block, 0, count))
+					break;
+				written += count;
+			}
+		}
+		finally
+		{
+			ring.finish( );
+		}
+	}
+}
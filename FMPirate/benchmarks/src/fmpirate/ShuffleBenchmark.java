@@ -0,0 +1,59 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: ShuffleBenchmark.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building the play order PlaylistManager.shuffle() and
+ * play() use. Since shuffling only permutes track indices, this is
+ * all the work a shuffle does apart from its preflight check and,
+ * with the script backend, writing the script (see
+ * PlaylistBenchmark.writeScript).
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShuffleBenchmark
+{
+	@Param({"1000", "100000", "1000000"})
+	public int songs;
+
+	private final Random random = new Random(42);
+
+	@Benchmark
+	public PlayOrder shuffled ( )
+	{
+		return PlayOrder.shuffled(songs, random);
+	}
+
+	@Benchmark
+	public PlayOrder sequential ( )
+	{
+		return PlayOrder.sequential(songs);
+	}
+}
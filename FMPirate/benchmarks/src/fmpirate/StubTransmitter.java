@@ -0,0 +1,272 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: StubTransmitter.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Stands in for fm_transmitter off the Pi: it takes the same
+ * "-f FREQ -" arguments and reads the WAV stream from its stdin at
+ * the rate a transmitter would air it, holding up to READ_AHEAD of it
+ * as fm_transmitter's one second buffer does, so the frontend is
+ * paced as it is on air. Nothing is broadcast. Select it with
+ * -Dfmpirate.transmitter (see TransmitterCommand).
+ * <p>
+ * It notes when the first sample of the stream arrived, when the last
+ * one went off air (played out at the end of the stream, or cut off
+ * when the stub was terminated) and every gap: a stretch in which the air ran
+ * dry because the next samples had not been written in time. Without
+ * gapless mode each track has a transmitter, and so a stream, of its
+ * own. A summary is printed to stderr; with "--log FILE" every event
+ * is appended to FILE too, one line each:
+ * <pre>
+ *   NANOS PID start FREQ
+ *   NANOS PID first
+ *   NANOS PID gap LENGTH_NANOS SECONDS_INTO_STREAM
+ *   NANOS PID last FRAMES eof|terminated
+ * </pre>
+ * NANOS is System.nanoTime(), which on Linux is the monotonic clock
+ * every process shares, so the times can be compared with those of
+ * the frontend (see BroadcastLatency).
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class StubTransmitter
+{
+	private static final long READ_AHEAD = 1000000000L; // ns of audio read before it is due, as BUFFER_TIME.
+	private static final long SLICE = 10000000L;        // ns of audio read at once.
+	private static final long GAP_SLACK = 5000000L;     // ns late before samples count as a gap.
+
+	private final String frequency;
+	private final FileChannel log;  // Events, or null.
+	private final long pid = ProcessHandle.current( ).pid( );
+
+	private volatile long start;    // System.nanoTime() when the first sample arrived, or 0.
+	private volatile long stalled;  // ns the air clock has been held up by gaps.
+	private volatile long frames;   // Frames read so far.
+	private volatile int frameRate; // Frames per second of the stream, once its header is read.
+	private int bytesPerFrame;
+	private int gaps;
+	private long gapNanos, longestGap;
+	private boolean finished;
+
+	private StubTransmitter (String frequency, FileChannel log)
+	{
+		this.frequency = frequency;
+		this.log = log;
+	}
+
+	public static void main (String[] args) throws IOException
+	{
+		long launched = System.nanoTime( );
+		String frequency = null, logFile = null;
+		boolean stdin = false;
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-f") && i + 1 < args.length)
+				frequency = args[++i];
+			else if (args[i].equals("--log") && i + 1 < args.length)
+				logFile = args[++i];
+			else if (args[i].equals("-"))
+				stdin = true;
+		}
+		if (frequency == null || !stdin)
+		{
+			System.err.println("Usage: java fmpirate.StubTransmitter [--log FILE] -f FREQUENCY -");
+			System.exit(2);
+		}
+
+		FileChannel log = logFile == null ? null : FileChannel.open(Paths.get(logFile), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		StubTransmitter stub = new StubTransmitter(frequency, log);
+		stub.event(launched, "start " + frequency);
+		Runtime.getRuntime( ).addShutdownHook(new Thread(stub::terminated));
+
+		try
+		{
+			stub.air(new BufferedInputStream(System.in, 1 << 16));
+		}
+		catch (IOException ioEx)
+		{
+			System.err.println("Stub transmitter on " + frequency + ": " + ioEx.getMessage( ));
+		}
+		stub.finish("eof", stub.frames);
+	}
+
+	/**
+	 * Reads the stream's header and then its samples, each slice no
+	 * sooner than READ_AHEAD before it is due on air, until the end.
+	 */
+	private void air (InputStream in) throws IOException
+	{
+		long dataLength = readHeader(in);
+		long sliceBytes = Math.max(1, SLICE * frameRate / 1000000000L) * bytesPerFrame;
+		byte[] slice = new byte[(int) sliceBytes];
+		long bytes = 0;
+
+		for (long left = dataLength; left > 0; )
+		{
+			int read = in.read(slice, 0, (int) Math.min(slice.length, left)); // Whatever has arrived.
+			if (read <= 0)
+				break;
+			left -= read;
+
+			long now = System.nanoTime( );
+			if (start == 0)
+			{
+				start = now;
+				event(now, "first");
+			}
+			else
+			{
+				long due = dueAt(frames);
+				if (now - due > GAP_SLACK)
+					gap(now, now - due);
+			}
+			bytes += read;
+			frames = bytes / bytesPerFrame;
+
+			long wake = dueAt(frames) - READ_AHEAD;
+			if (wake - System.nanoTime( ) > 0)
+				sleepUntil(wake);
+		}
+
+		long end = dueAt(frames); // Play out what is buffered.
+		if (start != 0 && end - System.nanoTime( ) > 0)
+			sleepUntil(end);
+	}
+
+	/**
+	 * Reads the RIFF header up to the start of the samples.
+	 *
+	 * @return The length of the samples, as given by the header.
+	 */
+	private long readHeader (InputStream in) throws IOException
+	{
+		ByteBuffer riff = read(in, 12);
+		if (riff.getInt(0) != 0x46464952 || riff.getInt(8) != 0x45564157) // "RIFF", "WAVE".
+			throw new IOException("not a WAV stream");
+
+		while (true)
+		{
+			ByteBuffer chunk = read(in, 8);
+			int id = chunk.getInt(0);
+			long length = chunk.getInt(4) & 0xFFFFFFFFL;
+			if (id == 0x61746164) // "data".
+			{
+				if (frameRate <= 0 || bytesPerFrame <= 0)
+					throw new IOException("no format before the samples");
+				return length;
+			}
+
+			ByteBuffer body = read(in, (int) (length + (length & 1)));
+			if (id == 0x20746D66) // "fmt ".
+			{
+				frameRate = body.getInt(4);
+				bytesPerFrame = body.getShort(12);
+			}
+		}
+	}
+
+	private static ByteBuffer read (InputStream in, int length) throws IOException
+	{
+		byte[] bytes = in.readNBytes(length);
+		if (bytes.length < length)
+			throw new EOFException("stream ended in its header");
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @return System.nanoTime() when the given frame of the stream goes on air.
+	 */
+	private long dueAt (long frame)
+	{
+		return start + stalled + frame * 1000000000L / frameRate;
+	}
+
+	private synchronized void gap (long now, long length)
+	{
+		if (finished) // Terminated; the rest is not aired.
+			return;
+
+		stalled += length;
+		gaps++;
+		gapNanos += length;
+		longestGap = Math.max(longestGap, length);
+		event(now, String.format("gap %d %.3f", length, (double) frames / frameRate));
+	}
+
+	private static void sleepUntil (long deadline)
+	{
+		for (long left; (left = deadline - System.nanoTime( )) > 0; )
+		{
+			try
+			{
+				Thread.sleep(left / 1000000, (int) (left % 1000000));
+			}
+			catch (InterruptedException intEx)
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Notes the end of the broadcast when the stub is terminated before
+	 * its stream ended: only what had gone on air by then counts.
+	 */
+	private synchronized void terminated ( )
+	{
+		long aired = start == 0 ? 0 : Math.min(frames, (System.nanoTime( ) - start - stalled) * frameRate / 1000000000L);
+		finish("terminated", aired);
+	}
+
+	private synchronized void finish (String how, long aired)
+	{
+		if (finished)
+			return;
+		finished = true;
+
+		long now = System.nanoTime( );
+		event(start == 0 ? now : Math.min(now, dueAt(aired)), "last " + aired + " " + how);
+		double seconds = frameRate == 0 ? 0 : (double) aired / frameRate;
+		System.err.printf("Stub transmitter on %s: %.1f s aired, %d gaps (%.1f ms, longest %.1f ms), %s%n", frequency,
+				seconds, gaps, gapNanos / 1e6, longestGap / 1e6, how);
+	}
+
+	/**
+	 * Appends one line to the log, in a single write so that the lines
+	 * of stubs running at once do not interleave.
+	 */
+	private synchronized void event (long nanos, String what)
+	{
+		if (log == null)
+			return;
+
+		try
+		{
+			log.write(StandardCharsets.US_ASCII.encode(nanos + " " + pid + " " + what + "\n"));
+		}
+		catch (IOException ioEx)
+		{
+			// The log is only for the benchmark; the stream is read on regardless.
+		}
+	}
+}
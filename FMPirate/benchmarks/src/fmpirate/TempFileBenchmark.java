@@ -0,0 +1,73 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: TempFileBenchmark.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures picking the name of a new script in "../.temp_files"
+ * while earlier scripts are still there, as they are after many
+ * imports and shuffles. The new file is deleted again after each
+ * call so the directory stays the same.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TempFileBenchmark
+{
+	@Param({"0", "100", "1000"})
+	public int existing;
+
+	private Path directory;
+
+	@Setup
+	public void setUp ( ) throws IOException
+	{
+		directory = Fixtures.directory( );
+		for (int i = 0; i < existing; i++)
+			Files.createFile(directory.resolve("temp_file" + i));
+	}
+
+	@TearDown
+	public void tearDown ( ) throws IOException
+	{
+		Fixtures.delete(directory);
+	}
+
+	@Benchmark
+	public File createTempFile ( ) throws IOException
+	{
+		File file = Playlist.createTempFile(directory);
+		Files.delete(file.toPath( ));
+		return file;
+	}
+}
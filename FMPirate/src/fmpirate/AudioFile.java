@@ -0,0 +1,83 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: AudioFile.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * A song file a playlist can list: a WaveFile or, for names ending in
+ * ".flac", a FlacFile. Opening one only reads its header.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public interface AudioFile
+{
+	/**
+	 * Opens the file at path and reads its header.
+	 *
+	 * <hr>
+	 *
+	 * @param path The WAV or FLAC file.
+	 * @return The parsed header.
+	 * @throws IOException If the file cannot be read or is not in a supported format.
+	 */
+	static AudioFile open (Path path) throws IOException
+	{
+		return isFlac(path) ? FlacFile.open(path) : WaveFile.open(path);
+	}
+
+	/**
+	 * @param path A song file.
+	 * @return Whether it is read as a FLAC file, which goes by its name.
+	 */
+	static boolean isFlac (Path path)
+	{
+		return path.getFileName( ).toString( ).toLowerCase(Locale.ROOT).endsWith(".flac");
+	}
+
+	/**
+	 * Starts converting the file to the 22050 Hz mono stream
+	 * fm_transmitter reads.
+	 *
+	 * <hr>
+	 *
+	 * @param gainDb The gain to apply in decibels.
+	 * @return The converted track, positioned at its start.
+	 * @throws IOException If the file cannot be read.
+	 */
+	PcmSource convert (double gainDb) throws IOException;
+
+	/**
+	 * Measures the loudness of the file, reading all of it once.
+	 *
+	 * <hr>
+	 *
+	 * @return Its integrated loudness and true peak.
+	 * @throws IOException If the file cannot be read.
+	 */
+	Loudness measure ( ) throws IOException;
+
+	Path getPath ( );
+
+	int getChannels ( );
+
+	int getSampleRate ( );
+
+	int getBitsPerSample ( );
+
+	/** @return The number of sample frames (one sample per channel) in the file. */
+	long getFrameCount ( );
+
+	/** @return The play time of the file in seconds. */
+	default double getDuration ( ) { return (double) getFrameCount( ) / getSampleRate( ); }
+}
@@ -0,0 +1,979 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: AudioPlayer.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays a list of Tracks on a background thread. Each WAV file is
+ * decoded in process by a PcmConverter and its samples are written
+ * straight to the stdin of "sudo ./fm_transmitter -f FREQ -", so no
+ * SoX process or bash script is involved.
+ * <p>
+ * In gapless mode a single transmitter is started for the whole
+ * broadcast and the tracks are written to it as one continuous
+ * stream, so fm_transmitter's start up (opening and mapping
+ * /dev/mem, buffering) is paid once instead of at every track
+ * boundary. Otherwise a new transmitter is started for every track.
+ * <p>
+ * The frequency can be changed while playing with retune(), which
+ * replaces only the transmitter and resumes the current track close
+ * to the sample that was on air.
+ * <p>
+ * Each track is decoded on a thread of its own into a PcmRing, from
+ * which the player thread writes it to the transmitter, so a slow
+ * read or decode is absorbed by the audio already decoded ahead
+ * rather than holding up the writes. The decoder also runs the
+ * DspChain of the station profile, if any, so the transcode cache
+ * holds the audio as it was before processing.
+ * <p>
+ * A track with a crossfade (see Track) has the start of the next
+ * track mixed into its end by the decoder thread, which then reads
+ * both tracks in turn. The next track is taken from the prefetcher
+ * when the overlap begins, usually with its first seconds already in
+ * memory, and is played on from where the overlap left it.
+ * <p>
+ * The playlist may be edited while it plays (see reload()). The
+ * track on air always plays on; the tracks after it change at the
+ * next track boundary, or the one after if the next track is already
+ * being mixed in.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public class AudioPlayer implements Runnable
+{
+	static final int BUFFER_SIZE = 8192; // Bytes written to the transmitter at once.
+
+	// Data length announced to a gapless transmitter: the largest even size a WAV header can
+	// hold, about 27 hours of audio. The transmitter is restarted once it has been used up.
+	private static final long STREAM_LENGTH = 0xFFFFFFFEL;
+	private static final int MAX_RESTARTS = 3; // Transmitter failures tolerated in a row.
+
+	// Audio written but not yet on air when a transmitter is replaced: up to a full 64 KiB pipe
+	// plus the one second fm_transmitter buffers. A retune rewinds by this much.
+	private static final long IN_FLIGHT_FRAMES = (65536 / PcmConverter.BYTES_PER_FRAME) + PcmConverter.SAMPLE_RATE;
+
+	// A transmitter starts playing about half a second after it is launched. It has run dry
+	// when more time than that plus the audio written to it has passed, give or take UNDERRUN_SLACK.
+	private static final long STARTUP_NANOS = 500000000L;
+	private static final long UNDERRUN_SLACK = 100000000L;
+
+	// Frames decoded ahead of the transmitter writer, rounded up to a power of two (65536 is about 3 s).
+	private static final int RING_FRAMES = Integer.getInteger("fmpirate.ring.frames", 65536);
+	// How the decoder and writer wait for each other: "park" (default), "yield" or "spin".
+	private static final PcmRing.WaitStrategy RING_WAIT =
+			PcmRing.WaitStrategy.parse(System.getProperty("fmpirate.ring.wait", "park"));
+
+	private volatile List<Track> tracks; // Tracks of the playlist, as listed.
+	private volatile PlayOrder order;    // Order in which tracks are played.
+	private PlaylistDiff reloaded;       // Edits of the playlist since order was made, until applied.
+	private List<Track> reloadedTracks;  // The tracks of the edited playlist, until applied.
+	private volatile String frequency;  // Frequency in the form "102.1".
+	private final String audioPath;     // Directory holding the WAV files and fm_transmitter.
+	private final boolean gapless;      // True to use one transmitter for all tracks.
+	private final TranscodeCache cache; // Pre-rendered tracks, or null to always decode.
+	private final Prefetcher prefetcher;
+	private final FanOut fanOut;        // Passes the aired audio on to the recorder and monitor.
+	private final PcmRing ring;         // Decoded audio of the current track, waiting to be written.
+	private final DspChain dsp;         // Processing applied on the decoder thread, or null for none.
+	private final ExecutorService decoder;
+	private Future<Void> decoding;      // Decoding of the current track into ring.
+	private final byte[] decoded = new byte[BUFFER_SIZE]; // Decoder thread's buffer.
+	private final byte[] faded = new byte[BUFFER_SIZE];   // Incoming track's samples, while crossfading.
+	private long fadeStart;             // Frame of the current track where the overlap starts, or Long.MAX_VALUE.
+	private long fadeFrames;            // Length of the overlap.
+	private PcmSource incoming;         // Next track, once the overlap has started.
+	private int incomingIndex;          // Its position in the play order.
+	private Track incomingTrack;        // Its Track, read when it was taken.
+	private long ringUnderruns = 0;     // Underruns of ring in the tracks before the current one.
+	private int lowestFill;             // Fewest frames ring held while a track played.
+
+	private Thread thread;
+	private volatile boolean running = false;
+	private volatile Process transmitter; // Transmitter of the track currently playing.
+	private OutputStream stdin;           // Stdin of transmitter.
+	private long streamLeft;              // Bytes the transmitter still expects on stdin.
+	private long trackEnd = 0;            // System.nanoTime() when the last track's samples ended.
+	private volatile long sent = 0;       // Frames of the current track written to transmitter.
+	private long streamClock;             // System.nanoTime() the transmitter's audio is timed from.
+	private long streamFrames;            // Frames written to the transmitter since streamClock.
+	private long started;                 // System.nanoTime() of start(), until the first audio is written.
+	private volatile long firstAudio = 0; // System.nanoTime() the first audio was written.
+
+	private volatile String retuneTo;     // Frequency requested by retune(), until applied.
+	private volatile long retuneStart;    // System.nanoTime() of the pending retune.
+	private long retuned = 0;             // retuneStart of the retune applied, until its first write.
+	private volatile int trackIndex = -1; // Position in the play order being played.
+	private volatile boolean skipping;    // Set by skip() to end the current track early.
+	private int firstIndex = 0;           // Position in the play order to start from.
+	private long firstFrame = 0;          // Frame of the first track to start from, until it is played.
+
+	/**
+	 * Creates a player for the given tracks. Nothing is played until
+	 * start() is called.
+	 *
+	 * <hr>
+	 *
+	 * @param tracks    The tracks to play.
+	 * @param order     The order to play them in.
+	 * @param frequency The frequency to broadcast on (i.e. "102.1").
+	 * @param audioPath The directory holding the WAV files and fm_transmitter.
+	 * @param gapless   True to stream all tracks through one transmitter.
+	 * @param cache     Cache of pre-rendered tracks, or null to decode every track.
+	 * @param lookahead Number of upcoming tracks to open and pre-render in the background.
+	 * @param outputs   Sinks to pass the aired audio on to, besides the transmitter.
+	 * @param dsp       Processing to apply before the audio goes on air, or null for none.
+	 */
+	public AudioPlayer (List<Track> tracks, PlayOrder order, String frequency, String audioPath,
+			boolean gapless, TranscodeCache cache, int lookahead, List<FanOut.Output> outputs, DspChain dsp)
+	{
+		this.tracks = tracks;
+		this.order = order;
+		this.frequency = frequency;
+		this.audioPath = audioPath;
+		this.gapless = gapless;
+		this.cache = cache;
+		this.prefetcher = new Prefetcher(lookahead);
+		this.fanOut = new FanOut(BUFFER_SIZE, outputs);
+		this.ring = new PcmRing(RING_FRAMES, RING_WAIT);
+		this.dsp = dsp;
+		this.lowestFill = ring.getCapacity( );
+		this.decoder = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "fmpirate-decoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Does ahead of time what start() would otherwise do first, so the
+	 * broadcast starts without delay: the first track is opened and
+	 * its first seconds decoded and, if spawn is true and the player
+	 * is gapless, the transmitter is started and sent the stream
+	 * header, so its own start up is over by the time the audio comes.
+	 *
+	 * <hr>
+	 *
+	 * @param spawn True to start the transmitter now, i.e. if no other transmitter is on air.
+	 * @throws IOException          If the transmitter cannot be started.
+	 * @throws InterruptedException If interrupted while waiting for the first track.
+	 */
+	public void prepare (boolean spawn) throws IOException, InterruptedException
+	{
+		if (order.size( ) <= firstIndex)
+			return;
+
+		int song = order.get(firstIndex);
+		prefetcher.schedule(firstIndex, ( ) -> open(tracks.get(song)));
+		prefetcher.await(firstIndex);
+
+		if (spawn && gapless)
+			spawnTransmitter(STREAM_LENGTH);
+	}
+
+	/**
+	 * Makes the broadcast start part way through the play order, i.e.
+	 * to resume it from a Checkpoint, instead of with the first track.
+	 * Call it before prepare() and start().
+	 *
+	 * <hr>
+	 *
+	 * @param index Position in the play order of the track to start with.
+	 * @param frame The frame of that track to start from.
+	 */
+	public void resumeAt (int index, long frame)
+	{
+		firstIndex = index;
+		firstFrame = frame;
+	}
+
+	/**
+	 * Starts broadcasting the tracks on a new thread.
+	 */
+	public void start ( )
+	{
+		started = System.nanoTime( );
+		streamClock = started; // A transmitter started by prepare() has been waiting for audio until now.
+		running = true;
+		thread = new Thread(this, "fmpirate-player");
+		thread.setDaemon(true);
+		thread.start( );
+	}
+
+	/**
+	 * Stops the broadcast: the running transmitter's process tree is
+	 * torn down, its exit confirmed, and the player thread waited for.
+	 *
+	 * <hr>
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the player thread.
+	 */
+	public void stop ( ) throws InterruptedException
+	{
+		running = false;
+
+		ProcessSupervisor.terminate(transmitter);
+
+		if (thread != null)
+		{
+			thread.interrupt( );
+			thread.join( );
+		}
+		else // Prepared but never started.
+		{
+			prefetcher.close( );
+			fanOut.close( );
+			decoder.shutdown( );
+		}
+	}
+
+	/**
+	 * Plays every track once, one after another.
+	 */
+	@Override
+	public void run ( )
+	{
+		try
+		{
+			for (int i = firstIndex; i < order.size( ) && running; i++)
+			{
+				if ((i = applyReload(i)) >= order.size( ))
+					break;
+
+				Track track;
+				try
+				{
+					// A track being mixed in is on air already, even if it has been removed from the playlist since.
+					track = incoming != null && incomingIndex == i ? incomingTrack : tracks.get(order.get(i));
+				}
+				catch (IllegalArgumentException | UncheckedIOException ex) // Songs are only read when played.
+				{
+					System.out.println("Could not read song " + (order.get(i) + 1) + ", skipping it: " + ex.getMessage( ));
+					Metrics.TRACKS_SKIPPED.inc( );
+					continue;
+				}
+
+				try
+				{
+					play(i, track);
+					if (skipping)
+					{
+						System.out.println("Skipped song " + (i + 1) + ": " + track.getFileName( ));
+						skipping = false;
+					}
+					else
+					{
+						System.out.println("Played song " + (i + 1) + ": " + track.getFileName( ));
+						Metrics.TRACKS_PLAYED.inc( );
+					}
+				}
+				catch (IOException ioEx)
+				{
+					if (!running)
+						break;
+
+					System.out.println("Could not play " + track.getFileName( ) + ", skipping it:");
+					Metrics.TRACKS_SKIPPED.inc( );
+					ioEx.printStackTrace( );
+				}
+			}
+
+			if (gapless && running)
+				playOut( );
+		}
+		catch (InterruptedException intEx)
+		{
+			// Stopped.
+		}
+		finally
+		{
+			closeTransmitter( );
+			closeIncoming( );
+			prefetcher.close( );
+			fanOut.close( );
+			decoder.shutdown( );
+			running = false;
+
+			System.out.println("Prefetch: " + prefetcher.getLate( ) + " of " + prefetcher.getRequests( )
+					+ " prefetched tracks not ready in time (look-ahead " + prefetcher.getDepth( ) + ")");
+			System.out.printf("Decode buffer: %d underruns, lowest %.2f s of %.2f s (%s)%n", ringUnderruns,
+					lowestFill / (double) PcmConverter.SAMPLE_RATE, ring.getCapacity( ) / (double) PcmConverter.SAMPLE_RATE,
+					ring.getWaitStrategy( ).name( ).toLowerCase( ));
+			if (cache != null)
+				System.out.println("Transcode cache: " + cache.getHits( ) + " hits, "
+						+ cache.getMisses( ) + " misses, " + cache.getSize( ) / 1024 + " KiB");
+		}
+	}
+
+	/**
+	 * Takes the track at index from the prefetcher, or from the overlap
+	 * with the track before, queues the tracks after it to be
+	 * prefetched, and streams it to the transmitter as it is decoded
+	 * into the ring. Without gapless mode a new
+	 * transmitter is started for the track and waited for. A
+	 * transmitter which dies mid-track is restarted and sent the samples
+	 * it failed to take; one replaced by retune() is sent the track
+	 * again from about the sample that was on air.
+	 *
+	 * @param index   Position of the track to play in the play order.
+	 * @param current The track at index.
+	 * @throws IOException          If the file cannot be decoded or the transmitter keeps failing.
+	 * @throws InterruptedException If interrupted while waiting for the transmitter.
+	 */
+	private void play (int index, Track current) throws IOException, InterruptedException
+	{
+		synchronized (this)
+		{
+			sent = 0; // Before trackIndex, so that getTrackFrame() never pairs this track with the last one's frames.
+			trackIndex = index;
+		}
+		PcmSource opened;
+		if (incoming != null && incomingIndex == index)
+			opened = incoming;
+		else
+		{
+			closeIncoming( ); // Taken for a track which could not be read after all.
+			opened = prefetcher.take(index, ( ) -> open(current));
+		}
+		incoming = null;
+		if (index == firstIndex && firstFrame > 0) // Resuming.
+		{
+			opened.seek(firstFrame);
+			firstFrame = 0;
+		}
+
+		for (int next = index + 1; next <= index + prefetcher.getDepth( ) && next < order.size( ); next++)
+		{
+			int song = order.get(next); // Read by the worker, so a bad line only fails that track.
+			prefetcher.schedule(next, ( ) -> open(tracks.get(song)));
+		}
+
+		// The overlap can take at most half of either track; the next one is checked when taken.
+		fadeFrames = index + 1 < order.size( )
+				? Math.min(Math.round(current.getCrossfade( ) * PcmConverter.SAMPLE_RATE), opened.getFrameCount( ) / 2) : 0;
+		fadeStart = fadeFrames > 0 ? opened.getFrameCount( ) - fadeFrames : Long.MAX_VALUE;
+		sent = opened.getPosition( );
+
+		FanOut.Chunk chunk = fanOut.acquire( );
+		try (PcmSource source = opened)
+		{
+			decode(source);
+			try
+			{
+				stream(source, chunk);
+			}
+			finally
+			{
+				stopDecoding( );
+			}
+		}
+		finally
+		{
+			fanOut.release(chunk);
+		}
+
+		if (incoming != null && skipping) // Go on with the next track from what of it went on air.
+			incoming.seek(Math.max(0, sent - fadeStart));
+
+		if (!gapless && skipping) // This transmitter waits for the rest of the track; end it.
+			closeTransmitter( );
+		else if (!gapless && running && transmitter != null) // Let the transmitter play out the track.
+		{
+			stdin.close( );
+			transmitter.waitFor( );
+			transmitter = null;
+		}
+		trackEnd = System.nanoTime( );
+	}
+
+	/**
+	 * Writes the track being decoded into the ring to the transmitter,
+	 * starting one when needed, until it ends or is skipped.
+	 *
+	 * @param source The track being played.
+	 * @param chunk  A chunk from fanOut to write the samples from.
+	 */
+	private void stream (PcmSource source, FanOut.Chunk chunk) throws IOException, InterruptedException
+	{
+		boolean first = true;
+		int restarts = 0;
+		int length = 0; // Bytes in chunk not yet written.
+
+		while (running && !skipping && (length > 0 || (length = ring.read(chunk.getSamples( ))) > 0))
+		{
+			if (retuneTo != null)
+			{
+				applyRetune(source);
+				length = 0;
+				continue;
+			}
+
+			try
+			{
+				if (transmitter == null || streamLeft < length)
+					openTransmitter(gapless ? STREAM_LENGTH : PcmConverter.BYTES_PER_FRAME
+							* (source.getFrameCount( ) - sent));
+
+				if (first) // Before writing, which may block while the pipe is full.
+				{
+					reportGap( );
+					first = false;
+				}
+				checkUnderrun( );
+				stdin.write(chunk.getSamples( ), 0, length);
+				streamLeft -= length;
+				sent += length / PcmConverter.BYTES_PER_FRAME;
+				streamFrames += length / PcmConverter.BYTES_PER_FRAME;
+				restarts = 0;
+				chunk = fanOut.publish(chunk, length); // Aired; the sinks get the same bytes.
+				length = 0;
+			}
+			catch (IOException ioEx)
+			{
+				if (!running || (retuneTo == null && ++restarts > MAX_RESTARTS))
+					throw ioEx;
+
+				if (retuneTo == null)
+				{
+					System.out.println("Transmitter failed, restarting it: " + ioEx.getMessage( ));
+					Metrics.TRANSMITTER_RESTARTS.inc( );
+				}
+				closeTransmitter( );
+				continue; // The samples in chunk go to the new transmitter.
+			}
+
+			if (retuned != 0)
+			{
+				System.out.printf("Retuned to %s in %.1f ms (plus the transmitter's start up)%n",
+						frequency, (System.nanoTime( ) - retuned) / 1e6);
+				Metrics.RETUNE.recordSince(retuned);
+				retuned = 0;
+			}
+			if (started != 0)
+			{
+				firstAudio = System.nanoTime( );
+				Metrics.TRACK_START.record(firstAudio - started);
+				started = 0;
+			}
+		}
+
+		if (running && !skipping)
+			awaitDecoding( );
+	}
+
+	/**
+	 * Empties the ring and starts decoding source into it from its
+	 * current position on the decoder thread.
+	 */
+	private void decode (PcmSource source)
+	{
+		ring.reset( );
+		decoding = decoder.submit(( ) -> {
+			try
+			{
+				int length;
+				while ((length = next(source)) > 0)
+				{
+					if (dsp != null)
+						process(decoded, length);
+					if (!ring.write(decoded, 0, length))
+						break; // Cancelled.
+				}
+				return null;
+			}
+			finally
+			{
+				ring.finish( );
+			}
+		});
+	}
+
+	/**
+	 * Waits for the decoding of a track which was read to its end, so
+	 * that a read error is thrown here rather than taken for its end.
+	 */
+	private void awaitDecoding ( ) throws IOException, InterruptedException
+	{
+		try
+		{
+			decoding.get( );
+		}
+		catch (ExecutionException exEx)
+		{
+			if (exEx.getCause( ) instanceof IOException)
+				throw (IOException) exEx.getCause( );
+			throw new IOException(exEx.getCause( ));
+		}
+	}
+
+	/**
+	 * Makes the decoder give up on the current track and waits until it
+	 * has, which takes at most one read. It is waited for even if this
+	 * thread is interrupted, since the track is closed next. The ring's
+	 * counters are added to the player's.
+	 */
+	private void stopDecoding ( )
+	{
+		if (decoding == null)
+			return;
+
+		ring.cancel( );
+		boolean interrupted = false;
+		while (true)
+		{
+			try
+			{
+				decoding.get( );
+				break;
+			}
+			catch (ExecutionException exEx) // Failed; only of interest when the track was read to its end.
+			{
+				break;
+			}
+			catch (InterruptedException intEx)
+			{
+				interrupted = true;
+			}
+		}
+		decoding = null;
+
+		long underruns = ring.getUnderruns( );
+		Metrics.DECODE_UNDERRUNS.add(underruns);
+		ringUnderruns += underruns;
+		lowestFill = Math.min(lowestFill, ring.getLowestFill( ));
+		if (interrupted)
+			Thread.currentThread( ).interrupt( );
+	}
+
+	/**
+	 * Reads the next samples of source into decoded, stopping at the
+	 * start of the overlap with the next track and, past it, mixing in
+	 * as many samples of the next track. The next track is taken when
+	 * the overlap is reached; it is sought to match source, which may
+	 * have been sought back by a retune.
+	 */
+	private int next (PcmSource source) throws IOException, InterruptedException
+	{
+		long position = source.getPosition( );
+		if (position >= fadeStart && incoming == null)
+			takeIncoming(source);
+		if (position < fadeStart)
+			return read(source, decoded, (int) Math.min(BUFFER_SIZE / PcmConverter.BYTES_PER_FRAME, fadeStart - position)
+					* PcmConverter.BYTES_PER_FRAME);
+
+		int length = read(source, decoded, BUFFER_SIZE);
+		if (length <= 0)
+			return length;
+
+		long frame = position - fadeStart;
+		if (incoming.getPosition( ) != frame)
+			incoming.seek(frame);
+		int mixed = Math.max(0, read(incoming, faded, length));
+		Arrays.fill(faded, mixed, length, (byte) 0);
+		Crossfade.mix(decoded, faded, length, frame, fadeFrames);
+		return length;
+	}
+
+	/**
+	 * Takes the next track from the prefetcher for the overlap with the
+	 * current one, shortening the overlap to half of the next track if
+	 * need be. If it cannot be opened, the current track plays out
+	 * without a crossfade and the next one fails again when its turn
+	 * comes, where it is reported.
+	 */
+	private void takeIncoming (PcmSource source) throws InterruptedException
+	{
+		int index = trackIndex + 1;
+		try
+		{
+			Track next = tracks.get(order.get(index));
+			incoming = prefetcher.take(index, ( ) -> open(next));
+			incomingIndex = index;
+			incomingTrack = next;
+			fadeFrames = Math.min(fadeFrames, incoming.getFrameCount( ) / 2);
+		}
+		catch (IOException | RuntimeException ex)
+		{
+			fadeFrames = 0;
+		}
+		fadeStart = fadeFrames > 0 ? source.getFrameCount( ) - fadeFrames : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Closes the next track taken for an overlap which was never played
+	 * on, i.e. because the broadcast stopped.
+	 */
+	private void closeIncoming ( )
+	{
+		if (incoming == null)
+			return;
+
+		try
+		{
+			incoming.close( );
+		}
+		catch (IOException ioEx)
+		{
+			// Nothing left to read from it.
+		}
+		incoming = null;
+	}
+
+	/**
+	 * Reads up to length bytes of source, counting the bytes produced
+	 * and the time taken towards the decoder throughput.
+	 */
+	private static int read (PcmSource source, byte[] buffer, int length) throws IOException
+	{
+		long start = System.nanoTime( );
+		length = source.read(buffer, length);
+
+		Metrics.DECODE_NANOS.add(System.nanoTime( ) - start);
+		if (length > 0)
+			Metrics.DECODED_BYTES.add(length);
+		return length;
+	}
+
+	/**
+	 * Runs the DspChain over the samples just read, counting the time
+	 * taken.
+	 */
+	private void process (byte[] buffer, int length)
+	{
+		long start = System.nanoTime( );
+		dsp.process(buffer, length);
+		Metrics.DSP_NANOS.add(System.nanoTime( ) - start);
+	}
+
+	/**
+	 * Waits, at the end of the playlist, until the gapless transmitter
+	 * has about aired what was written to it, up to IN_FLIGHT_FRAMES of
+	 * audio, which closeTransmitter() would otherwise cut off.
+	 */
+	private void playOut ( ) throws InterruptedException
+	{
+		long left = streamClock + STARTUP_NANOS + streamFrames * 1000000000L / PcmConverter.SAMPLE_RATE
+				- System.nanoTime( );
+		if (transmitter != null && left > 0)
+			Thread.sleep(left / 1000000, (int) (left % 1000000));
+	}
+
+	/**
+	 * Counts an underrun if the transmitter must have played all the
+	 * audio written to it by now, i.e. because the next track took too
+	 * long to open, and restarts the clock from the current position.
+	 */
+	private void checkUnderrun ( )
+	{
+		long now = System.nanoTime( );
+		long audio = STARTUP_NANOS + streamFrames * 1000000000L / PcmConverter.SAMPLE_RATE;
+		long dry = now - streamClock - audio;
+
+		if (streamFrames > 0 && dry > UNDERRUN_SLACK)
+		{
+			Metrics.UNDERRUNS.inc( );
+			System.out.printf("Underrun: transmitter ran dry for about %.0f ms%n", dry / 1e6);
+			streamClock = now - audio;
+		}
+	}
+
+	/**
+	 * Replaces the transmitter with one on the frequency requested by
+	 * retune() and decodes source again from about the sample that was
+	 * on air, estimated as the frames written minus those still in
+	 * flight. The audio decoded ahead is thrown away.
+	 *
+	 * @param source The track being played.
+	 */
+	private void applyRetune (PcmSource source)
+	{
+		closeTransmitter( );
+		frequency = retuneTo;
+		retuned = retuneStart; // Read after retuneTo, which retune() sets last.
+		retuneTo = null;
+
+		long rewind = Math.min(sent, IN_FLIGHT_FRAMES);
+		stopDecoding( );
+		sent -= rewind;
+		source.seek(sent);
+		decode(source);
+	}
+
+	/**
+	 * Moves the broadcast to frequency without starting the playlist
+	 * over: the transmitter is replaced and the current track resumes
+	 * where it was. Takes effect on the player thread.
+	 *
+	 * <hr>
+	 *
+	 * @param frequency The new frequency (i.e. "102.1").
+	 */
+	public void retune (String frequency)
+	{
+		retuneStart = System.nanoTime( );
+		retuneTo = frequency;
+
+		Process process = transmitter;
+		if (process != null)
+			process.destroy( ); // Unblocks a write to a full pipe; the player thread reaps it.
+	}
+
+	/**
+	 * Goes on with the playlist as edited: the tracks are replaced by
+	 * those of the edited playlist, and the play order is carried over
+	 * to it (see PlayOrder.update()) at the next track boundary. Until
+	 * then the tracks are read from the edited playlist by their old
+	 * indices, so a song opened in the meantime has its new gain and a
+	 * removed one is skipped. Edits made before the last ones were
+	 * applied are combined with them. If no song was inserted, removed,
+	 * edited or moved, the tracks are replaced right away.
+	 *
+	 * <hr>
+	 *
+	 * @param edited The tracks of the edited playlist.
+	 * @param diff   What changed since the last reload, or since the player was created.
+	 */
+	public synchronized void reload (List<Track> edited, PlaylistDiff diff)
+	{
+		PlaylistDiff all = reloaded == null ? diff : reloaded.then(diff);
+		if (all.isEmpty( )) // Only comments changed; the songs are where they were.
+		{
+			tracks = edited;
+			reloaded = null;
+			reloadedTracks = null;
+			return;
+		}
+
+		reloaded = all;
+		reloadedTracks = edited;
+		tracks = new AbstractList<Track>( )
+		{
+			@Override
+			public Track get (int i)
+			{
+				if (all.map(i) < 0)
+					throw new IllegalArgumentException("it was removed from the playlist");
+				return edited.get(all.map(i));
+			}
+
+			@Override
+			public int size ( ) { return all.getOldSize( ); }
+		};
+	}
+
+	/**
+	 * Applies the edits passed to reload() before the track at position
+	 * next is played, unless that track is already being mixed in. The
+	 * tracks prefetched by the old order are dropped.
+	 *
+	 * @param next Position in the play order of the next track.
+	 * @return The position of the next track in the new order.
+	 */
+	private synchronized int applyReload (int next)
+	{
+		if (reloaded == null || (incoming != null && incomingIndex == next))
+			return next;
+
+		PlaylistDiff diff = reloaded;
+		PlayOrder updated = order.update(diff, next, new Random( ));
+		int position = order.position(diff, next);
+		if (next == firstIndex && firstFrame > 0) // Resuming; keep the frame if the track is still the same.
+		{
+			int song = diff.map(order.get(next));
+			if (position >= updated.size( ) || updated.get(position) != song || diff.isEdited(song))
+				firstFrame = 0;
+			firstIndex = position;
+		}
+
+		order = updated;
+		tracks = reloadedTracks;
+		trackIndex = position - 1;
+		reloaded = null;
+		reloadedTracks = null;
+		prefetcher.clear( );
+
+		System.out.println("Playlist reloaded (" + diff + "), going on with song " + (position + 1) + " of " + order.size( ));
+		return position;
+	}
+
+	/**
+	 * Ends the current track and moves on to the next one. In gapless
+	 * mode the stream goes on with the next track after the audio
+	 * already buffered by the transmitter; otherwise the track's
+	 * transmitter is replaced. Takes effect on the player thread.
+	 */
+	public void skip ( )
+	{
+		skipping = true;
+	}
+
+	/**
+	 * Opens track from the transcode cache or, without a cache, by
+	 * decoding its WAV or FLAC file. An automatic gain is resolved first.
+	 *
+	 * @param track The track to open.
+	 * @return The track rendered as 22050 Hz mono PCM.
+	 * @throws IOException If the track cannot be opened.
+	 */
+	private PcmSource open (Track track) throws IOException
+	{
+		track = LoudnessAnalyzer.getInstance( ).resolve(track, audioPath);
+		Path file = Paths.get(audioPath, track.getFileName( ));
+		if (cache != null)
+			return cache.open(track, file);
+
+		return AudioFile.open(file).convert(track.getGainDb( ));
+	}
+
+	/**
+	 * Prints and records the time between the end of the previous
+	 * track's samples and the first samples of the current one
+	 * being written to the transmitter. Without gapless mode this covers the exit of the old
+	 * transmitter and the launch of a new one, on top of which comes
+	 * the new transmitter's own start up (mapping the peripherals and
+	 * buffering half a second) that cannot be observed from here. In
+	 * gapless mode the stream stays contiguous and this is only the
+	 * time spent opening the next file while the pipe keeps playing.
+	 */
+	private void reportGap ( )
+	{
+		if (trackEnd == 0)
+			return;
+
+		long gap = System.nanoTime( ) - trackEnd;
+		Metrics.TRACK_GAP.record(gap);
+		System.out.printf("Inter-track gap: %.1f ms (%s)%n", gap / 1e6, gapless ? "gapless" : "transmitter per track");
+	}
+
+	/**
+	 * Starts a transmitter and sends it the header of a WAV stream
+	 * announcing length bytes of samples.
+	 *
+	 * @param length The number of sample bytes the transmitter will receive.
+	 * @throws IOException If the transmitter cannot be started.
+	 */
+	private void openTransmitter (long length) throws IOException
+	{
+		closeTransmitter( );
+		spawnTransmitter(length);
+
+		if (!running) // Stopped while starting; do not leave this transmitter behind.
+			closeTransmitter( );
+	}
+
+	/**
+	 * Launches a transmitter and sends it the header of a WAV stream
+	 * announcing length bytes of samples.
+	 */
+	private void spawnTransmitter (long length) throws IOException
+	{
+		long start = System.nanoTime( );
+		transmitter = launchTransmitter( );
+		Metrics.SPAWN.recordSince(start);
+		streamClock = System.nanoTime( );
+		streamFrames = 0;
+
+		stdin = transmitter.getOutputStream( );
+		stdin.write(PcmConverter.header(length));
+		streamLeft = length;
+	}
+
+	/**
+	 * Terminates the current transmitter, if any, and waits for it to
+	 * exit. It is terminated rather than left to drain, since a
+	 * transmitter which has not received all the samples announced in
+	 * its header would wait forever.
+	 */
+	private void closeTransmitter ( )
+	{
+		Process process = transmitter;
+		if (process == null)
+			return;
+		transmitter = null;
+
+		try
+		{
+			stdin.close( );
+		}
+		catch (IOException ioEx)
+		{
+			// Transmitter already gone.
+		}
+
+		try
+		{
+			ProcessSupervisor.terminate(process);
+		}
+		catch (InterruptedException intEx) // Being stopped; stop() confirms the exit.
+		{
+			process.destroy( );
+			Thread.currentThread( ).interrupt( );
+		}
+	}
+
+	/**
+	 * Starts the transmitter command, "sudo ./fm_transmitter -f FREQ -"
+	 * unless set otherwise (see TransmitterCommand), in audioPath. Its
+	 * output goes to this program's console.
+	 *
+	 * @return The transmitter process, reading a WAV stream from its stdin.
+	 * @throws IOException If the process cannot be started.
+	 */
+	private Process launchTransmitter ( ) throws IOException
+	{
+		ProcessBuilder builder = new ProcessBuilder(TransmitterCommand.arguments(frequency));
+		builder.directory(new File(audioPath));
+		builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		return builder.start( );
+	}
+
+	public boolean isRunning ( ) { return running; }
+
+	public String getFrequency ( ) { return frequency; }
+
+	/** @return Position in the play order of the track being played, or -1 before the first. */
+	public int getTrackIndex ( ) { return trackIndex; }
+
+	/**
+	 * @return The tracks being played, which reload() replaces. Synchronize on the player to read
+	 *         them together with the order and track index.
+	 */
+	public List<Track> getTracks ( ) { return tracks; }
+
+	/** @return The order the tracks are played in, which reload() replaces. */
+	public PlayOrder getOrder ( ) { return order; }
+
+	/**
+	 * @return The frame of the track being played which is about on air: the frames written
+	 *         minus those which may still be in flight, as retune() estimates it.
+	 */
+	public long getTrackFrame ( ) { return Math.max(0, sent - IN_FLIGHT_FRAMES); }
+
+	/** @return Seconds of audio decoded ahead of the transmitter writer. */
+	public double getDecodedAhead ( ) { return ring.getFill( ) / (double) PcmConverter.SAMPLE_RATE; }
+
+	/** @return System.nanoTime() when the first audio was written to a transmitter, or 0 until then. */
+	public long getFirstAudio ( ) { return firstAudio; }
+}
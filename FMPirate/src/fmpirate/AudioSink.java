@@ -0,0 +1,48 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: AudioSink.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Somewhere other than the transmitter the aired audio goes to, fed
+ * by a FanOut on a thread of its own. Implemented by Recorder (a WAV
+ * file of what aired) and Monitor (this machine's sound output).
+ * The samples are 22050 Hz mono 16-bit little-endian PCM, as in
+ * PcmSource.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public interface AudioSink extends Closeable
+{
+	/** @return A short lower case name, used for the sink's thread and metrics. */
+	String getName ( );
+
+	/**
+	 * Takes the next samples. They are shared with the other sinks, so
+	 * they must not be modified or kept after this returns.
+	 *
+	 * @param samples The buffer holding the samples.
+	 * @param length  The number of bytes of samples, from the start of the buffer.
+	 * @throws IOException If the samples cannot be taken; no more are sent.
+	 */
+	void write (byte[] samples, int length) throws IOException;
+
+	/**
+	 * Tells the sink that audio was dropped, because it fell too far
+	 * behind, before the samples of the next write().
+	 *
+	 * @param length The number of bytes of samples dropped.
+	 * @throws IOException If the sink fails; no more samples are sent.
+	 */
+	void skip (long length) throws IOException;
+}
@@ -0,0 +1,345 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Checkpoint.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Where a broadcast had got to, so that it can be resumed after the
+ * JVM or the Pi restarts: the playlist file, the order its songs are
+ * played in (the shuffle is kept as the seed it was made from, so a
+ * million-song permutation is not written out), the song on air, how
+ * far into it and the frequency. It is saved as a few "name: value"
+ * lines:
+ * <pre>
+ *   playlist: /home/pi/fmpirate/FMPirate/Playlists/sample.txt
+ *   songs: 120
+ *   shuffle: -4962768465676381896
+ *   position: 17
+ *   frame: 1984500
+ *   frequency: 102.1
+ * </pre>
+ * A shuffled order which was carried over to an edited playlist (see
+ * PlayOrder.update()) cannot be made again from a seed; it is written
+ * to "checkpoint.txt.order-CRC" whenever it changes, and the checkpoint
+ * has an "order: CRC" line instead of the seed, by which it finds the
+ * order and checks the two belong together.
+ * <p>
+ * The files are replaced atomically, after their contents are synced
+ * to the storage, so a power cut leaves either the old checkpoint or
+ * the new one and never a torn one. An order file is only deleted once
+ * a checkpoint which no longer refers to it is in place, so the old
+ * checkpoint keeps its order until the new one replaces it.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Checkpoint
+{
+	private final String playlist;   // Absolute path of the playlist file.
+	private final PlayOrder order;   // Order of the songs; its size tells whether the playlist was changed since.
+	private final int position;      // Position in the play order of the song on air.
+	private final long frame;        // Output frame of that song about on air.
+	private final String frequency;
+
+	/**
+	 * Creates a checkpoint.
+	 *
+	 * <hr>
+	 *
+	 * @param playlist  Path of the playlist file.
+	 * @param order     The order the songs of the playlist are played in.
+	 * @param position  Position in the play order of the song on air.
+	 * @param frame     How far into that song, in 22050 Hz frames.
+	 * @param frequency The frequency broadcast on.
+	 */
+	public Checkpoint (String playlist, PlayOrder order, int position, long frame, String frequency)
+	{
+		this.playlist = Paths.get(playlist).toAbsolutePath( ).normalize( ).toString( );
+		this.order = order;
+		this.position = position;
+		this.frame = frame;
+		this.frequency = frequency;
+	}
+
+	/**
+	 * Reads a checkpoint saved by save().
+	 *
+	 * <hr>
+	 *
+	 * @param file The checkpoint file.
+	 * @return The checkpoint, or null if there is none.
+	 * @throws IOException If the file cannot be read or is not a checkpoint.
+	 */
+	public static Checkpoint load (Path file) throws IOException
+	{
+		Map<String, String> values = new HashMap<String, String>( );
+		try
+		{
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8))
+			{
+				int colon = line.indexOf(':');
+				if (colon > 0)
+					values.put(line.substring(0, colon).trim( ), line.substring(colon + 1).trim( ));
+			}
+		}
+		catch (NoSuchFileException nsfEx)
+		{
+			return null;
+		}
+
+		PlayOrder order;
+		try
+		{
+			int songs = Integer.parseInt(values.get("songs"));
+			if (values.containsKey("order"))
+			{
+				long crc = Long.parseLong(values.get("order"));
+				order = loadOrder(orderFile(file, crc), crc, songs);
+			}
+			else if (values.containsKey("shuffle"))
+				order = PlayOrder.shuffled(songs, Long.parseLong(values.get("shuffle")));
+			else
+				order = PlayOrder.sequential(songs);
+
+			return new Checkpoint(Objects.requireNonNull(values.get("playlist")), order,
+					Integer.parseInt(values.get("position")), Long.parseLong(values.get("frame")),
+					Objects.requireNonNull(values.get("frequency")));
+		}
+		catch (NullPointerException | NumberFormatException ex)
+		{
+			throw new IOException("Error while reading " + file + ", it is not a complete checkpoint");
+		}
+	}
+
+	/**
+	 * Reads the play order written by saveOrder(), checking that it is
+	 * the one the checkpoint was saved with.
+	 */
+	private static PlayOrder loadOrder (Path file, long crc, int songs) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file)))
+		{
+			int[] order = new int[in.readInt( )];
+			if (in.readLong( ) != crc || order.length != songs)
+				throw new IOException("Error while reading " + file + ", it is not the order of the checkpoint");
+
+			ByteBuffer bytes = ByteBuffer.wrap(in.readAllBytes( ));
+			if (bytes.remaining( ) != order.length * Integer.BYTES)
+				throw new IOException("Error while reading " + file + ", it is not a complete play order");
+			bytes.asIntBuffer( ).get(order);
+			return PlayOrder.of(order);
+		}
+		catch (NoSuchFileException nsfEx)
+		{
+			throw new IOException("Error while reading " + file + ", the checkpoint's play order is missing");
+		}
+	}
+
+	/**
+	 * Writes the play order, unless its order file is there already.
+	 */
+	private void saveOrder (Path file, long crc) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file)))
+		{
+			if (in.readInt( ) == order.size( ) && in.readLong( ) == crc)
+				return;
+		}
+		catch (IOException ioEx)
+		{
+			// Missing or unreadable; write it.
+		}
+
+		ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES + Long.BYTES + order.size( ) * Integer.BYTES);
+		bytes.putInt(order.size( )).putLong(crc);
+		for (int i = 0; i < order.size( ); i++)
+			bytes.putInt(order.get(i));
+		bytes.flip( );
+		write(file, bytes);
+	}
+
+	/**
+	 * @return The CRC-32 of the play order, by which the checkpoint refers to its order file.
+	 */
+	private long crc ( )
+	{
+		ByteBuffer bytes = ByteBuffer.allocate(order.size( ) * Integer.BYTES);
+		for (int i = 0; i < order.size( ); i++)
+			bytes.putInt(order.get(i));
+		bytes.flip( );
+
+		CRC32 crc = new CRC32( );
+		crc.update(bytes);
+		return crc.getValue( );
+	}
+
+	private static Path orderFile (Path file, long crc)
+	{
+		return file.resolveSibling(file.getFileName( ) + ".order-" + crc);
+	}
+
+	/**
+	 * Deletes the order files of the checkpoint file, except keep, which may be null.
+	 */
+	private static void deleteOrders (Path file, Path keep) throws IOException
+	{
+		String prefix = file.getFileName( ) + ".order";
+		DirectoryStream.Filter<Path> orders = path -> path.getFileName( ).toString( ).startsWith(prefix)
+				&& !path.equals(keep);
+		try (DirectoryStream<Path> stale = Files.newDirectoryStream(file.toAbsolutePath( ).getParent( ), orders))
+		{
+			for (Path order : stale)
+				Files.deleteIfExists(order);
+		}
+		catch (NoSuchFileException nsfEx)
+		{
+			// No directory, so no order files.
+		}
+	}
+
+	/**
+	 * @return True if the order must be saved to the order file, i.e. it cannot be made again from a seed.
+	 */
+	private boolean hasOrderFile ( )
+	{
+		return order.isShuffled( ) && order.getSeed( ) == null;
+	}
+
+	/**
+	 * Writes the checkpoint to file, replacing the one there.
+	 *
+	 * <hr>
+	 *
+	 * @param file The checkpoint file; its directory is created if needed.
+	 * @throws IOException If it cannot be written.
+	 */
+	public void save (Path file) throws IOException
+	{
+		file = file.toAbsolutePath( );
+		Files.createDirectories(file.getParent( ));
+		Path orderFile = null;
+		if (hasOrderFile( ))
+		{
+			long crc = crc( );
+			orderFile = orderFile(file, crc);
+			saveOrder(orderFile, crc); // First, so that the checkpoint never refers to an order not written.
+		}
+		write(file, StandardCharsets.UTF_8.encode(toString( )));
+
+		try
+		{
+			deleteOrders(file, orderFile); // Last, as the old checkpoint used them until now.
+		}
+		catch (IOException ioEx)
+		{
+			// Stale order files only take space; they go with the next save.
+		}
+	}
+
+	/**
+	 * Replaces file with the given bytes, atomically and durably.
+	 */
+	private static void write (Path file, ByteBuffer bytes) throws IOException
+	{
+		Path directory = file.toAbsolutePath( ).getParent( );
+		Path temp = Files.createTempFile(directory, ".checkpoint", ".tmp");
+		try
+		{
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE))
+			{
+				while (bytes.hasRemaining( ))
+					channel.write(bytes);
+				channel.force(true);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(temp);
+		}
+
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ))
+		{
+			channel.force(true); // Make the rename itself durable.
+		}
+		catch (IOException ioEx)
+		{
+			// Not every file system can sync a directory; the rename is still atomic.
+		}
+	}
+
+	/**
+	 * Deletes the checkpoint saved to file, if any, with its order files.
+	 *
+	 * <hr>
+	 *
+	 * @param file The checkpoint file.
+	 * @throws IOException If it cannot be deleted.
+	 */
+	public static void delete (Path file) throws IOException
+	{
+		Files.deleteIfExists(file);
+		deleteOrders(file.toAbsolutePath( ), null);
+	}
+
+	public String getPlaylist ( ) { return playlist; }
+
+	public int getSongs ( ) { return order.size( ); }
+
+	public PlayOrder getOrder ( ) { return order; }
+
+	public int getPosition ( ) { return position; }
+
+	public long getFrame ( ) { return frame; }
+
+	public String getFrequency ( ) { return frequency; }
+
+	@Override
+	public boolean equals (Object other)
+	{
+		if (!(other instanceof Checkpoint))
+			return false;
+
+		Checkpoint that = (Checkpoint) other;
+		return playlist.equals(that.playlist) && order.equals(that.order) && Objects.equals(order.getSeed( ),
+				that.order.getSeed( )) && position == that.position && frame == that.frame && frequency.equals(that.frequency);
+	}
+
+	@Override
+	public int hashCode ( )
+	{
+		return Objects.hash(playlist, order, position, frame, frequency);
+	}
+
+	@Override
+	public String toString ( )
+	{
+		return "playlist: " + playlist + "\nsongs: " + order.size( ) + "\n"
+				+ (order.getSeed( ) != null ? "shuffle: " + order.getSeed( ) + "\n" : "")
+				+ (hasOrderFile( ) ? "order: " + crc( ) + "\n" : "")
+				+ "position: " + position + "\nframe: " + frame + "\nfrequency: " + frequency + "\n";
+	}
+}
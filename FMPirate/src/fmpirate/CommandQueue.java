@@ -0,0 +1,119 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: CommandQueue.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs the commands issued by ControllerGUI (play, stop, shuffle,
+ * retune) one at a time, in order, on a single background thread so
+ * that file generation and process handling never block the Event
+ * Dispatch Thread. Since every command runs on the same thread,
+ * Playlist and PlaylistManager are only ever touched by one thread.
+ * Failures are handed back to the EDT.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class CommandQueue
+{
+	/**
+	 * A unit of work run on the command thread.
+	 */
+	public interface Command
+	{
+		void run ( ) throws Exception;
+	}
+
+	private final ScheduledExecutorService executor;
+	private final Map<String, ScheduledFuture<?>> debounced = new HashMap<String, ScheduledFuture<?>>( );
+
+	/**
+	 * Creates the queue and its thread.
+	 */
+	public CommandQueue ( )
+	{
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "fmpirate-commands");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		this.executor = executor;
+	}
+
+	/**
+	 * Queues command to run after every command submitted before it.
+	 *
+	 * <hr>
+	 *
+	 * @param name      Name of the command, for the log.
+	 * @param command   The work to do.
+	 * @param onFailure Called on the EDT with the exception if command fails.
+	 */
+	public void submit (String name, Command command, Consumer<Exception> onFailure)
+	{
+		executor.execute(wrap(name, command, onFailure));
+	}
+
+	/**
+	 * Queues command to run once key has not been debounced again for
+	 * delay milliseconds. A burst of calls with the same key, such as
+	 * the change events of a slider being dragged, runs only the last
+	 * command.
+	 *
+	 * <hr>
+	 *
+	 * @param key       Commands with the same key replace each other.
+	 * @param delay     Quiet time in milliseconds before the command runs.
+	 * @param command   The work to do.
+	 * @param onFailure Called on the EDT with the exception if command fails.
+	 */
+	public void debounce (String key, long delay, Command command, Consumer<Exception> onFailure)
+	{
+		synchronized (debounced)
+		{
+			ScheduledFuture<?> previous = debounced.get(key);
+			if (previous != null)
+				previous.cancel(false);
+
+			debounced.put(key, executor.schedule(wrap(key, command, onFailure), delay, TimeUnit.MILLISECONDS));
+		}
+	}
+
+	/**
+	 * Wraps command so that its duration is logged and its failure is
+	 * reported on the EDT.
+	 */
+	private static Runnable wrap (String name, Command command, Consumer<Exception> onFailure)
+	{
+		return ( ) -> {
+			long start = System.nanoTime( );
+			try
+			{
+				command.run( );
+			}
+			catch (Exception ex)
+			{
+				System.out.println("Command " + name + " failed:");
+				ex.printStackTrace( );
+				SwingUtilities.invokeLater(( ) -> onFailure.accept(ex));
+			}
+			System.out.printf("Command %s took %.1f ms%n", name, (System.nanoTime( ) - start) / 1e6);
+		};
+	}
+}
@@ -11,10 +11,12 @@ package fmpirate;
 import java.awt.Dimension;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import javax.swing.JOptionPane;
-import javax.swing.SwingUtilities;
 
 /**
  * Driver class which instantiates ControllerGUI and cleans up
@@ -27,15 +29,21 @@ public class ControllerDriver
 {
 	/**
 	 * main attempts to recreate essential directories if they have been removed
-	 * and instantiates an instance of ControllerGUI.
+	 * and instantiates an instance of ControllerGUI or, when started with
+	 * "--headless" (or -Dfmpirate.headless=true), a HeadlessController
+	 * which is controlled over HTTP and never loads AWT or Swing. With
+	 * -Dfmpirate.schedule=FILE a Scheduler also starts the programs of FILE on time.
+	 * With "--resume" (or -Dfmpirate.resume=true) the broadcast saved in the
+	 * checkpoint, if any, is put back on air first.
 	 *
 	 * <hr>
-	 * @param args
+	 * @param args "--headless" to run without a window, "--resume" to resume the last broadcast.
 	 */
 
 	public static void main(String[] args)
 	{
-		Dimension SIZE = new Dimension(700, 900);
+		boolean headless = Boolean.getBoolean("fmpirate.headless") || Arrays.asList(args).contains("--headless");
+		boolean resume = Boolean.getBoolean("fmpirate.resume") || Arrays.asList(args).contains("--resume");
 
 		try // Create these 2 essential directories, if they're missing.
 		{
@@ -44,6 +52,13 @@ public class ControllerDriver
 		}
 		catch (IOException ioEx) // Couldn't create missing dirs. User needs to put them back; program cannot continue.
 		{
+			if (headless)
+			{
+				System.out.println("The folder \"Playlists\" or \".temp_files\" is missing and could not be "
+						+ "created: " + ioEx.getMessage( ));
+				System.exit(1);
+			}
+
 			JOptionPane.showMessageDialog(null, "The folder, \"Playlists\" or \".temp_files\"\n" +
 					"is missing. Please recreate these\nfolders in the current directory.\n The program will " +
 					"terminate.", "Missing Directories", JOptionPane.WARNING_MESSAGE);
@@ -51,12 +66,87 @@ public class ControllerDriver
 			System.exit(0);
 		}
 
-		new ControllerGUI("FM PiRate - fm_transmitter frontend",
-				SIZE, "../res/assets/fmpirate.png");
+		if (resume)
+			resume();
+
+		if (headless)
+			startHeadless();
+		else
+			startGui();
+
+		String schedule = System.getProperty("fmpirate.schedule");
+		if (schedule != null)
+			startScheduler(Paths.get(schedule));
 
 		deleteTempFiles(); // Clear all temp files on exit.
 	} // End main method.
 
+	/**
+	 * Shows the ControllerGUI window, which reports how long start up
+	 * took once it is painted.
+	 */
+	private static void startGui()
+	{
+		StartupTimer.phase("jvm");
+		Dimension SIZE = new Dimension(700, 900);
+
+		new ControllerGUI("FM PiRate - fm_transmitter frontend",
+				SIZE, "../res/assets/fmpirate.png");
+	}
+
+	/**
+	 * Starts the HeadlessController, printing how long start up took,
+	 * or exits if its port cannot be opened.
+	 */
+	private static void startHeadless()
+	{
+		System.setProperty("java.awt.headless", "true");
+		try
+		{
+			new HeadlessController().start();
+		}
+		catch (IOException ioEx)
+		{
+			System.out.println("Could not start the control API: " + ioEx.getMessage( ));
+			System.exit(1);
+		}
+
+		System.out.printf("Started headless in %d ms%n",
+				System.currentTimeMillis( ) - ManagementFactory.getRuntimeMXBean( ).getStartTime( ));
+	}
+
+	/**
+	 * Resumes the broadcast saved in the checkpoint, or prints why it
+	 * cannot be. The station stays silent if so.
+	 */
+	private static void resume()
+	{
+		try
+		{
+			if (!PlaylistManager.resume())
+				System.out.println("No broadcast to resume");
+		}
+		catch (Exception ex)
+		{
+			System.out.println("Could not resume the broadcast: " + ex.getMessage( ));
+		}
+	}
+
+	/**
+	 * Starts following the given schedule file, or prints why it cannot be.
+	 */
+	private static void startScheduler(Path schedule)
+	{
+		try
+		{
+			new Scheduler(schedule).start();
+		}
+		catch (IOException | IllegalArgumentException ex)
+		{
+			System.out.println("Could not read the schedule: " + ex.getMessage( ));
+		}
+	}
+
 	/**
 	 * deleteTempFiles flushes all files in the format "temp_file0",
 	 * "temp_file1", etc. from "../.temp_files" which were created
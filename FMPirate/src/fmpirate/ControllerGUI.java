@@ -12,15 +12,25 @@
  import java.io.File;
  import java.io.FileWriter;
  import java.io.PrintWriter;
+ import java.nio.file.Files;
+ import java.nio.file.Paths;
+ import java.util.concurrent.CompletableFuture;
  import javax.swing.*;
  import javax.swing.filechooser.FileNameExtensionFilter;
- import java.util.concurrent.TimeUnit;
- import java.util.Scanner;
+ import javax.swing.filechooser.FileSystemView;
 
  /**
   * GUI window to select a playlist file and interact with the Playlist
   * and PlaylistManager classes to create and shuffle bash-executable
   * WAV playlists and broadcast them over FM radio.
+  * <p>
+  * Only what the first paint needs is done before it: the icons are
+  * decoded on another thread while the components are built, and the
+  * metrics and the EDT monitor are started once the window is up, and
+  * the JFileChooser (which takes long to build) is built on the EDT
+  * right after the first paint, while the playlist directory is listed
+  * on another thread. The chooser is then reused for every import. StartupTimer prints how long each phase
+  * took.
   *
   * <hr>
   *
@@ -32,14 +42,14 @@
 	 private static Font MAIN_FONT = new Font("Calibre", Font.BOLD, 32);
 	 private static Font FCHOOSER_FONT = new Font("Calibre", Font.BOLD, 18); // For JFileChooser.
 	 private final Dimension MSG_SIZE = new Dimension(500, 300); // Size for message windows.
+	 private static final long RETUNE_DELAY = 300; // ms the sliders must rest before retuning.
 
 	 // Init colors in initColorTheme() when constructor is called:
 	 Color bgColor;                         // Background color.
 	 Color btnColor;                        // Color for buttons/components.
 	 Color txtColor;                        // Text color.
-	 Playlist playlist;                     // Playlist object to convert text file to executable file
-
-	 private static TimeUnit time = TimeUnit.MILLISECONDS;
+	 volatile Playlist playlist;            // Playlist object to convert text file to executable file
+	                                        // (only touched on the command thread).
 
 	 private JPanel logoPanel;
 	 private JPanel file_chooserPanel;
@@ -50,7 +60,8 @@
 	 private JPanel container; // All JPanels will get added to container JPanel in order, top to bottom.
 
 	 // Components:
-	 private JFileChooser file_chooser;     // No listener.
+	 private JFileChooser file_chooser;     // No listener. Built after the first paint; EDT only.
+	 private JLabel logoLabel;
 	 private JTextField choose_file_field;  // No listener.
 	 private JButton choose_file_btn;       // Add listener in setChooseFileHandler().
 	 private JButton shuffle_btn;           // Add listener in setControlsHandler().
@@ -59,6 +70,11 @@
 	 private JSlider base_slider;           // Add listener in setSliderHandler().
 	 private JSlider deci_slider;           // Add listener in setSliderHandler().
 	 private JToggleButton theme_toggle;    // Add listener in setToggleHandler().
+	 private ImageIcon playIcon;            // Shown on play_stop_btn while broadcasting.
+	 private ImageIcon stopIcon;            // Shown on play_stop_btn otherwise.
+
+	 // Runs play, stop, shuffle and retune off the Event Dispatch Thread, one at a time:
+	 private final CommandQueue commands = new CommandQueue( );
 
 	 // Labels (for sliders):
 	 private JLabel baseLabel;
@@ -87,6 +103,8 @@
 	 // If there were a problem with the .theme/theme.txt file, default to light:
 	 private boolean lightTheme = true;
 
+	 private boolean painted = false;       // Flag becomes true once the window has been painted.
+
 	 /**
 	  * Sets the title and size of the JFrame to be displayed, initializes
 	  * and adds all content to the JFrame and registers listeners for the
@@ -101,25 +119,119 @@
 	 public ControllerGUI (String title, Dimension size, String logoPath)
 	 {
 		 super(title);
+		 CompletableFuture<ImageIcon[]> icons = CompletableFuture.supplyAsync(( ) -> loadIcons(logoPath));
 		 initColorTheme( );                 // Read .theme/theme.txt and set light or dark theme.
 		 setPreferredSize(size);
+		 StartupTimer.phase("theme");
 
 		 initPanels( );                    // Initialize all panels.
 		 initComponents( );                // Initialize all the components (buttons, sliders, text field, etc.).
-		 addContent(logoPath);             // Add components to panels, panels to container panel, add container to this
+		 setIcons(icons.join( ));          // Put the icons, decoded meanwhile, on the buttons and the logo.
+		 addContent( );                    // Add components to panels, panels to container panel, add container to this
+		 showResumed( );                   // Before the slider listeners, which would retune.
 
 		 setShuffleHandler( );             // Listener to control shuffle functionality.
 		 setPlayStopHandler( );            // Listener to control play/stop functionality.
 		 setChooseFileHandler( );          // Listener to control the import button.
 		 setSliderHandler( );              // Listeners to control the JSliders.
 		 setToggleHandler( );              // Listener for the theme toggle btn.
+		 StartupTimer.phase("components");
 
 		 setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		 pack( );
 		 setLocationRelativeTo(null);
 		 setVisible(true);
+		 StartupTimer.phase("window");     // The rest is started in paint(), once the window is up.
 	 } // End of constructor.
 
+	 /**
+	  * Paints the window and, the first time, reports how long start up
+	  * took and starts what was left out of it: the EDT monitor, the
+	  * metrics (whose JMX server alone takes a few hundred ms on a Pi)
+	  * and building file_chooser.
+	  *
+	  * <hr>
+	  *
+	  * @param g The graphics context to paint in.
+	  */
+	 @Override
+	 public void paint (Graphics g)
+	 {
+		 super.paint(g);
+		 if (painted)
+			 return;
+
+		 painted = true;
+		 StartupTimer.phase("first paint");
+		 StartupTimer.report( );
+
+		 CompletableFuture.runAsync(( ) -> {
+			 EdtMonitor.start( );          // Report whenever the GUI stops responding.
+			 Metrics.start( );             // Expose broadcast health over JMX and HTTP.
+		 });
+		 CompletableFuture.runAsync(( ) -> // List the playlists once, so the chooser opens on a warm cache.
+			 FileSystemView.getFileSystemView( ).getFiles(new File("../Playlists"), true));
+		 prepareFileChooser( );
+	 }
+
+	 /**
+	  * Shows a broadcast resumed from the checkpoint (see ControllerDriver)
+	  * as if its playlist had been imported and played here, so that it
+	  * can be stopped, played again and shuffled.
+	  */
+	 private void showResumed ( )
+	 {
+		 if (!PlaylistManager.isPlaying( ) || PlaylistManager.getPlaylistFile( ) == null)
+			 return;
+
+		 filePath = PlaylistManager.getPlaylistFile( );
+		 fileSelected = true;
+		 playFile = true;
+		 shuffled = true; // Play after stop replays the resumed order through PlaylistManager.play().
+		 choose_file_field.setText(filePath);
+		 setPlayIcon(true);
+
+		 frequency = PlaylistManager.getFrequency( );
+		 String[] parts = frequency.split("\\.");
+		 baseValue = Integer.parseInt(parts[0]);
+		 deciValue = parts.length > 1 ? parts[1].charAt(0) - '0' : 0;
+		 base_slider.setValue(baseValue);
+		 deci_slider.setValue(deciValue);
+		 baseLabel.setText("" + baseValue);
+		 deciLabel.setText("." + deciValue);
+	 }
+
+	 /**
+	  * Loads the images of the play, stop and shuffle buttons and the
+	  * logo, in that order. Called off the EDT.
+	  *
+	  * <hr>
+	  *
+	  * @param logoPath Path to the logo to be displayed atop the window.
+	  * @return The icons.
+	  */
+	 private static ImageIcon[] loadIcons (String logoPath)
+	 {
+		 return new ImageIcon[] {new ImageIcon("../res/assets/play.png"), new ImageIcon("../res/assets/stop.png"),
+				 new ImageIcon("../res/assets/shuffle.png"), new ImageIcon(logoPath)};
+	 }
+
+	 /**
+	  * Puts the icons from loadIcons() on the buttons and the logo label.
+	  *
+	  * <hr>
+	  *
+	  * @param icons The play, stop and shuffle icons and the logo.
+	  */
+	 private void setIcons (ImageIcon[] icons)
+	 {
+		 playIcon = icons[0];
+		 stopIcon = icons[1];
+		 shuffle_btn.setIcon(icons[2]);
+		 play_stop_btn.setIcon(stopIcon);
+		 logoLabel.setIcon(icons[3]);
+	 }
+
 	 /**
 	  * Reads the theme file in "../.theme/theme.txt"  which either says
 	  * "Theme: Dark" or "Theme: Light". and sets the Color objects,
@@ -127,16 +239,10 @@
 	  */
 	 private void initColorTheme ( )
 	 {
-		 File themeFile = new File("../.theme/theme.txt");
-
 		 try
 		 {
-			 Scanner fileScanner = new Scanner(themeFile);
-
-			 if (fileScanner.nextLine( ).equals("Theme: Dark"))
+			 if (Files.readAllLines(Paths.get("../.theme/theme.txt")).get(0).equals("Theme: Dark"))
 				 lightTheme = false;
-
-			 fileScanner.close( );
 		 }
 		 catch (Exception ex)
 		 {
@@ -215,8 +321,9 @@
 		 deci_slider = new JSlider(0, 0, 9, 1);
 
 		 dummy_btn = new JButton( );
-		 shuffle_btn = new JButton(new ImageIcon("../res/assets/shuffle.png"));
-		 play_stop_btn = new JButton(new ImageIcon("../res/assets/stop.png"));
+		 shuffle_btn = new JButton( );    // Icons are set by setIcons().
+		 play_stop_btn = new JButton( );
+		 logoLabel = new JLabel( );
 
 		 theme_toggle = new JToggleButton(toggleText);
 
@@ -295,13 +402,10 @@
 	  * to their respective panels. All other panels are added
 	  * to the JPanel, container which stacks them vertically
 	  * (according to BoxLayout.Y_AXIS).
-	  *
-	  * @param logoPath Path to the logo to be displayed atop the window.
 	  */
-	 private void addContent (String logoPath)
+	 private void addContent ( )
 	 {
-		 JLabel label = new JLabel(new ImageIcon(logoPath));
-		 logoPanel.add(label);
+		 logoPanel.add(logoLabel);
 
 		 file_chooserPanel.add(choose_file_field);
 		 file_chooserPanel.add(choose_file_btn);
@@ -376,9 +480,7 @@
 			 deciValue = deci_slider.getValue( );
 			 frequency = baseValue + "." + deciValue;
 			 baseLabel.setText("" + baseValue);
-			 // When a slider value changes, create a new Playlist object when playFile true.
-			 // Accomplished by setting shuffled back to false.
-			 shuffled = false;
+			 frequencyChanged(base_slider);
 		 });
 
 
@@ -388,12 +490,39 @@
 			 deciValue = deci_slider.getValue( );
 			 frequency = baseValue + "." + deciValue;
 			 deciLabel.setText("." + deciValue);
-			 // When a slider value changes, create a new Playlist object when playFile true.
-			 // Accomplished by setting shuffled back to false.
-			 shuffled = false;
+			 frequencyChanged(deci_slider);
 		 });
 	 } // End of setSliderHandler method.
 
+	 /**
+	  * Applies a new frequency. While nothing is playing, a new
+	  * Playlist object will be created the next time playFile becomes
+	  * true, which is accomplished by setting shuffled back to false
+	  * right away, so a play pressed next uses the new frequency. A
+	  * running broadcast is retuned in place once the slider has
+	  * settled: change events are coalesced so a drag across the band
+	  * issues a single command. A backend which cannot retune starts
+	  * over on the new frequency at the next play.
+	  *
+	  * <hr>
+	  *
+	  * @param slider The JSlider that changed.
+	  */
+	 private void frequencyChanged (JSlider slider)
+	 {
+		 if (!playFile)
+		 {
+			 shuffled = false;
+			 return;
+		 }
+
+		 String newFrequency = frequency;
+		 commands.debounce("retune", RETUNE_DELAY, ( ) -> {
+			 if (!PlaylistManager.retune(newFrequency))
+				 SwingUtilities.invokeLater(( ) -> shuffled = false);
+		 }, ex -> shuffled = false);
+	 }
+
 	 /**
 	  * Registers a listener to the JToggleButton theme_toggle
 	  * to allow the user to toggle which theme should be displayed
@@ -409,6 +538,7 @@
 
 			 lightTheme = lightTheme != true;
 			 repaintAll();
+			 prepareFileChooser( );   // Build it again in the new colors.
 
 			 themeFile = new File("../.theme/theme.txt");
 			 try
@@ -433,125 +563,54 @@
 
 	 /**
 	  * Registers a listener to the JButton shuffle_btn. When the flag
-	  * playFile is false (meaning a playlist isn't being broadcasted)
-	  * and the flag fileSelected (meaning a playlist file was imported)
-	  * is true, the PlaylistManager class randomly re-orders the
-	  * playlist and re-initializes playListProcess to use bash to
-	  * execute the new playlist file. When playFile is true and
-	  * fileSelected is true, the current playListProcess must first
-	  * be terminated (PlaylistManager.stop()) before the
-	  * playlistProcess is re-initialized by calling PlaylistManager's
-	  * play method to execute the new shuffled playlist.
+	  * fileSelected (meaning a playlist file was imported) is true,
+	  * a shuffle command is queued: the current broadcast is stopped
+	  * if playFile is true (meaning a playlist is being broadcasted),
+	  * the PlaylistManager class randomly re-orders the playlist and
+	  * the shuffled playlist is played. The flags and the icon are
+	  * updated right away and restored if the command fails.
 	  */
 	 private void setShuffleHandler ( )
 	 {
 		 shuffle_btn.addActionListener(actionEvent -> {
 
-			 if (!playFile && fileSelected) // File is selected and ready to play/stopped.
-			 {
-				 try
-				 {
-					 try { time.sleep(600); } // Gives a bit of time for old process to be killed.
-					 catch (InterruptedException e){ }// Meh
+			 if (!fileSelected)
+				 return;
 
-					 PlaylistManager.shuffle(playlist.getPath( ), frequency);
-					 PlaylistManager.play();
-
-					 System.out.println("\nPlaylistManager.playlistProcess started\n");
+			 boolean wasPlaying = playFile;
+			 String path = filePath;
+			 String newFrequency = frequency;
 
-					 playFile = true; // File is playing.
-					 shuffled = true; // Will use PlaylistManager.getPath() to get playlist next time play btn pushed.
-
-					 play_stop_btn.setIcon(new ImageIcon("../res/assets/play.png"));
-					 play_stop_btn.revalidate( );
-
-				 }
-				 catch (Exception ex)
-				 {
-					 // This exception will be caught when the user has first launched
-					 // the program, imported a file, and pressed shuffle_btn, since
-					 // no temp files exist yet. Go ahead and create a shuffled playlist here:
-
-					 System.out.println("Could not shuffle playlist");
-					 System.out.println("ControllerGUI.setHandlers/shuffle_btn exception:\n");
-					 ex.printStackTrace( );
-
-					 try
-					 {
-						 playlist = new Playlist(filePath, frequency);
-						 System.out.println("\n\nPlaylist path: " + playlist.getPath( ) +
-								 " Frequency: " + frequency);
-
-						 PlaylistManager.shuffle(playlist.getPath( ), frequency);
-						 PlaylistManager.play();
-
-						 System.out.println("\nPlaylistManager.playlistProcess started\n");
-
-						 // File is playing.
-						 playFile = true;
-						 // Program will use PlaylistManager.getPath() to get playlist next time play btn pushed.
-						 shuffled = true;
-
-						 play_stop_btn.setIcon(new ImageIcon("../res/assets/play.png"));
-						 play_stop_btn.revalidate( );
-					 }
-					 catch (Exception e)
-					 {
-						 JOptionPane.showMessageDialog(null, "Could not execute the playlist file",
-								 "Playlist error", JOptionPane.ERROR_MESSAGE);
-
-						 System.out.println("Could not execute the playlist file.");
-						 System.out.println("ControllerGUI.setHandlers/play_stop_btn exception:\n");
-						 e.printStackTrace( );
-
-						 fileSelected = false;
-						 playFile = false;
-					 }
-				 }
-			 } // End if.
+			 playFile = true; // File is playing.
+			 shuffled = true; // Will use PlaylistManager.getPath() to get playlist next time play btn pushed.
+			 setPlayIcon(true);
 
-			 else if (playFile && fileSelected) // File is playing at the moment.
-			 {
-				 try
+			 commands.submit("shuffle", ( ) -> {
+				 if (wasPlaying)
 				 {
-				 	 PlaylistManager.stop();
+					 PlaylistManager.stop( );
 					 System.out.println("playlistProcess destroyed");
 				 }
-				 catch (Exception ex)
-				 {
-					 System.out.println("Error killing process");
-					 System.out.println("ControllerGUI.setHandlers/shuffle_btn exception:\n");
-					 ex.printStackTrace( );
-				 }
 
-				 try
+				 if (playlist == null) // No playlist has been generated yet.
 				 {
-					 try { time.sleep(600); } // Gives a bit of time for old process to be killed.
-					 catch (InterruptedException e){ }// Meh
-
-					 PlaylistManager.shuffle(playlist.getPath( ), frequency);
-					 PlaylistManager.play();
-
-					 System.out.println("\nPlaylistManager.playlistProcess started\n");
-
-					 shuffled = true; // Will use PlaylistManager.getPath() to get playlist next time play btn pushed.
-
-					 play_stop_btn.setIcon(new ImageIcon("../res/assets/play.png"));
-					 play_stop_btn.revalidate( );
-
+					 playlist = new Playlist(path, newFrequency);
+					 System.out.println("\n\nPlaylist path: " + path +
+							 " Frequency: " + newFrequency);
 				 }
-				 catch (Exception ex)
-				 {
-					 JOptionPane.showMessageDialog(null, "The file could not be shuffled",
-							 "Shuffle error", JOptionPane.WARNING_MESSAGE);
-
-					 System.out.println("Could not shuffle playlist");
-					 System.out.println("ControllerGUI.setHandlers/shuffle_btn exception:\n");
 
-					 ex.printStackTrace( );
-				 }
+				 PlaylistManager.shuffle(playlist, newFrequency);
+				 PlaylistManager.play( );
+				 System.out.println("\nPlaylistManager.playlistProcess started\n");
+				 showPreflightProblems( );
+			 }, ex -> {
+				 JOptionPane.showMessageDialog(null, "The file could not be shuffled",
+						 "Shuffle error", JOptionPane.WARNING_MESSAGE);
 
-			 } // End else if.
+				 playFile = false;
+				 shuffled = false;
+				 setPlayIcon(false);
+			 });
 		 });
 	 } // End setShuffleHandler method.
 
@@ -559,147 +618,117 @@
 	  * Registers a listener to the JButton play_stop_btn. If
 	  * a file is imported (fileSelected is true), then every
 	  * time the button is pressed, the flag playFile will
-	  * flip. If shuffled is false (meaning PlaylistManager has
-	  * not been used to create a shuffled playlist of the
-	  * current frequency), a new Playlist object will be
-	  * created and PlaylistManager will execute the newly
-	  * created playlist assuming playFile is true. If false,
-	  * the current PlaylistManager.playListProcess will be
-	  * terminated. Assuming shuffled and fileSelected are
-	  * true, however, if playFile is true, the last shuffled
-	  * file will be executed by re-initializing
-	  * playlistProcesss; if false, the running playListProcess
-	  * will be terminated.
+	  * flip and a command is queued. If shuffled is false
+	  * (meaning PlaylistManager has not been used to create a
+	  * shuffled playlist of the current frequency), a new
+	  * Playlist object will be created and PlaylistManager will
+	  * execute the newly created playlist assuming playFile is
+	  * true. If shuffled is true, the last shuffled playlist
+	  * will be played again. If playFile is false, the running
+	  * broadcast is stopped.
 	  */
 	 private void setPlayStopHandler ( )
 	 {
 		 play_stop_btn.addActionListener(actionEvent -> {
 
-			 if (!shuffled && fileSelected) // File imported and we use Playlist to create a new temp_file.
-			 {
-				 playFile = playFile != true;
-
-				 if (playFile)
-				 {
-
-					 try
-					 {
-						 playlist = new Playlist(filePath, frequency);
-						 System.out.println("\n\nPlaylist path: " + playlist.getPath( ) +
-								 " Frequency: " + frequency);
+			 if (!fileSelected)
+				 return;
 
-						 PlaylistManager.play(playlist.getPath( ));
-						 System.out.println("\nPlaylistManager.playlistProcess started\n");
+			 playFile = playFile != true;
+			 setPlayIcon(playFile);
 
-						 play_stop_btn.setIcon(new ImageIcon("../res/assets/play.png"));
-						 play_stop_btn.revalidate( );
-					 }
-					 catch (Exception ex)
-					 {
-						 JOptionPane.showMessageDialog(null, "Could not execute the playlist file.\n" +
-								 "Please check the formatting.", "Playlist error", JOptionPane.WARNING_MESSAGE);
-
-						 System.out.println("Could not exec Playlist object");
-						 System.out.println("ControllerGUI.setHandlers/play_stop_btn exception:\n");
-						 ex.printStackTrace( );
-
-						 choose_file_field.setText("Choose playlist");
-						 choose_file_field.setEditable(false);
+			 if (!playFile) // User stops the playlist.
+			 {
+				 commands.submit("stop", ( ) -> {
+					 PlaylistManager.stop( );
+					 System.out.println("playlistProcess destroyed");
+				 }, ex -> { });
+			 }
 
-						 fileSelected = false; // File is probably of invalid format.
-						 playFile = false;
-					 }
+			 else if (!shuffled) // File imported and we use Playlist to create a new temp_file.
+			 {
+				 String path = filePath;
+				 String newFrequency = frequency;
 
-				 } // End inner if.
+				 commands.submit("play", ( ) -> {
+					 playlist = new Playlist(path, newFrequency);
+					 System.out.println("\n\nPlaylist path: " + path +
+							 " Frequency: " + newFrequency);
 
-				 else if (!playFile)
-				 {
+					 PlaylistManager.play(playlist);
+					 System.out.println("\nPlaylistManager.playlistProcess started\n");
+					 showPreflightProblems( );
+				 }, ex -> {
+					 JOptionPane.showMessageDialog(null, "Could not execute the playlist file.\n" +
+							 "Please check the formatting.", "Playlist error", JOptionPane.WARNING_MESSAGE);
+
+					 choose_file_field.setText("Choose playlist");
+					 choose_file_field.setEditable(false);
+
+					 fileSelected = false; // File is probably of invalid format.
+					 playFile = false;
+					 setPlayIcon(false);
+				 });
+			 }
 
-					 try
-					 {
-						 PlaylistManager.stop();
-
-						 System.out.println("playlistProcess destroyed");
-
-						 play_stop_btn.setIcon(new ImageIcon("../res/assets/stop.png"));
-						 play_stop_btn.revalidate( );
-					 }
-					 catch (Exception ex)
-					 {
-						 System.out.println("Exception killing process");
-						 System.out.println("ControllerGUI.setHandlers.play_stop_btn exception:\n");
-						 ex.printStackTrace( );
-					 }
-				 } // End inner else.
-			 } // End outer if.
-
-			 else if (shuffled && fileSelected) // There is a shuffled version of temp_file to play from.
+			 else // There is a shuffled version of temp_file to play from.
 			 {
-				 playFile = playFile != true;
-
-				 if (playFile)
-				 {
-					 try
-					 {
-					 	 PlaylistManager.play();
-						 System.out.println("\nPlaylistManager.playlistProcess started\n");
-						 playFile = true;
-
-						 play_stop_btn.setIcon(new ImageIcon("../res/assets/play.png"));
-						 play_stop_btn.revalidate( );
-
-					 }
-					 catch (Exception ex)
-					 {
-						 JOptionPane.showMessageDialog(null, "Could not execute the playlist file",
-								 "Playlist error", JOptionPane.ERROR_MESSAGE);
-
-						 System.out.println("Could not execute the playlist file.");
-						 System.out.println("ControllerGUI.setHandlers.play_stop_btn exception:\n");
-						 ex.printStackTrace( );
-					 }
-				 } // End inner if.
-
-				 else if (!playFile) // User stops the playlist.
-				 {
+				 commands.submit("play", ( ) -> {
+					 PlaylistManager.play( );
+					 System.out.println("\nPlaylistManager.playlistProcess started\n");
+				 }, ex -> {
+					 JOptionPane.showMessageDialog(null, "Could not execute the playlist file",
+							 "Playlist error", JOptionPane.ERROR_MESSAGE);
 
-					 try
-					 {
-						 PlaylistManager.stop();
-						 System.out.println("playlistProcess destroyed");
-
-						 play_stop_btn.setIcon(new ImageIcon("../res/assets/stop.png"));
-						 play_stop_btn.revalidate( );
-					 }
-					 catch (Exception ex)
-					 {
-						 System.out.println("Error killing process");
-						 System.out.println("ControllerGUI.setHandlers.play_stop_btn exception:\n");
-						 ex.printStackTrace( );
-					 }
-				 } // End inner else.
-			 } // End outer else if.
+					 playFile = false;
+					 setPlayIcon(false);
+				 });
+			 }
 		 });
 	 } // End of setPlayStopHandler method.
 
+	 /**
+	  * Warns about the songs the preflight check found will not play.
+	  * They are skipped when their turn comes, so the rest of the
+	  * playlist is broadcast regardless. Called on the command thread.
+	  */
+	 private void showPreflightProblems ( )
+	 {
+		 String problems = PlaylistManager.getPreflightProblems( );
+		 if (problems.isEmpty( ))
+			 return;
+
+		 SwingUtilities.invokeLater(( ) -> JOptionPane.showMessageDialog(null,
+				 "These songs will be skipped:\n" + problems, "Playlist warning", JOptionPane.WARNING_MESSAGE));
+	 }
+
+	 /**
+	  * Shows the play icon on play_stop_btn while broadcasting
+	  * and the stop icon otherwise.
+	  *
+	  * <hr>
+	  *
+	  * @param playing True if a playlist is being broadcast.
+	  */
+	 private void setPlayIcon (boolean playing)
+	 {
+		 play_stop_btn.setIcon(playing ? playIcon : stopIcon);
+		 play_stop_btn.revalidate( );
+	 }
+
 	 /**
 	  * Registers a listener for the JButton, choose_file_btn. When
-	  * the button is pressed, a JFileChooser instance of file_chooser
-	  * launches in the directory, "../Playlists". Once a text file
-	  * is selected, its path will appear in the JTextfield,
-	  * choose_file_field and the flag fileSelected becomes true.
+	  * the button is pressed, file_chooser is shown, in the directory
+	  * "../Playlists" the first time and in the last one used after
+	  * that. Once a text file is selected, its path will appear in the
+	  * JTextfield, choose_file_field and the flag fileSelected becomes true.
 	  */
 	 private void setChooseFileHandler ( )
 	 {
 		 choose_file_btn.addActionListener(actionEvent -> {
 
-			 file_chooser = new JFileChooser("../Playlists");
-			 setFileChooserFont(file_chooser.getComponents( ));
-			 FileNameExtensionFilter txtFilter = new FileNameExtensionFilter
-					 ("Text files", "txt", "text");
-			 file_chooser.setFileFilter(txtFilter);
-			 file_chooser.setDialogTitle("Choose a text file to import");
-			 file_chooser.setApproveButtonToolTipText("Select the file you want to import, then click me.");
+			 if (file_chooser == null) // Pressed before prepareFileChooser got to it.
+				 file_chooser = createFileChooser( );
 
 			 int option = file_chooser.showOpenDialog(null);
 			 if (option == JFileChooser.APPROVE_OPTION)
@@ -713,6 +742,40 @@
 		 });
 	 } // End of setChooseFileHandler method.
 
+	 /**
+	  * Builds file_chooser again, in the current colors, once the EDT is
+	  * done with the event at hand, so the Import button does not have
+	  * to wait for it. Called on the EDT.
+	  */
+	 private void prepareFileChooser ( )
+	 {
+		 file_chooser = null;
+		 SwingUtilities.invokeLater(( ) -> {
+			 if (file_chooser == null)
+				 file_chooser = createFileChooser( );
+		 });
+	 }
+
+	 /**
+	  * Creates the JFileChooser for playlists, opening in "../Playlists".
+	  * Called on the EDT, as every Swing component must be.
+	  *
+	  * <hr>
+	  *
+	  * @return The file chooser, not yet shown.
+	  */
+	 private JFileChooser createFileChooser ( )
+	 {
+		 JFileChooser chooser = new JFileChooser("../Playlists");
+		 setFileChooserFont(chooser.getComponents( ));
+		 FileNameExtensionFilter txtFilter = new FileNameExtensionFilter
+				 ("Text files", "txt", "text");
+		 chooser.setFileFilter(txtFilter);
+		 chooser.setDialogTitle("Choose a text file to import");
+		 chooser.setApproveButtonToolTipText("Select the file you want to import, then click me.");
+		 return chooser;
+	 }
+
 	 /**
 	  * Loops through all of file_chooser's components and
 	  * attempts to apply the Font, FCHOOSER_FONT to all
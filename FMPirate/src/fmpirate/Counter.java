@@ -0,0 +1,48 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Counter.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A metric which only goes up, such as the number of tracks played.
+ * Incrementing it never blocks and costs about as much as a plain
+ * field update, so it may be called from the audio loop. Counters are
+ * created and exported by Metrics.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Counter
+{
+	private final String name;
+	private final String help;
+	private final LongAdder value = new LongAdder( );
+
+	Counter (String name, String help)
+	{
+		this.name = name;
+		this.help = help;
+	}
+
+	/** Adds one. */
+	public void inc ( ) { value.increment( ); }
+
+	/**
+	 * @param amount The amount to add, not negative.
+	 */
+	public void add (long amount) { value.add(amount); }
+
+	public long get ( ) { return value.sum( ); }
+
+	public String getName ( ) { return name; }
+
+	public String getHelp ( ) { return help; }
+}
@@ -0,0 +1,70 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Crossfade.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+/**
+ * Mixes the end of one track into the start of the next with an
+ * equal-power curve: across the overlap the outgoing track is scaled
+ * by the cosine and the incoming one by the sine of a quarter turn, so
+ * their powers always add up to one and two unrelated songs keep their
+ * loudness through the transition, where a linear fade dips by 3 dB in
+ * the middle. The curve is read from a table computed once, so mixing
+ * allocates nothing and calls no trigonometry per sample.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Crossfade
+{
+	private static final int STEPS = 1024;
+
+	// sin(i / STEPS * pi / 2) for i = 0..STEPS; read backwards, it is the cosine.
+	private static final float[] SINE = new float[STEPS + 1];
+
+	static
+	{
+		for (int i = 0; i <= STEPS; i++)
+			SINE[i] = (float) Math.sin(Math.PI / 2 * i / STEPS);
+	}
+
+	private Crossfade ( ) { }
+
+	/**
+	 * Mixes incoming into outgoing, sample by sample.
+	 *
+	 * <hr>
+	 *
+	 * @param outgoing The end of the current track, 16-bit little-endian; receives the mix.
+	 * @param incoming The start of the next track, in the same format.
+	 * @param length   The number of bytes to mix.
+	 * @param frame    The number of the first frame within the overlap.
+	 * @param frames   The length of the overlap in frames.
+	 */
+	public static void mix (byte[] outgoing, byte[] incoming, int length, long frame, long frames)
+	{
+		double step = (double) STEPS / frames;
+		double position = (frame + 0.5) * step; // Sample centers, so the curve is symmetric.
+
+		for (int i = 0; i < length; i += PcmConverter.BYTES_PER_FRAME, position += step)
+		{
+			int index = Math.min((int) position, STEPS - 1);
+			float fraction = (float) (position - index);
+			float fadeIn = SINE[index] + (SINE[index + 1] - SINE[index]) * fraction;
+			float fadeOut = SINE[STEPS - index] + (SINE[STEPS - index - 1] - SINE[STEPS - index]) * fraction;
+
+			int out = (short) ((outgoing[i] & 0xFF) | outgoing[i + 1] << 8);
+			int in = (short) ((incoming[i] & 0xFF) | incoming[i + 1] << 8);
+			int sample = Math.round(out * fadeOut + in * fadeIn);
+			sample = sample > Short.MAX_VALUE ? Short.MAX_VALUE : (sample < Short.MIN_VALUE ? Short.MIN_VALUE : sample);
+			outgoing[i] = (byte) sample;
+			outgoing[i + 1] = (byte) (sample >> 8);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: DspChain.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The audio processing applied to the broadcast before it goes on air,
+ * as set up by a station profile: an optional MultibandCompressor,
+ * PreEmphasis and a Limiter, in that order, so that the limiter sees
+ * the treble boost of the pre-emphasis it protects the deviation from.
+ * The 16-bit samples are converted to floats, processed and converted
+ * back in place, in blocks, with buffers allocated once.
+ * <p>
+ * A profile is "eu" (50 us), "us" (75 us) or the path of a file of
+ * "key = value" lines, where lines starting with a pound sign are
+ * comments. Keys left out keep the values of the eu profile:
+ * <pre>
+ * # Time constant in us: 50, 75 or 0 for no pre-emphasis.
+ * preemphasis = 75
+ * # Ceiling in dBFS, look-ahead and release in ms.
+ * limiter = on
+ * limiter.ceiling = -1
+ * limiter.lookahead = 5
+ * limiter.release = 80
+ * # Crossovers in Hz, then one value per band from low to high.
+ * compressor = off
+ * compressor.crossovers = 200 3000
+ * compressor.threshold = -24 -20 -18
+ * compressor.ratio = 3 3 3
+ * compressor.attack = 30 10 5
+ * compressor.release = 400 250 150
+ * compressor.makeup = 6 5 4
+ * </pre>
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class DspChain
+{
+	private static final float SCALE = 32767.0f; // Same as PcmConverter.
+
+	private final String name;
+	private final DspStage[] stages;
+	private final float[] block;
+
+	/**
+	 * Creates a chain.
+	 *
+	 * <hr>
+	 *
+	 * @param name      The profile it was built from.
+	 * @param stages    The stages, in the order they are applied.
+	 * @param blockSize The largest number of bytes process() is given at once.
+	 */
+	public DspChain (String name, List<DspStage> stages, int blockSize)
+	{
+		this.name = name;
+		this.stages = stages.toArray(new DspStage[0]);
+		this.block = new float[blockSize / PcmConverter.BYTES_PER_FRAME];
+	}
+
+	/**
+	 * Builds the chain described by a profile.
+	 *
+	 * <hr>
+	 *
+	 * @param profile   "eu", "us" or the path of a profile file.
+	 * @param blockSize The largest number of bytes process() is given at once.
+	 * @return The chain.
+	 * @throws IOException If the profile file cannot be read.
+	 * @throws IllegalArgumentException If the profile has an invalid value.
+	 */
+	public static DspChain load (String profile, int blockSize) throws IOException
+	{
+		Properties eu = new Properties( );
+		eu.setProperty("preemphasis", "50");
+		eu.setProperty("limiter", "on");
+		eu.setProperty("limiter.ceiling", "-1");
+		eu.setProperty("limiter.lookahead", "5");
+		eu.setProperty("limiter.release", "80");
+		eu.setProperty("compressor", "off");
+		eu.setProperty("compressor.crossovers", "200 3000");
+		eu.setProperty("compressor.threshold", "-24 -20 -18");
+		eu.setProperty("compressor.ratio", "3 3 3");
+		eu.setProperty("compressor.attack", "30 10 5");
+		eu.setProperty("compressor.release", "400 250 150");
+		eu.setProperty("compressor.makeup", "6 5 4");
+
+		Properties settings = new Properties(eu);
+		if (profile.equals("us"))
+			settings.setProperty("preemphasis", "75");
+		else if (!profile.equals("eu"))
+		{
+			Path file = Paths.get(profile);
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+			{
+				settings.load(reader);
+			}
+			profile = file.getFileName( ).toString( );
+		}
+
+		int rate = PcmConverter.SAMPLE_RATE;
+		List<DspStage> stages = new ArrayList<DspStage>( );
+		if (isOn(settings, "compressor"))
+			stages.add(new MultibandCompressor(numbers(settings, "compressor.crossovers"),
+					numbers(settings, "compressor.threshold"), numbers(settings, "compressor.ratio"),
+					numbers(settings, "compressor.attack"), numbers(settings, "compressor.release"),
+					numbers(settings, "compressor.makeup"), rate));
+		int micros = (int) number(settings, "preemphasis");
+		if (micros > 0)
+			stages.add(new PreEmphasis(micros, rate));
+		if (isOn(settings, "limiter"))
+			stages.add(new Limiter(number(settings, "limiter.ceiling"), number(settings, "limiter.lookahead"),
+					number(settings, "limiter.release"), rate));
+		return new DspChain(profile, stages, blockSize);
+	}
+
+	private static boolean isOn (Properties settings, String key)
+	{
+		String value = settings.getProperty(key).trim( );
+		if (!value.equals("on") && !value.equals("off"))
+			throw new IllegalArgumentException(key + " must be on or off, not " + value);
+		return value.equals("on");
+	}
+
+	private static double number (Properties settings, String key)
+	{
+		return numbers(settings, key)[0];
+	}
+
+	/**
+	 * Parses the numbers, separated by spaces or commas, a key is set to.
+	 */
+	private static double[] numbers (Properties settings, String key)
+	{
+		String[] fields = settings.getProperty(key).trim( ).split("[\\s,]+");
+		double[] values = new double[fields.length];
+		try
+		{
+			for (int i = 0; i < fields.length; i++)
+				values[i] = Double.parseDouble(fields[i]);
+		}
+		catch (NumberFormatException nfEx)
+		{
+			throw new IllegalArgumentException("Invalid number for " + key + ": " + settings.getProperty(key));
+		}
+		if (values.length != (key.startsWith("compressor.") ? (key.endsWith("crossovers") ? 2 : 3) : 1))
+			throw new IllegalArgumentException("Wrong number of values for " + key + ": " + settings.getProperty(key));
+		return values;
+	}
+
+	/**
+	 * Processes 16-bit little-endian mono samples in place.
+	 *
+	 * <hr>
+	 *
+	 * @param samples The samples.
+	 * @param length  The number of bytes, at most the block size.
+	 */
+	public void process (byte[] samples, int length)
+	{
+		int frames = length / PcmConverter.BYTES_PER_FRAME;
+		for (int i = 0; i < frames; i++)
+			block[i] = (short) ((samples[2 * i] & 0xFF) | (samples[2 * i + 1] << 8)) / SCALE;
+
+		for (DspStage stage : stages)
+			stage.process(block, frames);
+
+		for (int i = 0; i < frames; i++)
+		{
+			int sample = Math.round(block[i] * SCALE);
+			sample = sample > Short.MAX_VALUE ? Short.MAX_VALUE : (sample < Short.MIN_VALUE ? Short.MIN_VALUE : sample);
+			samples[2 * i] = (byte) sample;
+			samples[2 * i + 1] = (byte) (sample >> 8);
+		}
+	}
+
+	/** @return Whether it uses its own pre-emphasis, so fm_transmitter must not add one. */
+	public boolean hasPreEmphasis ( )
+	{
+		for (DspStage stage : stages)
+			if (stage instanceof PreEmphasis)
+				return true;
+		return false;
+	}
+
+	@Override
+	public String toString ( )
+	{
+		StringBuilder description = new StringBuilder(name).append(':');
+		for (int i = 0; i < stages.length; i++)
+			description.append(i == 0 ? " " : ", ").append(stages[i]);
+		return stages.length == 0 ? name + ": no processing" : description.toString( );
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: DspStage.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+/**
+ * One stage of a DspChain, such as PreEmphasis or a Limiter. A stage
+ * processes blocks of 22050 Hz mono samples in the range [-1, 1] in
+ * place and keeps whatever state it needs from one block to the next,
+ * so a stream may be split into blocks anywhere. Processing never
+ * allocates.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public interface DspStage
+{
+	/**
+	 * Processes the first length samples of block in place.
+	 *
+	 * @param block  The samples.
+	 * @param length The number of samples to process.
+	 */
+	void process (float[] block, int length);
+}
@@ -0,0 +1,90 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: EdtMonitor.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+/**
+ * Measures how long the Event Dispatch Thread is unable to respond.
+ * Every PROBE_INTERVAL milliseconds a probe is posted to the EDT and
+ * the time until it runs is recorded. Probes which wait longer than
+ * STALL_THRESHOLD are printed as stalls, and a summary is printed
+ * when the program exits.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class EdtMonitor
+{
+	private static final long PROBE_INTERVAL = 100;  // ms between probes.
+	private static final long STALL_THRESHOLD = 100; // ms a probe may wait before it counts as a stall.
+
+	private static ScheduledExecutorService prober;
+
+	private static volatile boolean probePending = false;
+	private static volatile long maxStall = 0;  // Longest probe wait in ms.
+	private static volatile int stalls = 0;     // Probes which waited longer than STALL_THRESHOLD.
+
+	private EdtMonitor ( ) { }
+
+	/**
+	 * Starts probing the EDT, unless it is already being probed.
+	 */
+	public static synchronized void start ( )
+	{
+		if (prober != null)
+			return;
+
+		prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "fmpirate-edt-monitor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		prober.scheduleAtFixedRate(EdtMonitor::probe, PROBE_INTERVAL, PROBE_INTERVAL, TimeUnit.MILLISECONDS);
+
+		Runtime.getRuntime( ).addShutdownHook(new Thread(( ) ->
+				System.out.println("EDT: longest stall " + maxStall + " ms, " + stalls + " stalls over "
+						+ STALL_THRESHOLD + " ms")));
+	}
+
+	/**
+	 * Posts a probe to the EDT unless the previous one has not run yet.
+	 */
+	private static void probe ( )
+	{
+		if (probePending)
+			return;
+
+		probePending = true;
+		long posted = System.nanoTime( );
+		SwingUtilities.invokeLater(( ) -> {
+			long waited = (System.nanoTime( ) - posted) / 1000000;
+			probePending = false;
+
+			if (waited > maxStall)
+				maxStall = waited;
+			if (waited > STALL_THRESHOLD)
+			{
+				stalls++;
+				Metrics.EDT_STALLS.inc( );
+				System.out.println("EDT stalled for " + waited + " ms");
+			}
+		});
+	}
+
+	/** @return The longest time in ms the EDT took to respond. */
+	public static long getMaxStall ( ) { return maxStall; }
+
+	/** @return The number of times the EDT took longer than STALL_THRESHOLD to respond. */
+	public static int getStalls ( ) { return stalls; }
+}
@@ -0,0 +1,312 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: FanOut.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes the audio written to the transmitter on to further
+ * AudioSinks, such as a Recorder and a Monitor, without decoding or
+ * copying it again. The player reads each block of samples into a
+ * Chunk taken from a pool, writes it to the transmitter and publishes
+ * it; every sink's thread then writes the same bytes, and the chunk
+ * returns to the pool once the last of them is done with it.
+ * <p>
+ * Every sink has a queue of its own, so how a slow sink is dealt
+ * with is up to its Backpressure. With DROP_OLDEST the oldest queued
+ * audio is dropped to make room and the sink is told how much (see
+ * AudioSink.skip), so the transmitter never waits for it. With BLOCK
+ * the player waits for room, holding up the broadcast. The
+ * transmitter itself is not one of these sinks: it is written on the
+ * player's thread, whose pace it sets.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class FanOut implements AutoCloseable
+{
+	private static final long CLOSE_TIMEOUT = 2000; // Milliseconds a sink gets to take its queued audio when closed.
+	private static final Chunk END = new Chunk(0);  // Queued to tell a sink's thread to finish.
+
+	/**
+	 * What happens when a sink's queue is full.
+	 */
+	public enum Backpressure
+	{
+		/** The player waits for the sink, and so does the broadcast. */
+		BLOCK,
+		/** The oldest queued audio is dropped. */
+		DROP_OLDEST
+	}
+
+	private final int chunkSize;
+	private final List<Lane> lanes = new ArrayList<Lane>( );
+	private final BlockingQueue<Chunk> free; // Chunks no sink is using.
+
+	/**
+	 * Creates a fan-out to the given outputs and starts a thread for
+	 * each of them.
+	 *
+	 * <hr>
+	 *
+	 * @param chunkSize The size in bytes of the blocks of samples published.
+	 * @param outputs   The sinks to feed, each with its queue; may be empty.
+	 */
+	public FanOut (int chunkSize, List<Output> outputs)
+	{
+		this.chunkSize = chunkSize;
+
+		// Every queued chunk, one being written by each sink and the player's own are all in use
+		// at worst, so the pool never holds more than that. It grows to what is needed.
+		int chunks = 2;
+		for (Output output : outputs)
+		{
+			lanes.add(new Lane(output));
+			chunks += output.depth + 1;
+		}
+		free = new ArrayBlockingQueue<Chunk>(chunks);
+	}
+
+	/**
+	 * Takes a chunk to read samples into from the pool.
+	 *
+	 * <hr>
+	 *
+	 * @return A chunk of chunkSize bytes owned by the caller.
+	 */
+	public Chunk acquire ( )
+	{
+		Chunk chunk = free.poll( );
+		return chunk != null ? chunk : new Chunk(chunkSize);
+	}
+
+	/**
+	 * Hands the first length bytes of chunk to every sink. Without
+	 * sinks the same chunk is given back right away.
+	 *
+	 * <hr>
+	 *
+	 * @param chunk  A chunk from acquire() holding the samples written to the transmitter.
+	 * @param length The number of bytes of samples in chunk.
+	 * @return The chunk to read the next samples into.
+	 * @throws InterruptedException If interrupted while waiting for a BLOCK sink.
+	 */
+	public Chunk publish (Chunk chunk, int length) throws InterruptedException
+	{
+		if (lanes.isEmpty( ))
+			return chunk;
+
+		chunk.length = length;
+		chunk.users.set(lanes.size( ));
+		for (Lane lane : lanes)
+			lane.offer(chunk);
+		return acquire( );
+	}
+
+	/**
+	 * Gives a chunk from acquire() or publish() which will not be
+	 * published back to the pool.
+	 *
+	 * <hr>
+	 *
+	 * @param chunk The chunk.
+	 */
+	public void release (Chunk chunk)
+	{
+		free.offer(chunk);
+	}
+
+	/**
+	 * Lets every sink write the audio queued for it, then closes the
+	 * sinks. A sink which takes longer than CLOSE_TIMEOUT is cut off.
+	 */
+	@Override
+	public void close ( )
+	{
+		boolean interrupted = Thread.interrupted( ); // Being stopped; still let the sinks finish.
+		for (Lane lane : lanes)
+			lane.finish( );
+		if (interrupted)
+			Thread.currentThread( ).interrupt( );
+	}
+
+	/**
+	 * A block of samples shared by the sinks it was published to.
+	 */
+	public static final class Chunk
+	{
+		private final byte[] samples;
+		private int length;
+		private final AtomicInteger users = new AtomicInteger( ); // Sinks yet to write it.
+
+		private Chunk (int size)
+		{
+			samples = new byte[size];
+		}
+
+		/** @return The buffer to read samples into, until the chunk is published. */
+		public byte[] getSamples ( ) { return samples; }
+	}
+
+	/**
+	 * A sink, the Backpressure applied to it and the number of chunks
+	 * which may be queued for it.
+	 */
+	public static final class Output
+	{
+		private final AudioSink sink;
+		private final Backpressure backpressure;
+		private final int depth;
+
+		public Output (AudioSink sink, Backpressure backpressure, int depth)
+		{
+			this.sink = sink;
+			this.backpressure = backpressure;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * The queue and thread feeding one sink.
+	 */
+	private final class Lane implements Runnable
+	{
+		private final Output output;
+		private final BlockingQueue<Chunk> queue;
+		private final Counter droppedBytes;
+		private final Thread thread;
+		private long dropped = 0;           // Bytes dropped since the sink was last told; guarded by queue.
+		private volatile boolean failed = false;
+
+		private Lane (Output output)
+		{
+			this.output = output;
+			this.queue = new ArrayBlockingQueue<Chunk>(output.depth);
+			this.droppedBytes = Metrics.counter("fmpirate_" + output.sink.getName( ) + "_dropped_bytes_total",
+					"Bytes of aired audio dropped because the " + output.sink.getName( ) + " fell behind");
+
+			thread = new Thread(this, "fmpirate-" + output.sink.getName( ));
+			thread.setDaemon(true);
+			thread.start( );
+		}
+
+		private void offer (Chunk chunk) throws InterruptedException
+		{
+			if (failed)
+				done(chunk);
+			else if (output.backpressure == Backpressure.BLOCK)
+				queue.put(chunk);
+			else
+			{
+				while (!queue.offer(chunk))
+				{
+					Chunk oldest;
+					synchronized (queue)
+					{
+						oldest = queue.poll( );
+						if (oldest != null)
+							dropped += oldest.length;
+					}
+					if (oldest != null)
+					{
+						droppedBytes.add(oldest.length);
+						done(oldest);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Writes each queued chunk to the sink, first telling it of any
+		 * audio dropped before it, until END comes or the sink fails.
+		 */
+		@Override
+		public void run ( )
+		{
+			AudioSink sink = output.sink;
+			try
+			{
+				Chunk chunk;
+				while ((chunk = queue.take( )) != END)
+				{
+					try
+					{
+						long lost;
+						synchronized (queue)
+						{
+							lost = dropped;
+							dropped = 0;
+						}
+						if (lost > 0)
+							sink.skip(lost);
+						sink.write(chunk.samples, chunk.length);
+					}
+					finally
+					{
+						done(chunk);
+					}
+				}
+			}
+			catch (IOException ioEx)
+			{
+				failed = true;
+				System.out.println("Stopped sending the aired audio to the " + sink.getName( ) + ": "
+						+ ioEx.getMessage( ));
+				for (Chunk chunk; (chunk = queue.poll( )) != null; )
+					done(chunk);
+			}
+			catch (InterruptedException intEx)
+			{
+				// Cut off by finish().
+			}
+			finally
+			{
+				try
+				{
+					sink.close( );
+				}
+				catch (IOException ioEx)
+				{
+					System.out.println("Could not close the " + sink.getName( ) + ": " + ioEx.getMessage( ));
+				}
+			}
+		}
+
+		private void finish ( )
+		{
+			try
+			{
+				if (failed || !queue.offer(END, CLOSE_TIMEOUT, TimeUnit.MILLISECONDS))
+					thread.interrupt( );
+				thread.join(CLOSE_TIMEOUT);
+			}
+			catch (InterruptedException intEx)
+			{
+				thread.interrupt( );
+				Thread.currentThread( ).interrupt( );
+			}
+		}
+
+		/**
+		 * Returns chunk to the pool once every sink it was published to is done with it.
+		 */
+		private void done (Chunk chunk)
+		{
+			if (chunk != END && chunk.users.decrementAndGet( ) == 0)
+				free.offer(chunk);
+		}
+	}
+}
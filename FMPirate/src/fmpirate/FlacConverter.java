@@ -0,0 +1,183 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: FlacConverter.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+
+/**
+ * Converts a FlacFile into the stream fm_transmitter expects, as
+ * PcmConverter does for a WAV file and with the same down-mixing,
+ * Resampler and gain, so a song sounds the same in either format.
+ * The file is decoded as it is read, a frame at a time: only the
+ * frame being resampled is held in memory, along with as much of the
+ * one before it as the resampling filter reaches back.
+ * <p>
+ * Seeking, i.e. to resume after a retune, starts decoding at the
+ * nearest point of the file's seek table before the position (the
+ * flac tool writes one every 10 seconds) and decodes up to it, or
+ * from the start in a file without one.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class FlacConverter implements PcmSource
+{
+	private static final int NOT_SEEKING = -2; // No seek point; -1 stands for the first frame.
+
+	private final FlacFile flac;
+	private final FlacDecoder decoder;
+	private final int channels;
+	private final float scale;            // Turns a source sample into the range [-1, 1).
+	private final long sourceFrames;      // Number of source frames.
+	private final double step;            // Source frames per output frame.
+	private final Resampler resampler;
+	private final float gain;             // Linear gain factor.
+	private final long frameCount;        // Number of output frames.
+
+	private final float[] window;         // Down-mixed source frames, from windowStart.
+	private int windowLength = 0;         // Frames in window.
+	private long windowStart = 0;         // Number of the source frame in window[0].
+	private long position = 0;            // Next output frame to produce.
+	private int seekPoint = NOT_SEEKING;  // Seek point to decode from before the next read.
+
+	/**
+	 * Opens flac and prepares the conversion.
+	 *
+	 * <hr>
+	 *
+	 * @param flac   The FLAC file to convert.
+	 * @param gainDb The gain to apply in decibels.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public FlacConverter (FlacFile flac, double gainDb) throws IOException
+	{
+		this.flac = flac;
+		this.decoder = new FlacDecoder(flac);
+		this.channels = flac.getChannels( );
+		this.scale = 1.0f / (1 << (flac.getBitsPerSample( ) - 1));
+		this.sourceFrames = flac.getFrameCount( );
+		this.step = (double) flac.getSampleRate( ) / PcmConverter.SAMPLE_RATE;
+		this.resampler = Resampler.forRate(flac.getSampleRate( ));
+		this.gain = (float) Math.pow(10.0, gainDb / 20.0);
+		this.frameCount = sourceFrames * PcmConverter.SAMPLE_RATE / flac.getSampleRate( );
+		this.window = new float[flac.getMaxBlockSize( ) + 2 * resampler.getReach( )];
+	}
+
+	/**
+	 * Fills up to length bytes of buffer with whole output frames,
+	 * starting at the current position.
+	 *
+	 * <hr>
+	 *
+	 * @param buffer The buffer to fill with 16-bit little-endian samples.
+	 * @param length The most bytes to write.
+	 * @return The number of bytes written to buffer or -1 at the end of the track.
+	 * @throws IOException If the file cannot be read or is corrupted.
+	 */
+	@Override
+	public int read (byte[] buffer, int length) throws IOException
+	{
+		if (position >= frameCount)
+			return -1;
+
+		int frames = (int) Math.min(length / PcmConverter.BYTES_PER_FRAME, frameCount - position);
+		for (int i = 0; i < frames; i++)
+		{
+			double source = (position + i) * step;
+			decodeUpTo(Math.min(sourceFrames - 1, (long) source + resampler.getReach( )));
+			float value = resampler.sample(window, windowStart, sourceFrames, source);
+
+			int sample = Math.round(value * gain * 32767.0f);
+			sample = sample > Short.MAX_VALUE ? Short.MAX_VALUE : (sample < Short.MIN_VALUE ? Short.MIN_VALUE : sample);
+			buffer[2 * i] = (byte) sample;
+			buffer[2 * i + 1] = (byte) (sample >> 8);
+		}
+		position += frames;
+		return frames * PcmConverter.BYTES_PER_FRAME;
+	}
+
+	/**
+	 * Decodes frames until window holds source frame index, keeping the
+	 * last 2 * reach frames of the previous window in front of the new
+	 * one, which is as far back as the filter needs.
+	 */
+	private void decodeUpTo (long index) throws IOException
+	{
+		if (seekPoint != NOT_SEEKING)
+		{
+			decoder.seek(flac.getSeekOffset(seekPoint), flac.getSeekSample(seekPoint));
+			windowStart = flac.getSeekSample(seekPoint);
+			windowLength = 0;
+			seekPoint = NOT_SEEKING;
+		}
+
+		while (index >= windowStart + windowLength)
+		{
+			int carried = 0;
+			if (windowLength > 0)
+			{
+				carried = Math.min(windowLength, 2 * resampler.getReach( ));
+				System.arraycopy(window, windowLength - carried, window, 0, carried);
+				windowStart += windowLength - carried;
+			}
+
+			int length = decoder.read( );
+			if (length < 0)
+				throw new IOException("Error while reading " + flac.getPath( ) + ", file is truncated");
+			if (carried == 0)
+				windowStart = decoder.getFrameStart( );
+
+			int[][] samples = decoder.getSamples( );
+			for (int i = 0; i < length; i++)
+			{
+				int sum = 0;
+				for (int c = 0; c < channels; c++)
+					sum += samples[c][i];
+				window[carried + i] = sum * scale / channels;
+			}
+			windowLength = carried + length;
+		}
+	}
+
+	/**
+	 * Moves the read position to the given output frame. The file is
+	 * only read again by the next read().
+	 *
+	 * <hr>
+	 *
+	 * @param frame The output frame to continue from.
+	 */
+	@Override
+	public void seek (long frame)
+	{
+		position = Math.max(0, Math.min(frame, frameCount));
+		long index = Math.max(0, (long) (position * step) - resampler.getReach( ) + 1); // First frame the filter needs.
+		if (index >= windowStart && index < windowStart + windowLength)
+			return;
+
+		int point = flac.seekPoint(index);
+		if (index > windowStart && flac.getSeekSample(point) < windowStart + windowLength)
+			return; // Decoding on from here is as close as the seek table gets.
+
+		seekPoint = point;
+	}
+
+	@Override
+	public long getPosition ( ) { return position; }
+
+	@Override
+	public long getFrameCount ( ) { return frameCount; }
+
+	@Override
+	public void close ( ) throws IOException
+	{
+		decoder.close( );
+	}
+}
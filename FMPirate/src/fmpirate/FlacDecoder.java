@@ -0,0 +1,475 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: FlacDecoder.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Decodes the frames of a FlacFile one at a time, as described by
+ * RFC 9639: constant, verbatim, fixed and LPC subframes with wasted
+ * bits, partitioned Rice coded residuals and the three stereo
+ * decorrelation modes. The file is read sequentially through a 64 KiB
+ * buffer and each frame is decoded into per-channel sample arrays
+ * sized for the largest block the file declares, so memory does not
+ * depend on the length of the file and nothing is allocated per frame.
+ * The checksums are not verified.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+final class FlacDecoder implements Closeable
+{
+	private static final int BUFFER_SIZE = 65536;
+	private static final int SYNC = 0x7FFC; // 14 bit frame sync code and the reserved bit.
+
+	private final FlacFile flac;
+	private final FileChannel channel;
+	private final byte[] bytes = new byte[BUFFER_SIZE];
+	private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+	private int index = 0;             // Next byte of bytes to move into cache.
+	private int limit = 0;             // End of the bytes read from the file.
+	private boolean ended = false;     // The file has been read to its end.
+	private long cache = 0;            // Unread bits, most significant first; the rest are zero.
+	private int bits = 0;              // Number of unread bits in cache.
+
+	private final int[][] samples;     // Samples of the last frame, per channel.
+	private final int[] coefficients = new int[32];
+	private long frameStart = 0;       // Number of the first sample of the last frame.
+	private long next = 0;             // Number of the first sample of the next frame.
+
+	/**
+	 * Opens flac at its first frame.
+	 *
+	 * <hr>
+	 *
+	 * @param flac The file to decode.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	FlacDecoder (FlacFile flac) throws IOException
+	{
+		this.flac = flac;
+		this.channel = FileChannel.open(flac.getPath( ), StandardOpenOption.READ);
+		this.samples = new int[flac.getChannels( )][flac.getMaxBlockSize( )];
+		seek(flac.getSeekOffset(-1), 0);
+	}
+
+	/**
+	 * Continues decoding from the frame at a position in the file.
+	 *
+	 * <hr>
+	 *
+	 * @param offset The position of a frame header in the file.
+	 * @param sample The number of the first sample of that frame.
+	 * @throws IOException If the file cannot be read.
+	 */
+	void seek (long offset, long sample) throws IOException
+	{
+		channel.position(offset);
+		index = limit = 0;
+		ended = false;
+		cache = 0;
+		bits = 0;
+		next = sample;
+	}
+
+	/**
+	 * Decodes the next frame into getSamples().
+	 *
+	 * <hr>
+	 *
+	 * @return The number of samples per channel decoded, or -1 after the last frame.
+	 * @throws IOException If the file cannot be read, is truncated or is corrupted.
+	 */
+	int read ( ) throws IOException
+	{
+		if (next >= flac.getFrameCount( ))
+			return -1;
+
+		if (readBits(15) != SYNC)
+			throw corrupted( );
+		boolean variable = readBits(1) == 1;
+		int blockCode = readBits(4);
+		int rateCode = readBits(4);
+		int assignment = readBits(4);
+		int sizeCode = readBits(3);
+		readBits(1);
+		long number = readCodedNumber( );
+
+		int blockSize;
+		if (blockCode == 0)
+			throw corrupted( );
+		else if (blockCode == 1)
+			blockSize = 192;
+		else if (blockCode <= 5)
+			blockSize = 576 << (blockCode - 2);
+		else if (blockCode == 6)
+			blockSize = readBits(8) + 1;
+		else if (blockCode == 7)
+			blockSize = readBits(16) + 1;
+		else
+			blockSize = 256 << (blockCode - 8);
+
+		if (rateCode == 12)
+			readBits(8);
+		else if (rateCode == 13 || rateCode == 14)
+			readBits(16);
+		else if (rateCode == 15)
+			throw corrupted( );
+		readBits(8); // CRC-8 of the header.
+
+		int bitsPerSample;
+		switch (sizeCode)
+		{
+			case 0: bitsPerSample = flac.getBitsPerSample( ); break;
+			case 1: bitsPerSample = 8; break;
+			case 2: bitsPerSample = 12; break;
+			case 4: bitsPerSample = 16; break;
+			case 5: bitsPerSample = 20; break;
+			case 6: bitsPerSample = 24; break;
+			default: throw new IOException("Error while reading " + flac.getPath( ) + ", unsupported FLAC format");
+		}
+
+		int channels = assignment < 8 ? assignment + 1 : 2;
+		if (channels != samples.length || assignment > 10 || blockSize > samples[0].length)
+			throw corrupted( );
+
+		for (int c = 0; c < channels; c++)
+		{
+			boolean side = (assignment == 8 && c == 1) || (assignment == 9 && c == 0) || (assignment == 10 && c == 1);
+			readSubframe(samples[c], blockSize, bitsPerSample + (side ? 1 : 0));
+		}
+		decorrelate(assignment, blockSize);
+
+		cache <<= bits & 7; // Padding to the byte boundary, since cache is filled a byte at a time.
+		bits -= bits & 7;
+		readBits(16);       // CRC-16 of the frame.
+
+		frameStart = variable ? number : number * flac.getMaxBlockSize( );
+		next = frameStart + blockSize;
+		return (int) Math.min(blockSize, flac.getFrameCount( ) - frameStart);
+	}
+
+	/**
+	 * Decodes one subframe.
+	 *
+	 * @param out           Receives the samples.
+	 * @param blockSize     The number of samples.
+	 * @param bitsPerSample Bits per sample, one more for a side channel.
+	 */
+	private void readSubframe (int[] out, int blockSize, int bitsPerSample) throws IOException
+	{
+		int header = readBits(8);
+		if ((header & 0x80) != 0)
+			throw corrupted( );
+		int type = header >> 1 & 0x3F;
+		int wasted = 0;
+		if ((header & 1) != 0)
+		{
+			wasted = readUnary( ) + 1;
+			bitsPerSample -= wasted;
+		}
+
+		if (type == 0) // Constant.
+		{
+			int value = readSigned(bitsPerSample);
+			for (int i = 0; i < blockSize; i++)
+				out[i] = value;
+		}
+		else if (type == 1) // Verbatim.
+		{
+			for (int i = 0; i < blockSize; i++)
+				out[i] = readSigned(bitsPerSample);
+		}
+		else if (type >= 8 && type <= 12) // Fixed predictor of order 0 to 4.
+		{
+			int order = type - 8;
+			for (int i = 0; i < order; i++)
+				out[i] = readSigned(bitsPerSample);
+			readResidual(out, blockSize, order);
+			restoreFixed(out, blockSize, order);
+		}
+		else if (type >= 32) // Linear predictor of order 1 to 32.
+		{
+			int order = type - 31;
+			for (int i = 0; i < order; i++)
+				out[i] = readSigned(bitsPerSample);
+			int precision = readBits(4) + 1;
+			int shift = readSigned(5);
+			if (precision == 16 || shift < 0)
+				throw corrupted( );
+			for (int i = 0; i < order; i++)
+				coefficients[i] = readSigned(precision);
+			readResidual(out, blockSize, order);
+			restoreLpc(out, blockSize, order, shift);
+		}
+		else
+			throw corrupted( );
+
+		if (wasted > 0)
+			for (int i = 0; i < blockSize; i++)
+				out[i] <<= wasted;
+	}
+
+	/**
+	 * Reads the partitioned Rice coded residual of a predicted subframe
+	 * into out, after the order warm up samples.
+	 */
+	private void readResidual (int[] out, int blockSize, int order) throws IOException
+	{
+		int method = readBits(2);
+		if (method > 1)
+			throw corrupted( );
+		int parameterBits = method == 0 ? 4 : 5;
+		int escape = (1 << parameterBits) - 1;
+		int partitionOrder = readBits(4);
+		int partitionSize = blockSize >> partitionOrder;
+		if (partitionSize << partitionOrder != blockSize || partitionSize < order)
+			throw corrupted( );
+
+		int i = order;
+		for (int partition = 0; partition < 1 << partitionOrder; partition++)
+		{
+			int end = (partition + 1) * partitionSize;
+			int parameter = readBits(parameterBits);
+			if (parameter == escape) // Stored as plain signed numbers.
+			{
+				int size = readBits(5);
+				for (; i < end; i++)
+					out[i] = size == 0 ? 0 : readSigned(size);
+				continue;
+			}
+
+			for (; i < end; i++)
+			{
+				if (bits < 57)
+					refill( );
+
+				// The unary quotient: zeros ending at a one.
+				int quotient;
+				if (cache != 0)
+				{
+					quotient = Long.numberOfLeadingZeros(cache);
+					cache <<= quotient;
+					cache <<= 1;
+					bits -= quotient + 1;
+				}
+				else
+					quotient = readUnary( );
+
+				int value = quotient << parameter;
+				if (parameter > 0)
+				{
+					if (bits < parameter)
+					{
+						refill( );
+						if (bits < parameter)
+							throw truncated( );
+					}
+					value |= (int) (cache >>> (64 - parameter));
+					cache <<= parameter;
+					bits -= parameter;
+				}
+				out[i] = (value >>> 1) ^ -(value & 1); // Zigzag back to signed.
+			}
+		}
+	}
+
+	private static void restoreFixed (int[] out, int blockSize, int order)
+	{
+		switch (order)
+		{
+			case 1:
+				for (int i = 1; i < blockSize; i++)
+					out[i] += out[i - 1];
+				break;
+			case 2:
+				for (int i = 2; i < blockSize; i++)
+					out[i] += 2 * out[i - 1] - out[i - 2];
+				break;
+			case 3:
+				for (int i = 3; i < blockSize; i++)
+					out[i] += 3 * (out[i - 1] - out[i - 2]) + out[i - 3];
+				break;
+			case 4:
+				for (int i = 4; i < blockSize; i++)
+					out[i] += 4 * (out[i - 1] + out[i - 3]) - 6 * out[i - 2] - out[i - 4];
+				break;
+			default: // Order 0: the residual is the signal.
+		}
+	}
+
+	private void restoreLpc (int[] out, int blockSize, int order, int shift)
+	{
+		int[] coefficients = this.coefficients;
+		for (int i = order; i < blockSize; i++)
+		{
+			long prediction = 0;
+			for (int j = 0; j < order; j++)
+				prediction += (long) coefficients[j] * out[i - 1 - j];
+			out[i] += (int) (prediction >> shift);
+		}
+	}
+
+	/**
+	 * Turns the two decoded channels of a stereo frame back into left
+	 * and right.
+	 */
+	private void decorrelate (int assignment, int blockSize)
+	{
+		int[] first = samples[0];
+		int[] second = samples.length > 1 ? samples[1] : null;
+		if (assignment == 8) // Left and side.
+		{
+			for (int i = 0; i < blockSize; i++)
+				second[i] = first[i] - second[i];
+		}
+		else if (assignment == 9) // Side and right.
+		{
+			for (int i = 0; i < blockSize; i++)
+				first[i] += second[i];
+		}
+		else if (assignment == 10) // Mid and side.
+		{
+			for (int i = 0; i < blockSize; i++)
+			{
+				int side = second[i];
+				int mid = first[i] << 1 | (side & 1);
+				first[i] = (mid + side) >> 1;
+				second[i] = (mid - side) >> 1;
+			}
+		}
+	}
+
+	/**
+	 * Reads the frame or sample number of a frame header, coded like
+	 * UTF-8 but up to 36 bits.
+	 */
+	private long readCodedNumber ( ) throws IOException
+	{
+		int first = readBits(8);
+		int length = Integer.numberOfLeadingZeros(~first << 24); // Leading ones.
+		if (length == 0)
+			return first;
+		if (length == 1 || length > 7)
+			throw corrupted( );
+
+		long value = first & (0x7F >> length);
+		for (int i = 1; i < length; i++)
+		{
+			int following = readBits(8);
+			if ((following & 0xC0) != 0x80)
+				throw corrupted( );
+			value = value << 6 | (following & 0x3F);
+		}
+		return value;
+	}
+
+	/**
+	 * Tops up cache from the file until it holds at least 57 bits or
+	 * the file has ended.
+	 */
+	private void refill ( ) throws IOException
+	{
+		while (bits <= 56)
+		{
+			if (index == limit)
+			{
+				if (ended)
+					return;
+				buffer.clear( );
+				int read = channel.read(buffer);
+				if (read < 0)
+				{
+					ended = true;
+					return;
+				}
+				index = 0;
+				limit = read;
+				continue;
+			}
+			cache |= (bytes[index++] & 0xFFL) << (56 - bits);
+			bits += 8;
+		}
+	}
+
+	/** Reads 1 to 32 bits as an unsigned number (a negative int for 32 bits with the top one set). */
+	private int readBits (int count) throws IOException
+	{
+		if (bits < count)
+		{
+			refill( );
+			if (bits < count)
+				throw truncated( );
+		}
+		int value = (int) (cache >>> (64 - count));
+		cache <<= count;
+		bits -= count;
+		return value;
+	}
+
+	/** Reads 1 to 32 bits as a two's complement number. */
+	private int readSigned (int count) throws IOException
+	{
+		int value = readBits(count);
+		return count == 32 ? value : value << (32 - count) >> (32 - count);
+	}
+
+	/** Reads zeros up to and including a one, returning their number. */
+	private int readUnary ( ) throws IOException
+	{
+		int zeros = 0;
+		while (true)
+		{
+			if (bits == 0)
+			{
+				refill( );
+				if (bits == 0)
+					throw truncated( );
+			}
+			if (cache == 0) // Every unread bit is a zero.
+			{
+				zeros += bits;
+				bits = 0;
+				continue;
+			}
+			int leading = Long.numberOfLeadingZeros(cache);
+			cache <<= leading;
+			cache <<= 1;
+			bits -= leading + 1;
+			return zeros + leading;
+		}
+	}
+
+	private IOException corrupted ( )
+	{
+		return new IOException("Error while reading " + flac.getPath( ) + ", file is corrupted");
+	}
+
+	private IOException truncated ( )
+	{
+		return new IOException("Error while reading " + flac.getPath( ) + ", file is truncated");
+	}
+
+	/** @return The samples of the last frame read, one array per channel. */
+	int[][] getSamples ( ) { return samples; }
+
+	/** @return The number of the first sample of the last frame read. */
+	long getFrameStart ( ) { return frameStart; }
+
+	@Override
+	public void close ( ) throws IOException
+	{
+		channel.close( );
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: FlacFile.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the metadata of a FLAC file: the format and length of the
+ * audio from its STREAMINFO block and, if it has one, the seek table
+ * that lets a FlacConverter resume in the middle of the file. The
+ * frames themselves are decoded by a FlacDecoder. Streams of 4 to 24
+ * bits per sample are accepted, which covers everything the flac tool
+ * writes from CD or studio audio; the length must be known.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class FlacFile implements AudioFile
+{
+	private static final int STREAMINFO = 0;
+	private static final int SEEKTABLE = 3;
+	private static final long PLACEHOLDER = -1L; // Sample number of an unused seek point.
+
+	private final Path path;
+	private final int channels;
+	private final int sampleRate;
+	private final int bitsPerSample;
+	private final long frameCount;
+	private final int maxBlockSize;    // Most samples per channel in one FLAC frame.
+	private final long audioOffset;    // Position of the first FLAC frame in the file.
+	private final long[] seekSamples;  // Sample number of each seek point, increasing.
+	private final long[] seekOffsets;  // Position of its frame relative to audioOffset.
+
+	private FlacFile (Path path, int channels, int sampleRate, int bitsPerSample, long frameCount,
+			int maxBlockSize, long audioOffset, long[] seekSamples, long[] seekOffsets)
+	{
+		this.path = path;
+		this.channels = channels;
+		this.sampleRate = sampleRate;
+		this.bitsPerSample = bitsPerSample;
+		this.frameCount = frameCount;
+		this.maxBlockSize = maxBlockSize;
+		this.audioOffset = audioOffset;
+		this.seekSamples = seekSamples;
+		this.seekOffsets = seekOffsets;
+	}
+
+	/**
+	 * Opens the file at path and reads its metadata blocks. An ID3v2
+	 * tag in front of the stream, which some taggers add, is skipped.
+	 *
+	 * <hr>
+	 *
+	 * @param path The FLAC file.
+	 * @return The parsed metadata.
+	 * @throws IOException If the file cannot be read or is not a supported FLAC file.
+	 */
+	public static FlacFile open (Path path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			ByteBuffer header = ByteBuffer.allocate(34);
+			long position = 0;
+
+			readFully(channel, header, position, 10, path);
+			if (header.get(0) == 'I' && header.get(1) == 'D' && header.get(2) == '3')
+			{
+				int size = (header.get(6) & 0x7F) << 21 | (header.get(7) & 0x7F) << 14
+						| (header.get(8) & 0x7F) << 7 | (header.get(9) & 0x7F);
+				position = 10 + size + ((header.get(5) & 0x10) != 0 ? 10 : 0); // Footer flag.
+				readFully(channel, header, position, 4, path);
+			}
+			if (header.getInt(0) != ('f' << 24 | 'L' << 16 | 'a' << 8 | 'C'))
+				throw new IOException("Error while opening " + path + ", FLAC file expected");
+			position += 4;
+
+			int channels = 0, sampleRate = 0, bitsPerSample = 0, maxBlockSize = 0;
+			long frameCount = 0;
+			long[] seekSamples = new long[0], seekOffsets = new long[0];
+			boolean streamInfo = false, last = false;
+
+			while (!last)
+			{
+				readFully(channel, header, position, 4, path);
+				int block = header.getInt(0);
+				last = block < 0;
+				int type = (block >>> 24) & 0x7F;
+				int length = block & 0xFFFFFF;
+				position += 4;
+
+				if (type == STREAMINFO)
+				{
+					if (length < 34)
+						throw new IOException("Error while opening " + path + ", data corrupted");
+					readFully(channel, header, position, 34, path);
+					maxBlockSize = header.getShort(2) & 0xFFFF;
+					long fields = header.getLong(10); // Rate 20, channels 3, bits 5, samples 36.
+					sampleRate = (int) (fields >>> 44);
+					channels = (int) (fields >>> 41 & 0x7) + 1;
+					bitsPerSample = (int) (fields >>> 36 & 0x1F) + 1;
+					frameCount = fields & 0xFFFFFFFFFL;
+					streamInfo = true;
+				}
+				else if (type == SEEKTABLE)
+				{
+					ByteBuffer table = ByteBuffer.allocate(length);
+					readFully(channel, table, position, length, path);
+					int points = 0;
+					seekSamples = new long[length / 18];
+					seekOffsets = new long[length / 18];
+					for (int i = 0; i + 18 <= length; i += 18)
+					{
+						long sample = table.getLong(i);
+						if (sample == PLACEHOLDER || (points > 0 && sample <= seekSamples[points - 1]))
+							continue;
+						seekSamples[points] = sample;
+						seekOffsets[points++] = table.getLong(i + 8);
+					}
+					seekSamples = Arrays.copyOf(seekSamples, points);
+					seekOffsets = Arrays.copyOf(seekOffsets, points);
+				}
+				position += length;
+			}
+
+			if (!streamInfo)
+				throw new IOException("Error while opening " + path + ", data corrupted");
+			if (sampleRate == 0 || bitsPerSample < 4 || bitsPerSample > 24 || maxBlockSize < 16)
+				throw new IOException("Error while opening " + path + ", unsupported FLAC format");
+			if (frameCount == 0)
+				throw new IOException("Error while opening " + path + ", FLAC file of unknown length");
+
+			return new FlacFile(path, channels, sampleRate, bitsPerSample, frameCount, maxBlockSize, position,
+					seekSamples, seekOffsets);
+		}
+	}
+
+	private static void readFully (FileChannel channel, ByteBuffer buffer, long position,
+			int length, Path path) throws IOException
+	{
+		buffer.clear( ).limit(length);
+		while (buffer.hasRemaining( ))
+		{
+			if (channel.read(buffer, position + buffer.position( )) < 0)
+				throw new IOException("Error while reading " + path + ", file is corrupted");
+		}
+	}
+
+	/**
+	 * Finds where decoding has to start to reach a sample: the last
+	 * seek point at or before it, or the first frame.
+	 *
+	 * <hr>
+	 *
+	 * @param sample The sample to reach.
+	 * @return The index of the seek point, or -1 for the first frame.
+	 */
+	int seekPoint (long sample)
+	{
+		int index = Arrays.binarySearch(seekSamples, sample);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	/** @return The sample number of a seek point, or 0 for -1. */
+	long getSeekSample (int point) { return point < 0 ? 0 : seekSamples[point]; }
+
+	/** @return The position in the file of the frame of a seek point, or of the first frame for -1. */
+	long getSeekOffset (int point) { return audioOffset + (point < 0 ? 0 : seekOffsets[point]); }
+
+	@Override
+	public PcmSource convert (double gainDb) throws IOException
+	{
+		return new FlacConverter(this, gainDb);
+	}
+
+	@Override
+	public Loudness measure ( ) throws IOException
+	{
+		return Loudness.measure(this);
+	}
+
+	@Override
+	public Path getPath ( ) { return path; }
+
+	@Override
+	public int getChannels ( ) { return channels; }
+
+	@Override
+	public int getSampleRate ( ) { return sampleRate; }
+
+	@Override
+	public int getBitsPerSample ( ) { return bitsPerSample; }
+
+	@Override
+	public long getFrameCount ( ) { return frameCount; }
+
+	public int getMaxBlockSize ( ) { return maxBlockSize; }
+}
@@ -0,0 +1,388 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: HeadlessController.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the station without a window, for an unattended transmitter:
+ * no AWT or Swing class is loaded, and the broadcast is controlled
+ * over HTTP on the loopback interface instead of with ControllerGUI.
+ * The port is set with the fmpirate.control.port property (default
+ * 9465). Commands are POSTed and run one at a time, in order, on the
+ * server's single thread, so Playlist and PlaylistManager are only
+ * ever touched by one thread, as with the GUI's CommandQueue:
+ * <pre>
+ *   POST /play?playlist=NAME.txt&amp;frequency=102.1  Plays a playlist (both optional after the first play).
+ *   POST /shuffle?playlist=NAME.txt&amp;frequency=F   Shuffles the playlist and plays it.
+ *   POST /stop                                      Stops the broadcast.
+ *   POST /retune?frequency=F                        Moves the broadcast to F.
+ *   POST /skip                                      Moves on to the next song.
+ *   GET  /status                                    Describes the broadcast.
+ * </pre>
+ * A playlist name is looked up in "../Playlists"; names which are
+ * absolute or lead out of it are refused.
+ * <p>
+ * Listening on the loopback interface only keeps other machines out,
+ * not web pages open in a browser on the Pi, which can POST to it too.
+ * So a request is refused with 403 if it carries an Origin header,
+ * which browsers add to cross-site requests and curl does not, or if
+ * its Host is not 127.0.0.1, localhost or [::1], as after a DNS
+ * rebinding. Every response is plain text; failures have a 4xx or 5xx
+ * status.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class HeadlessController
+{
+	private static final int PORT = Integer.getInteger("fmpirate.control.port", 9465);
+	private static final Path PLAYLISTS = Paths.get("../Playlists");
+
+	private Playlist playlist;          // Last playlist played or shuffled.
+	private String playlistPath;        // Path of the playlist file to play.
+	private String frequency = "102.1"; // Frequency of the next broadcast.
+	private boolean shuffled = false;   // True to replay the shuffled order on the next plain play.
+
+	/**
+	 * Starts the control server. Returns right away; the server's
+	 * thread keeps the program running until it is killed, at which
+	 * point the broadcast is stopped and its checkpoint saved.
+	 *
+	 * <hr>
+	 *
+	 * @throws IOException If the port cannot be opened.
+	 */
+	public void start ( ) throws IOException
+	{
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress( ), PORT), 0);
+		server.setExecutor(Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "fmpirate-control")));
+
+		command(server, "/play", this::play);
+		command(server, "/shuffle", this::shuffle);
+		command(server, "/stop", parameters -> stop( ));
+		command(server, "/retune", this::retune);
+		command(server, "/skip", parameters -> {
+			if (!PlaylistManager.isPlaying( ))
+				throw new Refusal(409, "Not playing");
+			if (!PlaylistManager.skip( ))
+				throw new Refusal(409, "The " + PlaylistManager.getBackend( ) + " backend cannot skip");
+			return "Skipped\n";
+		});
+		server.createContext("/status", exchange -> {
+			if (!isLocal(exchange))
+				respond(exchange, 403, "Only for local clients\n");
+			else if (!exchange.getRequestMethod( ).equals("GET"))
+				respond(exchange, 405, "Use GET\n");
+			else
+				respond(exchange, 200, status( ));
+		});
+
+		if (PlaylistManager.isPlaying( )) // Resumed from the checkpoint; a plain play replays it.
+		{
+			playlistPath = PlaylistManager.getPlaylistFile( );
+			frequency = PlaylistManager.getFrequency( );
+			shuffled = PlaylistManager.isShuffled( );
+		}
+
+		Runtime.getRuntime( ).addShutdownHook(new Thread(( ) -> {
+			try
+			{
+				PlaylistManager.shutdown( ); // Keeps the checkpoint, to resume after a reboot.
+			}
+			catch (Exception ex)
+			{
+				System.out.println("Could not stop the broadcast: " + ex.getMessage( ));
+			}
+		}, "fmpirate-shutdown"));
+
+		server.start( );
+		Metrics.start( );
+		System.out.println("Control API at http://127.0.0.1:" + PORT + "/");
+	}
+
+	/**
+	 * Plays the given playlist, or the current one, on the given
+	 * frequency, or the current one. A plain play after a shuffle
+	 * plays the shuffled order again.
+	 */
+	private String play (Map<String, String> parameters) throws Exception
+	{
+		boolean changed = select(parameters);
+		if (playlistPath == null)
+			throw new Refusal(400, "No playlist given");
+
+		if (PlaylistManager.isPlaying( ))
+			PlaylistManager.stop( );
+
+		if (shuffled && !changed)
+			PlaylistManager.play( );
+		else
+		{
+			playlist = new Playlist(playlistPath, frequency);
+			PlaylistManager.play(playlist);
+			shuffled = false;
+		}
+		return "Playing " + playlistPath + " on " + frequency + "\n" + PlaylistManager.getPreflightProblems( );
+	}
+
+	/**
+	 * Shuffles the given playlist, or the current one, and plays it.
+	 */
+	private String shuffle (Map<String, String> parameters) throws Exception
+	{
+		boolean changed = select(parameters);
+		if (playlistPath == null)
+			throw new Refusal(400, "No playlist given");
+
+		if (PlaylistManager.isPlaying( ))
+			PlaylistManager.stop( );
+
+		if (playlist == null || changed)
+			playlist = new Playlist(playlistPath, frequency);
+
+		PlaylistManager.shuffle(playlist, frequency);
+		PlaylistManager.play( );
+		shuffled = true;
+		return "Playing " + playlistPath + " shuffled on " + frequency + "\n" + PlaylistManager.getPreflightProblems( );
+	}
+
+	private String stop ( ) throws Exception
+	{
+		if (!PlaylistManager.isPlaying( ))
+			return "Not playing\n";
+
+		PlaylistManager.stop( );
+		return "Stopped\n";
+	}
+
+	/**
+	 * Moves the broadcast to a new frequency. A backend which cannot
+	 * retune in place uses it from the next play on.
+	 */
+	private String retune (Map<String, String> parameters)
+	{
+		String newFrequency = parameters.get("frequency");
+		if (newFrequency == null || !Playlist.isFrequency(newFrequency))
+			throw new Refusal(400, "Give a frequency such as 102.1");
+
+		frequency = newFrequency;
+		if (PlaylistManager.retune(newFrequency))
+			return "Retuned to " + newFrequency + "\n";
+
+		shuffled = false; // As in ControllerGUI: the next play starts over on the new frequency.
+		return "Frequency set to " + newFrequency + "; it is used from the next play on\n";
+	}
+
+	/**
+	 * Takes the playlist and frequency parameters, if given, as the
+	 * ones to play next.
+	 *
+	 * @return True if either differs from what was played last.
+	 */
+	private boolean select (Map<String, String> parameters)
+	{
+		String newFrequency = parameters.get("frequency");
+		if (newFrequency != null && !Playlist.isFrequency(newFrequency))
+			throw new Refusal(400, "Give a frequency such as 102.1");
+
+		boolean changed = false;
+		String newPlaylist = parameters.get("playlist");
+		if (newPlaylist != null)
+		{
+			String path = playlistPath(newPlaylist);
+			changed = !path.equals(playlistPath);
+			playlistPath = path;
+		}
+
+		if (newFrequency != null)
+		{
+			changed |= !newFrequency.equals(frequency);
+			frequency = newFrequency;
+		}
+		return changed;
+	}
+
+	/**
+	 * @param name The name of a playlist, such as "NAME.txt" or "rock/NAME.txt".
+	 * @return Its path in "../Playlists".
+	 * @throws Refusal If the name is absolute or leads out of "../Playlists".
+	 */
+	private static String playlistPath (String name)
+	{
+		try
+		{
+			Path path = PLAYLISTS.resolve(name).normalize( );
+			if (!Paths.get(name).isAbsolute( ) && path.startsWith(PLAYLISTS) && !path.equals(PLAYLISTS))
+				return path.toString( );
+		}
+		catch (InvalidPathException ipEx)
+		{
+			// Refused below.
+		}
+		throw new Refusal(400, "Give the name of a playlist in ../Playlists");
+	}
+
+	/**
+	 * Describes the broadcast, one "name: value" pair per line.
+	 */
+	private String status ( )
+	{
+		StringBuilder text = new StringBuilder( );
+		boolean playing = PlaylistManager.isPlaying( );
+		text.append("state: ").append(playing ? "playing" : "stopped").append('\n');
+		text.append("backend: ").append(PlaylistManager.getBackend( )).append('\n');
+		text.append("frequency: ").append(playing ? PlaylistManager.getFrequency( ) : frequency).append('\n');
+		if (playlistPath != null)
+			text.append("playlist: ").append(playlistPath).append(shuffled ? " (shuffled)" : "").append('\n');
+
+		int position = PlaylistManager.getPosition( );
+		if (position >= 0)
+		{
+			text.append("song: ").append(position + 1).append(" of ").append(PlaylistManager.getSongCount( ))
+					.append('\n');
+			String song = PlaylistManager.getCurrentSong( );
+			if (song != null)
+				text.append("file: ").append(song).append('\n');
+		}
+
+		double ahead = PlaylistManager.getDecodedAhead( );
+		if (ahead >= 0)
+			text.append("decoded ahead: ").append(String.format(Locale.ROOT, "%.2f s", ahead)).append('\n');
+		return text.toString( );
+	}
+
+	/**
+	 * A command run for a POST to a path, given the query parameters.
+	 * It returns the response text, or throws to fail the request.
+	 */
+	private interface Command
+	{
+		String run (Map<String, String> parameters) throws Exception;
+	}
+
+	/**
+	 * Thrown by a command to answer with a status other than 200.
+	 */
+	private static final class Refusal extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+		private final int status;
+
+		private Refusal (int status, String message)
+		{
+			super(message);
+			this.status = status;
+		}
+	}
+
+	/**
+	 * Serves command at path: only POST from a local client is
+	 * accepted, the command's failure is logged and returned with status
+	 * 500, and its duration is logged as for the GUI's commands.
+	 */
+	private static void command (HttpServer server, String path, Command command)
+	{
+		server.createContext(path, exchange -> {
+			if (!isLocal(exchange))
+			{
+				respond(exchange, 403, "Only for local clients\n");
+				return;
+			}
+			if (!exchange.getRequestMethod( ).equals("POST"))
+			{
+				respond(exchange, 405, "Use POST\n");
+				return;
+			}
+
+			long start = System.nanoTime( );
+			try
+			{
+				respond(exchange, 200, command.run(parameters(exchange.getRequestURI( ).getRawQuery( ))));
+			}
+			catch (Refusal refusal)
+			{
+				respond(exchange, refusal.status, refusal.getMessage( ) + "\n");
+			}
+			catch (Exception ex)
+			{
+				System.out.println("Command " + path + " failed:");
+				ex.printStackTrace( );
+				respond(exchange, 500, "Failed: " + ex + "\n");
+			}
+			System.out.printf("Command %s took %.1f ms%n", path, (System.nanoTime( ) - start) / 1e6);
+		});
+	}
+
+	/**
+	 * @return True if the request has no Origin header, so it was not
+	 *         sent by a web page, and names the loopback interface as
+	 *         its Host.
+	 */
+	private static boolean isLocal (HttpExchange exchange)
+	{
+		if (exchange.getRequestHeaders( ).containsKey("Origin"))
+			return false;
+
+		String host = exchange.getRequestHeaders( ).getFirst("Host");
+		if (host == null)
+			return false;
+
+		int port = host.startsWith("[") ? host.indexOf("]:") + 1 : host.lastIndexOf(':');
+		if (port > 0)
+			host = host.substring(0, port);
+		host = host.toLowerCase(Locale.ROOT);
+		return host.equals("127.0.0.1") || host.equals("localhost") || host.equals("[::1]");
+	}
+
+	/**
+	 * Decodes a URL query string such as "playlist=a%20b.txt&amp;frequency=102.1".
+	 */
+	private static Map<String, String> parameters (String query)
+	{
+		Map<String, String> parameters = new HashMap<String, String>( );
+		if (query == null)
+			return parameters;
+
+		for (String pair : query.split("&"))
+		{
+			int split = pair.indexOf('=');
+			if (split > 0)
+				parameters.put(URLDecoder.decode(pair.substring(0, split), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(split + 1), StandardCharsets.UTF_8));
+		}
+		return parameters;
+	}
+
+	private static void respond (HttpExchange exchange, int status, String text) throws IOException
+	{
+		byte[] body = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders( ).set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody( ))
+		{
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Histogram.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of durations, such as the gap between two tracks,
+ * recorded in nanoseconds. Like an HDR histogram, values are counted
+ * in buckets which are linear within each power of two: every power
+ * of two is split into SUB_BUCKETS buckets, so any quantile is known
+ * to within about 6% of its value from 1 ns up to hours, in a fixed
+ * array of counts. Recording is lock-free and never allocates.
+ * Histograms are created and exported by Metrics.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Histogram
+{
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;  // Buckets per power of two.
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final String name;
+	private final String help;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder( );
+	private final LongAdder sum = new LongAdder( );
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	Histogram (String name, String help)
+	{
+		this.name = name;
+		this.help = help;
+	}
+
+	/**
+	 * Records one value.
+	 *
+	 * <hr>
+	 *
+	 * @param nanos A duration in nanoseconds; negative values count as 0.
+	 */
+	public void record (long nanos)
+	{
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucket(value));
+		count.increment( );
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Records the time elapsed since start.
+	 *
+	 * <hr>
+	 *
+	 * @param start A System.nanoTime() value.
+	 */
+	public void recordSince (long start)
+	{
+		record(System.nanoTime( ) - start);
+	}
+
+	/**
+	 * Values below SUB_BUCKETS have a bucket each; above that, the
+	 * highest bit picks the power of two and the SUB_BITS bits below
+	 * it pick the bucket within it.
+	 */
+	private static int bucket (long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return The highest value which falls into bucket.
+	 */
+	private static long upperBound (int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Returns the value below which the given fraction of the recorded
+	 * values fall, rounded up to the end of its bucket and never above
+	 * the largest value recorded.
+	 *
+	 * <hr>
+	 *
+	 * @param quantile The fraction, from 0 to 1 (i.e. 0.99).
+	 * @return The quantile in nanoseconds, 0 if nothing was recorded.
+	 */
+	public long quantile (double quantile)
+	{
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += snapshot[i];
+			if (seen >= rank)
+				return Math.min(upperBound(i), getMax( ));
+		}
+		return getMax( );
+	}
+
+	public long getCount ( ) { return count.sum( ); }
+
+	/** @return The sum of all values recorded, in nanoseconds. */
+	public long getSum ( ) { return sum.sum( ); }
+
+	/** @return The largest value recorded, in nanoseconds. */
+	public long getMax ( ) { return max.get( ); }
+
+	public String getName ( ) { return name; }
+
+	public String getHelp ( ) { return help; }
+}
@@ -0,0 +1,114 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Limiter.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.Arrays;
+
+/**
+ * A look-ahead peak limiter, keeping every sample within a ceiling so
+ * that the transmitter never over-deviates, without the distortion of
+ * clipping. The signal is delayed by the look-ahead; meanwhile the
+ * gain each sample needs (ceiling / |sample|, at most 1) is held at
+ * its minimum over the look-ahead window and that is averaged over
+ * the same window, so the gain ramps down smoothly and reaches what a
+ * peak needs by the time the peak comes out of the delay. Once the
+ * peaks have passed, the gain recovers exponentially with the release
+ * time. The window minimum is kept in a monotonic queue, so the cost
+ * per sample does not depend on the look-ahead.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Limiter implements DspStage
+{
+	private final float ceiling;   // Largest output magnitude.
+	private final float release;   // Fraction of the way back to the target gain recovered per sample.
+	private final int window;      // Look-ahead in samples; the delay is one less.
+	private final String description;
+
+	private final float[] delay;   // Input samples, the last window of them.
+	private final float[] average; // Window minimums, the last window of them.
+	private final float[] queue;   // Gains which may still become the window minimum, increasing.
+	private final long[] queued;   // Sample number of each gain in queue.
+	private int position = 0;      // Slot of the current sample in delay and average.
+	private int first = 0;         // Slot of the oldest gain in queue.
+	private int size = 0;          // Gains in queue.
+	private long sample = 0;       // Number of the current sample.
+	private double sum;            // Sum of average.
+	private float gain = 1;        // Gain applied to the last output sample.
+
+	/**
+	 * Creates a limiter.
+	 *
+	 * <hr>
+	 *
+	 * @param ceilingDb  The largest output level in dBFS, i.e. -1.
+	 * @param lookahead  The look-ahead, and so the delay, in milliseconds.
+	 * @param releaseMs  The time in milliseconds the gain takes to recover about 63% of the way.
+	 * @param sampleRate The sample rate in Hz.
+	 */
+	public Limiter (double ceilingDb, double lookahead, double releaseMs, int sampleRate)
+	{
+		this.ceiling = (float) Math.pow(10, ceilingDb / 20);
+		this.release = (float) (1 - Math.exp(-1000.0 / (releaseMs * sampleRate)));
+		this.window = Math.max(1, (int) Math.round(lookahead * sampleRate / 1000));
+		this.description = String.format("limiter at %.1f dBFS (%.1f ms look-ahead, %.0f ms release)", ceilingDb,
+				lookahead, releaseMs);
+
+		delay = new float[window];
+		average = new float[window];
+		queue = new float[window];
+		queued = new long[window];
+		Arrays.fill(average, 1);
+		sum = window;
+	}
+
+	@Override
+	public void process (float[] block, int length)
+	{
+		for (int i = 0; i < length; i++, sample++)
+		{
+			float x = block[i];
+			float magnitude = Math.abs(x);
+			float needed = magnitude > ceiling ? ceiling / magnitude : 1;
+
+			// Minimum of the gains needed by the last window samples.
+			if (size > 0 && queued[first] <= sample - window)
+			{
+				first = first + 1 == window ? 0 : first + 1;
+				size--;
+			}
+			while (size > 0 && queue[(first + size - 1) % window] >= needed)
+				size--;
+			queue[(first + size) % window] = needed;
+			queued[(first + size) % window] = sample;
+			size++;
+			float minimum = queue[first];
+
+			// Averaged over the window, it reaches each minimum window - 1 samples later, when its sample leaves delay.
+			sum += minimum - average[position];
+			average[position] = minimum;
+			float target = (float) (sum / window);
+
+			gain = target < gain ? target : gain + (target - gain) * release;
+
+			delay[position] = x;
+			position = position + 1 == window ? 0 : position + 1;
+			float out = delay[position] * gain;
+			block[i] = out > ceiling ? ceiling : (out < -ceiling ? -ceiling : out); // Rounding only.
+		}
+	}
+
+	@Override
+	public String toString ( )
+	{
+		return description;
+	}
+}
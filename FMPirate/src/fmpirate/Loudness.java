@@ -0,0 +1,358 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Loudness.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Integrated loudness and true peak of a song file, measured as
+ * described by ITU-R BS.1770-4 (which EBU R128 and ReplayGain 2.0
+ * build on): the samples are K-weighted, their mean square is taken
+ * over 400 ms blocks overlapping by 75%, and blocks below -70 LUFS
+ * and then below 10 LU under the mean of the rest are gated out.
+ * The true peak is the largest sample of the signal oversampled
+ * four times.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Loudness
+{
+	private static final double ABSOLUTE_GATE = -70.0; // LUFS.
+	private static final double RELATIVE_GATE = -10.0; // LU below the absolutely gated loudness.
+	private static final int OVERSAMPLING = 4;
+	private static final int TAPS_PER_PHASE = 12;
+	private static final int BLOCK = 4096; // Sample frames handed to the Meter at once.
+
+	// Interpolation filter for the true peak: a Blackman-windowed sinc of 48 taps, the size of
+	// the example filter in BS.1770-4 Annex 2, split into one 12 tap filter per output phase.
+	private static final double[][] PHASES = interpolationFilter( );
+
+	private final double integrated; // Integrated loudness in LUFS, -Infinity for silence.
+	private final double truePeak;   // True peak in dBTP.
+
+	/**
+	 * Creates a measurement from known values, i.e. read from a cache.
+	 *
+	 * <hr>
+	 *
+	 * @param integrated Integrated loudness in LUFS.
+	 * @param truePeak   True peak in dBTP.
+	 */
+	public Loudness (double integrated, double truePeak)
+	{
+		this.integrated = integrated;
+		this.truePeak = truePeak;
+	}
+
+	/**
+	 * Measures the loudness of wave, reading its samples once.
+	 *
+	 * <hr>
+	 *
+	 * @param wave The file to measure.
+	 * @return Its integrated loudness and true peak.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static Loudness measure (WaveFile wave) throws IOException
+	{
+		MappedByteBuffer data = wave.map( );
+		int channels = wave.getChannels( );
+		boolean eightBit = wave.getBitsPerSample( ) == 8;
+		long frames = wave.getFrameCount( );
+		Meter meter = new Meter(channels, wave.getSampleRate( ), frames);
+		double[][] block = new double[channels][BLOCK];
+		ShortBuffer shorts = data.asShortBuffer( );
+		short[] interleaved = new short[eightBit ? 0 : BLOCK * channels];
+		byte[] bytes = new byte[eightBit ? BLOCK * channels : 0];
+
+		// Read in bulk: a get( ) per sample is a call the JIT does not always inline.
+		for (long frame = 0; frame < frames; frame += BLOCK)
+		{
+			int length = (int) Math.min(BLOCK, frames - frame);
+			if (eightBit)
+				data.get(bytes, 0, length * channels);
+			else
+				shorts.get(interleaved, 0, length * channels);
+			for (int c = 0; c < channels; c++)
+			{
+				double[] samples = block[c];
+				for (int i = 0, j = c; i < length; i++, j += channels)
+					samples[i] = eightBit ? ((bytes[j] & 0xFF) - 128) / 128.0 : interleaved[j] / 32768.0;
+			}
+			meter.add(block, length);
+		}
+		return meter.result( );
+	}
+
+	/**
+	 * Measures the loudness of flac, decoding it once.
+	 *
+	 * <hr>
+	 *
+	 * @param flac The file to measure.
+	 * @return Its integrated loudness and true peak.
+	 * @throws IOException If the file cannot be read or is corrupted.
+	 */
+	public static Loudness measure (FlacFile flac) throws IOException
+	{
+		int channels = flac.getChannels( );
+		double scale = 1.0 / (1 << (flac.getBitsPerSample( ) - 1));
+		Meter meter = new Meter(channels, flac.getSampleRate( ), flac.getFrameCount( ));
+		double[][] block = new double[channels][flac.getMaxBlockSize( )];
+
+		try (FlacDecoder decoder = new FlacDecoder(flac))
+		{
+			int[][] samples = decoder.getSamples( );
+			for (int length = decoder.read( ); length >= 0; length = decoder.read( ))
+			{
+				for (int c = 0; c < channels; c++)
+					for (int i = 0; i < length; i++)
+						block[c][i] = samples[c][i] * scale;
+				meter.add(block, length);
+			}
+		}
+		return meter.result( );
+	}
+
+	/**
+	 * Computes the gated loudness from the mean squares of consecutive
+	 * 100 ms quarters; every four of them form a 400 ms block.
+	 */
+	private static double gate (double[] quarters, int count)
+	{
+		int blocks = Math.max(0, count - 3);
+		double[] energies = new double[blocks];
+		for (int i = 0; i < blocks; i++)
+			energies[i] = (quarters[i] + quarters[i + 1] + quarters[i + 2] + quarters[i + 3]) / 4;
+
+		double absolute = meanAbove(energies, ABSOLUTE_GATE);
+		if (Double.isNaN(absolute))
+			return Double.NEGATIVE_INFINITY;
+
+		// A block must pass both gates, so the relative one never lets in what the absolute one kept out.
+		double relative = meanAbove(energies, Math.max(ABSOLUTE_GATE, toLufs(absolute) + RELATIVE_GATE));
+		return toLufs(Double.isNaN(relative) ? absolute : relative);
+	}
+
+	/**
+	 * @return The mean of the energies louder than threshold LUFS, or NaN if there are none.
+	 */
+	private static double meanAbove (double[] energies, double threshold)
+	{
+		double sum = 0;
+		int count = 0;
+		for (double energy : energies)
+		{
+			if (toLufs(energy) > threshold)
+			{
+				sum += energy;
+				count++;
+			}
+		}
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	private static double toLufs (double energy)
+	{
+		return -0.691 + 10 * Math.log10(energy);
+	}
+
+	/**
+	 * Designs the polyphase interpolation filter used for the true
+	 * peak, normalized so that every phase passes DC unchanged.
+	 */
+	private static double[][] interpolationFilter ( )
+	{
+		int length = OVERSAMPLING * TAPS_PER_PHASE;
+		double center = (length - 1) / 2.0;
+		double[][] phases = new double[OVERSAMPLING][TAPS_PER_PHASE];
+
+		for (int n = 0; n < length; n++)
+		{
+			double x = (n - center) / OVERSAMPLING;
+			double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+			double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * (n + 0.5) / length)
+					+ 0.08 * Math.cos(4 * Math.PI * (n + 0.5) / length);
+			phases[n % OVERSAMPLING][n / OVERSAMPLING] = sinc * window;
+		}
+
+		for (double[] phase : phases)
+		{
+			double sum = Arrays.stream(phase).sum( );
+			for (int k = 0; k < phase.length; k++)
+				phase[k] /= sum;
+		}
+		return phases;
+	}
+
+	/**
+	 * Gain in dB which brings this loudness to target without letting
+	 * the true peak rise above ceiling. Silence gets no gain.
+	 *
+	 * <hr>
+	 *
+	 * @param target  Loudness to reach in LUFS.
+	 * @param ceiling Highest true peak allowed in dBTP.
+	 * @return The gain to apply in dB.
+	 */
+	public double gainFor (double target, double ceiling)
+	{
+		if (Double.isInfinite(integrated))
+			return 0;
+		return Math.min(target - integrated, ceiling - truePeak);
+	}
+
+	public double getIntegrated ( ) { return integrated; }
+
+	public double getTruePeak ( ) { return truePeak; }
+
+	@Override
+	public String toString ( )
+	{
+		return String.format("%.1f LUFS, %.1f dBTP", integrated, truePeak);
+	}
+
+	/**
+	 * Accumulates the measurement a block of samples at a time: the
+	 * K-weighted energy of each 100 ms quarter and the true peak. The
+	 * running values are kept in locals while a block is measured.
+	 */
+	private static final class Meter
+	{
+		private final KWeighting[] filters;
+		private final double[][] history; // Per channel, a ring stored twice to avoid wrapping.
+		private final int blockFrames;    // 100 ms, a quarter of a gating block.
+		private final double[] quarters;
+		private int quarterCount = 0;
+		private double sum = 0;           // Sum of squares of the current quarter, over all channels.
+		private int inQuarter = 0;
+		private double peak = 0;
+		private int head = 0;             // Slot of the newest sample in the history ring.
+
+		Meter (int channels, int sampleRate, long frames)
+		{
+			filters = new KWeighting[channels];
+			history = new double[channels][2 * TAPS_PER_PHASE];
+			for (int c = 0; c < channels; c++)
+				filters[c] = new KWeighting(sampleRate);
+			blockFrames = Math.max(1, sampleRate / 10);
+			quarters = new double[(int) (frames / blockFrames) + 1];
+		}
+
+		/**
+		 * Measures the next length sample frames.
+		 *
+		 * @param block  The samples of each channel, in the range [-1, 1].
+		 * @param length The number of frames in block.
+		 */
+		void add (double[][] block, int length)
+		{
+			KWeighting[] filters = this.filters;
+			double[][] history = this.history;
+			int channels = block.length;
+			double sum = this.sum, peak = this.peak;
+			int head = this.head, inQuarter = this.inQuarter;
+
+			for (int i = 0; i < length; i++)
+			{
+				head = (head + TAPS_PER_PHASE - 1) % TAPS_PER_PHASE;
+				for (int c = 0; c < channels; c++)
+				{
+					double sample = block[c][i];
+					double weighted = filters[c].process(sample);
+					sum += weighted * weighted;
+
+					double[] taps = history[c];
+					taps[head] = sample;
+					taps[head + TAPS_PER_PHASE] = sample;
+					for (double[] phase : PHASES)
+					{
+						double interpolated = 0;
+						for (int k = 0; k < TAPS_PER_PHASE; k++)
+							interpolated += phase[k] * taps[head + k];
+						peak = Math.max(peak, Math.abs(interpolated));
+					}
+					peak = Math.max(peak, Math.abs(sample));
+				}
+
+				if (++inQuarter == blockFrames)
+				{
+					if (quarterCount < quarters.length)
+						quarters[quarterCount++] = sum / blockFrames;
+					sum = 0;
+					inQuarter = 0;
+				}
+			}
+
+			this.sum = sum;
+			this.peak = peak;
+			this.head = head;
+			this.inQuarter = inQuarter;
+		}
+
+		Loudness result ( )
+		{
+			return new Loudness(gate(quarters, quarterCount), 20 * Math.log10(peak));
+		}
+	}
+
+	/**
+	 * The K-weighting filter of BS.1770: a high shelf modelling the
+	 * head followed by the "RLB" high pass, as two biquads whose
+	 * coefficients are derived for the file's sample rate.
+	 */
+	private static final class KWeighting
+	{
+		private final double b0, b1, b2, a1, a2; // Shelf.
+		private final double c1, c2;             // High pass; its numerator is 1, -2, 1.
+		private double x1, x2, y1, y2;           // Shelf state.
+		private double u1, u2, z1, z2;           // High pass state.
+
+		KWeighting (int rate)
+		{
+			double k = Math.tan(Math.PI * 1681.974450955533 / rate);
+			double q = 0.7071752369554196;
+			double vh = Math.pow(10, 3.999843853973347 / 20);
+			double vb = Math.pow(vh, 0.4996667741545416);
+			double a0 = 1 + k / q + k * k;
+			b0 = (vh + vb * k / q + k * k) / a0;
+			b1 = 2 * (k * k - vh) / a0;
+			b2 = (vh - vb * k / q + k * k) / a0;
+			a1 = 2 * (k * k - 1) / a0;
+			a2 = (1 - k / q + k * k) / a0;
+
+			k = Math.tan(Math.PI * 38.13547087602444 / rate);
+			q = 0.5003270373238773;
+			a0 = 1 + k / q + k * k;
+			c1 = 2 * (k * k - 1) / a0;
+			c2 = (1 - k / q + k * k) / a0;
+		}
+
+		double process (double x)
+		{
+			double y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+			x2 = x1;
+			x1 = x;
+			y2 = y1;
+			y1 = y;
+
+			double z = y - 2 * u1 + u2 - c1 * z1 - c2 * z2;
+			u2 = u1;
+			u1 = y;
+			z2 = z1;
+			z1 = z;
+			return z;
+		}
+	}
+}
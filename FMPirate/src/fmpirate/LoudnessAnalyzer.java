@@ -0,0 +1,257 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: LoudnessAnalyzer.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+/**
+ * Works out the gain of tracks written as "file.wav|gain auto" so
+ * that every track reaches the same loudness. Files are measured
+ * with Loudness on a fork-join pool using every core, at low thread
+ * priority so the broadcast is never starved, and the results are
+ * kept in "../.cache/loudness.txt" so each file is only measured once.
+ * <p>
+ * Results are keyed by a SHA-256 digest of the file's size and of
+ * its first and last 64 KiB, which identifies the contents even when
+ * a file is renamed or copied, without reading it in full.
+ * <p>
+ * The target loudness (LUFS) and the highest true peak allowed
+ * (dBTP) are set with the fmpirate.loudness.target and
+ * fmpirate.loudness.ceiling properties.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class LoudnessAnalyzer
+{
+	private static final String VERSION = "bs1770-1"; // Part of every key.
+	private static final int SAMPLE_SIZE = 64 * 1024;  // Bytes hashed at each end of a file.
+
+	private static final double TARGET = Double.parseDouble(System.getProperty("fmpirate.loudness.target", "-18"));
+	private static final double CEILING = Double.parseDouble(System.getProperty("fmpirate.loudness.ceiling", "-1"));
+
+	private static LoudnessAnalyzer instance;
+
+	private final Path cacheFile;
+	private final Map<String, Loudness> results = new ConcurrentHashMap<String, Loudness>( );
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates an analyzer whose results are kept in cacheFile.
+	 *
+	 * <hr>
+	 *
+	 * @param cacheFile   Text file holding the results of earlier runs.
+	 * @param parallelism Number of files measured at once.
+	 * @throws IOException If cacheFile exists but cannot be read.
+	 */
+	public LoudnessAnalyzer (Path cacheFile, int parallelism) throws IOException
+	{
+		this.cacheFile = cacheFile;
+		this.pool = new ForkJoinPool(parallelism, pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("fmpirate-loudness-" + thread.getPoolIndex( ));
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.setDaemon(true);
+			return thread;
+		}, null, false);
+
+		if (Files.exists(cacheFile))
+		{
+			for (String line : Files.readAllLines(cacheFile, StandardCharsets.UTF_8))
+			{
+				String[] fields = line.trim( ).split("\\s+");
+				try
+				{
+					if (fields.length == 3)
+						results.put(fields[0], new Loudness(Double.parseDouble(fields[1]), Double.parseDouble(fields[2])));
+				}
+				catch (NumberFormatException nfEx) // Torn line; that file is measured again.
+				{
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The analyzer used by the players, caching in "../.cache".
+	 * @throws IOException If its cache cannot be read.
+	 */
+	public static synchronized LoudnessAnalyzer getInstance ( ) throws IOException
+	{
+		if (instance == null)
+			instance = new LoudnessAnalyzer(Paths.get("../.cache/loudness.txt"),
+					Runtime.getRuntime( ).availableProcessors( ));
+		return instance;
+	}
+
+	/**
+	 * Replaces an automatic gain by the gain which brings the track to
+	 * the target loudness, measuring the file first unless it has been
+	 * measured before. Other tracks are returned as they are.
+	 *
+	 * <hr>
+	 *
+	 * @param track     The track to resolve.
+	 * @param audioPath The directory holding the track's WAV file.
+	 * @return A track with a numeric gain.
+	 * @throws IOException If the file cannot be measured.
+	 */
+	public Track resolve (Track track, String audioPath) throws IOException
+	{
+		if (!track.isAutoGain( ))
+			return track;
+
+		double gain = measure(Paths.get(audioPath, track.getFileName( ))).gainFor(TARGET, CEILING);
+		return track.withGainDb(gain);
+	}
+
+	/**
+	 * Measures, in parallel on the pool, every file with an automatic
+	 * gain in tracks which has not been measured yet, so that later
+	 * calls to resolve() find them in the cache. Files which cannot be
+	 * measured are skipped; resolve() reports them when they are played.
+	 *
+	 * <hr>
+	 *
+	 * @param tracks    The tracks to look through.
+	 * @param audioPath The directory holding the WAV files.
+	 * @return Completes when every file has been measured.
+	 */
+	public Future<?> analyze (List<Track> tracks, String audioPath)
+	{
+		return pool.submit(( ) -> {
+			long start = System.nanoTime( );
+			Set<Path> files = new LinkedHashSet<Path>( );
+			for (Track track : tracks)
+			{
+				if (track.isAutoGain( ))
+					files.add(Paths.get(audioPath, track.getFileName( )));
+			}
+
+			files.parallelStream( ).forEach(file -> {
+				try
+				{
+					measure(file);
+				}
+				catch (IOException ioEx)
+				{
+					System.out.println("Could not measure loudness of " + file + ": " + ioEx.getMessage( ));
+				}
+			});
+
+			if (!files.isEmpty( ))
+				System.out.printf("Loudness of %d files ready in %.1f ms%n", files.size( ),
+						(System.nanoTime( ) - start) / 1e6);
+		});
+	}
+
+	/**
+	 * Returns the loudness of file from the cache, or measures it and
+	 * adds it to the cache.
+	 *
+	 * <hr>
+	 *
+	 * @param file A WAV or FLAC file.
+	 * @return Its loudness.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public Loudness measure (Path file) throws IOException
+	{
+		String key = key(file);
+		Loudness loudness = results.get(key);
+		if (loudness != null)
+			return loudness;
+
+		loudness = AudioFile.open(file).measure( );
+		if (results.putIfAbsent(key, loudness) == null)
+			append(key, loudness);
+
+		System.out.println("Loudness of " + file.getFileName( ) + ": " + loudness);
+		return loudness;
+	}
+
+	/**
+	 * Appends a result to the cache file. A failure only means the
+	 * file will be measured again next time.
+	 */
+	private synchronized void append (String key, Loudness loudness)
+	{
+		try
+		{
+			Files.createDirectories(cacheFile.toAbsolutePath( ).getParent( ));
+			try (BufferedWriter writer = Files.newBufferedWriter(cacheFile, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND))
+			{
+				writer.write(String.format(Locale.ROOT, "%s %.4f %.4f%n", key,
+						loudness.getIntegrated( ), loudness.getTruePeak( )));
+			}
+		}
+		catch (IOException ioEx)
+		{
+			System.out.println("Could not save loudness of " + key + ": " + ioEx.getMessage( ));
+		}
+	}
+
+	/**
+	 * Digests the size and the first and last SAMPLE_SIZE bytes of file.
+	 */
+	private static String key (Path file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			long size = channel.size( );
+			digest.update(VERSION.getBytes(StandardCharsets.UTF_8));
+			digest.update(ByteBuffer.allocate(8).putLong(0, size));
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, size));
+			for (long position : new long[] { 0, Math.max(0, size - buffer.capacity( )) })
+			{
+				buffer.clear( );
+				while (buffer.hasRemaining( ) && channel.read(buffer, position + buffer.position( )) > 0)
+					;
+				buffer.flip( );
+				digest.update(buffer);
+			}
+
+			StringBuilder hex = new StringBuilder( );
+			for (byte b : digest.digest( ))
+				hex.append(String.format("%02x", b));
+			return hex.toString( );
+		}
+		catch (NoSuchAlgorithmException nsaEx) // Every JRE has SHA-256.
+		{
+			throw new IllegalStateException(nsaEx);
+		}
+	}
+
+	/** @return The loudness tracks with an automatic gain are brought to, in LUFS. */
+	public static double getTarget ( ) { return TARGET; }
+}
@@ -0,0 +1,310 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Metrics.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Registry of the counters and histograms describing the health of
+ * the station: how long tracks take to start, gaps between tracks,
+ * process spawn times, stop and restart durations, decoder
+ * throughput and transmitter underruns.
+ * <p>
+ * Once start() has been called the metrics can be read over JMX, as
+ * the attributes of the MBean "fmpirate:type=Metrics", and in the
+ * Prometheus text format from http://127.0.0.1:PORT/metrics, where
+ * PORT is set with the fmpirate.metrics.port property (default 9464,
+ * 0 to disable). The endpoint only listens on the loopback interface.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Metrics
+{
+	private static final int PORT = Integer.getInteger("fmpirate.metrics.port", 9464);
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private static final Map<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>( );
+	private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>( );
+
+	private static boolean started = false;
+	private static HttpServer server;
+
+	// The metrics recorded by the players and PlaylistManager.
+	public static final Histogram TRACK_START = histogram("fmpirate_track_start_seconds",
+			"Time from starting a player until the first track's audio reaches the transmitter");
+	public static final Histogram TRACK_GAP = histogram("fmpirate_track_gap_seconds",
+			"Time between the end of one track's audio and the start of the next");
+	public static final Histogram SPAWN = histogram("fmpirate_process_spawn_seconds",
+			"Time taken to start a transmitter, pipeline or playlist script");
+	public static final Histogram STOP = histogram("fmpirate_stop_seconds",
+			"Time taken to stop a broadcast and confirm its processes exited");
+	public static final Histogram RESTART = histogram("fmpirate_restart_seconds",
+			"Time from a stop until the next broadcast started");
+	public static final Histogram RETUNE = histogram("fmpirate_retune_seconds",
+			"Time from a retune request until audio reached the new transmitter");
+	public static final Histogram PLAYLIST_LOAD = histogram("fmpirate_playlist_load_seconds",
+			"Time taken to open and index a playlist file");
+	public static final Histogram SLOT_JITTER = histogram("fmpirate_slot_jitter_seconds",
+			"How far from the start of a scheduled slot its first audio reached the transmitter");
+	public static final Counter TRACKS_PLAYED = counter("fmpirate_tracks_played_total",
+			"Tracks played to the end");
+	public static final Counter TRACKS_SKIPPED = counter("fmpirate_tracks_skipped_total",
+			"Tracks skipped because they could not be read or decoded");
+	public static final Counter TRANSMITTER_RESTARTS = counter("fmpirate_transmitter_restarts_total",
+			"Transmitters which failed mid-track and were restarted");
+	public static final Counter UNDERRUNS = counter("fmpirate_underruns_total",
+			"Times the transmitter ran out of audio because samples were not delivered in time");
+	public static final Counter DECODE_UNDERRUNS = counter("fmpirate_decode_underruns_total",
+			"Times the transmitter writer found no decoded audio waiting in the middle of a track");
+	public static final Counter PREFETCH_LATE = counter("fmpirate_prefetch_late_total",
+			"Tracks which had not been prefetched by the time they were due");
+	public static final Counter EDT_STALLS = counter("fmpirate_edt_stalls_total",
+			"Times the GUI did not respond for longer than 100 ms");
+	public static final Counter DECODED_BYTES = counter("fmpirate_decoded_bytes_total",
+			"Bytes of 22050 Hz mono PCM produced for the transmitter");
+	public static final Counter DECODE_NANOS = counter("fmpirate_decode_nanoseconds_total",
+			"Time spent producing PCM for the transmitter; divide decoded bytes by it for throughput");
+	public static final Counter DSP_NANOS = counter("fmpirate_dsp_nanoseconds_total",
+			"Time spent in the station profile's processing; compare with decode time");
+
+	private Metrics ( ) { }
+
+	/**
+	 * Returns the counter with the given name, creating it if needed.
+	 *
+	 * <hr>
+	 *
+	 * @param name A Prometheus metric name, ending in "_total".
+	 * @param help A description of the counter.
+	 * @return The counter.
+	 */
+	public static Counter counter (String name, String help)
+	{
+		return counters.computeIfAbsent(name, n -> new Counter(n, help));
+	}
+
+	/**
+	 * Returns the histogram with the given name, creating it if needed.
+	 *
+	 * <hr>
+	 *
+	 * @param name A Prometheus metric name, ending in "_seconds".
+	 * @param help A description of the histogram.
+	 * @return The histogram.
+	 */
+	public static Histogram histogram (String name, String help)
+	{
+		return histograms.computeIfAbsent(name, n -> new Histogram(n, help));
+	}
+
+	/**
+	 * Registers the JMX bean and starts the Prometheus endpoint,
+	 * unless that was done already. Failing to do either is printed
+	 * and otherwise ignored, since the station runs fine without them.
+	 */
+	public static synchronized void start ( )
+	{
+		if (started)
+			return;
+		started = true;
+
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer( ).registerMBean(new Bean( ),
+					new ObjectName("fmpirate:type=Metrics"));
+		}
+		catch (JMException jmEx)
+		{
+			System.out.println("Could not register metrics with JMX: " + jmEx.getMessage( ));
+		}
+
+		if (PORT <= 0)
+			return;
+
+		try
+		{
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress( ), PORT), 0);
+			server.createContext("/metrics", exchange -> {
+				byte[] body = scrape( ).getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders( ).set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody( ))
+				{
+					out.write(body);
+				}
+			});
+			ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "fmpirate-metrics");
+				thread.setDaemon(true);
+				return thread;
+			});
+			server.setExecutor(executor);
+
+			// Started from a daemon thread, whose status the server's own thread inherits,
+			// so that the endpoint never keeps the program alive.
+			executor.submit(server::start).get( );
+			System.out.println("Metrics at http://127.0.0.1:" + PORT + "/metrics");
+		}
+		catch (IOException | ExecutionException ex)
+		{
+			System.out.println("Could not start the metrics endpoint on port " + PORT + ": " + ex.getMessage( ));
+		}
+		catch (InterruptedException intEx)
+		{
+			Thread.currentThread( ).interrupt( );
+		}
+	}
+
+	/**
+	 * Renders every metric in the Prometheus text exposition format.
+	 * Histograms are written as summaries: a few quantiles, the sum
+	 * and the count, all in seconds.
+	 *
+	 * <hr>
+	 *
+	 * @return The metrics as text.
+	 */
+	public static String scrape ( )
+	{
+		StringBuilder text = new StringBuilder( );
+		for (Counter counter : counters.values( ))
+		{
+			text.append("# HELP ").append(counter.getName( )).append(' ').append(counter.getHelp( )).append('\n');
+			text.append("# TYPE ").append(counter.getName( )).append(" counter\n");
+			text.append(counter.getName( )).append(' ').append(counter.get( )).append('\n');
+		}
+
+		for (Histogram histogram : histograms.values( ))
+		{
+			String name = histogram.getName( );
+			text.append("# HELP ").append(name).append(' ').append(histogram.getHelp( )).append('\n');
+			text.append("# TYPE ").append(name).append(" summary\n");
+			for (double quantile : QUANTILES)
+				text.append(String.format(Locale.ROOT, "%s{quantile=\"%s\"} %.9f%n", name, quantile,
+						histogram.quantile(quantile) / 1e9));
+			text.append(String.format(Locale.ROOT, "%s_sum %.9f%n", name, histogram.getSum( ) / 1e9));
+			text.append(name).append("_count ").append(histogram.getCount( )).append('\n');
+			text.append(String.format(Locale.ROOT, "# TYPE %s_max gauge%n%s_max %.9f%n", name, name,
+					histogram.getMax( ) / 1e9));
+		}
+		return text.toString( );
+	}
+
+	/**
+	 * Exposes every counter as a Long attribute and every histogram as
+	 * Double attributes NAME_p50, NAME_p99 and NAME_max (in seconds)
+	 * plus a Long attribute NAME_count. Metrics created after the bean
+	 * was registered appear the next time its info is read.
+	 */
+	private static final class Bean implements DynamicMBean
+	{
+		@Override
+		public Object getAttribute (String attribute) throws AttributeNotFoundException
+		{
+			Counter counter = counters.get(attribute);
+			if (counter != null)
+				return counter.get( );
+
+			int split = attribute.lastIndexOf('_');
+			Histogram histogram = split < 0 ? null : histograms.get(attribute.substring(0, split));
+			if (histogram != null)
+			{
+				switch (attribute.substring(split + 1))
+				{
+					case "p50":   return histogram.quantile(0.5) / 1e9;
+					case "p99":   return histogram.quantile(0.99) / 1e9;
+					case "max":   return histogram.getMax( ) / 1e9;
+					case "count": return histogram.getCount( );
+					default:      break;
+				}
+			}
+			throw new AttributeNotFoundException(attribute);
+		}
+
+		@Override
+		public AttributeList getAttributes (String[] attributes)
+		{
+			AttributeList list = new AttributeList( );
+			for (String attribute : attributes)
+			{
+				try
+				{
+					list.add(new Attribute(attribute, getAttribute(attribute)));
+				}
+				catch (AttributeNotFoundException anfEx)
+				{
+					// Left out, as the DynamicMBean contract allows.
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo ( )
+		{
+			List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>( );
+			for (Counter counter : counters.values( ))
+				attributes.add(new MBeanAttributeInfo(counter.getName( ), "java.lang.Long", counter.getHelp( ),
+						true, false, false));
+
+			for (Histogram histogram : histograms.values( ))
+			{
+				for (String suffix : new String[] { "p50", "p99", "max" })
+					attributes.add(new MBeanAttributeInfo(histogram.getName( ) + "_" + suffix, "java.lang.Double",
+							histogram.getHelp( ) + " (" + suffix + ")", true, false, false));
+				attributes.add(new MBeanAttributeInfo(histogram.getName( ) + "_count", "java.lang.Long",
+						histogram.getHelp( ) + " (count)", true, false, false));
+			}
+
+			return new MBeanInfo(Metrics.class.getName( ), "FMPirate broadcast health",
+					attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+		}
+
+		@Override
+		public void setAttribute (Attribute attribute) throws AttributeNotFoundException
+		{
+			throw new AttributeNotFoundException(attribute.getName( ) + " is read-only");
+		}
+
+		@Override
+		public AttributeList setAttributes (AttributeList attributes) { return new AttributeList( ); }
+
+		@Override
+		public Object invoke (String action, Object[] params, String[] signature) throws ReflectionException
+		{
+			throw new ReflectionException(new NoSuchMethodException(action), action + " is not an operation");
+		}
+	}
+}
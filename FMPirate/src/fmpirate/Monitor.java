@@ -0,0 +1,71 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Monitor.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays the aired audio on this machine's default sound output, so
+ * the broadcast can be listened to without a radio. Audio dropped
+ * because the output fell behind is simply not heard.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Monitor implements AudioSink
+{
+	private static final int LINE_BUFFER = PcmConverter.SAMPLE_RATE * PcmConverter.BYTES_PER_FRAME / 4; // 250 ms.
+
+	private SourceDataLine line; // Opened on the first audio.
+
+	@Override
+	public String getName ( ) { return "monitor"; }
+
+	@Override
+	public void write (byte[] samples, int length) throws IOException
+	{
+		if (line == null)
+			open( );
+		line.write(samples, 0, length);
+	}
+
+	@Override
+	public void skip (long length) { }
+
+	@Override
+	public void close ( )
+	{
+		if (line != null)
+		{
+			line.close( );
+			line = null;
+		}
+	}
+
+	private void open ( ) throws IOException
+	{
+		AudioFormat format = new AudioFormat(PcmConverter.SAMPLE_RATE, 16, 1, true, false);
+		try
+		{
+			line = AudioSystem.getSourceDataLine(format);
+			line.open(format, LINE_BUFFER);
+			line.start( );
+		}
+		catch (LineUnavailableException | IllegalArgumentException ex) // No sound output.
+		{
+			line = null;
+			throw new IOException("No sound output for " + format + ": " + ex.getMessage( ), ex);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: MultibandCompressor.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+/**
+ * A three band compressor, evening out the loudness of bass, mids and
+ * treble separately so that one loud band does not push the others
+ * down, as a single band compressor would. The bands are split by two
+ * 4th order Linkwitz-Riley crossovers, which add back up to a flat
+ * response; the low band also goes through the phase shift of the
+ * upper crossover (a 2nd order all-pass) so that it stays in phase
+ * with the other two. Each band has a peak envelope follower with its
+ * own attack and release, and above its threshold is compressed by
+ * its ratio before its make-up gain is applied. The gain is worked
+ * out every CONTROL samples and ramped to in between, which is far
+ * shorter than any attack time but saves a pow() per sample.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class MultibandCompressor implements DspStage
+{
+	private static final int BANDS = 3;
+	private static final int CONTROL = 16; // Samples between gain updates, 0.7 ms.
+	private static final double BUTTERWORTH_Q = Math.sqrt(0.5);
+
+	private final Biquad[] lowPass = new Biquad[2];   // Lower crossover, low band.
+	private final Biquad[] highPass = new Biquad[2];  // Lower crossover, the rest.
+	private final Biquad[] midPass = new Biquad[2];   // Upper crossover, middle band.
+	private final Biquad[] topPass = new Biquad[2];   // Upper crossover, high band.
+	private final Biquad allPass;                     // Phase of the upper crossover, for the low band.
+	private final Band[] bands = new Band[BANDS];
+	private final String description;
+
+	/**
+	 * Creates a compressor. Every array holds one value per band, from
+	 * the lowest to the highest.
+	 *
+	 * <hr>
+	 *
+	 * @param crossovers The two crossover frequencies in Hz, i.e. {200, 3000}.
+	 * @param thresholds The levels in dBFS above which each band is compressed.
+	 * @param ratios     How many dB above the threshold in give one dB out.
+	 * @param attacks    The attack times in milliseconds.
+	 * @param releases   The release times in milliseconds.
+	 * @param makeups    The gains in dB applied after compression.
+	 * @param sampleRate The sample rate in Hz.
+	 */
+	public MultibandCompressor (double[] crossovers, double[] thresholds, double[] ratios, double[] attacks,
+			double[] releases, double[] makeups, int sampleRate)
+	{
+		if (crossovers.length != BANDS - 1 || crossovers[0] >= crossovers[1] || crossovers[1] >= sampleRate / 2.0)
+			throw new IllegalArgumentException("Expected two increasing crossover frequencies below "
+					+ sampleRate / 2 + " Hz");
+
+		for (int i = 0; i < 2; i++)
+		{
+			lowPass[i] = Biquad.lowPass(crossovers[0], BUTTERWORTH_Q, sampleRate);
+			highPass[i] = Biquad.highPass(crossovers[0], BUTTERWORTH_Q, sampleRate);
+			midPass[i] = Biquad.lowPass(crossovers[1], BUTTERWORTH_Q, sampleRate);
+			topPass[i] = Biquad.highPass(crossovers[1], BUTTERWORTH_Q, sampleRate);
+		}
+		allPass = Biquad.allPass(crossovers[1], BUTTERWORTH_Q, sampleRate);
+
+		for (int band = 0; band < BANDS; band++)
+			bands[band] = new Band(thresholds[band], ratios[band], attacks[band], releases[band], makeups[band],
+					sampleRate);
+
+		description = String.format("3 band compressor (%.0f Hz, %.0f Hz)", crossovers[0], crossovers[1]);
+	}
+
+	@Override
+	public void process (float[] block, int length)
+	{
+		Band low = bands[0], mid = bands[1], high = bands[2];
+		for (int i = 0; i < length; i++)
+		{
+			float x = block[i];
+			float bass = allPass.process(lowPass[1].process(lowPass[0].process(x)));
+			float rest = highPass[1].process(highPass[0].process(x));
+			float middle = midPass[1].process(midPass[0].process(rest));
+			float treble = topPass[1].process(topPass[0].process(rest));
+			block[i] = low.process(bass) + mid.process(middle) + high.process(treble);
+		}
+	}
+
+	@Override
+	public String toString ( )
+	{
+		return description;
+	}
+
+	/**
+	 * The envelope follower and gain computer of one band.
+	 */
+	private static final class Band
+	{
+		private final float threshold; // Linear.
+		private final float slope;     // dB of gain reduction per dB above the threshold.
+		private final float makeup;    // Linear.
+		private final float attack;    // Envelope coefficients per sample.
+		private final float release;
+		private float envelope = 0;
+		private float gain;            // Applied to the last sample, make-up included.
+		private float step = 0;        // Added to gain every sample, ramping to the last computed gain.
+		private int countdown = 0;     // Samples until the gain is computed again.
+
+		Band (double threshold, double ratio, double attackMs, double releaseMs, double makeupDb, int sampleRate)
+		{
+			if (ratio < 1)
+				throw new IllegalArgumentException("Compression ratio below 1: " + ratio);
+			this.threshold = (float) Math.pow(10, threshold / 20);
+			this.slope = (float) (1 - 1 / ratio);
+			this.makeup = (float) Math.pow(10, makeupDb / 20);
+			this.gain = makeup;
+			this.attack = (float) (1 - Math.exp(-1000.0 / (attackMs * sampleRate)));
+			this.release = (float) (1 - Math.exp(-1000.0 / (releaseMs * sampleRate)));
+		}
+
+		float process (float x)
+		{
+			float magnitude = Math.abs(x);
+			envelope += (magnitude - envelope) * (magnitude > envelope ? attack : release);
+
+			if (countdown-- == 0)
+			{
+				// Reducing by slope dB per dB above the threshold is multiplying by (threshold / envelope)^slope.
+				float target = envelope <= threshold ? makeup : makeup * (float) Math.pow(threshold / envelope, slope);
+				step = (target - gain) / CONTROL;
+				countdown = CONTROL - 1;
+			}
+			gain += step;
+			return x * gain;
+		}
+	}
+
+	/**
+	 * A second order filter in transposed direct form II, with the
+	 * coefficients of the Audio EQ Cookbook (R. Bristow-Johnson).
+	 */
+	private static final class Biquad
+	{
+		private final float b0, b1, b2, a1, a2;
+		private float z1 = 0, z2 = 0;
+
+		private Biquad (double b0, double b1, double b2, double a0, double a1, double a2)
+		{
+			this.b0 = (float) (b0 / a0);
+			this.b1 = (float) (b1 / a0);
+			this.b2 = (float) (b2 / a0);
+			this.a1 = (float) (a1 / a0);
+			this.a2 = (float) (a2 / a0);
+		}
+
+		static Biquad lowPass (double frequency, double q, int sampleRate)
+		{
+			double w = 2 * Math.PI * frequency / sampleRate, cos = Math.cos(w), alpha = Math.sin(w) / (2 * q);
+			return new Biquad((1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+		}
+
+		static Biquad highPass (double frequency, double q, int sampleRate)
+		{
+			double w = 2 * Math.PI * frequency / sampleRate, cos = Math.cos(w), alpha = Math.sin(w) / (2 * q);
+			return new Biquad((1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+		}
+
+		static Biquad allPass (double frequency, double q, int sampleRate)
+		{
+			double w = 2 * Math.PI * frequency / sampleRate, cos = Math.cos(w), alpha = Math.sin(w) / (2 * q);
+			return new Biquad(1 - alpha, -2 * cos, 1 + alpha, 1 + alpha, -2 * cos, 1 - alpha);
+		}
+
+		float process (float x)
+		{
+			float y = b0 * x + z1;
+			z1 = b1 * x - a1 * y + z2;
+			z2 = b2 * x - a2 * y;
+			return y;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: PcmConverter.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Converts the memory-mapped samples of a WaveFile into the stream
+ * fm_transmitter expects on its stdin: 22050 Hz, mono, 16-bit signed
+ * little-endian PCM with the playlist gain applied. This does in
+ * process what "sox FILE -r 22050 -c 1 -b 16 -t wav - gain N" did
+ * in a separate process for every track; the sample rate is converted
+ * by a band-limited Resampler, as SoX's is.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class PcmConverter implements PcmSource
+{
+	public static final int SAMPLE_RATE = 22050;  // Output sample rate in Hz.
+	public static final int BYTES_PER_FRAME = 2;  // Output is mono, 16 bits per sample.
+	public static final int HEADER_SIZE = 44;     // Size of the canonical PCM WAV header.
+
+	private final MappedByteBuffer data;  // Source samples.
+	private final int channels;
+	private final int bytesPerSample;
+	private final int bytesPerFrame;      // Source bytes per frame.
+	private final long sourceFrames;      // Number of source frames.
+	private final double step;            // Source frames per output frame.
+	private final Resampler resampler;
+	private final float gain;             // Linear gain factor.
+	private final long frameCount;        // Number of output frames.
+
+	private long position = 0;            // Next output frame to produce.
+	private float[] window = new float[0]; // Down-mixed source frames of the current read.
+
+	/**
+	 * Maps the sample data of wave and prepares the conversion.
+	 *
+	 * <hr>
+	 *
+	 * @param wave   The WAV file to convert.
+	 * @param gainDb The gain to apply in decibels.
+	 * @throws IOException If the sample data cannot be mapped.
+	 */
+	public PcmConverter (WaveFile wave, double gainDb) throws IOException
+	{
+		data = wave.map( );
+		channels = wave.getChannels( );
+		bytesPerSample = wave.getBitsPerSample( ) >> 3;
+		bytesPerFrame = channels * bytesPerSample;
+		sourceFrames = wave.getFrameCount( );
+		step = (double) wave.getSampleRate( ) / SAMPLE_RATE;
+		resampler = Resampler.forRate(wave.getSampleRate( ));
+		gain = (float) Math.pow(10.0, gainDb / 20.0);
+		frameCount = sourceFrames * SAMPLE_RATE / wave.getSampleRate( );
+	}
+
+	/**
+	 * Fills up to length bytes of buffer with whole output frames,
+	 * starting at the current position.
+	 *
+	 * <hr>
+	 *
+	 * @param buffer The buffer to fill with 16-bit little-endian samples.
+	 * @param length The most bytes to write.
+	 * @return The number of bytes written to buffer or -1 at the end of the track.
+	 */
+	@Override
+	public int read (byte[] buffer, int length)
+	{
+		if (position >= frameCount)
+			return -1;
+
+		int frames = (int) Math.min(length / BYTES_PER_FRAME, frameCount - position);
+		if (frames <= 0)
+			return 0;
+
+		// Down-mix every source frame the filter reaches from the frames produced, once.
+		long first = Math.max(0, (long) (position * step) - resampler.getReach( ) + 1);
+		long last = Math.min(sourceFrames - 1, (long) ((position + frames - 1) * step) + resampler.getReach( ));
+		int needed = (int) (last - first + 1);
+		if (window.length < needed)
+			window = new float[needed];
+		for (int j = 0; j < needed; j++)
+			window[j] = mono(first + j);
+
+		for (int i = 0; i < frames; i++)
+		{
+			int sample = toShort(resampler.sample(window, first, sourceFrames, (position + i) * step) * gain);
+			buffer[2 * i] = (byte) sample;
+			buffer[2 * i + 1] = (byte) (sample >> 8);
+		}
+		position += frames;
+		return frames * BYTES_PER_FRAME;
+	}
+
+	/**
+	 * Averages all channels of source frame index.
+	 *
+	 * @param index The source frame.
+	 * @return The down-mixed sample in the range [-1, 1).
+	 */
+	private float mono (long index)
+	{
+		int offset = (int) (index * bytesPerFrame);
+		float sum = 0.0f;
+
+		for (int c = 0; c < channels; c++, offset += bytesPerSample)
+		{
+			if (bytesPerSample == 2)
+				sum += data.getShort(offset) / 32768.0f;
+			else
+				sum += ((data.get(offset) & 0xFF) - 128) / 128.0f; // 8-bit WAV is unsigned.
+		}
+
+		return sum / channels;
+	}
+
+	private static int toShort (float value)
+	{
+		int sample = Math.round(value * 32767.0f);
+		return sample > Short.MAX_VALUE ? Short.MAX_VALUE : (sample < Short.MIN_VALUE ? Short.MIN_VALUE : sample);
+	}
+
+	/**
+	 * Moves the read position to the given output frame.
+	 *
+	 * <hr>
+	 *
+	 * @param frame The output frame to continue from.
+	 */
+	@Override
+	public void seek (long frame)
+	{
+		position = Math.max(0, Math.min(frame, frameCount));
+	}
+
+	@Override
+	public long getPosition ( ) { return position; }
+
+	@Override
+	public long getFrameCount ( ) { return frameCount; }
+
+	@Override
+	public void close ( ) { }
+
+	/**
+	 * Builds the canonical 44 byte header of a 22050 Hz mono 16-bit
+	 * WAV stream carrying dataLength bytes of samples. fm_transmitter
+	 * stops reading its stdin once dataLength bytes have arrived.
+	 *
+	 * <hr>
+	 *
+	 * @param dataLength The number of sample bytes which will follow the header.
+	 * @return The header bytes.
+	 */
+	public static byte[] header (long dataLength)
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		header.put(new byte[] {'R', 'I', 'F', 'F'});
+		header.putInt((int) Math.min(0xFFFFFFFFL, dataLength + HEADER_SIZE - 8));
+		header.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+		header.putInt(16);                                // fmt chunk size.
+		header.putShort((short) 1);                       // PCM.
+		header.putShort((short) 1);                       // Mono.
+		header.putInt(SAMPLE_RATE);
+		header.putInt(SAMPLE_RATE * BYTES_PER_FRAME);     // Byte rate.
+		header.putShort((short) BYTES_PER_FRAME);         // Block align.
+		header.putShort((short) 16);                      // Bits per sample.
+		header.put(new byte[] {'d', 'a', 't', 'a'});
+		header.putInt((int) Math.min(0xFFFFFFFFL, dataLength));
+
+		return header.array( );
+	}
+}
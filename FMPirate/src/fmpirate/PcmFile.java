@@ -0,0 +1,76 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: PcmFile.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a headerless file of 22050 Hz mono 16-bit PCM, as written by
+ * the TranscodeCache, through a read-only memory mapping.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class PcmFile implements PcmSource
+{
+	private final MappedByteBuffer data;
+	private final long frameCount;
+
+	/**
+	 * Maps the file at path.
+	 *
+	 * <hr>
+	 *
+	 * @param path A file of raw samples.
+	 * @throws IOException If the file cannot be mapped.
+	 */
+	public PcmFile (Path path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			if (channel.size( ) > Integer.MAX_VALUE)
+				throw new IOException("Error while opening " + path + ", file is too large");
+
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size( ));
+		}
+		frameCount = data.capacity( ) / PcmConverter.BYTES_PER_FRAME;
+	}
+
+	@Override
+	public int read (byte[] buffer, int length)
+	{
+		length = Math.min(length, data.remaining( ));
+		length -= length % PcmConverter.BYTES_PER_FRAME;
+		if (length <= 0)
+			return -1;
+
+		data.get(buffer, 0, length);
+		return length;
+	}
+
+	@Override
+	public void seek (long frame)
+	{
+		data.position((int) (Math.max(0, Math.min(frame, frameCount)) * PcmConverter.BYTES_PER_FRAME));
+	}
+
+	@Override
+	public long getPosition ( ) { return data.position( ) / PcmConverter.BYTES_PER_FRAME; }
+
+	@Override
+	public long getFrameCount ( ) { return frameCount; }
+
+	@Override
+	public void close ( ) { }
+}
@@ -0,0 +1,309 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: PcmRing.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fixed size ring buffer of PCM frames passing decoded audio from
+ * one producer thread (the decoder) to one consumer thread (the
+ * transmitter writer) without locks or allocation. The samples are
+ * copied into and out of a byte array allocated once; the producer
+ * and consumer each own a sequence counting the bytes they have
+ * written or read, which the other side reads with acquire/release
+ * ordering. The sequences are padded onto cache lines of their own
+ * so that the two threads do not slow each other down by writing to
+ * the same line, and each side keeps its last view of the other's
+ * sequence so it only reads it when it seems to have run out.
+ * <p>
+ * A side that has to wait, for room or for audio, does so by its
+ * WaitStrategy. Times the consumer found the ring empty in the middle
+ * of a track (i.e. the decoder fell behind) are counted as underruns,
+ * once the ring has been half full: before that the consumer is
+ * filling the transmitter's buffers faster than real time, so it
+ * catching up with the producer leaves no gap on air.
+ * Lengths are always whole frames.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class PcmRing
+{
+	/**
+	 * How a side waits for the other.
+	 */
+	public enum WaitStrategy
+	{
+		/** Spins on the CPU: the lowest latency, at the cost of a core. */
+		BUSY_SPIN,
+		/** Spins, yielding the CPU to other threads each time. */
+		YIELD,
+		/** Spins briefly, then yields, then sleeps for up to PARK_NANOS at a time. For few cores. */
+		PARK;
+
+		private static final int SPINS = 100;
+		private static final int YIELDS = 100;
+		private static final long PARK_NANOS = 1000000L;
+
+		/**
+		 * Waits once.
+		 *
+		 * @param round The number of times waited before for the same thing.
+		 */
+		void idle (int round)
+		{
+			if (this == BUSY_SPIN || (this == PARK && round < SPINS))
+				Thread.onSpinWait( );
+			else if (this == YIELD || round < SPINS + YIELDS)
+				Thread.yield( );
+			else // Backs off from 10 us to PARK_NANOS.
+				LockSupport.parkNanos(Math.min(PARK_NANOS, 10000L << Math.min(round - SPINS - YIELDS, 7)));
+		}
+
+		/**
+		 * @param name "spin", "yield" or "park".
+		 * @return The strategy.
+		 */
+		public static WaitStrategy parse (String name)
+		{
+			switch (name)
+			{
+				case "spin":  return BUSY_SPIN;
+				case "yield": return YIELD;
+				case "park":  return PARK;
+				default:      throw new IllegalArgumentException("Unknown wait strategy \"" + name
+						+ "\", expected spin, yield or park");
+			}
+		}
+	}
+
+	private final byte[] buffer;
+	private final int mask;         // buffer.length - 1.
+	private final WaitStrategy wait;
+
+	private final Sequence tail = new Sequence( ); // Bytes written by the producer.
+	private final Sequence head = new Sequence( ); // Bytes read by the consumer.
+	private long cachedHead = 0;    // Producer's last view of head.
+	private long cachedTail = 0;    // Consumer's last view of tail.
+
+	private volatile boolean finished = false;  // Set by the producer after its last write.
+	private volatile boolean cancelled = false; // Set to make both sides give up.
+	private boolean primed = false;             // Ring has been at least half full since the last reset.
+	private volatile long underruns = 0;        // Since the last reset; written by the consumer only.
+	private volatile int lowest;                // Fewest frames found waiting since the last reset, by the consumer.
+
+	/**
+	 * Creates a ring holding at least the given number of frames,
+	 * rounded up to a power of two.
+	 *
+	 * <hr>
+	 *
+	 * @param frames The capacity in frames.
+	 * @param wait   How both sides wait.
+	 */
+	public PcmRing (int frames, WaitStrategy wait)
+	{
+		int bytes = Integer.highestOneBit(Math.max(1, frames * PcmConverter.BYTES_PER_FRAME - 1)) << 1;
+		this.buffer = new byte[bytes];
+		this.mask = bytes - 1;
+		this.wait = wait;
+		this.lowest = getCapacity( );
+	}
+
+	/**
+	 * Copies samples into the ring, waiting for room as needed. Called
+	 * by the producer only.
+	 *
+	 * <hr>
+	 *
+	 * @param samples The buffer holding the samples.
+	 * @param offset  The offset of the first sample byte.
+	 * @param length  The number of bytes, a whole number of frames.
+	 * @return False if the ring was cancelled before all of them were written.
+	 */
+	public boolean write (byte[] samples, int offset, int length)
+	{
+		long position = tail.get( );
+		int round = 0;
+		while (length > 0)
+		{
+			int room = buffer.length - (int) (position - cachedHead);
+			if (room == 0)
+			{
+				cachedHead = head.getAcquire( );
+				if (cachedHead + buffer.length == position)
+				{
+					if (cancelled)
+						return false;
+					wait.idle(round++);
+				}
+				continue;
+			}
+
+			int count = Math.min(room, length);
+			int index = (int) position & mask;
+			int first = Math.min(count, buffer.length - index);
+			System.arraycopy(samples, offset, buffer, index, first);
+			System.arraycopy(samples, offset + first, buffer, 0, count - first);
+
+			position += count;
+			offset += count;
+			length -= count;
+			tail.setRelease(position);
+			round = 0;
+		}
+		return !cancelled;
+	}
+
+	/**
+	 * Marks the end of the audio. Called by the producer after its last
+	 * write; the consumer gets the rest, then the end.
+	 */
+	public void finish ( )
+	{
+		finished = true;
+	}
+
+	/**
+	 * Copies as much audio as is waiting, up to the size of the given
+	 * buffer, out of the ring, waiting if none is. Called by the
+	 * consumer only.
+	 *
+	 * <hr>
+	 *
+	 * @param samples The buffer to fill from its start.
+	 * @return The number of bytes read, or -1 at the end of the audio or if cancelled.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public int read (byte[] samples) throws InterruptedException
+	{
+		long position = head.get( );
+		int round = 0;
+		while (cachedTail == position)
+		{
+			cachedTail = tail.getAcquire( );
+			if (cachedTail != position)
+				break;
+
+			if (cancelled || (finished && tail.getAcquire( ) == position)) // finished is set after the last write.
+				return -1;
+			if (round == 0 && primed)
+				underruns++; // Only this thread writes it.
+			if (Thread.interrupted( ))
+				throw new InterruptedException( );
+			wait.idle(round++);
+		}
+
+		int waiting = (int) (cachedTail - position);
+		int count = Math.min(waiting, samples.length - samples.length % PcmConverter.BYTES_PER_FRAME);
+		int index = (int) position & mask;
+		int first = Math.min(count, buffer.length - index);
+		System.arraycopy(buffer, index, samples, 0, first);
+		System.arraycopy(buffer, 0, samples, first, count - first);
+
+		head.setRelease(position + count);
+		primed |= waiting >= buffer.length / 2;
+		if (primed && !finished && waiting < lowest * PcmConverter.BYTES_PER_FRAME) // Not filling up or draining.
+			lowest = waiting / PcmConverter.BYTES_PER_FRAME;
+		return count;
+	}
+
+	/**
+	 * Makes both sides give up: write() returns false and read() -1.
+	 * May be called from any thread.
+	 */
+	public void cancel ( )
+	{
+		cancelled = true;
+	}
+
+	/**
+	 * Empties the ring for the next audio. Only called while neither
+	 * side is using it, i.e. after the producer has returned.
+	 */
+	public void reset ( )
+	{
+		tail.setRelease(0);
+		head.setRelease(0);
+		cachedHead = 0;
+		cachedTail = 0;
+		finished = false;
+		cancelled = false;
+		primed = false;
+		underruns = 0;
+		lowest = getCapacity( );
+	}
+
+	/** @return The number of frames the ring holds. */
+	public int getCapacity ( ) { return buffer.length / PcmConverter.BYTES_PER_FRAME; }
+
+	/** @return The number of frames waiting to be read, as last seen. */
+	public int getFill ( ) { return (int) (tail.getAcquire( ) - head.getAcquire( )) / PcmConverter.BYTES_PER_FRAME; }
+
+	/**
+	 * @return The fewest frames the consumer found waiting since the ring was last reset, once it had
+	 *         been half full and until the end of the audio.
+	 */
+	public int getLowestFill ( ) { return lowest; }
+
+	/** @return Times the consumer found the ring empty after it had been half full, since the last reset. */
+	public long getUnderruns ( ) { return underruns; }
+
+	public WaitStrategy getWaitStrategy ( ) { return wait; }
+
+	/**
+	 * Padding before a sequence's value, so that nothing allocated just
+	 * before it shares its cache line.
+	 */
+	@SuppressWarnings("unused")
+	private abstract static class LeftPadding
+	{
+		protected long p1, p2, p3, p4, p5, p6, p7;
+	}
+
+	private abstract static class Value extends LeftPadding
+	{
+		protected long value;
+	}
+
+	/**
+	 * A position written by one side and read by the other, alone on
+	 * its cache line. Fields of a subclass are laid out after those of
+	 * its superclass, so the padding cannot be reordered around value.
+	 */
+	@SuppressWarnings("unused")
+	private static final class Sequence extends Value
+	{
+		private static final VarHandle VALUE;
+
+		static
+		{
+			try
+			{
+				VALUE = MethodHandles.lookup( ).findVarHandle(Value.class, "value", long.class);
+			}
+			catch (ReflectiveOperationException roEx)
+			{
+				throw new ExceptionInInitializerError(roEx);
+			}
+		}
+
+		protected long p9, p10, p11, p12, p13, p14, p15;
+
+		/** Read by the side owning the sequence. */
+		private long get ( ) { return value; }
+
+		private long getAcquire ( ) { return (long) VALUE.getAcquire(this); }
+
+		private void setRelease (long position) { VALUE.setRelease(this, position); }
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: PcmSource.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A track rendered as 22050 Hz mono 16-bit little-endian PCM, the
+ * format AudioPlayer writes to fm_transmitter. Implemented by
+ * PcmConverter (decoding a WAV file), FlacConverter (decoding a FLAC
+ * file) and PcmFile (reading a track pre-rendered by the
+ * TranscodeCache).
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public interface PcmSource extends Closeable
+{
+	/**
+	 * Fills the first length bytes of buffer with as many whole frames
+	 * as fit, starting at the current position.
+	 *
+	 * @param buffer The buffer to fill with 16-bit little-endian samples.
+	 * @param length The most bytes to write, at least one frame.
+	 * @return The number of bytes written to buffer or -1 at the end of the track.
+	 * @throws IOException If the samples cannot be read.
+	 */
+	int read (byte[] buffer, int length) throws IOException;
+
+	/**
+	 * Fills buffer with as many whole frames as fit, starting at the
+	 * current position.
+	 *
+	 * @param buffer The buffer to fill with 16-bit little-endian samples.
+	 * @return The number of bytes written to buffer or -1 at the end of the track.
+	 * @throws IOException If the samples cannot be read.
+	 */
+	default int read (byte[] buffer) throws IOException
+	{
+		return read(buffer, buffer.length);
+	}
+
+	/**
+	 * Moves the read position to the given frame.
+	 *
+	 * @param frame The frame to continue from.
+	 */
+	void seek (long frame);
+
+	/** @return The next frame read() will produce. */
+	long getPosition ( );
+
+	/** @return The number of frames in the track. */
+	long getFrameCount ( );
+}
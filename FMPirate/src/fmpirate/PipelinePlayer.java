@@ -0,0 +1,257 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: PipelinePlayer.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plays a list of Tracks on a background thread by running
+ * "sox FILE -r 22050 -c 1 -b 16 -t wav - gain N | sudo ./fm_transmitter -f FREQ -"
+ * for each of them. The pipeline is built from argument arrays with
+ * ProcessBuilder.startPipeline, so, unlike the script backend, no
+ * bash script is written and no shell sees the file names, which
+ * therefore need no escaping.
+ * <p>
+ * The time taken to launch each pipeline, and the gap since the
+ * previous one exited, is printed so it can be compared with the
+ * script backend.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public class PipelinePlayer implements Runnable
+{
+	private final List<Track> tracks;  // Tracks of the playlist, as listed.
+	private final PlayOrder order;     // Order in which tracks are played.
+	private final String frequency;    // Frequency in the form "102.1".
+	private final String audioPath;    // Directory holding the WAV files and fm_transmitter.
+
+	private Thread thread;
+	private volatile boolean running = false;
+	private volatile List<Process> pipeline; // SoX and the transmitter of the track playing.
+	private long started;                    // System.nanoTime() of start(), until the first launch.
+	private volatile int trackIndex = -1;    // Position in the play order being played.
+	private volatile long firstAudio = 0;    // System.nanoTime() the first pipeline was launched.
+	private volatile boolean skipping;       // Set by skip() while the current pipeline is torn down.
+
+	/**
+	 * Creates a player for the given tracks. Nothing is played until
+	 * start() is called.
+	 *
+	 * <hr>
+	 *
+	 * @param tracks    The tracks to play.
+	 * @param order     The order to play them in.
+	 * @param frequency The frequency to broadcast on (i.e. "102.1").
+	 * @param audioPath The directory holding the WAV files and fm_transmitter.
+	 */
+	public PipelinePlayer (List<Track> tracks, PlayOrder order, String frequency, String audioPath)
+	{
+		this.tracks = tracks;
+		this.order = order;
+		this.frequency = frequency;
+		this.audioPath = audioPath;
+	}
+
+	/**
+	 * Starts broadcasting the tracks on a new thread.
+	 */
+	public void start ( )
+	{
+		started = System.nanoTime( );
+		running = true;
+		thread = new Thread(this, "fmpirate-pipeline");
+		thread.setDaemon(true);
+		thread.start( );
+	}
+
+	/**
+	 * Stops the broadcast: both processes of the running pipeline are
+	 * torn down, their exit confirmed, and the player thread waited for.
+	 *
+	 * <hr>
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the player thread.
+	 */
+	public void stop ( ) throws InterruptedException
+	{
+		running = false;
+
+		terminate(pipeline);
+
+		if (thread != null)
+		{
+			thread.interrupt( );
+			thread.join( );
+		}
+	}
+
+	/**
+	 * Ends the current track by tearing down its pipeline; the player
+	 * thread then starts the next one.
+	 *
+	 * <hr>
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the pipeline to exit.
+	 */
+	public void skip ( ) throws InterruptedException
+	{
+		List<Process> processes = pipeline;
+		if (processes == null)
+			return;
+
+		skipping = true;
+		terminate(processes);
+	}
+
+	/**
+	 * Plays every track once, one after another.
+	 */
+	@Override
+	public void run ( )
+	{
+		long previousExit = 0; // System.nanoTime() when the last pipeline exited.
+		double launchTotal = 0;
+		int launches = 0;
+
+		try
+		{
+			for (int i = 0; i < order.size( ) && running; i++)
+			{
+				trackIndex = i;
+				try
+				{
+					Track track = LoudnessAnalyzer.getInstance( ).resolve(tracks.get(order.get(i)), audioPath);
+
+					long start = System.nanoTime( );
+					List<Process> processes = ProcessBuilder.startPipeline(pipelineFor(track));
+					long launched = System.nanoTime( );
+					pipeline = processes;
+					if (!running) // Stopped while launching; do not leave this pipeline behind.
+						break;
+
+					launchTotal += (launched - start) / 1e6;
+					launches++;
+					Metrics.SPAWN.record(launched - start);
+					System.out.printf("Pipeline launch: %.1f ms%n", (launched - start) / 1e6);
+					if (previousExit != 0)
+					{
+						Metrics.TRACK_GAP.record(launched - previousExit);
+						System.out.printf("Inter-track gap: %.1f ms (pipeline)%n", (launched - previousExit) / 1e6);
+					}
+					else
+					{
+						firstAudio = launched;
+						Metrics.TRACK_START.record(launched - started);
+					}
+
+					processes.get(0).getOutputStream( ).close( ); // SoX reads the file, not stdin.
+					for (Process process : processes)
+						process.waitFor( );
+					previousExit = System.nanoTime( );
+
+					if (skipping)
+					{
+						System.out.println("Skipped song " + (i + 1) + ": " + track.getFileName( ));
+						skipping = false;
+					}
+					else
+					{
+						System.out.println("Played song " + (i + 1) + ": " + track.getFileName( ));
+						Metrics.TRACKS_PLAYED.inc( );
+					}
+				}
+				catch (IOException | RuntimeException ex) // Bad line or missing program; try the next song.
+				{
+					if (!running)
+						break;
+
+					System.out.println("Could not play song " + (order.get(i) + 1) + ", skipping it: " + ex.getMessage( ));
+					Metrics.TRACKS_SKIPPED.inc( );
+				}
+			}
+		}
+		catch (InterruptedException intEx)
+		{
+			// Stopped.
+		}
+		finally
+		{
+			try
+			{
+				terminate(pipeline);
+			}
+			catch (InterruptedException intEx) // Being stopped; stop() confirms the exit.
+			{
+				Thread.currentThread( ).interrupt( );
+			}
+			pipeline = null;
+			running = false;
+
+			if (launches > 0)
+				System.out.printf("Pipeline: %d launches, %.1f ms on average%n", launches, launchTotal / launches);
+		}
+	}
+
+	/**
+	 * Builds the SoX and fm_transmitter processes for track. SoX
+	 * converts the file to the 22050 Hz, mono, 16 bit WAV stream
+	 * fm_transmitter expects and applies the track's gain.
+	 *
+	 * @param track The track to play.
+	 * @return The processes of the pipeline, in order.
+	 */
+	private List<ProcessBuilder> pipelineFor (Track track)
+	{
+		List<String> sox = new ArrayList<String>(Arrays.asList("sox", track.getFileName( ),
+				"-r", "22050", "-c", "1", "-b", "16", "-t", "wav", "-"));
+		sox.addAll(Arrays.asList(track.getGain( ).split("\\s+"))); // i.e. "gain", "+5".
+
+		ProcessBuilder decoder = new ProcessBuilder(sox);
+		ProcessBuilder transmitter = new ProcessBuilder(TransmitterCommand.arguments(frequency));
+
+		for (ProcessBuilder builder : Arrays.asList(decoder, transmitter))
+		{
+			builder.directory(new File(audioPath));
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		}
+		transmitter.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+
+		return Arrays.asList(decoder, transmitter);
+	}
+
+	/**
+	 * Terminates every process of a pipeline, transmitter first so
+	 * that the broadcast ends right away.
+	 */
+	private static void terminate (List<Process> processes) throws InterruptedException
+	{
+		if (processes == null)
+			return;
+
+		for (int i = processes.size( ) - 1; i >= 0; i--)
+		{
+			if (!ProcessSupervisor.terminate(processes.get(i)))
+				System.out.println("Some pipeline processes did not exit");
+		}
+	}
+
+	public boolean isRunning ( ) { return running; }
+
+	/** @return Position in the play order of the track being played, or -1 before the first. */
+	public int getTrackIndex ( ) { return trackIndex; }
+
+	/** @return System.nanoTime() when the first pipeline was launched, or 0 until then. */
+	public long getFirstAudio ( ) { return firstAudio; }
+}
@@ -0,0 +1,222 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: PlayOrder.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The order in which the tracks of a playlist are played, kept as a
+ * permutation of track indices so that shuffling never copies or
+ * rewrites the tracks themselves. When the playlist is edited while
+ * it plays, update() carries the order over to the edited playlist.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class PlayOrder
+{
+	private final int[] order;      // order[i] is the index of the i-th track to play.
+	private final boolean shuffled; // False for the order the tracks were listed in.
+	private final Long seed;        // Seed the order was shuffled from, or null if it is not known.
+
+	private PlayOrder (int[] order, boolean shuffled, Long seed)
+	{
+		this.order = order;
+		this.shuffled = shuffled;
+		this.seed = seed;
+	}
+
+	/**
+	 * Creates the order in which the tracks were listed.
+	 *
+	 * <hr>
+	 *
+	 * @param size The number of tracks.
+	 * @return The identity permutation.
+	 */
+	public static PlayOrder sequential (int size)
+	{
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+
+		return new PlayOrder(order, false, null);
+	}
+
+	/**
+	 * Creates a random order using a Fisher-Yates shuffle, which takes
+	 * linear time and picks every permutation with equal probability.
+	 *
+	 * <hr>
+	 *
+	 * @param size   The number of tracks.
+	 * @param random Source of randomness; seed it to repeat an order.
+	 * @return A random permutation.
+	 */
+	public static PlayOrder shuffled (int size, Random random)
+	{
+		int[] order = sequential(size).order;
+		shuffle(order, order.length, random);
+		return new PlayOrder(order, true, null);
+	}
+
+	/**
+	 * Creates a random order which can be made again from its seed.
+	 *
+	 * <hr>
+	 *
+	 * @param size The number of tracks.
+	 * @param seed Seed of the random numbers.
+	 * @return A random permutation.
+	 */
+	public static PlayOrder shuffled (int size, long seed)
+	{
+		return new PlayOrder(shuffled(size, new Random(seed)).order, true, seed);
+	}
+
+	/**
+	 * Creates a shuffled order from the permutation given, i.e. one
+	 * saved with a Checkpoint.
+	 *
+	 * <hr>
+	 *
+	 * @param order order[i] is the index of the i-th track to play.
+	 * @return The order.
+	 */
+	public static PlayOrder of (int[] order)
+	{
+		return new PlayOrder(order.clone( ), true, null);
+	}
+
+	/**
+	 * Shuffles the first length elements of order in place, Fisher-Yates.
+	 */
+	private static void shuffle (int[] order, int length, Random random)
+	{
+		for (int i = length - 1; i > 0; i--)
+		{
+			int j = random.nextInt(i + 1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+	}
+
+	/**
+	 * Carries this order over to the playlist as diff leaves it, for a
+	 * broadcast about to play the track at position next. The order the
+	 * tracks were listed in stays that; the broadcast goes on after the
+	 * last track it played which is still listed (see position()), so
+	 * songs inserted further down are played and ones inserted above
+	 * are not. A shuffled order keeps the tracks it has in the order
+	 * they were, less the removed ones, and gets the inserted ones at
+	 * random places among those still to play, as if they had been
+	 * there when it was shuffled. Both take linear time.
+	 *
+	 * <hr>
+	 *
+	 * @param diff   What changed in the playlist.
+	 * @param next   Position in this order of the next track to play.
+	 * @param random Places the inserted tracks in a shuffled order.
+	 * @return The order of the edited playlist.
+	 */
+	public PlayOrder update (PlaylistDiff diff, int next, Random random)
+	{
+		if (!shuffled)
+			return sequential(diff.getNewSize( ));
+
+		int[] kept = new int[order.length];
+		int length = 0;
+		for (int song : order)
+		{
+			if (diff.map(song) >= 0)
+				kept[length++] = diff.map(song);
+		}
+
+		int[] inserted = new int[diff.getNewSize( ) - length];
+		for (int song = 0, i = 0; i < inserted.length; song++)
+		{
+			if (diff.isInserted(song))
+				inserted[i++] = song;
+		}
+		shuffle(inserted, inserted.length, random);
+
+		// Merging the inserted tracks in with probability in proportion to the tracks left of each
+		// puts every one at a uniformly random place among the ones to play.
+		int played = position(diff, next);
+		int[] updated = Arrays.copyOf(kept, diff.getNewSize( ));
+		for (int k = played, i = 0, position = played; position < updated.length; position++)
+		{
+			int left = length - k;
+			if (i < inserted.length && random.nextInt(left + inserted.length - i) >= left)
+				updated[position] = inserted[i++];
+			else
+				updated[position] = kept[k++];
+		}
+		return new PlayOrder(updated, true, null);
+	}
+
+	/**
+	 * @param diff What changed in the playlist.
+	 * @param next Position in this order of the next track to play.
+	 * @return The position of the next track to play in the order update() makes.
+	 */
+	public int position (PlaylistDiff diff, int next)
+	{
+		if (!shuffled)
+		{
+			for (int i = Math.min(next, order.length) - 1; i >= 0; i--)
+			{
+				if (diff.map(i) >= 0)
+					return diff.map(i) + 1;
+			}
+			return 0;
+		}
+
+		int played = 0;
+		for (int i = 0; i < next && i < order.length; i++)
+		{
+			if (diff.map(order[i]) >= 0)
+				played++;
+		}
+		return played;
+	}
+
+	/**
+	 * @param position Position in the play order.
+	 * @return The index of the track to play at position.
+	 */
+	public int get (int position) { return order[position]; }
+
+	public int size ( ) { return order.length; }
+
+	/** @return False if the tracks play in the order they were listed. */
+	public boolean isShuffled ( ) { return shuffled; }
+
+	/** @return The seed the order was shuffled from, or null if it was not or is not known. */
+	public Long getSeed ( ) { return seed; }
+
+	@Override
+	public boolean equals (Object other)
+	{
+		if (!(other instanceof PlayOrder))
+			return false;
+
+		PlayOrder that = (PlayOrder) other;
+		return shuffled == that.shuffled && Arrays.equals(order, that.order);
+	}
+
+	@Override
+	public int hashCode ( )
+	{
+		return Arrays.hashCode(order);
+	}
+}
@@ -11,14 +11,31 @@ package fmpirate;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
 
 /**
  * Class which reads a text file and parses the name of the WAV
  * file and the gain to be applied when broadcasting that file
  * and prints a bash-executable script which can play each audio
  * file with the specified gain over the FM frequency passed to
- * the class constructor.
+ * the class constructor. The songs are also available as a list
+ * of Tracks for the in-process audio pipeline (see AudioPlayer).
+ * <p>
+ * The playlist file is not parsed up front: a PlaylistIndex of
+ * where each song starts is opened instead, and a song is only
+ * read and parsed when it is asked for, so even a playlist with a
+ * million songs starts playing right away. The script is only
+ * written when getPath() is first called.
  *
  * <hr>
  *
@@ -26,19 +43,24 @@ import java.util.Scanner;
  */
 public class Playlist
 {
+	private static final String TEMP_PREFIX = "temp_file"; // Scripts are named TEMP_PREFIX + N.
+	private static final Pattern FREQUENCY = Pattern.compile("[0-9]{1,3}(\\.[0-9]{1,2})?");
+
 	private String audioPath = "";// Path to WAV files.
-	private String tempPath = ""; // Path to temp file.
+	private String tempPath = null; // Path to temp file, null until it is written.
 	private File pathFile;		  // File to read path from.
 	private File tempFile;        // File object to write bash script to.
-	private File inputFile;       // Playlist text file to read from.
 	private Scanner fileScanner;  // To scan file contents.
 	private PrintWriter pWriter;  // To print to temp tile/bash script.
-	private String textLine;      // To store each nextLine in the text file.
+	private String frequency;     // Frequency printed to the script.
+	private PlaylistIndex index;  // Where each song of the playlist text file starts.
+	private String filePath;      // Path of the playlist text file.
+	private List<Track> tracks;   // Songs in playlist order, read through index.
 
 	/**
-	 * The constructor creates a bash-executable script in
-	 * "../.temp_files". It reads from a file in "../Playlists/"
-	 * (accepted from the filePath param).
+	 * The constructor indexes a file in "../Playlists/" (accepted
+	 * from the filePath param). The bash-executable script in
+	 * "../.temp_files" is created by getPath().
 	 *
 	 * <hr>
 	 *
@@ -49,8 +71,21 @@ public class Playlist
 	 */
 	public Playlist (String filePath, String frequency) throws IOException
 	{
+		this.frequency = frequency;
+		this.filePath = filePath;
 		readPath();
-		makePlayList(filePath, frequency);
+
+		long start = System.nanoTime( );
+		index = PlaylistIndex.open(Paths.get(filePath));
+		Metrics.PLAYLIST_LOAD.recordSince(start);
+		tracks = new AbstractList<Track>( )
+		{
+			@Override
+			public Track get (int i) { return index.get(i); }
+
+			@Override
+			public int size ( ) { return index.size( ); }
+		};
 	}
 
 	/**
@@ -62,65 +97,187 @@ public class Playlist
 		pathFile = new File("../.path/path.txt");
 		fileScanner = new Scanner(pathFile);
 		audioPath = fileScanner.nextLine();
+		fileScanner.close( );
 	}
 
 	/**
-	 * Creates the bash executable playlist by parsing in each audio file name
-	 * and the specified gain and converting each line from the playlist text
-	 * file into a line that can be executed by bash using SoX.
+	 * Creates the bash executable playlist by converting each song of
+	 * the playlist text file into a line that can be executed by bash
+	 * using SoX.
 	 *
-	 * @param filePath The path of the playlist file being read from.
-	 * @param frequency The frequency in the form,"[0-9][0-9].[.0-9]" (i.e. "102.1")".
 	 * @throws IOException
 	 */
-	private void makePlayList (String filePath, String frequency) throws IOException
+	private void makePlayList ( ) throws IOException
 	{
-		// Generate a new/unique temp file:
-		int i = 0;
-		do
+		tempFile = createTempFile(Paths.get("../.temp_files"));
+		tempPath = tempFile.getPath( );
+
+		pWriter = new PrintWriter(tempFile);
+		try
+		{
+			writeScript(pWriter, tracks, PlayOrder.sequential(tracks.size( )), audioPath, frequency,
+					LoudnessAnalyzer.getInstance( ));
+			System.out.println("Printed " + tracks.size( ) + " songs to " + tempPath);
+		}
+		finally
 		{
-			tempPath = "../.temp_files/temp_file" + i;
-			tempFile = new File(tempPath);
-			i++;
-		} while (tempFile.exists( ));
+			pWriter.close( );
+		}
+	}
 
-		pWriter = new PrintWriter(tempPath);
+	/**
+	 * Creates a new, empty file in directory named "temp_fileN" with
+	 * the lowest N not in use. The directory is listed once instead of
+	 * checking whether each name exists in turn, and the file is
+	 * created atomically, so two scripts never get the same name.
+	 *
+	 * <hr>
+	 *
+	 * @param directory The directory of the temp files, created if needed.
+	 * @return The new file.
+	 * @throws IOException If the directory cannot be listed or the file created.
+	 */
+	static File createTempFile (Path directory) throws IOException
+	{
+		Files.createDirectories(directory);
+		while (true)
+		{
+			BitSet used = new BitSet( );
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, TEMP_PREFIX + "*"))
+			{
+				for (Path file : files)
+				{
+					String suffix = file.getFileName( ).toString( ).substring(TEMP_PREFIX.length( ));
+					if (suffix.matches("[0-9]{1,9}"))
+						used.set(Integer.parseInt(suffix));
+				}
+			}
 
-		// Always prints shebang header, cd to correct dir.
-		pWriter.println("#! /bin/bash -");
-		pWriter.println("cd " + audioPath);
+			try
+			{
+				return Files.createFile(directory.resolve(TEMP_PREFIX + used.nextClearBit(0))).toFile( );
+			}
+			catch (FileAlreadyExistsException faeEx) // Taken since the listing; list again.
+			{
+			}
+		}
+	}
 
-		inputFile = new File(filePath);
-		fileScanner = new Scanner(inputFile);
+	/**
+	 * Prints the bash script playing tracks in the given order: the
+	 * shebang, a cd into audioPath and one SoX | fm_transmitter line
+	 * per track. Automatic gains are measured first, on all cores.
+	 *
+	 * <hr>
+	 *
+	 * @param out       Where the script is printed.
+	 * @param tracks    The songs of the playlist, as listed.
+	 * @param order     The order to play them in.
+	 * @param audioPath The directory holding the WAV files.
+	 * @param frequency The frequency to broadcast on.
+	 * @param analyzer  Resolves "gain auto" to a number.
+	 * @throws IOException If a loudness could not be measured.
+	 */
+	static void writeScript (PrintWriter out, List<Track> tracks, PlayOrder order, String audioPath,
+			String frequency, LoudnessAnalyzer analyzer) throws IOException
+	{
+		// Always prints shebang header, cd to correct dir.
+		out.println("#! /bin/bash -");
+		out.println("cd " + audioPath);
 
-		int j = 0;
-		while (fileScanner.hasNext( ))
+		try
 		{
-			j++;
+			analyzer.analyze(tracks, audioPath).get( );
+		}
+		catch (InterruptedException | ExecutionException ex)
+		{
+			throw new IOException("Could not measure loudness", ex);
+		}
 
-			textLine = fileScanner.nextLine( ).replaceAll("'", "\\\\'");
+		for (int i = 0; i < order.size( ); i++)
+			out.println(toCommand(analyzer.resolve(tracks.get(order.get(i)), audioPath), frequency));
+	}
 
-			if (textLine.trim( ).startsWith("#") || textLine.length( ) == 0) // Skip over comments and blank lines.
-				continue;
-			
-			else
-			{
-				String[] contents = textLine.split("\\|", 2);
-				pWriter.println("sox " + contents[0]
-						.replaceAll(" ", "\\\\ ")   // Escape space
-						.replaceAll("\\'","\\\'")   // Escape single quote
-						.replaceAll("\\`", "\\\\`") // Escape that other apostrophe
-						.replaceAll("\\(", "\\\\(") // Escape left parenthesis
-						.replaceAll("\\)", "\\\\)") // Escape right parenthesis
-						+ " -r 22050 -c 1 -b 16 -t wav - "
-						+ contents[1] + " | sudo ./fm_transmitter -f " // contents[1] == gain.
-						+ frequency + " - ");
-
-				System.out.println("Printed song " + j);
-			}
+	/**
+	 * Converts a track into the line of bash which plays it with SoX
+	 * over the given frequency.
+	 *
+	 * <hr>
+	 *
+	 * @param track     The track to play.
+	 * @param frequency The frequency in the form,"[0-9][0-9].[.0-9]" (i.e. "102.1")".
+	 * @return The SoX | fm_transmitter pipeline for the track.
+	 */
+	static String toCommand (Track track, String frequency)
+	{
+		return "sox " + escape(track.getFileName( ))
+				+ " -r 22050 -c 1 -b 16 -t wav - "
+				+ track.getGain( ) + " | "
+				+ TransmitterCommand.line(frequency) + " ";
+	}
+
+	/**
+	 * Escapes the characters bash would otherwise interpret in a file
+	 * name: single quotes, spaces, backquotes and parentheses. This is
+	 * done in one pass instead of one regular expression per character.
+	 *
+	 * @param fileName The file name to escape.
+	 * @return fileName with a backslash before each special character.
+	 */
+	static String escape (String fileName)
+	{
+		StringBuilder escaped = new StringBuilder(fileName.length( ) + 8);
+		for (int i = 0; i < fileName.length( ); i++)
+		{
+			char c = fileName.charAt(i);
+			if (c == '\'' || c == ' ' || c == '`' || c == '(' || c == ')')
+				escaped.append('\\');
+			escaped.append(c);
 		}
-		pWriter.close( );
+		return escaped.toString( );
+	}
+
+	/**
+	 * Checks that a frequency from outside the GUI, which is printed
+	 * into scripts and passed to fm_transmitter, is only a number.
+	 *
+	 * @param frequency The frequency (i.e. "102.1").
+	 * @return True if it has up to 3 digits and up to 2 decimals.
+	 */
+	static boolean isFrequency (String frequency)
+	{
+		return FREQUENCY.matcher(frequency).matches( );
+	}
+
+	/**
+	 * Returns the path of the bash script playing this playlist,
+	 * writing the script first if it has not been written yet.
+	 *
+	 * <hr>
+	 *
+	 * @return The path of the script in "../.temp_files".
+	 * @throws IOException If the script cannot be written.
+	 */
+	public String getPath ( ) throws IOException
+	{
+		if (tempPath == null)
+			makePlayList( );
+		return tempPath;
 	}
 
-	public String getPath ( ) { return tempPath; }
+	public String getAudioPath ( ) { return audioPath; }
+
+	/** @return Path of the playlist text file, as given to the constructor. */
+	public String getFilePath ( ) { return filePath; }
+
+	public String getFrequency ( ) { return frequency; }
+
+	/** @return The songs of the playlist in the order they were listed. */
+	public List<Track> getTracks ( ) { return tracks; }
+
+	/**
+	 * @return The hashes of the song lines, as PlaylistIndex.fingerprint() reads them now.
+	 * @throws IOException If the playlist file cannot be read.
+	 */
+	public PlaylistIndex.Fingerprint fingerprint ( ) throws IOException { return index.fingerprint( ); }
 }
@@ -0,0 +1,303 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: PlaylistDiff.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What changed between two versions of a playlist, as a mapping from
+ * the index of every song before to its index after, so that a
+ * broadcast can go on with the edited playlist without losing its
+ * place (see AudioPlayer.reload()). Songs with no index after were
+ * removed; songs with no index before were inserted; a song whose
+ * line changed but not its file name, i.e. its gain, was edited and
+ * keeps its place.
+ * <p>
+ * The versions are compared by the hashes of their song lines (see
+ * PlaylistIndex.fingerprint()). The lines both start and end with are
+ * matched first, which for the usual edit of a few lines in one place
+ * leaves next to nothing to compare, however long the playlist. What
+ * is left between them is compared with Myers' O(ND) algorithm, which
+ * finds the fewest insertions and removals and takes time in
+ * proportion to their number. Past MAX_EDITS of them (a playlist
+ * sorted or rewritten) that would take too long, and the songs are
+ * only paired up by equal lines, in whatever order they come. Songs
+ * moved to another place are paired up that way too, rather than read
+ * as removed and inserted again.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class PlaylistDiff
+{
+	// Insertions plus removals Myers' algorithm looks for; it keeps about MAX_EDITS squared ints of state.
+	private static final int MAX_EDITS = 1000;
+
+	private final int[] oldToNew; // Index after of every song before, or -1 if it was removed.
+	private final int[] newToOld; // Index before of every song after, or -1 if it was inserted.
+	private final BitSet edited;  // Songs after whose lines changed, by index after.
+
+	private PlaylistDiff (int[] oldToNew, int[] newToOld, BitSet edited)
+	{
+		this.oldToNew = oldToNew;
+		this.newToOld = newToOld;
+		this.edited = edited;
+	}
+
+	/**
+	 * Compares two versions of a playlist.
+	 *
+	 * <hr>
+	 *
+	 * @param before The playlist before it was edited.
+	 * @param after  The playlist after.
+	 * @return What changed.
+	 */
+	public static PlaylistDiff compare (PlaylistIndex.Fingerprint before, PlaylistIndex.Fingerprint after)
+	{
+		int[] oldToNew = new int[before.size( )];
+		int[] newToOld = new int[after.size( )];
+		Arrays.fill(oldToNew, -1);
+		Arrays.fill(newToOld, -1);
+
+		int start = 0;
+		int oldEnd = before.size( ), newEnd = after.size( );
+		for (; start < oldEnd && start < newEnd && before.getLine(start) == after.getLine(start); start++)
+			match(oldToNew, newToOld, start, start);
+		while (oldEnd > start && newEnd > start && before.getLine(oldEnd - 1) == after.getLine(newEnd - 1))
+			match(oldToNew, newToOld, --oldEnd, --newEnd);
+
+		if (!myers(before, after, start, oldEnd, start, newEnd, oldToNew, newToOld))
+			System.out.println("Playlist changed in more than " + MAX_EDITS + " lines, pairing up its songs by their lines alone");
+
+		BitSet edited = new BitSet( );
+		pair(before, after, start, oldEnd, start, newEnd, oldToNew, newToOld, edited);
+		return new PlaylistDiff(oldToNew, newToOld, edited);
+	}
+
+	private static void match (int[] oldToNew, int[] newToOld, int oldIndex, int newIndex)
+	{
+		oldToNew[oldIndex] = newIndex;
+		newToOld[newIndex] = oldIndex;
+	}
+
+	/**
+	 * Matches the longest common subsequence of the song lines in
+	 * [oldStart, oldEnd) before and [newStart, newEnd) after, keeping the
+	 * furthest reach of every diagonal for each number of edits so that
+	 * the path can be walked back.
+	 *
+	 * @return False if there are more than MAX_EDITS differences, in which case nothing is matched.
+	 */
+	private static boolean myers (PlaylistIndex.Fingerprint before, PlaylistIndex.Fingerprint after, int oldStart,
+			int oldEnd, int newStart, int newEnd, int[] oldToNew, int[] newToOld)
+	{
+		int n = oldEnd - oldStart, m = newEnd - newStart;
+		if (n == 0 || m == 0)
+			return true;
+
+		int max = Math.min(n + m, MAX_EDITS);
+		int[] v = new int[2 * max + 3]; // v[max + 1 + k]: furthest x reached on diagonal k = x - y.
+		List<int[]> trace = new ArrayList<int[]>( );
+		int offset = max + 1;
+
+		for (int d = 0; d <= max; d++)
+		{
+			trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2)); // Diagonals -d-1..d+1 before this round.
+			for (int k = -d; k <= d; k += 2)
+			{
+				int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]) ? v[offset + k + 1] : v[offset + k - 1] + 1;
+				int y = x - k;
+				while (x < n && y < m && before.getLine(oldStart + x) == after.getLine(newStart + y))
+				{
+					x++;
+					y++;
+				}
+				v[offset + k] = x;
+
+				if (x >= n && y >= m)
+				{
+					walkBack(trace, n, m, oldStart, newStart, oldToNew, newToOld);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Follows the path found by myers() back from its end, matching the
+	 * lines along its diagonals.
+	 */
+	private static void walkBack (List<int[]> trace, int x, int y, int oldStart, int newStart, int[] oldToNew,
+			int[] newToOld)
+	{
+		for (int d = trace.size( ) - 1; d >= 0; d--)
+		{
+			int[] v = trace.get(d); // v[d + 1 + k] for diagonals -d-1..d+1.
+			int k = x - y;
+			int previous = k == -d || (k != d && v[d + k] < v[d + k + 2]) ? k + 1 : k - 1;
+			int previousX = v[d + 1 + previous];
+			int previousY = previousX - previous;
+
+			while (x > previousX && y > previousY)
+				match(oldToNew, newToOld, oldStart + --x, newStart + --y);
+
+			x = previousX;
+			y = previousY;
+		}
+	}
+
+	/**
+	 * Pairs up the songs in the given ranges which were left unmatched:
+	 * first the ones with the same line (moved), in the order they come,
+	 * then the ones with the same file name (edited).
+	 */
+	private static void pair (PlaylistIndex.Fingerprint before, PlaylistIndex.Fingerprint after, int oldStart,
+			int oldEnd, int newStart, int newEnd, int[] oldToNew, int[] newToOld, BitSet edited)
+	{
+		Map<Long, ArrayDeque<Integer>> lines = new HashMap<Long, ArrayDeque<Integer>>( );
+		for (int i = newStart; i < newEnd; i++)
+		{
+			if (newToOld[i] < 0)
+				lines.computeIfAbsent(after.getLine(i), line -> new ArrayDeque<Integer>( )).add(i);
+		}
+		if (lines.isEmpty( ))
+			return;
+
+		for (int i = oldStart; i < oldEnd; i++)
+		{
+			ArrayDeque<Integer> same = oldToNew[i] < 0 ? lines.get(before.getLine(i)) : null;
+			if (same != null && !same.isEmpty( ))
+				match(oldToNew, newToOld, i, same.poll( ));
+		}
+
+		Map<Long, ArrayDeque<Integer>> names = new HashMap<Long, ArrayDeque<Integer>>( );
+		for (int i = newStart; i < newEnd; i++)
+		{
+			if (newToOld[i] < 0)
+				names.computeIfAbsent(after.getName(i), name -> new ArrayDeque<Integer>( )).add(i);
+		}
+
+		for (int i = oldStart; i < oldEnd; i++)
+		{
+			ArrayDeque<Integer> same = oldToNew[i] < 0 ? names.get(before.getName(i)) : null;
+			if (same != null && !same.isEmpty( ))
+			{
+				int song = same.poll( );
+				match(oldToNew, newToOld, i, song);
+				edited.set(song);
+			}
+		}
+	}
+
+	/**
+	 * Combines this diff with the one which followed it, as if the
+	 * playlist had been edited once.
+	 *
+	 * <hr>
+	 *
+	 * @param next The diff from the version after this one to a later one.
+	 * @return The diff from the version before this one to that later one.
+	 */
+	public PlaylistDiff then (PlaylistDiff next)
+	{
+		int[] combined = new int[oldToNew.length];
+		int[] inverse = new int[next.newToOld.length];
+		Arrays.fill(inverse, -1);
+		for (int i = 0; i < combined.length; i++)
+		{
+			combined[i] = oldToNew[i] < 0 ? -1 : next.oldToNew[oldToNew[i]];
+			if (combined[i] >= 0)
+				inverse[combined[i]] = i;
+		}
+
+		BitSet changed = (BitSet) next.edited.clone( );
+		for (int song = edited.nextSetBit(0); song >= 0; song = edited.nextSetBit(song + 1))
+		{
+			if (next.oldToNew[song] >= 0)
+				changed.set(next.oldToNew[song]);
+		}
+		return new PlaylistDiff(combined, inverse, changed);
+	}
+
+	/**
+	 * @param song Index of a song before.
+	 * @return Its index after, or -1 if it was removed.
+	 */
+	public int map (int song) { return oldToNew[song]; }
+
+	/**
+	 * @param song Index of a song after.
+	 * @return True if it was not in the playlist before.
+	 */
+	public boolean isInserted (int song) { return newToOld[song] < 0; }
+
+	/**
+	 * @param song Index of a song after.
+	 * @return True if it was in the playlist before with another line, i.e. gain.
+	 */
+	public boolean isEdited (int song) { return edited.get(song); }
+
+	/** @return The number of songs before. */
+	public int getOldSize ( ) { return oldToNew.length; }
+
+	/** @return The number of songs after. */
+	public int getNewSize ( ) { return newToOld.length; }
+
+	/** @return The number of songs inserted. */
+	public int getInserted ( ) { return count(newToOld); }
+
+	/** @return The number of songs removed. */
+	public int getRemoved ( ) { return count(oldToNew); }
+
+	/** @return The number of songs edited. */
+	public int getEdited ( ) { return edited.cardinality( ); }
+
+	/**
+	 * @return True if no song was inserted, removed or edited, i.e. only comments changed. Songs
+	 *         which were only moved do count as a change.
+	 */
+	public boolean isEmpty ( )
+	{
+		if (oldToNew.length != newToOld.length || !edited.isEmpty( ))
+			return false;
+
+		for (int i = 0; i < oldToNew.length; i++)
+		{
+			if (oldToNew[i] != i)
+				return false;
+		}
+		return true;
+	}
+
+	private static int count (int[] mapping)
+	{
+		int unmatched = 0;
+		for (int index : mapping)
+		{
+			if (index < 0)
+				unmatched++;
+		}
+		return unmatched;
+	}
+
+	@Override
+	public String toString ( )
+	{
+		return getInserted( ) + " inserted, " + getRemoved( ) + " removed, " + getEdited( ) + " edited";
+	}
+}
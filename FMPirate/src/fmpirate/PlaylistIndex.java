@@ -0,0 +1,465 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: PlaylistIndex.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Index of the byte offsets at which the songs of a playlist file
+ * start, so that track N can be read without parsing the lines
+ * before it. The index is built by streaming through the file once
+ * and looking only for line breaks, comments and blank lines; no
+ * line is decoded or split.
+ * <p>
+ * The index is persisted in a hidden sidecar file next to the
+ * playlist (".NAME.idx"). When the playlist is opened again with the
+ * size and modification time it had when the sidecar was written, the
+ * sidecar is used as it is. Otherwise the indexed part of the playlist
+ * is checksummed in full: if it is unchanged, the playlist has only
+ * grown at the end and only the new lines are scanned. Any other
+ * change rebuilds the index.
+ * <p>
+ * fingerprint() hashes every song line, so that two versions of a
+ * playlist can be compared by PlaylistDiff without keeping either
+ * one's text in memory.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class PlaylistIndex
+{
+	private static final int MAGIC = 0x464D5049;   // "FMPI"
+	private static final int VERSION = 2;
+	private static final int SCAN_BUFFER = 64 * 1024;
+	private static final long FNV_BASIS = 0xCBF29CE484222325L; // 64-bit FNV-1a, hashing the song lines.
+	private static final long FNV_PRIME = 0x100000001B3L;
+
+	private final Path file;
+	private long[] offsets;    // Start of every song line.
+	private int count = 0;     // Number of songs.
+	private long scanned = 0;  // Bytes indexed; always just after a line break.
+	private boolean current;   // The sidecar loaded was written for the playlist as it is.
+
+	private PlaylistIndex (Path file)
+	{
+		this.file = file;
+		this.offsets = new long[1024];
+	}
+
+	/**
+	 * Opens the index of the playlist at file, loading it from its
+	 * sidecar and scanning only what changed since it was written.
+	 *
+	 * <hr>
+	 *
+	 * @param file A playlist text file.
+	 * @return The index.
+	 * @throws IOException If the playlist cannot be read.
+	 */
+	public static PlaylistIndex open (Path file) throws IOException
+	{
+		PlaylistIndex index = new PlaylistIndex(file);
+		long start = System.nanoTime( );
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			boolean loaded = index.load(channel);
+			long before = index.scanned;
+			index.scan(channel);
+
+			if (!loaded || !index.current)
+				index.save(channel);
+
+			System.out.printf("Indexed %d songs of %s in %.1f ms (%s)%n", index.count, file.getFileName( ),
+					(System.nanoTime( ) - start) / 1e6, loaded ? "sidecar, " + (index.scanned - before)
+							+ " new bytes" : "full scan");
+		}
+		return index;
+	}
+
+	/**
+	 * Scans the playlist from the end of the indexed part to its end,
+	 * adding the start of every line which is neither blank nor a
+	 * comment. A last line without a line break is indexed but not
+	 * counted as scanned, so it is looked at again next time.
+	 */
+	private void scan (FileChannel channel) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+		long position = scanned;
+		long lineStart = scanned;
+		int state = 0; // 0: only whitespace so far, 1: song line, 2: comment.
+
+		while (channel.read(buffer, position) > 0)
+		{
+			buffer.flip( );
+			while (buffer.hasRemaining( ))
+			{
+				byte b = buffer.get( );
+				if (b == '\n')
+				{
+					if (state == 1)
+						add(lineStart);
+
+					state = 0;
+					lineStart = position + buffer.position( );
+					scanned = lineStart;
+				}
+				else if (state == 0 && (b & 0xFF) > ' ')
+					state = b == '#' ? 2 : 1;
+			}
+			position += buffer.limit( );
+			buffer.clear( );
+		}
+
+		if (state == 1) // Unterminated last line.
+			add(lineStart);
+	}
+
+	private void add (long offset)
+	{
+		if (count == offsets.length)
+			offsets = Arrays.copyOf(offsets, count * 2);
+		offsets[count++] = offset;
+	}
+
+	/**
+	 * Hashes every song line in one pass over the playlist. Leading and
+	 * trailing whitespace, a "\r" included, is left out of the hashes.
+	 * A line which has changed since the playlist was indexed is hashed
+	 * as whatever is at its offset now, which will not match its old
+	 * hash and so reads as an edit.
+	 *
+	 * <hr>
+	 *
+	 * @return The hashes of the songs' lines and of their file names.
+	 * @throws IOException If the playlist cannot be read.
+	 */
+	public Fingerprint fingerprint ( ) throws IOException
+	{
+		long[] lines = new long[count];
+		long[] names = new long[count];
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+			long position = 0;
+			int n = 0;
+			boolean song = false;  // In the line of song n.
+			boolean blank = true;  // Nothing but whitespace read of it yet.
+			boolean name = true;   // Still in its file name, before the first '|'.
+			long line = FNV_BASIS, lineEnd = FNV_BASIS, nameHash = FNV_BASIS, nameEnd = FNV_BASIS;
+
+			while (n < count && channel.read(buffer, position) > 0)
+			{
+				buffer.flip( );
+				for (int i = 0; i < buffer.limit( ) && n < count; i++)
+				{
+					if (!song && position + i == offsets[n])
+					{
+						song = blank = name = true;
+						line = lineEnd = nameHash = nameEnd = FNV_BASIS;
+					}
+					if (!song)
+						continue;
+
+					int b = buffer.get(i) & 0xFF;
+					if (b == '\n')
+					{
+						lines[n] = lineEnd;
+						names[n++] = name ? lineEnd : nameEnd;
+						song = false;
+						continue;
+					}
+
+					boolean space = b <= ' ';
+					if (blank && space)
+						continue;
+					blank = false;
+
+					if (b == '|')
+						name = false;
+					line = (line ^ b) * FNV_PRIME;
+					if (!space)
+						lineEnd = line;
+					if (name)
+					{
+						nameHash = (nameHash ^ b) * FNV_PRIME;
+						if (!space)
+							nameEnd = nameHash;
+					}
+				}
+				position += buffer.limit( );
+				buffer.clear( );
+			}
+
+			if (song) // Unterminated last line.
+			{
+				lines[n] = lineEnd;
+				names[n] = name ? lineEnd : nameEnd;
+			}
+		}
+		return new Fingerprint(lines, names);
+	}
+
+	/**
+	 * Reads the sidecar and keeps its offsets if the playlist still
+	 * starts with the bytes they were computed from: if its size and
+	 * modification time are those the sidecar was written with, or else
+	 * if the checksum of the whole indexed part still matches.
+	 *
+	 * @return True if the sidecar was used.
+	 */
+	private boolean load (FileChannel channel)
+	{
+		Path sidecar = sidecar( );
+		if (!Files.exists(sidecar))
+			return false;
+
+		try
+		{
+			ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(sidecar));
+			if (in.getInt( ) != MAGIC || in.getInt( ) != VERSION)
+				return false;
+
+			long size = in.getLong( );
+			long modified = in.getLong( );
+			long indexed = in.getLong( );
+			long crc = in.getLong( );
+			current = size == channel.size( ) && modified == modified( );
+			if (!current && (indexed > channel.size( ) || crc != checksum(channel, indexed)))
+				return false;
+
+			int songs = in.getInt( );
+			long[] loaded = new long[Math.max(1024, songs)];
+			long offset = 0;
+			for (int i = 0; i < songs; i++)
+			{
+				offset += readVarLong(in);
+				loaded[i] = offset;
+			}
+
+			offsets = loaded;
+			count = songs;
+			scanned = indexed;
+			return true;
+		}
+		catch (IOException | BufferUnderflowException ex) // Unreadable or truncated sidecar; rebuild it.
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the sidecar atomically. Failing to write it only costs a
+	 * full scan next time.
+	 */
+	private void save (FileChannel channel)
+	{
+		Path sidecar = sidecar( );
+		try
+		{
+			Path temp = Files.createTempFile(sidecar.toAbsolutePath( ).getParent( ), ".index", ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+			{
+				// Only offsets below scanned are final; an unterminated last line is scanned again.
+				int songs = count;
+				while (songs > 0 && offsets[songs - 1] >= scanned)
+					songs--;
+
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(channel.size( ));
+				out.writeLong(modified( ));
+				out.writeLong(scanned);
+				out.writeLong(checksum(channel, scanned));
+				out.writeInt(songs);
+
+				long previous = 0;
+				for (int i = 0; i < songs; i++)
+				{
+					writeVarLong(out, offsets[i] - previous);
+					previous = offsets[i];
+				}
+			}
+			Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException ioEx)
+		{
+			System.out.println("Could not save playlist index " + sidecar + ": " + ioEx.getMessage( ));
+		}
+	}
+
+	/**
+	 * Checksums the first length bytes of the playlist.
+	 */
+	private static long checksum (FileChannel channel, long length) throws IOException
+	{
+		CRC32 crc = new CRC32( );
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+		for (long position = 0; position < length; )
+		{
+			buffer.limit((int) Math.min(SCAN_BUFFER, length - position));
+			int read = channel.read(buffer, position);
+			if (read <= 0)
+				break;
+
+			position += read;
+			buffer.flip( );
+			crc.update(buffer);
+			buffer.clear( );
+		}
+		return crc.getValue( );
+	}
+
+	/**
+	 * @return The modification time of the playlist, in nanoseconds since the epoch.
+	 */
+	private long modified ( ) throws IOException
+	{
+		return Files.getLastModifiedTime(file).to(TimeUnit.NANOSECONDS);
+	}
+
+	private static void writeVarLong (DataOutputStream out, long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong (ByteBuffer in)
+	{
+		long value = 0;
+		for (int shift = 0; ; shift += 7)
+		{
+			int b = in.get( ) & 0xFF;
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+	}
+
+	private Path sidecar ( )
+	{
+		return file.resolveSibling("." + file.getFileName( ) + ".idx");
+	}
+
+	/** @return The number of songs in the playlist. */
+	public int size ( ) { return count; }
+
+	/**
+	 * Reads and parses the n-th song of the playlist. Should the
+	 * playlist have changed since it was indexed, the offset may no
+	 * longer be that of a song line, which is then reported as invalid.
+	 *
+	 * <hr>
+	 *
+	 * @param n Index of the song, counting from 0.
+	 * @return The song.
+	 * @throws UncheckedIOException     If the playlist cannot be read.
+	 * @throws IllegalArgumentException If the line is not a valid song, or a comment or blank.
+	 */
+	public Track get (int n)
+	{
+		if (n < 0 || n >= count)
+			throw new IndexOutOfBoundsException("Song " + n + " of " + count);
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			ByteBuffer buffer = ByteBuffer.allocate(512);
+			long position = offsets[n];
+			int length = 0;
+
+			while (channel.read(buffer, position + buffer.position( )) > 0)
+			{
+				for (; length < buffer.position( ); length++)
+				{
+					if (buffer.get(length) == '\n')
+						return parse(buffer, length, n);
+				}
+				if (!buffer.hasRemaining( ))
+					buffer = ByteBuffer.allocate(buffer.capacity( ) * 2).put(buffer.flip( ));
+			}
+			return parse(buffer, buffer.position( ), n);
+		}
+		catch (IOException ioEx)
+		{
+			throw new UncheckedIOException(ioEx);
+		}
+	}
+
+	private static Track parse (ByteBuffer buffer, int length, int n)
+	{
+		String line = new String(buffer.array( ), 0, length, Charset.defaultCharset( ));
+		if (line.endsWith("\r"))
+			line = line.substring(0, line.length( ) - 1);
+
+		Track track;
+		try
+		{
+			track = Track.parse(line);
+		}
+		catch (IllegalArgumentException iaEx)
+		{
+			throw new IllegalArgumentException("Song " + (n + 1) + ": " + iaEx.getMessage( ), iaEx);
+		}
+
+		if (track == null) // The playlist changed under the index.
+			throw new IllegalArgumentException("Song " + (n + 1) + ": no song in line \"" + line + "\"");
+		return track;
+	}
+
+	/**
+	 * The hashes of the song lines of a playlist, as it was when
+	 * fingerprint() read it.
+	 */
+	public static final class Fingerprint
+	{
+		private final long[] lines; // Hash of every song line.
+		private final long[] names; // Hash of the file name, before the '|', of every song line.
+
+		private Fingerprint (long[] lines, long[] names)
+		{
+			this.lines = lines;
+			this.names = names;
+		}
+
+		/** @return The number of songs. */
+		public int size ( ) { return lines.length; }
+
+		/**
+		 * @param n Index of the song, counting from 0.
+		 * @return The hash of its line.
+		 */
+		public long getLine (int n) { return lines[n]; }
+
+		/**
+		 * @param n Index of the song, counting from 0.
+		 * @return The hash of its file name.
+		 */
+		public long getName (int n) { return names[n]; }
+	}
+}
@@ -8,20 +8,44 @@
 
 package fmpirate;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
-import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * This class provides the play, stop, and shuffle logic to
- * the ControllerGUI. It manages the Process playlistProcess
- * which effectively executes bash to initialize broadcast
- * and kill SoX processes as needed.
+ * the ControllerGUI. By default it manages an AudioPlayer which
+ * decodes the playlist in process and feeds fm_transmitter
+ * directly. Started with -Dfmpirate.backend=pipeline, it manages a
+ * PipelinePlayer which runs a SoX | fm_transmitter pipeline per
+ * track without any script. Started with -Dfmpirate.backend=script,
+ * it instead manages the Process playlistProcess which effectively
+ * executes bash to initialize broadcast and kill SoX processes as
+ * needed.
+ * <p>
+ * With the java backend, the broadcast is saved as a
+ * Checkpoint in "../.checkpoint/checkpoint.txt" every 15 seconds
+ * (-Dfmpirate.checkpoint.interval=S, 0 for never) and whenever it is
+ * started or retuned, so that resume() can carry on with it after a
+ * restart. Stopping a broadcast, or playing it to the end, deletes
+ * the checkpoint; shutdown() saves it instead.
+ * <p>
+ * With the java backend, the playlist file on air is watched by a
+ * PlaylistWatcher (unless -Dfmpirate.reload=false), and the player
+ * goes on with it as edited: songs inserted, removed or given another
+ * gain take effect from the next song on, and the song on air plays
+ * on.
  *
  * <hr>
  *
@@ -29,15 +53,73 @@ import java.util.Scanner;
  */
 public final class PlaylistManager
 {
-    private static ArrayList<String> playList = new ArrayList<String>();
-
-    private static File playlistFile;    // File object to read bash script from.
-    private static Scanner fileScanner;  // To scan file contents.
-
     private static String tempPath = ""; // Path to temp file.
-    private static String textLine;      // To store each nextLine from playlist file.
 
     private static Process playlistProcess;
+    private static long stopRequested = 0; // System.nanoTime() of the last stop, until the next play.
+
+    // "java" (default) to decode in process, "pipeline" to run SoX | fm_transmitter per track,
+    // "script" to run the generated bash script with SoX.
+    private static final String BACKEND = System.getProperty("fmpirate.backend", "java");
+    // With the java backend, stream all tracks through one fm_transmitter unless set to false.
+    private static final boolean GAPLESS = Boolean.parseBoolean(System.getProperty("fmpirate.gapless", "true"));
+
+    private static List<Track> tracks;   // Tracks of the playlist, as listed.
+    private static PlayOrder order;      // Order in which tracks will be played.
+    private static Playlist source;      // Playlist tracks were read from.
+    // Seed for shuffling, to repeat a shuffled order; random if unset.
+    private static final Long SHUFFLE_SEED = Long.getLong("fmpirate.shuffle.seed");
+    private static String frequency;     // Frequency the tracks will be broadcast on.
+    private static String audioPath;     // Directory holding the WAV files and fm_transmitter.
+    private static AudioPlayer player;   // Plays tracks when the java backend is used.
+    private static PipelinePlayer pipelinePlayer; // Plays tracks when the pipeline backend is used.
+    private static Playlist checked;     // Playlist the preflight report is about.
+    private static Preflight.Report report;
+
+    // Size limit of the transcode cache in MiB; 0 disables it.
+    private static final long CACHE_SIZE = Long.getLong("fmpirate.cache.size", 512);
+    private static TranscodeCache cache; // Opened on first play.
+    // Number of upcoming tracks pre-rendered while the current one plays.
+    private static final int LOOKAHEAD = Integer.getInteger("fmpirate.lookahead", 2);
+    // With the java backend, directory to record the aired audio to; not recorded if unset.
+    private static final String RECORD = System.getProperty("fmpirate.record");
+    // "drop" to drop audio the recorder falls behind on, "block" to hold up the broadcast instead.
+    private static final String RECORD_BACKPRESSURE = System.getProperty("fmpirate.record.backpressure", "drop");
+    // With the java backend, play the aired audio on this machine's sound output too.
+    private static final boolean MONITOR = Boolean.getBoolean("fmpirate.monitor");
+    // With the java backend, station profile processing the broadcast: "eu", "us" or a file; none if unset.
+    private static final String PROFILE = System.getProperty("fmpirate.profile");
+
+    private static final Path CHECKPOINT = Paths.get("../.checkpoint/checkpoint.txt");
+    // Seconds between checkpoints of the java backend's broadcast; 0 to never save one.
+    private static final long CHECKPOINT_INTERVAL = Long.getLong("fmpirate.checkpoint.interval", 15);
+    private static ScheduledExecutorService checkpointer; // Saves the checkpoint, started with the first broadcast.
+    private static Checkpoint saved;     // Checkpoint last saved, or null if none is saved.
+
+    // With the java backend, go on with the playlist file as it is edited while on air, unless set to false.
+    private static final boolean RELOAD = Boolean.parseBoolean(System.getProperty("fmpirate.reload", "true"));
+    private static PlaylistWatcher watcher; // Watches source while the java backend plays it.
+
+    /**
+     * Plays the given playlist in the order it was written, using
+     * the backend selected by the fmpirate.backend property.
+     *
+     * <hr>
+     * @param playlist The playlist to broadcast.
+     * @throws Exception
+     */
+    protected static synchronized void play(Playlist playlist) throws Exception
+    {
+        preflight(playlist);
+        if (isScriptBackend())
+            tempPath = playlist.getPath(); // Writes the script; the java backend reads songs as it plays them.
+        tracks = playlist.getTracks();
+        order = PlayOrder.sequential(tracks.size());
+        source = playlist;
+        frequency = playlist.getFrequency();
+        audioPath = playlist.getAudioPath();
+        play();
+    }
 
     /**
      * Sets the content of tempPath to the string passed and calls
@@ -48,113 +130,728 @@ public final class PlaylistManager
      * @param playListPath The path of the playlist to be executed.
      * @throws Exception
      */
-    protected static void play(String playListPath) throws Exception
+    protected static synchronized void play(String playListPath) throws Exception
     {
         tempPath = playListPath;
         play();
     }
 
     /**
-     * Attempts to bash-execute the playlist file specified
-     * by tempPath using playlistProcess.
+     * Starts an AudioPlayer (or, with the pipeline backend, a
+     * PipelinePlayer) on the current tracks or, with the script
+     * backend, attempts to bash-execute the playlist file
+     * specified by tempPath using playlistProcess.
      *
      * <hr>
      * @throws Exception
      */
-    protected static void play() throws Exception
+    protected static synchronized void play() throws Exception
     {
-        playlistProcess = Runtime.getRuntime( ).exec("bash " + tempPath);
+        if (isPlaying()) // i.e. a scheduled broadcast; only one can be on air.
+            stop();
+
+        if (isScriptBackend())
+        {
+            long start = System.nanoTime();
+            playlistProcess = Runtime.getRuntime( ).exec("bash " + tempPath);
+            Metrics.SPAWN.recordSince(start);
+        }
+        else if (isPipelineBackend())
+        {
+            LoudnessAnalyzer.getInstance().analyze(tracks, audioPath); // Ahead of the tracks being played.
+            pipelinePlayer = new PipelinePlayer(tracks, order, frequency, audioPath);
+            pipelinePlayer.start();
+        }
+        else
+        {
+            LoudnessAnalyzer.getInstance().analyze(tracks, audioPath); // Ahead of the tracks being played.
+            player = new AudioPlayer(tracks, order, frequency, audioPath, GAPLESS, cache(), LOOKAHEAD, outputs(), processing());
+            player.start();
+            watch();
+            checkpoint();
+        }
+        restarted();
     }
 
     /**
-     * Attempts to destroy the current playlistProcess
-     * and attempts to then kill SoX (which will otherwise
-     * continue to run) using playlistProcess.
+     * Gets playlist ready to go on air the moment start() is called,
+     * doing ahead of time everything which can be: its songs are
+     * checked, their loudness measured and the order picked. With the
+     * java backend the first track is opened and its first seconds
+     * decoded and, if nothing is on air, the transmitter is started
+     * and waits for the first samples. With the script backend the
+     * script is written. Whatever is playing keeps playing.
+     *
+     * <hr>
+     * @param playlist  The playlist to broadcast.
+     * @param frequency The frequency to broadcast on.
+     * @param shuffle   True to play the songs in a random order.
+     * @return The prepared broadcast.
+     * @throws Exception If the playlist cannot be prepared.
+     */
+    protected static Prepared prepare(Playlist playlist, String frequency, boolean shuffle) throws Exception
+    {
+        preflight(playlist);
+
+        List<Track> songs = playlist.getTracks();
+        PlayOrder playOrder = shuffle ? PlayOrder.shuffled(songs.size(), seed()) : PlayOrder.sequential(songs.size());
+        String audio = playlist.getAudioPath();
+        LoudnessAnalyzer.getInstance().analyze(songs, audio).get();
+
+        Prepared prepared = new Prepared(songs, playOrder, playlist, frequency, audio);
+        if (isScriptBackend())
+            prepared.script = createTempFile(songs, playOrder, audio, frequency);
+        else if (isPipelineBackend())
+            prepared.pipelinePlayer = new PipelinePlayer(songs, playOrder, frequency, audio);
+        else
+        {
+            prepared.player = new AudioPlayer(songs, playOrder, frequency, audio, GAPLESS, cache(), LOOKAHEAD, outputs(), processing());
+            prepared.player.prepare(!isPlaying()); // Only one transmitter can be on air.
+        }
+        return prepared;
+    }
+
+    /**
+     * Stops whatever is playing and puts a prepared broadcast on air.
+     *
+     * <hr>
+     * @param prepared A broadcast returned by prepare(), started at most once.
+     * @throws Exception If it cannot be started.
+     */
+    protected static synchronized void start(Prepared prepared) throws Exception
+    {
+        if (isPlaying())
+            stop();
+
+        tracks = prepared.tracks;
+        order = prepared.order;
+        source = prepared.playlist;
+        frequency = prepared.frequency;
+        audioPath = prepared.audioPath;
+
+        if (isScriptBackend())
+        {
+            tempPath = prepared.script;
+            long start = System.nanoTime();
+            playlistProcess = Runtime.getRuntime( ).exec("bash " + tempPath);
+            prepared.launched = System.nanoTime();
+            Metrics.SPAWN.recordSince(start);
+        }
+        else if (isPipelineBackend())
+        {
+            pipelinePlayer = prepared.pipelinePlayer;
+            pipelinePlayer.start();
+        }
+        else
+        {
+            player = prepared.player;
+            player.start();
+            watch();
+            checkpoint();
+        }
+        restarted();
+    }
+
+    /**
+     * Discards a prepared broadcast which will not be started,
+     * stopping the transmitter it may have started.
+     *
+     * <hr>
+     * @param prepared A broadcast returned by prepare().
+     * @throws InterruptedException If interrupted while the transmitter exits.
+     */
+    protected static void discard(Prepared prepared) throws InterruptedException
+    {
+        if (prepared.player != null)
+            prepared.player.stop();
+    }
+
+    /**
+     * Prints and records the time since the last stop, if this start
+     * follows one.
+     */
+    private static void restarted()
+    {
+        if (stopRequested != 0) // Restarting, i.e. after a shuffle.
+        {
+            System.out.printf("Stop-to-restart latency: %.1f ms%n", (System.nanoTime() - stopRequested) / 1e6);
+            Metrics.RESTART.recordSince(stopRequested);
+            stopRequested = 0;
+        }
+    }
+
+    /**
+     * @return The transcode cache, opened on first use, or null if it is disabled.
+     * @throws IOException If the cache directory cannot be opened.
+     */
+    private static synchronized TranscodeCache cache() throws IOException
+    {
+        if (cache == null && CACHE_SIZE > 0)
+            cache = new TranscodeCache(Paths.get("../.cache"), CACHE_SIZE * 1024 * 1024);
+        return cache;
+    }
+
+    /**
+     * Builds the sinks the aired audio is passed on to, as set by the
+     * fmpirate.record and fmpirate.monitor properties. The recorder may
+     * queue about 12 seconds of audio, the monitor about 1.5 seconds,
+     * so that listening stays close to live.
+     */
+    private static List<FanOut.Output> outputs()
+    {
+        List<FanOut.Output> outputs = new ArrayList<FanOut.Output>();
+        if (RECORD != null)
+            outputs.add(new FanOut.Output(new Recorder(Paths.get(RECORD)), RECORD_BACKPRESSURE.equals("block")
+                    ? FanOut.Backpressure.BLOCK : FanOut.Backpressure.DROP_OLDEST, 64));
+        if (MONITOR)
+            outputs.add(new FanOut.Output(new Monitor(), FanOut.Backpressure.DROP_OLDEST, 8));
+        return outputs;
+    }
+
+    /**
+     * Builds the processing of the station profile set by the
+     * fmpirate.profile property, read again for every broadcast so that
+     * changes to a profile file are picked up. fm_transmitter adds a
+     * pre-emphasis of its own unless built with "make NO_PREEMP=1",
+     * which must be done when the profile has one.
+     *
+     * @return The processing, or null if no profile is set.
+     * @throws IOException If the profile file cannot be read.
+     */
+    private static DspChain processing() throws IOException
+    {
+        if (PROFILE == null)
+            return null;
+
+        DspChain dsp = DspChain.load(PROFILE, AudioPlayer.BUFFER_SIZE);
+        System.out.println("Processing with profile " + dsp);
+        if (dsp.hasPreEmphasis())
+            System.out.println("The profile has its own pre-emphasis: fm_transmitter must be built with \"make NO_PREEMP=1\"");
+        return dsp;
+    }
+
+    /**
+     * @return The seed to shuffle with: the fmpirate.shuffle.seed property or a random one,
+     *         kept so that a checkpoint can make the same order again.
+     */
+    private static long seed()
+    {
+        return SHUFFLE_SEED != null ? SHUFFLE_SEED : new Random().nextLong();
+    }
+
+    /**
+     * Carries on with the broadcast saved in the checkpoint, if there is
+     * one: the same playlist in the same order, on the same frequency,
+     * from about where it was on air. The songs are not checked again
+     * and nothing is waited for, so it is on air as soon as the first
+     * song is opened and a transmitter started. Only the java backend
+     * can resume.
+     *
+     * <hr>
+     * @return True if a broadcast was resumed, false if there is none to resume.
+     * @throws Exception If the checkpoint cannot be read or the playlist has changed since.
+     */
+    protected static synchronized boolean resume() throws Exception
+    {
+        long start = System.nanoTime();
+        Checkpoint checkpoint = Checkpoint.load(CHECKPOINT);
+        if (checkpoint == null)
+            return false;
+        if (isScriptBackend() || isPipelineBackend())
+            throw new IllegalStateException("The " + BACKEND + " backend cannot resume a broadcast");
+
+        Playlist playlist = new Playlist(checkpoint.getPlaylist(), checkpoint.getFrequency());
+        List<Track> songs = playlist.getTracks();
+        if (songs.size() != checkpoint.getSongs() || checkpoint.getPosition() >= songs.size())
+            throw new IOException(checkpoint.getPlaylist() + " has changed since the checkpoint was saved");
+
+        if (isPlaying())
+            stop();
+
+        tracks = songs;
+        order = checkpoint.getOrder();
+        source = playlist;
+        frequency = checkpoint.getFrequency();
+        audioPath = playlist.getAudioPath();
+
+        LoudnessAnalyzer.getInstance().analyze(tracks, audioPath); // Ahead of the tracks being played.
+        player = new AudioPlayer(tracks, order, frequency, audioPath, GAPLESS, cache(), LOOKAHEAD, outputs(), processing());
+        player.resumeAt(checkpoint.getPosition(), checkpoint.getFrame());
+        player.start();
+        watch();
+        checkpoint();
+
+        long seconds = checkpoint.getFrame() / PcmConverter.SAMPLE_RATE;
+        System.out.printf("Resumed %s at song %d, %d:%02d, on %s in %.1f ms%n", checkpoint.getPlaylist(),
+                checkpoint.getPosition() + 1, seconds / 60, seconds % 60, frequency, (System.nanoTime() - start) / 1e6);
+        return true;
+    }
+
+    /**
+     * Starts following the edits of the playlist file on air, for the
+     * player just started.
+     */
+    private static void watch()
+    {
+        if (!RELOAD || source == null)
+            return;
+
+        AudioPlayer target = player;
+        try
+        {
+            watcher = new PlaylistWatcher(source, (edited, diff) -> reloaded(target, edited, diff));
+        }
+        catch (IOException ioEx)
+        {
+            System.out.println("Could not watch " + source.getFilePath() + ", its edits will not be followed: "
+                    + ioEx.getMessage());
+        }
+    }
+
+    /**
+     * Passes an edit of the playlist file on to the player which was
+     * playing it, and measures the loudness of the songs which were
+     * inserted or edited to "gain auto". Not synchronized, since
+     * stopping waits for nothing of the watcher's.
+     *
+     * @param target The player the watcher was started for.
+     * @param edited The tracks of the edited playlist.
+     * @param diff   What changed.
+     */
+    private static void reloaded(AudioPlayer target, List<Track> edited, PlaylistDiff diff)
+    {
+        if (!target.isRunning())
+            return;
+
+        List<Track> changed = new ArrayList<Track>();
+        for (int song = 0; song < diff.getNewSize(); song++)
+        {
+            try
+            {
+                if (diff.isInserted(song) || diff.isEdited(song))
+                    changed.add(edited.get(song));
+            }
+            catch (RuntimeException ex)
+            {
+                // Unreadable line; the player skips it.
+            }
+        }
+        try
+        {
+            LoudnessAnalyzer.getInstance().analyze(changed, audioPath);
+        }
+        catch (IOException ioEx)
+        {
+            // The songs are measured when they are played instead.
+        }
+        target.reload(edited, diff);
+    }
+
+    /**
+     * Saves where the broadcast is right away, and from then on every
+     * CHECKPOINT_INTERVAL seconds; the writes are batched this way so
+     * the SD card is not written to with every buffer sent.
+     */
+    private static void checkpoint()
+    {
+        if (CHECKPOINT_INTERVAL <= 0)
+            return;
+
+        if (checkpointer == null)
+        {
+            checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fmpirate-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpointer.scheduleWithFixedDelay(PlaylistManager::saveCheckpoint,
+                    CHECKPOINT_INTERVAL, CHECKPOINT_INTERVAL, TimeUnit.SECONDS);
+        }
+        checkpointer.execute(PlaylistManager::saveCheckpoint);
+    }
+
+    /**
+     * Saves where the java backend's broadcast is, unless nothing has
+     * changed since the last save. A broadcast which played to its end
+     * is forgotten.
+     */
+    private static synchronized void saveCheckpoint()
+    {
+        if (player == null) // Stopped, or not the java backend.
+            return;
+        if (!player.isRunning())
+        {
+            forgetCheckpoint();
+            return;
+        }
+
+        Checkpoint checkpoint;
+        synchronized (player) // The order and position are replaced together when the playlist is edited.
+        {
+            int position = player.getTrackIndex();
+            if (position < 0) // Not started yet.
+                return;
+
+            checkpoint = new Checkpoint(source.getFilePath(), player.getOrder(), position, player.getTrackFrame(), frequency);
+        }
+        if (checkpoint.equals(saved))
+            return;
+
+        try
+        {
+            checkpoint.save(CHECKPOINT);
+            saved = checkpoint;
+        }
+        catch (IOException ioEx)
+        {
+            System.out.println("Could not save the checkpoint " + CHECKPOINT + ": " + ioEx.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the checkpoint, so that there is nothing to resume.
+     */
+    private static void forgetCheckpoint()
+    {
+        saved = null;
+        try
+        {
+            Checkpoint.delete(CHECKPOINT);
+        }
+        catch (IOException ioEx)
+        {
+            System.out.println("Could not delete the checkpoint " + CHECKPOINT + ": " + ioEx.getMessage());
+        }
+    }
+
+    /**
+     * Stops the AudioPlayer or PipelinePlayer or, with the script backend, tears down
+     * playlistProcess along with the SoX and fm_transmitter processes
+     * it started. Returns once all of them have exited, so a new
+     * playlist can be started right away. The broadcast was stopped on
+     * purpose, so its checkpoint is deleted.
      *
      * <hr>
      * @throws Exception
      */
-    protected static void stop() throws Exception
+    protected static synchronized void stop() throws Exception
     {
-        playlistProcess.destroy( );
-        // I have learned that actually killing SoX seems to be best way to ensure that multiple
-        // SoX processes don't continue running over top of each other.
-        playlistProcess = Runtime.getRuntime( ).exec("killall sox");
+        forgetCheckpoint();
+        halt();
     }
 
     /**
-     * Reads a bash-executable playlist and replaces the frequency
-     * in each line with the new frequency passed to the method and
-     * stores each non-blank line to the String ArrayList, playList.
-     * Finally, createTempFile is called to make use of the ArrayList
-     * contents.
+     * Stops the broadcast as the program exits, i.e. when the Pi shuts
+     * down, saving its checkpoint first so that it can be resumed.
      *
      * <hr>
-     * @param filePath The path to a bash script in "../.temp_files"
-     * @param newFrequency The frequency which was captured from the JSliders in ControllerGUI.
-     * @throws IOException
+     * @throws Exception
+     */
+    protected static synchronized void shutdown() throws Exception
+    {
+        saveCheckpoint();
+        if (isPlaying())
+            halt();
+    }
+
+    /**
+     * Stops whatever is playing, leaving the checkpoint as it is.
      */
-    protected static void shuffle(String filePath, String newFrequency) throws IOException
-    { // Always update the frequency in case the user has changed the sliders before stopping current process.
-        playlistFile = new File(filePath);
-        fileScanner = new Scanner(playlistFile);
+    private static void halt() throws Exception
+    {
+        stopRequested = System.nanoTime();
+        boolean edited = false;
 
-        while (fileScanner.hasNext())
+        if (isScriptBackend())
+        {
+            if (!ProcessSupervisor.terminate(playlistProcess))
+                System.out.println("Some playlist processes did not exit");
+            playlistProcess = null;
+        }
+        else if (isPipelineBackend())
+        {
+            if (pipelinePlayer != null)
+                pipelinePlayer.stop();
+            pipelinePlayer = null;
+        }
+        else
         {
-            textLine = fileScanner.nextLine()
-                    .replaceAll("[0-9]+[0-9]\\.[0-9]+", newFrequency);
+            if (watcher != null)
+                watcher.close();
+            watcher = null;
+            if (player != null)
+            {
+                player.stop();
+                edited = player.getTracks() != tracks;
+            }
+            player = null;
+        }
 
-            if (textLine.length() > 0)
-                playList.add(textLine); // Add all songs to execute.
+        System.out.printf("Stopped in %.1f ms%n", (System.nanoTime() - stopRequested) / 1e6);
+        Metrics.STOP.recordSince(stopRequested);
+        if (edited)
+            reread();
+    }
+
+    /**
+     * Reads the playlist again after it was edited on air, so that
+     * playing it again plays the file as it is now, in the order it is
+     * listed or shuffled anew.
+     */
+    private static void reread()
+    {
+        try
+        {
+            source = new Playlist(source.getFilePath(), source.getFrequency());
+            tracks = source.getTracks();
+            order = order.isShuffled() ? PlayOrder.shuffled(tracks.size(), seed()) : PlayOrder.sequential(tracks.size());
         }
+        catch (IOException ioEx)
+        {
+            System.out.println("Could not read " + source.getFilePath() + " again: " + ioEx.getMessage());
+        }
+    }
 
-        createTempFile();
+    /**
+     * Moves a running broadcast to newFrequency without restarting
+     * the playlist: only the transmitter is replaced and the current
+     * track resumes where it was. Only the java backend can do this.
+     *
+     * <hr>
+     * @param newFrequency The frequency which was captured from the JSliders in ControllerGUI.
+     * @return True if the broadcast was retuned, false if nothing is playing or the backend cannot retune.
+     */
+    protected static synchronized boolean retune(String newFrequency)
+    {
+        if (isScriptBackend() || isPipelineBackend() || player == null || !player.isRunning())
+            return false;
+
+        frequency = newFrequency;
+        player.retune(newFrequency);
+        checkpoint();
+        return true;
+    }
+
+    /**
+     * Ends the song being broadcast and moves on to the next one.
+     * The script backend cannot skip.
+     *
+     * <hr>
+     * @return True if a song was skipped, false if nothing is playing or the backend cannot skip.
+     * @throws InterruptedException If interrupted while the pipeline is torn down.
+     */
+    protected static synchronized boolean skip() throws InterruptedException
+    {
+        if (!isPlaying() || isScriptBackend())
+            return false;
+
+        if (isPipelineBackend())
+            pipelinePlayer.skip();
+        else
+            player.skip();
+        return true;
     }
 
     /**
-     * The playList ArrayList is utilized along with the Random
-     * class to randomly print the each String from the list one
-     * time. This new playlist script is a shuffled version of
-     * the previous script in "../.temp_files" and may be
-     * executed in playListProcess.
+     * Shuffles the songs of playlist and sets the frequency they
+     * will be broadcast on. The shuffled order is kept as a
+     * permutation of the playlist's tracks; with the script backend
+     * a script playing the tracks in that order is written as well.
      *
      * <hr>
+     * @param playlist The playlist whose songs are shuffled.
+     * @param newFrequency The frequency which was captured from the JSliders in ControllerGUI.
      * @throws IOException
+     * @throws InterruptedException
      */
-    private static void createTempFile() throws IOException
+    protected static synchronized void shuffle(Playlist playlist, String newFrequency) throws IOException, InterruptedException
     {
-        Random random = new Random();
+        preflight(playlist);
 
-        File tempFile;
-        int i = 0;
-        do
-        {
-            tempPath = "../.temp_files/temp_file" + i;
-            tempFile = new File(tempPath);
-            i++;
-        }while (tempFile.exists());
+        tracks = playlist.getTracks();
+        order = PlayOrder.shuffled(tracks.size(), seed());
+        source = playlist;
+        frequency = newFrequency;
+        audioPath = playlist.getAudioPath();
+
+        if (isScriptBackend())
+            tempPath = createTempFile(tracks, order, audioPath, frequency);
 
-        FileWriter fw = new FileWriter(tempFile);
-        PrintWriter pw = new PrintWriter(fw);
-        int rand = 0;
+        System.out.println("Shuffled " + tracks.size() + " songs");
+    }
 
-        pw.println(playList.get(0)); // Print shebang header.
-        pw.println(playList.get(1)); // Print "cd /home/pi/fm"
-        playList.remove(0); // Remove shebang header and cd statement
-        playList.remove(0); // so they don't get shuffled as songs.
+    /**
+     * Prints a bash script to a new file in "../.temp_files"
+     * which plays the tracks in the given order over the
+     * given frequency, so it may be executed in
+     * playListProcess.
+     *
+     * <hr>
+     * @param tracks    The songs, as listed.
+     * @param order     The order to play them in.
+     * @param audioPath The directory holding the WAV files.
+     * @param frequency The frequency to broadcast on.
+     * @return The path of the script.
+     * @throws IOException
+     */
+    private static String createTempFile(List<Track> tracks, PlayOrder order, String audioPath, String frequency)
+            throws IOException
+    {
+        File tempFile = Playlist.createTempFile(Paths.get("../.temp_files"));
 
-        int j = 0;
-        while (playList.size() > 0)
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tempFile))))
         {
-            rand = random.nextInt(playList.size()); // Get random number in range.
-            pw.println(playList.get(rand));			// Print String stored in random arraylist index.
-            playList.remove(rand);					// Remove String of previously printed index.
-            System.out.println("Printed song " + j);
-            j++;
+            Playlist.writeScript(pw, tracks, order, audioPath, frequency, LoudnessAnalyzer.getInstance());
         }
-        pw.close();
-        playList.clear();
+        return tempFile.getPath();
     } // End createTempFile method.
 
+    /**
+     * Checks that every song of playlist can be played, unless it was
+     * checked already, and prints what was found.
+     *
+     * <hr>
+     * @param playlist The playlist about to be broadcast.
+     * @throws InterruptedException If interrupted while checking.
+     */
+    private static synchronized void preflight(Playlist playlist) throws InterruptedException
+    {
+        if (playlist == checked)
+            return;
+
+        report = Preflight.check(playlist.getTracks(), playlist.getAudioPath());
+        checked = playlist;
+
+        System.out.println(report);
+        System.out.print(report.describe(true, 20));
+    }
+
+    /**
+     * Describes the problems the last preflight check found which
+     * will affect the broadcast with the current backend. Formats
+     * fm_transmitter cannot read only matter to the java backend,
+     * since SoX converts them for the others.
+     *
+     * <hr>
+     * @return The problems, or an empty string if there are none.
+     */
+    protected static String getPreflightProblems()
+    {
+        if (report == null)
+            return "";
+        return report.describe(!isScriptBackend() && !isPipelineBackend(), 10);
+    }
+
     protected static String getPath() {return tempPath;}
+
+    /**
+     * @return True while a broadcast is running, i.e. has not been stopped or played to the end.
+     */
+    protected static synchronized boolean isPlaying()
+    {
+        if (isScriptBackend())
+            return playlistProcess != null && playlistProcess.isAlive();
+        if (isPipelineBackend())
+            return pipelinePlayer != null && pipelinePlayer.isRunning();
+        return player != null && player.isRunning();
+    }
+
+    /**
+     * @return Position in the play order of the song being broadcast, or -1 if it is not known.
+     */
+    protected static synchronized int getPosition()
+    {
+        if (!isPlaying() || isScriptBackend())
+            return -1;
+        return isPipelineBackend() ? pipelinePlayer.getTrackIndex() : player.getTrackIndex();
+    }
+
+    /**
+     * @return Seconds of audio decoded ahead of the transmitter, or -1 if not known.
+     */
+    protected static synchronized double getDecodedAhead()
+    {
+        return player != null && player.isRunning() ? player.getDecodedAhead() : -1;
+    }
+
+    /**
+     * @return The file name of the song being broadcast, or null if it is not known.
+     */
+    protected static synchronized String getCurrentSong()
+    {
+        int position = getPosition();
+        if (position < 0)
+            return null;
+
+        try
+        {
+            if (player != null) // The playlist may have been edited since it started.
+                return player.getTracks().get(player.getOrder().get(position)).getFileName();
+            return tracks.get(order.get(position)).getFileName();
+        }
+        catch (RuntimeException ex) // Unreadable line; the player skips it.
+        {
+            return null;
+        }
+    }
+
+    protected static synchronized int getSongCount()
+    {
+        if (player != null)
+            return player.getTracks().size();
+        return tracks == null ? 0 : tracks.size();
+    }
+
+    /**
+     * @return Path of the playlist file being played, or null if none has been.
+     */
+    protected static synchronized String getPlaylistFile() {return source == null ? null : source.getFilePath();}
+
+    protected static synchronized boolean isShuffled() {return order != null && order.isShuffled();}
+
+    protected static String getFrequency() {return frequency;}
+
+    protected static String getBackend() {return BACKEND;}
+
+    private static boolean isScriptBackend() {return BACKEND.equals("script");}
+
+    private static boolean isPipelineBackend() {return BACKEND.equals("pipeline");}
+
+    /**
+     * A broadcast made ready by prepare() but not yet on air.
+     */
+    protected static final class Prepared
+    {
+        private final List<Track> tracks;
+        private final PlayOrder order;
+        private final Playlist playlist;
+        private final String frequency;
+        private final String audioPath;
+        private String script;                 // Script to run with the script backend.
+        private PipelinePlayer pipelinePlayer; // Player with the pipeline backend.
+        private AudioPlayer player;            // Player with the java backend.
+        private volatile long launched = 0;    // System.nanoTime() the script was started.
+
+        private Prepared(List<Track> tracks, PlayOrder order, Playlist playlist, String frequency, String audioPath)
+        {
+            this.tracks = tracks;
+            this.order = order;
+            this.playlist = playlist;
+            this.frequency = frequency;
+            this.audioPath = audioPath;
+        }
+
+        /**
+         * @return System.nanoTime() when the first audio was handed to a transmitter (or, with the
+         *         script backend, the script was started), or 0 if that has not happened yet.
+         */
+        protected long getFirstAudio()
+        {
+            if (player != null)
+                return player.getFirstAudio();
+            if (pipelinePlayer != null)
+                return pipelinePlayer.getFirstAudio();
+            return launched;
+        }
+    }
 }
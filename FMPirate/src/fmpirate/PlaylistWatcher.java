@@ -0,0 +1,161 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: PlaylistWatcher.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Follows the edits of a playlist file while it is on air. The
+ * directory of the file is watched with a WatchService, so nothing
+ * is read until the file changes; once it has stopped changing for
+ * SETTLE_MILLIS (editors save in several writes, or write a new file
+ * and rename it over the old one) it is indexed again, hashed, and
+ * compared with the version before by a PlaylistDiff, which is handed
+ * to the listener along with the edited playlist's tracks. That is
+ * done even if only comments or blank lines changed, since the songs
+ * after them have moved in the file.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class PlaylistWatcher implements AutoCloseable
+{
+	// Quiet time after the last change to the file before it is read again, in milliseconds.
+	private static final long SETTLE_MILLIS = 300;
+
+	private final Playlist playlist; // The playlist as it was when watching started.
+	private final Path file;
+	private final BiConsumer<List<Track>, PlaylistDiff> listener;
+	private final WatchService service;
+
+	/**
+	 * Starts watching playlist on a thread of its own. The playlist is
+	 * hashed first, on that thread, as it is now.
+	 *
+	 * <hr>
+	 *
+	 * @param playlist The playlist on air.
+	 * @param listener Given the tracks of the edited playlist and what changed, after every edit.
+	 * @throws IOException If the directory of the playlist cannot be watched.
+	 */
+	public PlaylistWatcher (Playlist playlist, BiConsumer<List<Track>, PlaylistDiff> listener) throws IOException
+	{
+		this.playlist = playlist;
+		this.file = Paths.get(playlist.getFilePath( )).toAbsolutePath( ).normalize( );
+		this.listener = listener;
+		this.service = FileSystems.getDefault( ).newWatchService( );
+		file.getParent( ).register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+		Thread thread = new Thread(this::watch, "fmpirate-watcher");
+		thread.setDaemon(true);
+		thread.start( );
+	}
+
+	/**
+	 * Waits for the file to change, and to settle, and compares it with
+	 * the version before each time, until closed.
+	 */
+	private void watch ( )
+	{
+		try
+		{
+			PlaylistIndex.Fingerprint current = playlist.fingerprint( );
+			while (true)
+			{
+				if (!changed(service.take( )))
+					continue;
+
+				WatchKey key;
+				while ((key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+					changed(key);
+				current = reload(current);
+			}
+		}
+		catch (InterruptedException | ClosedWatchServiceException ex)
+		{
+			// Closed.
+		}
+		catch (IOException ioEx)
+		{
+			System.out.println("Could not read " + file + ", its edits will not be followed: " + ioEx.getMessage( ));
+		}
+	}
+
+	/**
+	 * @return True if any of the events of key are about the playlist file, or some were lost.
+	 */
+	private boolean changed (WatchKey key)
+	{
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents( ))
+		{
+			if (event.kind( ) == StandardWatchEventKinds.OVERFLOW || file.getFileName( ).equals(event.context( )))
+				changed = true;
+		}
+		key.reset( );
+		return changed;
+	}
+
+	/**
+	 * Indexes and hashes the edited playlist and passes on what changed.
+	 * A file which cannot be read, i.e. while it is being replaced, is
+	 * left for the next change.
+	 *
+	 * @param current The hashes of the version before.
+	 * @return The hashes of the version read, or current if it could not be.
+	 */
+	private PlaylistIndex.Fingerprint reload (PlaylistIndex.Fingerprint current)
+	{
+		long start = System.nanoTime( );
+		try
+		{
+			Playlist edited = new Playlist(playlist.getFilePath( ), playlist.getFrequency( ));
+			PlaylistIndex.Fingerprint after = edited.fingerprint( );
+			PlaylistDiff diff = PlaylistDiff.compare(current, after);
+			System.out.printf("%s changed: %s, compared in %.1f ms%n", file.getFileName( ), diff,
+					(System.nanoTime( ) - start) / 1e6);
+			listener.accept(edited.getTracks( ), diff);
+			return after;
+		}
+		catch (IOException ioEx)
+		{
+			System.out.println("Could not read the edited " + file + ": " + ioEx.getMessage( ));
+			return current;
+		}
+	}
+
+	/**
+	 * Stops watching. An edit being read as it is closed may still be
+	 * passed to the listener.
+	 */
+	@Override
+	public void close ( )
+	{
+		try
+		{
+			service.close( ); // Ends the thread at its next wait.
+		}
+		catch (IOException ioEx)
+		{
+			// Nothing left to watch.
+		}
+	}
+}
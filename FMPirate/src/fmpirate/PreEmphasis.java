@@ -0,0 +1,79 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: PreEmphasis.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+/**
+ * FM pre-emphasis: boosts the treble by the inverse of the de-emphasis
+ * every FM receiver applies, 50 us in most of the world and 75 us in
+ * the Americas and South Korea. The boost is the analog 1 + s*tau
+ * with a pole at 16 us, turned into a first order filter by the
+ * bilinear transform; the pole makes up for the transform's warping,
+ * so the response stays within 0.2 dB of 1 + s*tau up to 9 kHz. It is
+ * unity at DC and, at the 11025 Hz Nyquist frequency, +9.9 dB for
+ * 50 us and +13.4 dB for 75 us, so a Limiter should follow.
+ * <p>
+ * fm_transmitter has a pre-emphasis of its own, a first difference
+ * with a hard clip after it; build it with "make NO_PREEMP=1" when
+ * this one is used.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class PreEmphasis implements DspStage
+{
+	private static final double SHELF_MICROS = 16; // Time constant of the pole ending the boost.
+
+	private final int micros;
+	private final float b0, b1, a1;
+	private float x1 = 0;  // Previous input.
+	private float y1 = 0;  // Previous output.
+
+	/**
+	 * Creates a pre-emphasis filter.
+	 *
+	 * <hr>
+	 *
+	 * @param micros     The time constant in microseconds, usually 50 or 75.
+	 * @param sampleRate The sample rate in Hz.
+	 */
+	public PreEmphasis (int micros, int sampleRate)
+	{
+		this.micros = micros;
+		double tau = micros * 1e-6;
+		double shelf = SHELF_MICROS * 1e-6;
+		double k = 2.0 * sampleRate; // Bilinear transform, s = k (1 - 1/z) / (1 + 1/z).
+
+		double a0 = 1 + shelf * k;
+		b0 = (float) ((1 + tau * k) / a0);
+		b1 = (float) ((1 - tau * k) / a0);
+		a1 = (float) ((1 - shelf * k) / a0);
+	}
+
+	@Override
+	public void process (float[] block, int length)
+	{
+		float x1 = this.x1, y1 = this.y1;
+		for (int i = 0; i < length; i++)
+		{
+			float x = block[i];
+			y1 = b0 * x + b1 * x1 - a1 * y1;
+			x1 = x;
+			block[i] = y1;
+		}
+		this.x1 = x1;
+		this.y1 = y1;
+	}
+
+	@Override
+	public String toString ( )
+	{
+		return micros + " us pre-emphasis";
+	}
+}
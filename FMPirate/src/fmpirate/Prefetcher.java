@@ -0,0 +1,291 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Prefetcher.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens and pre-renders upcoming tracks on a background worker while
+ * the current one plays. Each prefetched track has its first few
+ * seconds decoded into memory, so moving on to it is only a matter
+ * of swapping buffers. Memory stays bounded by the look-ahead depth
+ * times the size of that head buffer.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Prefetcher implements AutoCloseable
+{
+	private static final int HEAD_SECONDS = 5; // Audio decoded ahead for each prefetched track.
+
+	private final int depth; // Number of tracks prefetched ahead of the current one.
+	private final ExecutorService worker;
+	private final LinkedHashMap<Integer, Future<PcmSource>> pending = new LinkedHashMap<Integer, Future<PcmSource>>( );
+
+	private int requests = 0; // Prefetched tracks asked for.
+	private int late = 0;     // Tracks which were not ready when asked for.
+
+	/**
+	 * Creates a prefetcher with its worker thread.
+	 *
+	 * <hr>
+	 *
+	 * @param depth Number of tracks to prefetch ahead of the current one.
+	 */
+	public Prefetcher (int depth)
+	{
+		this.depth = depth;
+		this.worker = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "fmpirate-prefetch");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1); // Never compete with the player.
+			return thread;
+		});
+	}
+
+	/**
+	 * Queues the track at index to be opened by opener, unless it
+	 * already is.
+	 *
+	 * <hr>
+	 *
+	 * @param index  Position of the track in the play order.
+	 * @param opener Opens the track.
+	 */
+	public synchronized void schedule (int index, Callable<PcmSource> opener)
+	{
+		if (!pending.containsKey(index) && pending.size( ) < depth + 1)
+			pending.put(index, worker.submit(( ) -> new Buffered(opener.call( ))));
+	}
+
+	/**
+	 * Takes the track at index, waiting for it if it is still being
+	 * prefetched and opening it right away if it was never scheduled.
+	 *
+	 * <hr>
+	 *
+	 * @param index  Position of the track in the play order.
+	 * @param opener Opens the track if it was not scheduled.
+	 * @return The opened track.
+	 * @throws IOException          If the track cannot be opened.
+	 * @throws InterruptedException If interrupted while waiting for the worker.
+	 */
+	public PcmSource take (int index, Callable<PcmSource> opener) throws IOException, InterruptedException
+	{
+		Future<PcmSource> future;
+		synchronized (this)
+		{
+			future = pending.remove(index);
+			if (future != null)
+				requests++;
+			if (future != null && !future.isDone( ))
+			{
+				late++;
+				Metrics.PREFETCH_LATE.inc( );
+			}
+		}
+
+		try
+		{
+			return future != null ? future.get( ) : opener.call( );
+		}
+		catch (ExecutionException exEx)
+		{
+			if (exEx.getCause( ) instanceof IOException)
+				throw (IOException) exEx.getCause( );
+			throw new IOException(exEx.getCause( ));
+		}
+		catch (IOException | InterruptedException | RuntimeException ex)
+		{
+			throw ex;
+		}
+		catch (Exception ex)
+		{
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Waits until the track at index has been prefetched, or failed
+	 * to be, without taking it. Returns right away if it was never
+	 * scheduled.
+	 *
+	 * <hr>
+	 *
+	 * @param index Position of the track in the play order.
+	 * @throws InterruptedException If interrupted while waiting for the worker.
+	 */
+	public void await (int index) throws InterruptedException
+	{
+		Future<PcmSource> future;
+		synchronized (this)
+		{
+			future = pending.get(index);
+		}
+
+		try
+		{
+			if (future != null)
+				future.get( );
+		}
+		catch (ExecutionException exEx)
+		{
+			// Reported by take() when the track is played.
+		}
+	}
+
+	/** @return The number of prefetched tracks asked for. */
+	public synchronized int getRequests ( ) { return requests; }
+
+	/** @return The number of tracks which had not been prefetched in time. */
+	public synchronized int getLate ( ) { return late; }
+
+	public int getDepth ( ) { return depth; }
+
+	/**
+	 * Stops the worker and closes every track prefetched but not taken.
+	 */
+	@Override
+	public void close ( )
+	{
+		worker.shutdownNow( );
+		try
+		{
+			worker.awaitTermination(1, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException intEx)
+		{
+			Thread.currentThread( ).interrupt( );
+		}
+
+		synchronized (this)
+		{
+			Iterator<Map.Entry<Integer, Future<PcmSource>>> iterator = pending.entrySet( ).iterator( );
+			while (iterator.hasNext( ))
+			{
+				Future<PcmSource> future = iterator.next( ).getValue( );
+				iterator.remove( );
+				if (future.isDone( ) && !future.isCancelled( ))
+					discard(future);
+			}
+		}
+	}
+
+	/**
+	 * Drops every track prefetched or being prefetched, i.e. because the
+	 * play order they were scheduled by has changed. They are closed on
+	 * the worker, once it is done with them, ahead of whatever is
+	 * scheduled next.
+	 */
+	public void clear ( )
+	{
+		List<Future<PcmSource>> dropped;
+		synchronized (this)
+		{
+			dropped = new ArrayList<Future<PcmSource>>(pending.values( ));
+			pending.clear( );
+		}
+		worker.execute(( ) -> dropped.forEach(Prefetcher::discard));
+	}
+
+	/**
+	 * Closes a prefetched track, waiting for it if need be.
+	 */
+	private static void discard (Future<PcmSource> future)
+	{
+		try
+		{
+			future.get( ).close( );
+		}
+		catch (Exception ex)
+		{
+			// Failed to open in the first place; nothing to close.
+		}
+	}
+
+	/**
+	 * A PcmSource whose first HEAD_SECONDS of audio were read into
+	 * memory when it was created.
+	 */
+	private static final class Buffered implements PcmSource
+	{
+		private final PcmSource source;
+		private final byte[] head;
+		private final int headLength;
+		private int headPosition = 0; // Next byte of head to read.
+
+		private Buffered (PcmSource source) throws IOException
+		{
+			this.source = source;
+			this.head = new byte[HEAD_SECONDS * PcmConverter.SAMPLE_RATE * PcmConverter.BYTES_PER_FRAME];
+
+			byte[] chunk = new byte[8192];
+			int length = 0, read;
+			while (length < head.length)
+			{
+				if (head.length - length < chunk.length)
+					chunk = new byte[head.length - length];
+
+				if ((read = source.read(chunk)) <= 0)
+					break;
+
+				System.arraycopy(chunk, 0, head, length, read);
+				length += read;
+			}
+			this.headLength = length;
+		}
+
+		@Override
+		public int read (byte[] buffer, int length) throws IOException
+		{
+			if (headPosition >= headLength)
+				return source.read(buffer, length);
+
+			length = Math.min(length, headLength - headPosition);
+			length -= length % PcmConverter.BYTES_PER_FRAME;
+			System.arraycopy(head, headPosition, buffer, 0, length);
+			headPosition += length;
+			return length;
+		}
+
+		@Override
+		public void seek (long frame)
+		{
+			headPosition = headLength;
+			source.seek(frame);
+		}
+
+		@Override
+		public long getPosition ( )
+		{
+			return source.getPosition( ) - (headLength - headPosition) / PcmConverter.BYTES_PER_FRAME;
+		}
+
+		@Override
+		public long getFrameCount ( ) { return source.getFrameCount( ); }
+
+		@Override
+		public void close ( ) throws IOException
+		{
+			source.close( );
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Preflight.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Checks every song of a playlist before it is broadcast, so that a
+ * missing or unplayable file is reported up front instead of causing
+ * dead air when its turn comes. Only the headers of each file are
+ * read (the chunks of a WaveFile up to its data, the metadata blocks
+ * of a FlacFile), and the files are checked concurrently since the
+ * time goes into waiting for the storage rather than the CPU. A file
+ * listed several times is only opened once.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Preflight
+{
+	// Files checked at once; more than the cores, to keep a slow SD card busy.
+	private static final int PARALLELISM = Math.max(8, 2 * Runtime.getRuntime( ).availableProcessors( ));
+
+	private Preflight ( ) { }
+
+	/**
+	 * Checks the songs of a playlist.
+	 *
+	 * <hr>
+	 *
+	 * @param tracks    The songs, as listed.
+	 * @param audioPath The directory holding the song files.
+	 * @return What was found.
+	 * @throws InterruptedException If interrupted while checking.
+	 */
+	public static Report check (List<Track> tracks, String audioPath) throws InterruptedException
+	{
+		long start = System.nanoTime( );
+		String[] names = new String[tracks.size( )]; // File of every song, or null if its line is invalid.
+		Map<Integer, String> invalid = new ConcurrentHashMap<Integer, String>( );
+		Map<String, Object> files = new ConcurrentHashMap<String, Object>( ); // File name to AudioFile or error.
+
+		ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+		try
+		{
+			pool.submit(( ) -> IntStream.range(0, tracks.size( )).parallel( ).forEach(i -> {
+				try
+				{
+					names[i] = tracks.get(i).getFileName( );
+				}
+				catch (RuntimeException ex) // Malformed or unreadable line.
+				{
+					invalid.put(i, ex.getMessage( ));
+				}
+			})).get( );
+
+			// Each file once, opened outside the map so no bin of it is locked while the storage seeks.
+			pool.submit(( ) -> Arrays.stream(names).filter(Objects::nonNull).distinct( ).parallel( ).forEach(name -> {
+				try
+				{
+					files.put(name, AudioFile.open(Paths.get(audioPath, name)));
+				}
+				catch (IOException ioEx)
+				{
+					files.put(name, ioEx);
+				}
+			})).get( );
+		}
+		catch (ExecutionException exEx)
+		{
+			throw new IllegalStateException(exEx.getCause( ));
+		}
+		finally
+		{
+			pool.shutdown( );
+		}
+
+		List<String> missing = new ArrayList<String>( );
+		List<String> unsupported = new ArrayList<String>( );
+		for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(files).entrySet( ))
+		{
+			if (entry.getValue( ) instanceof NoSuchFileException)
+				missing.add(entry.getKey( ));
+			else if (entry.getValue( ) instanceof IOException)
+				unsupported.add(entry.getKey( ) + ": " + ((IOException) entry.getValue( )).getMessage( ));
+		}
+
+		List<String> lines = new ArrayList<String>( );
+		for (Map.Entry<Integer, String> entry : new TreeMap<Integer, String>(invalid).entrySet( ))
+			lines.add(entry.getValue( ));
+
+		double duration = 0;
+		for (String name : names)
+		{
+			if (name != null && files.get(name) instanceof AudioFile)
+				duration += ((AudioFile) files.get(name)).getDuration( );
+		}
+
+		return new Report(tracks.size( ), files.size( ), missing, unsupported, lines, duration,
+				(System.nanoTime( ) - start) / 1e6);
+	}
+
+	/**
+	 * The outcome of a preflight check.
+	 */
+	public static final class Report
+	{
+		private final int songs;
+		private final int files;
+		private final List<String> missing;     // Files which do not exist.
+		private final List<String> unsupported; // Files fm_transmitter could not play, with the reason.
+		private final List<String> invalid;     // Playlist lines which could not be parsed.
+		private final double duration;          // Seconds of audio in the playable songs.
+		private final double elapsed;           // Milliseconds the check took.
+
+		private Report (int songs, int files, List<String> missing, List<String> unsupported,
+				List<String> invalid, double duration, double elapsed)
+		{
+			this.songs = songs;
+			this.files = files;
+			this.missing = Collections.unmodifiableList(missing);
+			this.unsupported = Collections.unmodifiableList(unsupported);
+			this.invalid = Collections.unmodifiableList(invalid);
+			this.duration = duration;
+			this.elapsed = elapsed;
+		}
+
+		public List<String> getMissing ( ) { return missing; }
+
+		public List<String> getUnsupported ( ) { return unsupported; }
+
+		public List<String> getInvalid ( ) { return invalid; }
+
+		/** @return Total length of the playable songs in seconds. */
+		public double getDuration ( ) { return duration; }
+
+		/**
+		 * Lists the problems found, one per line, at most limit of them.
+		 *
+		 * <hr>
+		 *
+		 * @param formats True to include unsupported formats, which SoX could still convert.
+		 * @param limit   The number of problems to list; the rest are counted.
+		 * @return The problems, or an empty string if there are none.
+		 */
+		public String describe (boolean formats, int limit)
+		{
+			List<String> problems = new ArrayList<String>( );
+			for (String line : invalid)
+				problems.add("Invalid line: " + line);
+			for (String file : missing)
+				problems.add("Missing: " + file);
+			if (formats)
+			{
+				for (String file : unsupported)
+					problems.add("Unsupported: " + file);
+			}
+
+			StringBuilder text = new StringBuilder( );
+			for (int i = 0; i < problems.size( ) && i < limit; i++)
+				text.append(problems.get(i)).append('\n');
+			if (problems.size( ) > limit)
+				text.append("... and ").append(problems.size( ) - limit).append(" more\n");
+			return text.toString( );
+		}
+
+		@Override
+		public String toString ( )
+		{
+			long seconds = Math.round(duration);
+			return String.format("Preflight: %d songs (%d files) checked in %.1f ms, %d invalid, %d missing, "
+					+ "%d unsupported, total duration %d:%02d:%02d", songs, files, elapsed, invalid.size( ),
+					missing.size( ), unsupported.size( ), seconds / 3600, seconds / 60 % 60, seconds % 60);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: ProcessSupervisor.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Tears down a process together with every process it started, such
+ * as the "sudo" and "fm_transmitter" (and SoX, for the script backend)
+ * below a player or a bash playlist. Exits are confirmed through
+ * ProcessHandle.onExit() rather than by sleeping and hoping, and only
+ * the processes in that tree are touched, never other SoX or
+ * fm_transmitter processes running on the host.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class ProcessSupervisor
+{
+	private static final long TERMINATE_TIMEOUT = 2000; // ms to wait after asking nicely.
+	private static final long KILL_TIMEOUT = 1000;      // ms to wait after killing.
+
+	private ProcessSupervisor ( ) { }
+
+	/**
+	 * Terminates process and all of its descendants and waits until
+	 * they have exited. Processes still alive after TERMINATE_TIMEOUT
+	 * are killed forcibly.
+	 * <p>
+	 * Descendants which run as root (below sudo) cannot be signalled
+	 * by this program; sudo forwards the termination to them instead,
+	 * and their exit is still waited for.
+	 *
+	 * <hr>
+	 *
+	 * @param process The root of the process tree, may be null.
+	 * @return True if every process in the tree has exited.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public static boolean terminate (Process process) throws InterruptedException
+	{
+		if (process == null)
+			return true;
+
+		// Take the tree before signalling; orphans are re-parented and drop out of it.
+		List<ProcessHandle> tree = new ArrayList<ProcessHandle>( );
+		tree.add(process.toHandle( ));
+		tree.addAll(process.toHandle( ).descendants( ).collect(Collectors.toList( )));
+
+		for (ProcessHandle handle : tree)
+			handle.destroy( );
+
+		if (awaitExit(tree, TERMINATE_TIMEOUT))
+			return true;
+
+		for (ProcessHandle handle : tree)
+		{
+			if (handle.isAlive( ))
+			{
+				System.out.println("Process " + handle.pid( ) + " ignored termination, killing it");
+				handle.destroyForcibly( );
+			}
+		}
+		return awaitExit(tree, KILL_TIMEOUT);
+	}
+
+	/**
+	 * Waits for every process in tree to exit.
+	 *
+	 * @param tree    The processes to wait for.
+	 * @param timeout Milliseconds to wait at most.
+	 * @return True if all of them exited in time.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	private static boolean awaitExit (List<ProcessHandle> tree, long timeout) throws InterruptedException
+	{
+		CompletableFuture<?>[] exits = new CompletableFuture<?>[tree.size( )];
+		for (int i = 0; i < exits.length; i++)
+			exits[i] = tree.get(i).onExit( );
+
+		try
+		{
+			CompletableFuture.allOf(exits).get(timeout, TimeUnit.MILLISECONDS);
+			return true;
+		}
+		catch (TimeoutException | ExecutionException ex)
+		{
+			return false;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Recorder.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Records the aired audio to WAV files named after the time their
+ * first audio aired, i.e. "aired-2026-10-18_08-00-00.wav", in a
+ * directory. Audio dropped because the recorder fell behind is
+ * recorded as silence, so that a recording keeps to the time it aired.
+ * A new file is started once one reaches the 4 GiB a WAV file can
+ * hold (about 27 hours).
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Recorder implements AudioSink
+{
+	private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("'aired-'yyyy-MM-dd_HH-mm-ss'.wav'");
+	private static final int BYTES_PER_SECOND = PcmConverter.SAMPLE_RATE * PcmConverter.BYTES_PER_FRAME;
+	private static final long MAX_LENGTH = 0xFFFFFFFFL - PcmConverter.HEADER_SIZE; // Sample bytes a WAV file holds.
+
+	private final Path directory;
+	private final byte[] silence = new byte[8192];
+	private Path file;            // Recording being written, or null before the first audio.
+	private FileChannel channel;  // Open on file.
+	private long length;          // Sample bytes written to file.
+
+	/**
+	 * Creates a recorder writing to directory, which is created if
+	 * needed. Nothing is written until the first audio arrives.
+	 *
+	 * <hr>
+	 *
+	 * @param directory The directory to record to.
+	 */
+	public Recorder (Path directory)
+	{
+		this.directory = directory;
+	}
+
+	@Override
+	public String getName ( ) { return "recorder"; }
+
+	@Override
+	public void write (byte[] samples, int length) throws IOException
+	{
+		if (channel == null || this.length + length > MAX_LENGTH)
+			open( );
+
+		ByteBuffer buffer = ByteBuffer.wrap(samples, 0, length);
+		while (buffer.hasRemaining( ))
+			channel.write(buffer);
+		this.length += length;
+	}
+
+	@Override
+	public void skip (long length) throws IOException
+	{
+		if (channel == null)
+			return;
+
+		System.out.printf("Recorder fell behind; %.1f s of silence recorded in place of the aired audio%n",
+				length / (double) BYTES_PER_SECOND);
+		while (length > 0)
+		{
+			int chunk = (int) Math.min(length, silence.length);
+			write(silence, chunk);
+			length -= chunk;
+		}
+	}
+
+	/**
+	 * Writes the final length into the recording's header and closes it.
+	 */
+	@Override
+	public void close ( ) throws IOException
+	{
+		if (channel == null)
+			return;
+
+		try (FileChannel closing = channel)
+		{
+			channel = null;
+			closing.write(ByteBuffer.wrap(PcmConverter.header(length)), 0);
+		}
+		long seconds = length / BYTES_PER_SECOND;
+		System.out.printf("Recorded %d:%02d of aired audio to %s%n", seconds / 60, seconds % 60, file);
+	}
+
+	/**
+	 * Closes the current recording, if any, and starts a new one. Its
+	 * header announces the largest length possible until close()
+	 * writes the real one, so a recording cut short by a crash can
+	 * still be read to its end.
+	 */
+	private void open ( ) throws IOException
+	{
+		close( );
+		Files.createDirectories(directory);
+		file = directory.resolve(LocalDateTime.now( ).format(NAME));
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		channel.write(ByteBuffer.wrap(PcmConverter.header(MAX_LENGTH)));
+		length = 0;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Resampler.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Band-limited conversion of down-mixed samples to the 22050 Hz of
+ * the transmitter, shared by PcmConverter and FlacConverter. Every
+ * output sample is the source convolved with a Kaiser-windowed sinc
+ * low-pass, so what lies above the output's 11025 Hz Nyquist
+ * frequency is filtered out rather than folded back into the audible
+ * band, as taking every other sample of a 44.1 kHz song would. The
+ * filter passes up to about 9.5 kHz, a little short of
+ * "sox -r 22050", and is at least 70 dB down from 11025 Hz on.
+ * <p>
+ * The filter is tabulated at PHASES offsets between two source
+ * samples, and interpolated between the two nearest, so any ratio of
+ * rates costs the same: 2 * getReach() multiply-adds per output
+ * sample, 128 from 44.1 or 48 kHz. A source already at 22050 Hz is
+ * passed through as it is. The tables are made once per source rate.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Resampler
+{
+	private static final int PHASES = 256;          // Offsets the filter is tabulated at, per source sample.
+	private static final int HALF_WIDTH = 32;       // Filter half-length, in samples of the lower rate.
+	private static final double CUTOFF = 0.45;      // -6 dB point, as a fraction of the lower rate.
+	private static final double KAISER_BETA = 7.0;  // About 75 dB of stopband attenuation.
+
+	private static final Map<Integer, Resampler> resamplers = new ConcurrentHashMap<Integer, Resampler>( );
+
+	private final boolean identity;  // True if the source is at 22050 Hz already.
+	private final int reach;         // Source samples used on either side of the output sample.
+	private final float[][] table;   // Filter taps by phase; taps[k] weighs source sample floor(x) - reach + 1 + k.
+
+	private Resampler (int sourceRate)
+	{
+		identity = sourceRate == PcmConverter.SAMPLE_RATE;
+		if (identity)
+		{
+			reach = 1;
+			table = null;
+			return;
+		}
+
+		double scale = Math.min(1.0, (double) PcmConverter.SAMPLE_RATE / sourceRate);
+		double cutoff = CUTOFF * scale; // Cycles per source sample.
+		reach = (int) Math.ceil(HALF_WIDTH / scale);
+		table = new float[PHASES + 1][2 * reach];
+
+		double norm = bessel0(KAISER_BETA);
+		for (int p = 0; p <= PHASES; p++)
+		{
+			double sum = 0;
+			double[] taps = new double[2 * reach];
+			for (int k = 0; k < taps.length; k++)
+			{
+				double t = k - reach + 1 - (double) p / PHASES; // Distance from the output sample.
+				double ratio = t / reach;
+				if (ratio <= -1 || ratio >= 1)
+					continue;
+
+				double sinc = t == 0 ? 1 : Math.sin(2 * Math.PI * cutoff * t) / (2 * Math.PI * cutoff * t);
+				taps[k] = 2 * cutoff * sinc * bessel0(KAISER_BETA * Math.sqrt(1 - ratio * ratio)) / norm;
+				sum += taps[k];
+			}
+
+			for (int k = 0; k < taps.length; k++)
+				table[p][k] = (float) (taps[k] / sum); // Unity gain at every phase, so no ripple at DC.
+		}
+	}
+
+	/**
+	 * @param sourceRate The sample rate of the source, in Hz.
+	 * @return The resampler from sourceRate to 22050 Hz.
+	 */
+	public static Resampler forRate (int sourceRate)
+	{
+		return resamplers.computeIfAbsent(sourceRate, Resampler::new);
+	}
+
+	/**
+	 * @return The number of source samples the output sample at x needs on either side: from
+	 *         floor(x) - getReach() + 1 to floor(x) + getReach().
+	 */
+	public int getReach ( ) { return reach; }
+
+	/**
+	 * Computes the output sample at a position in the source. The
+	 * samples around it must be in window, except those before the
+	 * first or past the last sample of the source, which count as
+	 * silence.
+	 *
+	 * <hr>
+	 *
+	 * @param window       Down-mixed source samples.
+	 * @param windowStart  The number of the source sample in window[0].
+	 * @param sourceFrames The number of samples in the source.
+	 * @param position     The position of the output sample, in source samples.
+	 * @return The output sample.
+	 */
+	public float sample (float[] window, long windowStart, long sourceFrames, double position)
+	{
+		long index = (long) position;
+		if (identity)
+			return window[(int) (index - windowStart)];
+
+		double phase = (position - index) * PHASES;
+		int p = (int) phase;
+		float fraction = (float) (phase - p);
+		float[] taps = table[p], next = table[p + 1];
+
+		long first = index - reach + 1;
+		int from = (int) Math.max(0, -first);
+		int to = (int) Math.min(2 * reach, sourceFrames - first);
+		int offset = (int) (first - windowStart);
+
+		float sum = 0.0f;
+		if (fraction == 0.0f)
+		{
+			for (int k = from; k < to; k++)
+				sum += window[offset + k] * taps[k];
+		}
+		else
+		{
+			for (int k = from; k < to; k++)
+				sum += window[offset + k] * (taps[k] + (next[k] - taps[k]) * fraction);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return The modified Bessel function of the first kind of order 0, by its power series.
+	 */
+	private static double bessel0 (double x)
+	{
+		double sum = 1, term = 1;
+		for (int k = 1; term > 1e-12 * sum; k++)
+		{
+			term *= (x / (2 * k)) * (x / (2 * k));
+			sum += term;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,271 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Schedule.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The programs of a schedule file, each of which plays a playlist on
+ * a frequency from a given time. Like a playlist, the file has one
+ * entry per line and lines starting with '#' are comments:
+ * <pre>
+ *   # WHEN | PLAYLIST | FREQUENCY [| shuffle]
+ *   2026-12-24 18:00 | christmas.txt | 102.1
+ *   daily 07:00      | morning.txt   | 102.1
+ *   mon-fri 12:30:00 | lunch.txt     | 99.9 | shuffle
+ *   sat,sun 10:00    | weekend.txt   | 102.1
+ *   hourly 00        | jingles.txt   | 102.1
+ * </pre>
+ * A program starts once on a date, daily, on some days of the week or
+ * every hour at the given minute (and second), in the local time zone.
+ * Playlist names without a directory are looked up in "../Playlists".
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Schedule
+{
+	private static final List<DayOfWeek> DAYS = List.of(DayOfWeek.values( ));
+
+	private final List<Entry> entries;
+
+	private Schedule (List<Entry> entries)
+	{
+		this.entries = entries;
+	}
+
+	/**
+	 * Reads a schedule file.
+	 *
+	 * <hr>
+	 *
+	 * @param file The schedule file.
+	 * @return The schedule.
+	 * @throws IOException              If the file cannot be read.
+	 * @throws IllegalArgumentException If a line is malformed, naming the line.
+	 */
+	public static Schedule load (Path file) throws IOException
+	{
+		List<Entry> entries = new ArrayList<Entry>( );
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		for (int i = 0; i < lines.size( ); i++)
+		{
+			String line = lines.get(i).trim( );
+			if (line.isEmpty( ) || line.startsWith("#"))
+				continue;
+
+			try
+			{
+				entries.add(Entry.parse(line));
+			}
+			catch (IllegalArgumentException | DateTimeParseException ex)
+			{
+				throw new IllegalArgumentException("Line " + (i + 1) + " of " + file.getFileName( ) + ": "
+						+ ex.getMessage( ), ex);
+			}
+		}
+		return new Schedule(Collections.unmodifiableList(entries));
+	}
+
+	/**
+	 * Finds the program which starts first after a given time. Of two
+	 * programs starting at the same time, the one listed first wins.
+	 *
+	 * <hr>
+	 *
+	 * @param after The time to look from.
+	 * @return The next slot, or null if no program starts after that time.
+	 */
+	public Slot next (ZonedDateTime after)
+	{
+		Slot next = null;
+		for (Entry entry : entries)
+		{
+			ZonedDateTime start = entry.next(after);
+			if (start != null && (next == null || start.isBefore(next.start)))
+				next = new Slot(start, entry);
+		}
+		return next;
+	}
+
+	public int size ( ) { return entries.size( ); }
+
+	/**
+	 * One occurrence of a program: when it starts and what it plays.
+	 */
+	public static final class Slot
+	{
+		private final ZonedDateTime start;
+		private final Entry entry;
+
+		private Slot (ZonedDateTime start, Entry entry)
+		{
+			this.start = start;
+			this.entry = entry;
+		}
+
+		public ZonedDateTime getStart ( ) { return start; }
+
+		public String getPlaylist ( ) { return entry.playlist; }
+
+		public String getFrequency ( ) { return entry.frequency; }
+
+		public boolean isShuffled ( ) { return entry.shuffle; }
+
+		@Override
+		public String toString ( )
+		{
+			return start.toLocalDateTime( ).truncatedTo(ChronoUnit.SECONDS) + " " + Paths.get(entry.playlist).getFileName( )
+					+ " on " + entry.frequency + (entry.shuffle ? " (shuffled)" : "");
+		}
+	}
+
+	/**
+	 * A line of the schedule: its recurrence rule and what it plays.
+	 */
+	private static final class Entry
+	{
+		private final LocalDateTime once;  // Date and time of a one-off program, else null.
+		private final Set<DayOfWeek> days; // Days a weekly program plays on, else null.
+		private final LocalTime time;      // Time of day of a weekly program, or minute and second of an hourly one.
+		private final String playlist;
+		private final String frequency;
+		private final boolean shuffle;
+
+		private Entry (LocalDateTime once, Set<DayOfWeek> days, LocalTime time, String playlist, String frequency,
+				boolean shuffle)
+		{
+			this.once = once;
+			this.days = days;
+			this.time = time;
+			this.playlist = playlist;
+			this.frequency = frequency;
+			this.shuffle = shuffle;
+		}
+
+		private static Entry parse (String line)
+		{
+			String[] fields = line.split("\\|");
+			if (fields.length < 3 || fields.length > 4)
+				throw new IllegalArgumentException("expected WHEN | PLAYLIST | FREQUENCY [| shuffle]");
+
+			String playlist = Paths.get("../Playlists").resolve(fields[1].trim( )).toString( );
+			String frequency = fields[2].trim( );
+			if (!Playlist.isFrequency(frequency))
+				throw new IllegalArgumentException("invalid frequency \"" + frequency + "\"");
+
+			boolean shuffle = false;
+			if (fields.length == 4)
+			{
+				if (!fields[3].trim( ).equalsIgnoreCase("shuffle"))
+					throw new IllegalArgumentException("expected \"shuffle\" after the frequency");
+				shuffle = true;
+			}
+
+			String[] when = fields[0].trim( ).split("\\s+");
+			if (when.length != 2)
+				throw new IllegalArgumentException("expected a date or rule followed by a time");
+
+			String rule = when[0].toLowerCase(Locale.ROOT);
+			if (rule.equals("hourly"))
+				return new Entry(null, null, LocalTime.parse("00:" + when[1]), playlist, frequency, shuffle);
+
+			LocalTime time = LocalTime.parse(when[1]);
+			if (Character.isDigit(rule.charAt(0)))
+				return new Entry(LocalDateTime.of(LocalDate.parse(rule), time), null, null, playlist,
+						frequency, shuffle);
+
+			return new Entry(null, days(rule), time, playlist, frequency, shuffle);
+		}
+
+		/**
+		 * Parses "daily" or a comma separated list of days and ranges
+		 * of days, such as "mon-fri" or "sat,sun".
+		 */
+		private static Set<DayOfWeek> days (String rule)
+		{
+			if (rule.equals("daily"))
+				return EnumSet.allOf(DayOfWeek.class);
+
+			Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+			for (String part : rule.split(","))
+			{
+				String[] range = part.split("-");
+				if (range.length > 2)
+					throw new IllegalArgumentException("invalid days \"" + part + "\"");
+
+				int from = day(range[0]).ordinal( );
+				int to = day(range[range.length - 1]).ordinal( );
+				for (int d = from; ; d = (d + 1) % 7) // A range may wrap around the week, i.e. "sat-mon".
+				{
+					days.add(DAYS.get(d));
+					if (d == to)
+						break;
+				}
+			}
+			return days;
+		}
+
+		private static DayOfWeek day (String name)
+		{
+			for (DayOfWeek day : DAYS)
+			{
+				if (name.length( ) >= 3 && day.name( ).toLowerCase(Locale.ROOT).startsWith(name))
+					return day;
+			}
+			throw new IllegalArgumentException("unknown day \"" + name + "\", expected daily, hourly, a date "
+					+ "or days such as mon-fri");
+		}
+
+		/**
+		 * @return The first start of this program after the given time, or null if there is none.
+		 */
+		private ZonedDateTime next (ZonedDateTime after)
+		{
+			if (once != null)
+			{
+				ZonedDateTime start = once.atZone(after.getZone( ));
+				return start.isAfter(after) ? start : null;
+			}
+
+			if (days == null) // Hourly.
+			{
+				ZonedDateTime start = after.truncatedTo(ChronoUnit.HOURS).withMinute(time.getMinute( ))
+						.withSecond(time.getSecond( ));
+				return start.isAfter(after) ? start : start.plusHours(1);
+			}
+
+			for (int d = 0; d <= 7; d++)
+			{
+				ZonedDateTime start = ZonedDateTime.of(after.toLocalDate( ).plusDays(d), time, after.getZone( ));
+				if (days.contains(start.getDayOfWeek( )) && start.isAfter(after))
+					return start;
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Scheduler.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts the programs of a Schedule on time, on a background thread.
+ * LEAD seconds before each slot the broadcast is prepared (see
+ * PlaylistManager.prepare): its songs are checked, their loudness
+ * measured, the first track opened and decoded and, if nothing else
+ * is on air, the transmitter started. At the slot whatever is
+ * playing is stopped and the prepared broadcast started, so only the
+ * switch itself is left to do on the hour.
+ * <p>
+ * How far from the slot the first audio reaches the transmitter is
+ * printed and recorded as Metrics.SLOT_JITTER. Since stopping the
+ * previous broadcast and starting the new one takes a few tens of
+ * milliseconds, the switch begins as much earlier as it took the
+ * last few times, so that the first audio lands on the slot.
+ * <p>
+ * The schedule file is read again whenever it changes. Slots missed
+ * while the program was not running are not made up for.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Scheduler implements Runnable
+{
+	// Seconds before a slot its broadcast is prepared.
+	private static final long LEAD = (long) (Double.parseDouble(System.getProperty("fmpirate.schedule.lead", "10"))
+			* 1e9);
+	// Jitter above which a slot is reported as late, in milliseconds.
+	private static final double TARGET = Double.parseDouble(System.getProperty("fmpirate.schedule.target", "50"));
+
+	private static final long SPIN_NANOS = 2000000L;       // Spun rather than slept just before a slot.
+	private static final long RECHECK_NANOS = 60000000000L; // Longest sleep before the file and clock are checked again.
+	private static final long FIRST_AUDIO_TIMEOUT = 5000;  // Milliseconds to wait for the first audio of a slot.
+	private static final long MAX_ADVANCE = 500000000L;    // Earliest a switch begins before its slot.
+
+	// Smoothed time from beginning a switch to its first audio, with nothing on air ([0]) and when
+	// a broadcast has to be stopped first ([1]). A switch begins this much before its slot.
+	private final long[] switchNanos = new long[2];
+
+	private final Path file;
+	private Schedule schedule;
+	private FileTime modified; // Of file when schedule was read.
+
+	private Thread thread;
+	private volatile boolean running = false;
+
+	/**
+	 * Creates a scheduler for the given schedule file. Nothing happens
+	 * until start() is called.
+	 *
+	 * <hr>
+	 *
+	 * @param file The schedule file (see Schedule).
+	 */
+	public Scheduler (Path file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Reads the schedule and starts following it on a new thread.
+	 *
+	 * <hr>
+	 *
+	 * @throws IOException              If the schedule file cannot be read.
+	 * @throws IllegalArgumentException If it is malformed.
+	 */
+	public void start ( ) throws IOException
+	{
+		reload( );
+		running = true;
+		thread = new Thread(this, "fmpirate-scheduler");
+		thread.setDaemon(true);
+		thread.start( );
+	}
+
+	/**
+	 * Stops following the schedule. A program already on air keeps playing.
+	 *
+	 * <hr>
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the scheduler thread.
+	 */
+	public void stop ( ) throws InterruptedException
+	{
+		running = false;
+		if (thread != null)
+		{
+			thread.interrupt( );
+			thread.join( );
+		}
+	}
+
+	/**
+	 * Waits for each slot in turn, prepares it LEAD before it starts
+	 * and starts it on time.
+	 */
+	@Override
+	public void run ( )
+	{
+		Schedule.Slot announced = null;
+		ZonedDateTime played = null; // Start of the slot played last, which may not have come yet.
+		while (running)
+		{
+			try
+			{
+				reloadIfChanged( );
+
+				ZonedDateTime now = ZonedDateTime.now( );
+				Schedule.Slot slot = schedule.next(played != null && played.isAfter(now) ? played : now);
+				if (slot == null)
+				{
+					TimeUnit.NANOSECONDS.sleep(RECHECK_NANOS);
+					continue;
+				}
+				if (announced == null || !slot.getStart( ).equals(announced.getStart( )))
+				{
+					System.out.println("Next scheduled program: " + slot);
+					announced = slot;
+				}
+
+				long untilLead = Duration.between(now, slot.getStart( )).toNanos( ) - LEAD;
+				if (untilLead > RECHECK_NANOS)
+				{
+					TimeUnit.NANOSECONDS.sleep(RECHECK_NANOS);
+					continue;
+				}
+
+				if (untilLead > 0)
+					TimeUnit.NANOSECONDS.sleep(untilLead);
+				play(slot);
+				played = slot.getStart( );
+			}
+			catch (InterruptedException intEx)
+			{
+				break; // Stopped.
+			}
+			catch (Exception ex)
+			{
+				System.out.println("Scheduler failed:");
+				ex.printStackTrace( );
+				LockSupport.parkNanos(1000000000L); // Do not spin on a persistent failure.
+			}
+		}
+	}
+
+	/**
+	 * Prepares the broadcast of slot, starts it at the slot's start
+	 * and reports how close to it the first audio went out. A slot
+	 * which cannot be prepared is skipped and the current broadcast
+	 * left alone.
+	 */
+	private void play (Schedule.Slot slot) throws InterruptedException
+	{
+		long warmStart = System.nanoTime( );
+		PlaylistManager.Prepared prepared;
+		try
+		{
+			prepared = PlaylistManager.prepare(new Playlist(slot.getPlaylist( ), slot.getFrequency( )),
+					slot.getFrequency( ), slot.isShuffled( ));
+		}
+		catch (InterruptedException intEx)
+		{
+			throw intEx;
+		}
+		catch (Exception ex)
+		{
+			System.out.println("Could not prepare " + slot + ", skipping it: " + ex);
+			waitFor(deadline(slot));
+			return;
+		}
+		double warmed = (System.nanoTime( ) - warmStart) / 1e6;
+
+		long deadline = deadline(slot);
+		if (!running)
+		{
+			PlaylistManager.discard(prepared);
+			return;
+		}
+
+		int onAir = PlaylistManager.isPlaying( ) ? 1 : 0;
+		waitFor(deadline - Math.min(switchNanos[onAir], MAX_ADVANCE));
+
+		long begun = System.nanoTime( );
+		long started;
+		try
+		{
+			PlaylistManager.start(prepared);
+			started = System.nanoTime( );
+		}
+		catch (Exception ex)
+		{
+			System.out.println("Could not start " + slot + ":");
+			ex.printStackTrace( );
+			PlaylistManager.discard(prepared);
+			return;
+		}
+
+		long firstAudio;
+		long giveUp = System.currentTimeMillis( ) + FIRST_AUDIO_TIMEOUT;
+		while ((firstAudio = prepared.getFirstAudio( )) == 0 && System.currentTimeMillis( ) < giveUp)
+			Thread.sleep(1);
+
+		if (firstAudio == 0)
+		{
+			System.out.printf("Scheduled %s: prepared in %.1f ms, started %+.1f ms, no audio after %d ms%n",
+					slot, warmed, (started - deadline) / 1e6, FIRST_AUDIO_TIMEOUT);
+			return;
+		}
+
+		long took = firstAudio - begun;
+		switchNanos[onAir] = switchNanos[onAir] == 0 ? took : (3 * switchNanos[onAir] + took) / 4;
+
+		double jitter = (firstAudio - deadline) / 1e6;
+		Metrics.SLOT_JITTER.record(Math.abs(firstAudio - deadline));
+		System.out.printf("Scheduled %s: prepared in %.1f ms (lead %.0f ms), switched in %.1f ms, "
+				+ "first audio %+.1f ms%s%n", slot, warmed, LEAD / 1e6, took / 1e6, jitter,
+				Math.abs(jitter) > TARGET ? ", beyond the " + TARGET + " ms target" : "");
+	}
+
+	/**
+	 * Converts the start of slot to a System.nanoTime() value, reading
+	 * the wall clock at microsecond resolution.
+	 */
+	private static long deadline (Schedule.Slot slot)
+	{
+		return System.nanoTime( ) + Duration.between(Instant.now( ), slot.getStart( ).toInstant( )).toNanos( );
+	}
+
+	/**
+	 * Sleeps until shortly before deadline, then spins until it, since
+	 * a sleep may overshoot by a scheduler tick.
+	 */
+	private static void waitFor (long deadline) throws InterruptedException
+	{
+		long left;
+		while ((left = deadline - System.nanoTime( )) > SPIN_NANOS)
+			TimeUnit.NANOSECONDS.sleep(left - SPIN_NANOS);
+
+		while (deadline - System.nanoTime( ) > 0)
+			Thread.onSpinWait( );
+	}
+
+	/**
+	 * Reads the schedule file again if it was modified since it was last read.
+	 */
+	private void reloadIfChanged ( ) throws IOException
+	{
+		try
+		{
+			if (!Files.getLastModifiedTime(file).equals(modified))
+				reload( );
+		}
+		catch (NoSuchFileException nsfEx) // Being replaced; keep the schedule read last.
+		{
+		}
+		catch (IllegalArgumentException iaEx)
+		{
+			System.out.println("Keeping the previous schedule: " + iaEx.getMessage( ));
+			modified = Files.getLastModifiedTime(file); // Not read again until it changes.
+		}
+	}
+
+	private void reload ( ) throws IOException
+	{
+		FileTime time = Files.getLastModifiedTime(file);
+		schedule = Schedule.load(file);
+		modified = time;
+		System.out.println("Schedule " + file.getFileName( ) + ": " + schedule.size( ) + " programs");
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: Track.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable entry of a playlist: the name of a WAV or FLAC file and the
+ * gain which should be applied to it when it is broadcast. A Track
+ * is parsed from a single playlist line such as
+ * "star_wars.wav|gain +5". A gain of "gain auto" leaves the gain to
+ * be worked out from the file's loudness (see LoudnessAnalyzer).
+ * A line may go on with "|xfade 3s" to crossfade the end of the song
+ * into the next one over that many seconds (see Crossfade).
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class Track
+{
+	// Matches the gain effect SoX understands, i.e. "gain +5" or "gain -2.5".
+	private static final Pattern GAIN = Pattern.compile("^\\s*gain\\s+([+-]?[0-9]+(?:\\.[0-9]+)?)\\s*$");
+	// Matches "gain auto".
+	private static final Pattern AUTO_GAIN = Pattern.compile("^\\s*gain\\s+auto\\s*$");
+	// Matches a crossfade in seconds, i.e. "xfade 3s" or "xfade 1.5".
+	private static final Pattern CROSSFADE = Pattern.compile("^\\s*xfade\\s+([0-9]+(?:\\.[0-9]+)?)\\s*s?\\s*$");
+
+	private final String fileName; // Name of the song file relative to the audio path.
+	private final String gain;     // Gain exactly as written in the playlist (i.e. "gain +5").
+	private final double gainDb;   // Parsed gain in decibels, 0 until an automatic gain is resolved.
+	private final boolean autoGain; // True for "gain auto".
+	private final double crossfade; // Seconds the end of the song overlaps the next one, 0 for none.
+
+	/**
+	 * Creates a Track for the given file and gain string.
+	 *
+	 * <hr>
+	 *
+	 * @param fileName Name of the song file as written in the playlist.
+	 * @param gain     Gain as written in the playlist (i.e. "gain +5").
+	 */
+	public Track (String fileName, String gain)
+	{
+		this(fileName, gain, 0);
+	}
+
+	/**
+	 * Creates a Track for the given file, gain string and crossfade.
+	 *
+	 * <hr>
+	 *
+	 * @param fileName  Name of the song file as written in the playlist.
+	 * @param gain      Gain as written in the playlist (i.e. "gain +5").
+	 * @param crossfade Seconds to crossfade into the next song, 0 for none.
+	 */
+	public Track (String fileName, String gain, double crossfade)
+	{
+		this.fileName = fileName;
+		this.gain = gain.trim( );
+		this.autoGain = AUTO_GAIN.matcher(this.gain).matches( );
+		this.gainDb = autoGain ? 0 : parseGain(this.gain);
+		this.crossfade = crossfade;
+	}
+
+	/**
+	 * Parses a single playlist line. Comments (lines starting with a
+	 * pound sign) and blank lines yield null.
+	 *
+	 * <hr>
+	 *
+	 * @param line A line of a playlist text file.
+	 * @return The Track described by the line or null if it holds no song.
+	 * @throws IllegalArgumentException If the line is missing the '|' delimiter or the gain or crossfade is invalid.
+	 */
+	public static Track parse (String line)
+	{
+		String trimmed = line.trim( );
+		if (trimmed.startsWith("#") || trimmed.length( ) == 0)
+			return null;
+
+		String[] contents = line.split("\\|");
+		if (contents.length < 2)
+			throw new IllegalArgumentException("Missing '|gain' in playlist line: " + line);
+
+		double crossfade = 0;
+		for (int i = 2; i < contents.length; i++)
+			crossfade = parseCrossfade(contents[i]);
+		return new Track(contents[0], contents[1], crossfade);
+	}
+
+	/**
+	 * Converts a gain string such as "gain +5" into decibels.
+	 *
+	 * @param gain The gain string.
+	 * @return The gain in decibels.
+	 */
+	private static double parseGain (String gain)
+	{
+		Matcher matcher = GAIN.matcher(gain);
+		if (!matcher.matches( ))
+			throw new IllegalArgumentException("Unsupported gain \"" + gain + "\", expected i.e. \"gain +5\" or \"gain auto\"");
+
+		return Double.parseDouble(matcher.group(1));
+	}
+
+	/**
+	 * Converts a crossfade such as "xfade 3s" into seconds.
+	 *
+	 * @param option The text after a '|' following the gain.
+	 * @return The crossfade in seconds.
+	 */
+	private static double parseCrossfade (String option)
+	{
+		Matcher matcher = CROSSFADE.matcher(option);
+		if (!matcher.matches( ))
+			throw new IllegalArgumentException("Unsupported option \"" + option.trim( ) + "\", expected i.e. \"xfade 3s\"");
+
+		return Double.parseDouble(matcher.group(1));
+	}
+
+	/**
+	 * Creates a copy of this track with the given gain, i.e. to
+	 * replace an automatic gain by the measured one.
+	 *
+	 * <hr>
+	 *
+	 * @param db The gain in decibels.
+	 * @return The same file with a gain of db.
+	 */
+	public Track withGainDb (double db)
+	{
+		return new Track(fileName, String.format(Locale.ROOT, "gain %+.2f", db), crossfade);
+	}
+
+	public String getFileName ( ) { return fileName; }
+
+	public String getGain ( ) { return gain; }
+
+	public double getGainDb ( ) { return gainDb; }
+
+	/** @return True if the gain is to be worked out from the file's loudness. */
+	public boolean isAutoGain ( ) { return autoGain; }
+
+	/** @return Seconds the end of the song overlaps the start of the next one, 0 for none. */
+	public double getCrossfade ( ) { return crossfade; }
+
+	@Override
+	public String toString ( )
+	{
+		return fileName + "|" + gain + (crossfade > 0 ? String.format(Locale.ROOT, "|xfade %ss", crossfade) : "");
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: TranscodeCache.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of tracks pre-rendered to 22050 Hz mono 16-bit PCM so a
+ * playlist looping all day only pays for resampling and gain once.
+ * <p>
+ * An entry is keyed by a SHA-256 digest of the source file's path,
+ * size and modification time together with the track's gain string,
+ * so editing either the file or its "file|gain" line in the playlist
+ * yields a new entry. The digest is taken over the file's metadata
+ * rather than its contents, since hashing the contents would mean
+ * reading every file in full on every pass.
+ * <p>
+ * A track missing from the cache is rendered into it while it is
+ * being played and only committed once it has played through.
+ * Entries are evicted least recently used first once the cache
+ * grows past its size limit; the order survives restarts because a
+ * hit touches the entry's modification time.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class TranscodeCache
+{
+	private static final String EXTENSION = ".pcm";
+	private static final String VERSION = "pcm-22050-mono-s16le-2"; // Part of every key.
+
+	private final Path directory;
+	private final long maxSize; // Size limit in bytes.
+
+	// Entry name to size in bytes, least recently used first.
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long size = 0;
+
+	private final AtomicLong hits = new AtomicLong( );
+	private final AtomicLong misses = new AtomicLong( );
+
+	/**
+	 * Opens the cache in directory, creating the directory if needed
+	 * and evicting entries if it is already larger than maxSize.
+	 *
+	 * <hr>
+	 *
+	 * @param directory Directory holding the cache entries.
+	 * @param maxSize   Size limit of the cache in bytes.
+	 * @throws IOException If the directory cannot be created or read.
+	 */
+	public TranscodeCache (Path directory, long maxSize) throws IOException
+	{
+		this.directory = directory;
+		this.maxSize = maxSize;
+
+		Files.createDirectories(directory);
+
+		List<Path> files = new ArrayList<Path>( );
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+		{
+			for (Path file : stream)
+			{
+				String name = file.getFileName( ).toString( );
+				if (name.endsWith(EXTENSION))
+					files.add(file);
+				else if (name.startsWith("render") && name.endsWith(".tmp"))
+					Files.deleteIfExists(file); // Leftover of a render which never finished.
+			}
+		}
+
+		files.sort((a, b) -> lastModified(a).compareTo(lastModified(b)));
+		for (Path file : files)
+		{
+			long length = Files.size(file);
+			entries.put(file.getFileName( ).toString( ), length);
+			size += length;
+		}
+
+		evict( );
+	}
+
+	/**
+	 * Opens track for playback: from the cache when it has been
+	 * rendered before, otherwise by decoding file (see AudioFile) with
+	 * its output is recorded into the cache as it is read.
+	 *
+	 * <hr>
+	 *
+	 * @param track The track to open.
+	 * @param file  The track's WAV or FLAC file.
+	 * @return The rendered track.
+	 * @throws IOException If the track cannot be opened.
+	 */
+	public PcmSource open (Track track, Path file) throws IOException
+	{
+		String name = key(track, file) + EXTENSION;
+		Path entry = directory.resolve(name);
+
+		synchronized (this)
+		{
+			if (entries.get(name) != null && Files.exists(entry))
+			{
+				hits.incrementAndGet( );
+				Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis( )));
+				return new PcmFile(entry);
+			}
+		}
+
+		misses.incrementAndGet( );
+		return new Recorder(AudioFile.open(file).convert(track.getGainDb( )), name);
+	}
+
+	/**
+	 * Adds a fully rendered file to the cache.
+	 *
+	 * @param temp The rendered file.
+	 * @param name The entry name it should be stored under.
+	 * @throws IOException If the file cannot be moved into place.
+	 */
+	private synchronized void commit (Path temp, String name) throws IOException
+	{
+		Path entry = directory.resolve(name);
+		Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		long length = Files.size(entry);
+		Long previous = entries.put(name, length);
+		size += length - (previous == null ? 0 : previous);
+
+		evict( );
+	}
+
+	/**
+	 * Deletes least recently used entries until the cache fits in
+	 * maxSize.
+	 */
+	private synchronized void evict ( )
+	{
+		Iterator<Map.Entry<String, Long>> iterator = entries.entrySet( ).iterator( );
+		while (size > maxSize && iterator.hasNext( ))
+		{
+			Map.Entry<String, Long> eldest = iterator.next( );
+			try
+			{
+				Files.deleteIfExists(directory.resolve(eldest.getKey( )));
+			}
+			catch (IOException ioEx)
+			{
+				System.out.println("Could not evict cache entry " + eldest.getKey( ));
+			}
+			size -= eldest.getValue( );
+			iterator.remove( );
+		}
+	}
+
+	/**
+	 * Computes the key of track's rendering of file.
+	 *
+	 * @param track The track.
+	 * @param file  The track's song file.
+	 * @return A hex-encoded SHA-256 digest.
+	 * @throws IOException If the file's attributes cannot be read.
+	 */
+	private static String key (Track track, Path file) throws IOException
+	{
+		String source = VERSION + '\n' + file.toAbsolutePath( ).normalize( ) + '\n'
+				+ Files.size(file) + '\n' + Files.getLastModifiedTime(file).toMillis( ) + '\n'
+				+ track.getGain( );
+
+		try
+		{
+			StringBuilder hex = new StringBuilder( );
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8)))
+				hex.append(String.format("%02x", b));
+			return hex.toString( );
+		}
+		catch (NoSuchAlgorithmException nsaEx)
+		{
+			throw new IllegalStateException("SHA-256 is not available", nsaEx);
+		}
+	}
+
+	private static FileTime lastModified (Path file)
+	{
+		try
+		{
+			return Files.getLastModifiedTime(file);
+		}
+		catch (IOException ioEx)
+		{
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	/** @return The number of tracks served from the cache. */
+	public long getHits ( ) { return hits.get( ); }
+
+	/** @return The number of tracks which had to be decoded. */
+	public long getMisses ( ) { return misses.get( ); }
+
+	/** @return The current size of the cache in bytes. */
+	public synchronized long getSize ( ) { return size; }
+
+	/**
+	 * Wraps the converted song file and writes everything it produces
+	 * to a temporary file which becomes a cache entry once the
+	 * converter has been read to the end without seeking.
+	 */
+	private final class Recorder implements PcmSource
+	{
+		private final PcmSource converter;
+		private final String name;
+		private final Path temp;
+		private OutputStream out; // Null once recording is abandoned or done.
+
+		private Recorder (PcmSource converter, String name) throws IOException
+		{
+			this.converter = converter;
+			this.name = name;
+			this.temp = Files.createTempFile(directory, "render", ".tmp");
+			this.out = Files.newOutputStream(temp);
+		}
+
+		@Override
+		public int read (byte[] buffer, int length) throws IOException
+		{
+			length = converter.read(buffer, length);
+			if (out == null)
+				return length;
+
+			try
+			{
+				if (length > 0)
+				{
+					out.write(buffer, 0, length);
+				}
+				else
+				{
+					out.close( );
+					out = null;
+					commit(temp, name);
+				}
+			}
+			catch (IOException ioEx) // The cache is an optimization; never fail playback over it.
+			{
+				System.out.println("Could not write cache entry " + name + ": " + ioEx.getMessage( ));
+				abandon( );
+			}
+			return length;
+		}
+
+		@Override
+		public void seek (long frame)
+		{
+			if (frame != converter.getPosition( ))
+				abandon( );
+			converter.seek(frame);
+		}
+
+		@Override
+		public long getPosition ( ) { return converter.getPosition( ); }
+
+		@Override
+		public long getFrameCount ( ) { return converter.getFrameCount( ); }
+
+		@Override
+		public void close ( ) throws IOException
+		{
+			abandon( );
+			converter.close( );
+		}
+
+		/**
+		 * Stops recording and deletes the partial rendering.
+		 */
+		private void abandon ( )
+		{
+			if (out == null)
+				return;
+
+			try
+			{
+				out.close( );
+				Files.deleteIfExists(temp);
+			}
+			catch (IOException ioEx)
+			{
+				System.out.println("Could not delete " + temp);
+			}
+			out = null;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: TransmitterCommand.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The command every backend runs, in the audio directory, to broadcast
+ * the WAV stream it writes to the command's stdin. It is
+ * "sudo ./fm_transmitter -f {frequency} -" unless
+ * -Dfmpirate.transmitter gives another, with {frequency} standing for
+ * the frequency, such as a stub which needs neither root nor a Pi:
+ * <pre>
+ *   -Dfmpirate.transmitter="java -cp benchmarks/build/classes/java/main fmpirate.StubTransmitter -f {frequency} -"
+ * </pre>
+ * The command is split into arguments at white space; no quoting is
+ * understood.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class TransmitterCommand
+{
+	private static final String FREQUENCY = "{frequency}";
+
+	// Command broadcasting a WAV stream from its stdin, run in the audio directory.
+	private static final String COMMAND = System.getProperty("fmpirate.transmitter",
+			"sudo ./fm_transmitter -f " + FREQUENCY + " -");
+
+	private TransmitterCommand ( ) { }
+
+	/**
+	 * @param frequency The frequency to broadcast on, such as "102.1".
+	 * @return The program and arguments of the command, for a ProcessBuilder.
+	 */
+	public static List<String> arguments (String frequency)
+	{
+		return new ArrayList<String>(Arrays.asList(line(frequency).split("\\s+")));
+	}
+
+	/**
+	 * @param frequency The frequency to broadcast on, such as "102.1".
+	 * @return The command as a line of bash, for the script backend.
+	 */
+	public static String line (String frequency)
+	{
+		return COMMAND.trim( ).replace(FREQUENCY, frequency);
+	}
+}
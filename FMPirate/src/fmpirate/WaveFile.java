@@ -0,0 +1,201 @@
+/*
+ * ---------------------------------------------------------------------------
+ * File name: WaveFile.java
+ * Project name: FMPirate
+ * Author: Ryan Haas
+ * ---------------------------------------------------------------------------
+ */
+
+package fmpirate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the RIFF/WAVE header of a PCM WAV file and memory-maps its
+ * sample data. The formats accepted are the ones fm_transmitter's
+ * WaveReader accepts: uncompressed PCM with 8 or 16 bits per sample
+ * and a consistent byte rate and block alignment.
+ *
+ * <hr>
+ *
+ * @author Ryan Haas
+ */
+public final class WaveFile implements AudioFile
+{
+	private static final int WAVE_FORMAT_PCM = 0x0001;
+
+	private final Path path;
+	private final int channels;
+	private final int sampleRate;
+	private final int bitsPerSample;
+	private final long dataOffset;  // Position of the first sample byte in the file.
+	private final long dataLength;  // Length of the data chunk in bytes.
+
+	private WaveFile (Path path, int channels, int sampleRate, int bitsPerSample,
+			long dataOffset, long dataLength)
+	{
+		this.path = path;
+		this.channels = channels;
+		this.sampleRate = sampleRate;
+		this.bitsPerSample = bitsPerSample;
+		this.dataOffset = dataOffset;
+		this.dataLength = dataLength;
+	}
+
+	/**
+	 * Opens the file at path and reads its header. Only the chunk
+	 * headers are read; the sample data is left untouched.
+	 *
+	 * <hr>
+	 *
+	 * @param path The WAV file.
+	 * @return The parsed header.
+	 * @throws IOException If the file cannot be read or is not a supported WAV file.
+	 */
+	public static WaveFile open (Path path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			return readHeader(path, channel);
+		}
+	}
+
+	/**
+	 * Walks the RIFF chunks of channel until the "data" chunk is found,
+	 * validating the "fmt " chunk on the way.
+	 *
+	 * @param path    The WAV file (used for messages).
+	 * @param channel An open channel on path.
+	 * @return The parsed header.
+	 * @throws IOException If the file is not a supported WAV file.
+	 */
+	private static WaveFile readHeader (Path path, FileChannel channel) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+
+		readFully(channel, header, 0, 12, path);
+		if (header.getInt(0) != fourCC("RIFF") || header.getInt(8) != fourCC("WAVE"))
+			throw new IOException("Error while opening " + path + ", WAVE file expected");
+
+		long position = 12;
+		long fileSize = channel.size( );
+		int channels = 0, sampleRate = 0, bitsPerSample = 0;
+		boolean fmtFound = false;
+
+		while (position + 8 <= fileSize)
+		{
+			readFully(channel, header, position, 8, path);
+			int chunkId = header.getInt(0);
+			long chunkSize = header.getInt(4) & 0xFFFFFFFFL;
+			position += 8;
+
+			if (chunkId == fourCC("fmt "))
+			{
+				if (chunkSize < 16)
+					throw new IOException("Error while opening " + path + ", data corrupted");
+
+				readFully(channel, header, position, 16, path);
+				int audioFormat = header.getShort(0) & 0xFFFF;
+				channels = header.getShort(2) & 0xFFFF;
+				sampleRate = header.getInt(4);
+				int byteRate = header.getInt(8);
+				int blockAlign = header.getShort(12) & 0xFFFF;
+				bitsPerSample = header.getShort(14) & 0xFFFF;
+				int bytesPerSample = bitsPerSample >> 3;
+
+				if (audioFormat != WAVE_FORMAT_PCM || channels == 0 || sampleRate <= 0
+						|| byteRate != bytesPerSample * channels * sampleRate
+						|| blockAlign != bytesPerSample * channels
+						|| (bytesPerSample != 1 && bytesPerSample != 2))
+					throw new IOException("Error while opening " + path + ", unsupported WAVE format");
+
+				fmtFound = true;
+			}
+			else if (chunkId == fourCC("data"))
+			{
+				if (!fmtFound)
+					throw new IOException("Error while opening " + path + ", data corrupted");
+
+				// Writers streaming to a pipe leave the size unset; trust the file length then.
+				long dataLength = Math.min(chunkSize, fileSize - position);
+				return new WaveFile(path, channels, sampleRate, bitsPerSample, position, dataLength);
+			}
+
+			position += chunkSize + (chunkSize & 1); // Chunks are padded to an even size.
+		}
+
+		throw new IOException("Error while opening " + path + ", data corrupted");
+	}
+
+	/**
+	 * Maps the sample data of this file read-only into memory.
+	 *
+	 * <hr>
+	 *
+	 * @return A little-endian buffer spanning exactly the data chunk.
+	 * @throws IOException If the file cannot be mapped.
+	 */
+	public MappedByteBuffer map ( ) throws IOException
+	{
+		if (dataLength > Integer.MAX_VALUE)
+			throw new IOException("Error while opening " + path + ", file is too large");
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, dataLength);
+			data.order(ByteOrder.LITTLE_ENDIAN);
+			return data;
+		}
+	}
+
+	private static void readFully (FileChannel channel, ByteBuffer buffer, long position,
+			int length, Path path) throws IOException
+	{
+		buffer.clear( ).limit(length);
+		while (buffer.hasRemaining( ))
+		{
+			if (channel.read(buffer, position + buffer.position( )) < 0)
+				throw new IOException("Error while reading " + path + ", file is corrupted");
+		}
+	}
+
+	private static int fourCC (String id)
+	{
+		return id.charAt(0) | id.charAt(1) << 8 | id.charAt(2) << 16 | id.charAt(3) << 24;
+	}
+
+	@Override
+	public PcmSource convert (double gainDb) throws IOException
+	{
+		return new PcmConverter(this, gainDb);
+	}
+
+	@Override
+	public Loudness measure ( ) throws IOException
+	{
+		return Loudness.measure(this);
+	}
+
+	@Override
+	public Path getPath ( ) { return path; }
+
+	@Override
+	public int getChannels ( ) { return channels; }
+
+	@Override
+	public int getSampleRate ( ) { return sampleRate; }
+
+	@Override
+	public int getBitsPerSample ( ) { return bitsPerSample; }
+
+	public long getDataLength ( ) { return dataLength; }
+
+	@Override
+	public long getFrameCount ( ) { return dataLength / (channels * (bitsPerSample >> 3)); }
+}